@@ -12,6 +12,8 @@ public class Const {
 	public final static String PROJECT_NAME = "SoundCheck";
 	
 	// Services are for network use
+	// WireCodec sends Service, Command and StreamType values by ordinal. Add new values
+	// at the end of each enum, or change WireCodec.VERSION.
 	public enum Service {
 		REQUEST_ZONE_MAP // Ask an existing peer for it's zone map
 		,GET_ZONE_MAP // Initialize with another peer's zone map
@@ -26,7 +28,10 @@ public class Const {
 		,STREAMING_ACK	// Packet it for stream setup acknowledgments
 		,SONGLIST // Songlist has been changed for a peer
 		,QUEUE_CHANGE // Change is being made to zone's queue
+		,MCAST_LEASE // A multicast address lease is being claimed, renewed or released
+		,CLOCK_SYNC // Time stamps exchanged to estimate the offset from the cluster clock
 		,UPDATE
+		,PEER_REMOVE // An external device's session has expired, remove it from the peerlist
 	}
 	
 	// Commands are for interprocess use.
@@ -57,6 +62,9 @@ public class Const {
 		,PLAY  //Play the audio stream
 		,PAUSE //Pause the audio stream
 		,NEXT //Skip to the next audio stream
+		,PRELOAD //The next song will follow on the same audio stream
+		,SEEK //Move the audio stream to a position in the song
+		,SYNC //When a position on the stream's timeline should be heard
 		,TEARDOWN  //Stop the audio stream
 		
 		,STREAM_ACK		// acknowledgment that stream is setup
@@ -65,6 +73,27 @@ public class Const {
 		,GET_ZONE_INFO  //Indicates that a zone's playlist should be returned
 
 		,PASSWORD_SET	// Indicates that the user has requested a password be assigned to the selected zone
+
+		// Multicast address lease commands
+		,LEASE_ACQUIRE	// A publisher has claimed a multicast address
+		,LEASE_RENEW	// A publisher is still using its multicast address
+		,LEASE_RELEASE	// A publisher is done with its multicast address
+		
+		// Clock synchronization commands
+		,CLOCK_REQUEST	// Asks the reference peer for its time
+		,CLOCK_REPLY	// The reference peer's answer to a CLOCK_REQUEST
+		
+		// Song list synchronization commands
+		,LIBRARY_DELTA	// Changes to the sending peer's song list
+		,LIBRARY_RESYNC	// Asks a peer for its whole song list, when a delta did not fit
+		
+		// Zone queue replication commands
+		,QUEUE_OPS	// Operations on a zone's queue
+		,QUEUE_SYNC	// Asks a peer for the queue operations this peer has not seen
+		,QUEUE_SNAPSHOT	// A zone's whole queue, when the operations asked for are no longer logged
+		
+		// Music player updates
+		,INTERFACE_DELTA	// Versioned changes to the peers, library and zones shown by the music player
 	}
 
 	//Stream state related information
@@ -85,6 +114,9 @@ public class Const {
 	//Address for StreamPublishers to begin trying to stream on
 	public final static String STARTING_MCAST_ADDRESS = "226.0.0.0";
 	
+	//Number of multicast addresses, starting at STARTING_MCAST_ADDRESS, that may be leased to publishers
+	public final static int MCAST_ADDRESS_POOL_SIZE = 4096;
+	
 	// Colors
 	public final static Color bgColor = new Color(61,58,57);
 	public final static Color txtColor = Color.white;
@@ -0,0 +1,119 @@
+package soundcheck.shared;
+
+import java.io.Serializable;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Changes to what the music player shows: the peers, the library made from every peer's
+ * songs, and the zones with their queues.
+ *
+ * The service numbers each delta it sends. The music player applies a delta only when its
+ * version follows the last one applied, and otherwise asks for a snapshot with
+ * REQUEST_UPDATE. A snapshot is a delta holding every peer, song and zone, which replaces
+ * what the music player shows.
+ *
+ * Peers are sent without their song lists. The library's songs are matched by
+ * Song.getLibraryKey.
+ *
+ */
+public class InterfaceDelta implements Serializable {
+	private static final long serialVersionUID = -2946518303325427091L;
+
+	private final long version;
+
+	private final boolean snapshot;  //Whether the delta holds everything
+
+	private final List<Peer> peers;  //Added and changed peers
+
+	private final List<String> removedPeers;  //UIDs of removed peers
+
+	private final List<Song> addedSongs;
+
+	private final List<Song> removedSongs;
+
+	private final Map<Zone, ZoneProperties> zones;  //Added and changed zones, with their queues
+
+	/**
+	 * @param version - Follows the version of the delta before it
+	 * @param snapshot - Whether the delta holds everything
+	 * @param peers - Added and changed peers
+	 * @param removedPeers - UIDs of removed peers
+	 * @param addedSongs - Songs added to the library
+	 * @param removedSongs - Songs removed from the library
+	 * @param zones - Added and changed zones
+	 */
+	public InterfaceDelta(long version, boolean snapshot, List<Peer> peers, List<String> removedPeers,
+			List<Song> addedSongs, List<Song> removedSongs, Map<Zone, ZoneProperties> zones) {
+		this.version = version;
+		this.snapshot = snapshot;
+		this.peers = peers;
+		this.removedPeers = removedPeers;
+		this.addedSongs = addedSongs;
+		this.removedSongs = removedSongs;
+		this.zones = zones;
+	}
+
+	/**
+	 * @return - Follows the version of the delta before it
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * @return - Whether the delta holds every peer, song and zone
+	 */
+	public boolean isSnapshot() {
+		return snapshot;
+	}
+
+	/**
+	 * @return - Added and changed peers, without their song lists
+	 */
+	public List<Peer> getPeers() {
+		return peers;
+	}
+
+	/**
+	 * @return - UIDs of removed peers
+	 */
+	public List<String> getRemovedPeers() {
+		return removedPeers;
+	}
+
+	/**
+	 * @return - Songs added to the library
+	 */
+	public List<Song> getAddedSongs() {
+		return addedSongs;
+	}
+
+	/**
+	 * @return - Songs removed from the library
+	 */
+	public List<Song> getRemovedSongs() {
+		return removedSongs;
+	}
+
+	/**
+	 * @return - Added and changed zones, with their queues
+	 */
+	public Map<Zone, ZoneProperties> getZones() {
+		return zones;
+	}
+
+	/**
+	 * @return - Whether the delta changes nothing
+	 */
+	public boolean isEmpty() {
+		return !snapshot && peers.isEmpty() && removedPeers.isEmpty() && addedSongs.isEmpty()
+				&& removedSongs.isEmpty() && zones.isEmpty();
+	}
+
+	@Override
+	public String toString() {
+		return (snapshot ? "snapshot " : "delta ") + version + " (peers +" + peers.size() + " -" + removedPeers.size()
+				+ ", songs +" + addedSongs.size() + " -" + removedSongs.size() + ", zones " + zones.size() + ")";
+	}
+}
@@ -1,5 +1,6 @@
 package soundcheck.shared;
 
+import java.util.List;
 import java.util.Map;
 
 import soundcheck.shared.Const.Command;
@@ -16,6 +17,17 @@ public final class PacketCreator {
 		return new DataPacket(Service.REQUEST_ZONE_MAP);
 	}
 	
+	/**
+	 * @param digest Hash of each zone this peer already holds, by zone UID, so only the others are sent back
+	 */
+	public static final DataPacket createRequestZoneMapPacket(Map<String, Long> digest) {
+		return new DataPacket(Service.REQUEST_ZONE_MAP, null, digest);
+	}
+	
+	public static final DataPacket createZoneMapUpdatePacket(ZoneMapUpdate update) {
+		return new DataPacket(Service.GET_ZONE_MAP, null, update);
+	}
+	
 	public static final DataPacket createRespondZoneMapPacket(Map<Zone, ZoneProperties> zoneMap) {
 		return new DataPacket(Service.GET_ZONE_MAP, null, zoneMap);
 	}
@@ -37,6 +49,15 @@ public final class PacketCreator {
 		return new DataPacket(Service.PEER_DATA, null, data );
 	}
 	
+	/**
+	 * Packet for removing an external device from other peers' peerlists
+	 * @param uid UID of the external device's peer
+	 * @return
+	 */
+	public static final DataPacket createPeerRemovePacket(String uid) {
+		return new DataPacket(Service.PEER_REMOVE, null, uid );
+	}
+	
 	/**
 	 * Packet for telling peers about this local peer
 	 * @param peerList
@@ -64,10 +85,56 @@ public final class PacketCreator {
 		return new DataPacket(Service.SONGLIST, null, peer);
 	}
 	
+	/**
+	 * Packet for sending changes to the local peer's songlist
+	 * @param delta The changes, or the whole list
+	 * @return
+	 */
+	public static final DataPacket createSongListDeltaPacket(SongListDelta delta) {
+		return new DataPacket(Service.SONGLIST, Command.LIBRARY_DELTA, delta);
+	}
+	
+	/**
+	 * Packet asking a peer for its whole songlist
+	 * @return
+	 */
+	public static final DataPacket createSongListResyncPacket() {
+		return new DataPacket(Service.SONGLIST, Command.LIBRARY_RESYNC, null);
+	}
+	
 	public static final DataPacket createNewQueuePacket(Command cmd, Object song, Zone zone) {
 		return new DataPacket(Service.QUEUE_CHANGE, cmd, song, zone );
 	}
 	
+	/**
+	 * Packet holding operations on a zone's replicated queue
+	 * @param ops The operations
+	 * @param zone The zone
+	 * @return
+	 */
+	public static final DataPacket createQueueOpsPacket(List<QueueOp> ops, Zone zone) {
+		return new DataPacket(Service.QUEUE_CHANGE, Command.QUEUE_OPS, ops, zone );
+	}
+	
+	/**
+	 * Packet asking a peer for the queue operations this peer has not applied
+	 * @param seen Largest time stamp applied, by peer, for each zone by zone UID
+	 * @return
+	 */
+	public static final DataPacket createQueueSyncPacket(Map<String, Map<String, Long>> seen) {
+		return new DataPacket(Service.QUEUE_CHANGE, Command.QUEUE_SYNC, seen );
+	}
+	
+	/**
+	 * Packet holding the operations that build a zone's whole replicated queue
+	 * @param snapshot The operations
+	 * @param zone The zone
+	 * @return
+	 */
+	public static final DataPacket createQueueSnapshotPacket(List<QueueOp> snapshot, Zone zone) {
+		return new DataPacket(Service.QUEUE_CHANGE, Command.QUEUE_SNAPSHOT, snapshot, zone );
+	}
+	
 	/**
 	 * Packet for stream control
 	 * @param cmd How to interact with the stream
@@ -98,6 +165,26 @@ public final class PacketCreator {
 	public static final DataPacket createStreamAcknowledgePacket(Command cmd, Object streamInfo, Zone zone) {
 		return new DataPacket(Service.STREAMING_ACK, cmd, streamInfo, zone);
 	}
+	/**
+	 * Packet for claiming, renewing or releasing a multicast address
+	 * @param cmd What is being done with the lease
+	 * @param lease The lease being changed
+	 * @return
+	 */
+	public static final DataPacket createMulticastLeasePacket(Command cmd, Object lease) {
+		return new DataPacket(Service.MCAST_LEASE, cmd, lease);
+	}
+	
+	/**
+	 * Packet for estimating the offset from the cluster clock
+	 * @param cmd Whether this is a request or a reply
+	 * @param timeStamps The time stamps of the exchange so far
+	 * @return
+	 */
+	public static final DataPacket createClockSyncPacket(Command cmd, long[] timeStamps) {
+		return new DataPacket(Service.CLOCK_SYNC, cmd, timeStamps);
+	}
+	
 	/**
 	 * Packet for communication between service and music player
 	 * @param cmd What the recipient should do with this packet
@@ -119,6 +206,15 @@ public final class PacketCreator {
 		return new DataPacket(Service.INTERPROCESS, cmd, object, zone);
 	}
 	
+	/**
+	 * Packet for sending changes to the peers, library and zones to the music player
+	 * @param delta The changes, or everything when the delta is a snapshot
+	 * @return
+	 */
+	public static final DataPacket createInterfaceDeltaPacket(InterfaceDelta delta) {
+		return new DataPacket(Service.INTERPROCESS, Command.INTERFACE_DELTA, delta);
+	}
+	
 	/**
 	 * Packet for changing something about a current peer, usually the name.
 	 * @param object What it should be changed to.
@@ -0,0 +1,129 @@
+package soundcheck.shared;
+
+import java.io.Serializable;
+
+/**
+ * One operation on a zone's queue: a song inserted after another element, or an element
+ * removed. Every element of a queue has an ID that is unique across the cluster, so peers
+ * that apply the same operations in any order end up with the same queue.
+ *
+ */
+public class QueueOp implements Serializable {
+	private static final long serialVersionUID = -3384290371627051764L;
+
+	private final Zone zone;
+
+	private final Id id;  //ID of the inserted element, or of the removal itself
+
+	private final Id ref;  //Element inserted after (null for the front), or the element removed
+
+	private final Song song;  //Null for a removal
+
+	/**
+	 * @param zone - Zone whose queue is changed
+	 * @param id - ID of the inserted element, or of the removal itself
+	 * @param ref - Element the song is inserted after (null for the front), or the element removed
+	 * @param song - Song inserted, or null for a removal
+	 */
+	public QueueOp(Zone zone, Id id, Id ref, Song song) {
+		this.zone = zone;
+		this.id = id;
+		this.ref = ref;
+		this.song = song;
+	}
+
+	/**
+	 * @return - Zone whose queue is changed
+	 */
+	public Zone getZone() {
+		return zone;
+	}
+
+	/**
+	 * @return - ID of the inserted element, or of the removal itself
+	 */
+	public Id getId() {
+		return id;
+	}
+
+	/**
+	 * @return - Element the song is inserted after (null for the front), or the element removed
+	 */
+	public Id getRef() {
+		return ref;
+	}
+
+	/**
+	 * @return - Song inserted, or null for a removal
+	 */
+	public Song getSong() {
+		return song;
+	}
+
+	/**
+	 * @return - Whether this operation removes an element
+	 */
+	public boolean isRemove() {
+		return song == null;
+	}
+
+	@Override
+	public String toString() {
+		return (isRemove() ? "remove " : "insert " + song + " after ") + ref + " as " + id;
+	}
+
+	/**
+	 * A logical time stamp and the peer that made it. IDs are ordered by time stamp, then by peer.
+	 */
+	public static final class Id implements Serializable, Comparable<Id> {
+		private static final long serialVersionUID = 7417013521488920745L;
+
+		private final long counter;
+
+		private final String site;
+
+		/**
+		 * @param counter - Logical time stamp, larger than any the peer had seen when it made the ID
+		 * @param site - Peer that made the ID
+		 */
+		public Id(long counter, String site) {
+			this.counter = counter;
+			this.site = site;
+		}
+
+		public long getCounter() {
+			return counter;
+		}
+
+		public String getSite() {
+			return site;
+		}
+
+		@Override
+		public int compareTo(Id other) {
+			if(counter != other.counter){
+				return counter < other.counter ? -1 : 1;
+			}
+			return site.compareTo(other.site);
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if(!(other instanceof Id)){
+				return false;
+			}
+			Id id = (Id) other;
+			return counter == id.counter && site.equals(id.site);
+		}
+
+		@Override
+		public int hashCode() {
+			return (int) (counter ^ (counter >>> 32)) * 31 + site.hashCode();
+		}
+
+		@Override
+		public String toString() {
+			return counter + "@" + site;
+		}
+	}
+}
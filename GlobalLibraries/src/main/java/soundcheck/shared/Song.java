@@ -1,6 +1,7 @@
 package soundcheck.shared;
 
 import java.io.Serializable;
+import java.util.Locale;
 
 public class Song implements Serializable {
 	private static final long serialVersionUID = 1L;
@@ -268,6 +269,18 @@ public class Song implements Serializable {
 		this.year = year;
 	}
 
+	/**
+	 * Songs with the same key are the same song as far as equals is concerned, so only one
+	 * of them is shown in the library made from every peer's songs.
+	 * @return the title, artist and duration, with the case of the title and artist ignored
+	 */
+	public String getLibraryKey() {
+		String lowerTitle = title == null ? "" : title.toLowerCase(Locale.ENGLISH);
+		String lowerArtist = artist == null ? "" : artist.toLowerCase(Locale.ENGLISH);
+
+		return lowerTitle + '\n' + lowerArtist + '\n' + duration;
+	}
+
 	/* (non-Javadoc)
 	 * @see java.lang.Object#hashCode()
 	 */
@@ -0,0 +1,92 @@
+package soundcheck.shared;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * The changes between two versions of a peer's song list.
+ *
+ * A receiver applies a delta only when its copy of the list has the content hash the
+ * delta was made against (baseHash), and checks the result against hash. Otherwise it
+ * asks the peer for a snapshot, which is a delta holding every song.
+ *
+ */
+public class SongListDelta implements Serializable {
+	private static final long serialVersionUID = 4125870335260591482L;
+
+	private final long version;  //Version of the list after the delta
+
+	private final long baseHash;  //Content hash of the list the delta applies to
+
+	private final long hash;  //Content hash of the list after the delta
+
+	private final boolean snapshot;  //Whether changed holds the whole list
+
+	private final List<Song> changed;  //Added and modified songs, matched by ID
+
+	private final List<Integer> removed;  //IDs of removed songs
+
+	/**
+	 * @param version - Version of the list after the delta
+	 * @param baseHash - Content hash of the list the delta applies to
+	 * @param hash - Content hash of the list after the delta
+	 * @param snapshot - Whether changed holds the whole list
+	 * @param changed - Added and modified songs
+	 * @param removed - IDs of removed songs
+	 */
+	public SongListDelta(long version, long baseHash, long hash, boolean snapshot, List<Song> changed, List<Integer> removed) {
+		this.version = version;
+		this.baseHash = baseHash;
+		this.hash = hash;
+		this.snapshot = snapshot;
+		this.changed = changed;
+		this.removed = removed;
+	}
+
+	/**
+	 * @return - Version of the list after the delta
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * @return - Content hash of the list the delta applies to
+	 */
+	public long getBaseHash() {
+		return baseHash;
+	}
+
+	/**
+	 * @return - Content hash of the list after the delta
+	 */
+	public long getHash() {
+		return hash;
+	}
+
+	/**
+	 * @return - Whether the delta holds the whole list rather than changes
+	 */
+	public boolean isSnapshot() {
+		return snapshot;
+	}
+
+	/**
+	 * @return - Added and modified songs, matched to existing songs by ID
+	 */
+	public List<Song> getChanged() {
+		return changed;
+	}
+
+	/**
+	 * @return - IDs of removed songs
+	 */
+	public List<Integer> getRemoved() {
+		return removed;
+	}
+
+	@Override
+	public String toString() {
+		return (snapshot ? "snapshot " : "delta ") + version + " (+" + changed.size() + " -" + removed.size() + ")";
+	}
+}
@@ -13,6 +13,8 @@ public class StreamInfo implements Serializable{
 	 */
 	private static final long serialVersionUID = 2458541938062862870L;
 
+	public final static int NO_SONG = -1;  //Song ID of a PRELOAD that cancels the previous one
+
 	private String ipAddress;
 	
 	private int songID;
@@ -29,6 +31,21 @@ public class StreamInfo implements Serializable{
 	
 	private long songDuration;
 	
+	private long seekPosition;  //Position in the song, in milliseconds
+	
+	private long streamPosition;  //Time on the stream's timeline at which seekPosition starts, in milliseconds
+	
+	private long playoutTime;  //Clock time at which streamPosition should be heard, in milliseconds. 0 if not scheduled.
+	
+	// Codec parameters of the stream, so receivers can open their decoder without probing
+	private String codecName;
+	
+	private int sampleRate;
+	
+	private int channels;
+	
+	private int bitRate;
+	
 	/**
 	 * @return the zone
 	 */
@@ -151,7 +168,109 @@ public class StreamInfo implements Serializable{
 	public void setSongDuration(long songDuration) {
 		this.songDuration = songDuration;
 	}
-	
-	
+
+
+	/**
+	 * @return the seekPosition
+	 */
+	public long getSeekPosition() {
+		return seekPosition;
+	}
+
+
+	/**
+	 * @param seekPosition the seekPosition to set
+	 */
+	public void setSeekPosition(long seekPosition) {
+		this.seekPosition = seekPosition;
+	}
+
+
+	/**
+	 * @return the streamPosition
+	 */
+	public long getStreamPosition() {
+		return streamPosition;
+	}
+
+
+	/**
+	 * @param streamPosition the streamPosition to set
+	 */
+	public void setStreamPosition(long streamPosition) {
+		this.streamPosition = streamPosition;
+	}
+
+
+	/**
+	 * @return the playoutTime
+	 */
+	public long getPlayoutTime() {
+		return playoutTime;
+	}
+
+
+	/**
+	 * @param playoutTime the playoutTime to set
+	 */
+	public void setPlayoutTime(long playoutTime) {
+		this.playoutTime = playoutTime;
+	}
+
+
+	/**
+	 * Sets the codec parameters of the stream.
+	 * 
+	 * @param codecName - Name of the codec ID, as in ICodec.ID
+	 * @param sampleRate - Samples per second
+	 * @param channels - Number of audio channels
+	 * @param bitRate - Bits per second
+	 */
+	public void setCodecParameters(String codecName, int sampleRate, int channels, int bitRate) {
+		this.codecName = codecName;
+		this.sampleRate = sampleRate;
+		this.channels = channels;
+		this.bitRate = bitRate;
+	}
+
+
+	/**
+	 * @return whether the codec parameters have been set
+	 */
+	public boolean hasCodecParameters() {
+		return codecName != null && sampleRate > 0 && channels > 0;
+	}
+
+
+	/**
+	 * @return the codecName
+	 */
+	public String getCodecName() {
+		return codecName;
+	}
+
+
+	/**
+	 * @return the sampleRate
+	 */
+	public int getSampleRate() {
+		return sampleRate;
+	}
+
+
+	/**
+	 * @return the channels
+	 */
+	public int getChannels() {
+		return channels;
+	}
+
+
+	/**
+	 * @return the bitRate
+	 */
+	public int getBitRate() {
+		return bitRate;
+	}
 
 }
@@ -0,0 +1,863 @@
+package soundcheck.shared;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.jgroups.util.Util;
+
+import soundcheck.shared.Const.Command;
+import soundcheck.shared.Const.Service;
+import soundcheck.shared.Const.StreamType;
+
+/**
+ * Binary encoding of DataPackets for the network channel and the connection between the
+ * service and the music player.
+ *
+ * Java serialization writes class descriptors, field names and enum names with every
+ * packet. This codec writes a two byte magic number and a version, then each field in a
+ * fixed order: enums as their ordinal, numbers as variable length integers and strings as
+ * UTF-8. The shared classes (Song, Peer, Zone, ZoneProperties, ZonePair, StreamInfo,
+ * SongListDelta, ZoneMapUpdate, QueueOp, InterfaceDelta) and
+ * lists and maps of them have their own layouts. Lists come back as ArrayLists or
+ * LinkedLists and maps as HashMaps, LinkedHashMaps or ConcurrentHashMaps, matching what
+ * was sent as closely as those allow. Any other payload is written with Java
+ * serialization inside the packet.
+ *
+ * Enums are sent by ordinal, so new Service, Command or StreamType values must be added at
+ * the end, or VERSION must be changed. VERSION must also change whenever a layout below does.
+ * New payload types can be added without changing VERSION. Older peers drop packets
+ * holding a type they do not know.
+ *
+ * EXAMPLE
+ * 		byte[] bytes = WireCodec.encode(packet);
+ * 		DataPacket copy = WireCodec.decode(bytes, 0, bytes.length);
+ *
+ */
+public final class WireCodec {
+
+	public final static byte MAGIC_0 = 'S';
+
+	public final static byte MAGIC_1 = 'C';
+
+	public final static byte VERSION = 1;
+
+	private final static Charset UTF8 = Charset.forName("UTF-8");
+
+	// Payload type tags
+	private final static byte NULL = 0;
+	private final static byte SERIALIZED = 1;
+	private final static byte STRING = 2;
+	private final static byte INTEGER = 3;
+	private final static byte LONG = 4;
+	private final static byte BOOLEAN = 5;
+	private final static byte LONG_ARRAY = 6;
+	private final static byte LIST = 7;
+	private final static byte MAP = 8;
+	private final static byte ZONE = 9;
+	private final static byte ZONE_PROPERTIES = 10;
+	private final static byte ZONE_PAIR = 11;
+	private final static byte SONG = 12;
+	private final static byte PEER = 13;
+	private final static byte STREAM_INFO = 14;
+	private final static byte SONG_LIST_DELTA = 15;
+	private final static byte ZONE_MAP_UPDATE = 16;
+	private final static byte QUEUE_OP = 17;
+	private final static byte INTERFACE_DELTA = 18;
+
+	// Collection classes, so a receiver can cast the payload to the class that was sent
+	private final static byte ARRAY_LIST = 0;
+	private final static byte LINKED_LIST = 1;
+	private final static byte HASH_MAP = 0;
+	private final static byte LINKED_HASH_MAP = 1;
+	private final static byte CONCURRENT_HASH_MAP = 2;
+
+	// Packet header flags
+	private final static int HAS_COMMAND = 1;
+	private final static int HAS_ZONE = 2;
+	private final static int OTHER_PROJECT = 4;
+
+	/**
+	 * Make this class static with a private constructor
+	 */
+	private WireCodec() {
+		throw new AssertionError();
+	}
+
+	/**
+	 * @param packet - The packet to encode
+	 * @return - The encoded packet
+	 * @throws IOException - If a payload that is not a shared class can not be serialized
+	 */
+	public static byte[] encode(DataPacket packet) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+
+		writePacket(new DataOutputStream(bytes), packet);
+
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * @param buffer - Array holding an encoded packet
+	 * @param offset - Where the packet starts
+	 * @param length - Length of the packet
+	 * @return - The decoded packet
+	 * @throws IOException - If the bytes are not a packet in this version of the format
+	 */
+	public static DataPacket decode(byte[] buffer, int offset, int length) throws IOException {
+		return readPacket(new DataInputStream(new ByteArrayInputStream(buffer, offset, length)));
+	}
+
+	/**
+	 * @param buffer - Array holding a message
+	 * @param offset - Where the message starts
+	 * @param length - Length of the message
+	 * @return - Whether the message starts with this codec's magic number, as opposed to being from a peer that sends serialized objects
+	 */
+	public static boolean isEncoded(byte[] buffer, int offset, int length) {
+		return length >= 3 && buffer[offset] == MAGIC_0 && buffer[offset + 1] == MAGIC_1;
+	}
+
+	/**
+	 * Writes a packet preceded by its length, for stream connections.
+	 *
+	 * @param out - The stream
+	 * @param packet - The packet
+	 * @throws IOException
+	 */
+	public static void writeFrame(DataOutputStream out, DataPacket packet) throws IOException {
+		byte[] bytes = encode(packet);
+
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	/**
+	 * Reads a packet written by writeFrame. Blocks until the whole packet has arrived.
+	 *
+	 * @param in - The stream
+	 * @return - The packet
+	 * @throws IOException
+	 */
+	public static DataPacket readFrame(DataInputStream in) throws IOException {
+		int length = in.readInt();
+
+		if(length < 0){
+			throw new IOException("Invalid frame length " + length);
+		}
+
+		byte[] bytes = new byte[length];
+
+		in.readFully(bytes);
+
+		return decode(bytes, 0, length);
+	}
+
+	public static void writePacket(DataOutput out, DataPacket packet) throws IOException {
+		out.writeByte(MAGIC_0);
+		out.writeByte(MAGIC_1);
+		out.writeByte(VERSION);
+
+		boolean otherProject = !Const.PROJECT_NAME.equals(packet.getProject());
+
+		int flags = (packet.getCommand() != null ? HAS_COMMAND : 0)
+				| (packet.getZone() != null ? HAS_ZONE : 0)
+				| (otherProject ? OTHER_PROJECT : 0);
+
+		out.writeByte(flags);
+
+		writeVarInt(out, packet.getService() == null ? 0 : packet.getService().ordinal() + 1);
+
+		if(packet.getCommand() != null){
+			writeVarInt(out, packet.getCommand().ordinal());
+		}
+		if(packet.getZone() != null){
+			writeZone(out, packet.getZone());
+		}
+		if(otherProject){
+			writeString(out, packet.getProject());
+		}
+
+		writeObject(out, packet.getData());
+	}
+
+	public static DataPacket readPacket(DataInput in) throws IOException {
+		if(in.readByte() != MAGIC_0 || in.readByte() != MAGIC_1){
+			throw new IOException("Not an encoded SoundCheck packet");
+		}
+
+		byte version = in.readByte();
+
+		if(version != VERSION){
+			throw new IOException("Unsupported packet version " + version);
+		}
+
+		int flags = in.readUnsignedByte();
+
+		int service = readVarInt(in);
+
+		DataPacket packet = new DataPacket(service == 0 ? null : Service.values()[service - 1]);
+
+		if((flags & HAS_COMMAND) != 0){
+			packet.setCommand(Command.values()[readVarInt(in)]);
+		}
+		if((flags & HAS_ZONE) != 0){
+			packet.setZone(readZone(in));
+		}
+		if((flags & OTHER_PROJECT) != 0){
+			packet.setProject(readString(in));
+		}
+
+		packet.setData(readObject(in));
+
+		return packet;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static void writeObject(DataOutput out, Object data) throws IOException {
+
+		if(data == null){
+			out.writeByte(NULL);
+		}
+		else if(data instanceof String){
+			out.writeByte(STRING);
+			writeString(out, (String) data);
+		}
+		else if(data instanceof Integer){
+			out.writeByte(INTEGER);
+			writeVarLong(out, (Integer) data);
+		}
+		else if(data instanceof Long){
+			out.writeByte(LONG);
+			writeVarLong(out, (Long) data);
+		}
+		else if(data instanceof Boolean){
+			out.writeByte(BOOLEAN);
+			out.writeBoolean((Boolean) data);
+		}
+		else if(data instanceof long[]){
+			long[] values = (long[]) data;
+
+			out.writeByte(LONG_ARRAY);
+			writeVarInt(out, values.length);
+
+			for(long value : values){
+				writeVarLong(out, value);
+			}
+		}
+		else if(data instanceof List){
+			List<Object> list = (List<Object>) data;
+
+			out.writeByte(LIST);
+			out.writeByte(list instanceof LinkedList ? LINKED_LIST : ARRAY_LIST);
+			writeVarInt(out, list.size());
+
+			for(Object element : list){
+				writeObject(out, element);
+			}
+		}
+		else if(data instanceof Map){
+			Map<Object, Object> map = (Map<Object, Object>) data;
+
+			out.writeByte(MAP);
+			out.writeByte(map instanceof ConcurrentHashMap ? CONCURRENT_HASH_MAP
+					: map instanceof LinkedHashMap ? LINKED_HASH_MAP : HASH_MAP);
+			writeVarInt(out, map.size());
+
+			for(Map.Entry<Object, Object> entry : map.entrySet()){
+				writeObject(out, entry.getKey());
+				writeObject(out, entry.getValue());
+			}
+		}
+		else if(data.getClass() == Zone.class){
+			out.writeByte(ZONE);
+			writeZone(out, (Zone) data);
+		}
+		else if(data.getClass() == ZoneProperties.class){
+			out.writeByte(ZONE_PROPERTIES);
+			writeZoneProperties(out, (ZoneProperties) data);
+		}
+		else if(data.getClass() == ZonePair.class){
+			out.writeByte(ZONE_PAIR);
+			writeZone(out, ((ZonePair) data).getZone());
+			writeZoneProperties(out, ((ZonePair) data).getProp());
+		}
+		else if(data.getClass() == Song.class){
+			out.writeByte(SONG);
+			writeSong(out, (Song) data);
+		}
+		else if(data.getClass() == Peer.class){
+			out.writeByte(PEER);
+			writePeer(out, (Peer) data);
+		}
+		else if(data.getClass() == StreamInfo.class){
+			out.writeByte(STREAM_INFO);
+			writeStreamInfo(out, (StreamInfo) data);
+		}
+		else if(data.getClass() == SongListDelta.class){
+			out.writeByte(SONG_LIST_DELTA);
+			writeSongListDelta(out, (SongListDelta) data);
+		}
+		else if(data.getClass() == ZoneMapUpdate.class){
+			out.writeByte(ZONE_MAP_UPDATE);
+			writeZoneMapUpdate(out, (ZoneMapUpdate) data);
+		}
+		else if(data.getClass() == QueueOp.class){
+			out.writeByte(QUEUE_OP);
+			writeQueueOp(out, (QueueOp) data);
+		}
+		else if(data.getClass() == InterfaceDelta.class){
+			out.writeByte(INTERFACE_DELTA);
+			writeInterfaceDelta(out, (InterfaceDelta) data);
+		}
+		else if(data instanceof Serializable){
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			ObjectOutputStream objectOut = new ObjectOutputStream(bytes);
+
+			objectOut.writeObject(data);
+			objectOut.close();
+
+			out.writeByte(SERIALIZED);
+			writeVarInt(out, bytes.size());
+			out.write(bytes.toByteArray());
+		}
+		else{
+			throw new IOException("Can not encode " + data.getClass().getName());
+		}
+	}
+
+	private static Object readObject(DataInput in) throws IOException {
+
+		byte type = in.readByte();
+
+		switch(type){
+
+		case NULL:
+			return null;
+
+		case STRING:
+			return readString(in);
+
+		case INTEGER:
+			return Integer.valueOf((int) readVarLong(in));
+
+		case LONG:
+			return Long.valueOf(readVarLong(in));
+
+		case BOOLEAN:
+			return Boolean.valueOf(in.readBoolean());
+
+		case LONG_ARRAY:
+			long[] values = new long[readVarInt(in)];
+
+			for(int i = 0; i < values.length; i++){
+				values[i] = readVarLong(in);
+			}
+			return values;
+
+		case LIST:
+			byte listClass = in.readByte();
+			int size = readVarInt(in);
+
+			List<Object> list = listClass == LINKED_LIST ? new LinkedList<Object>() : new ArrayList<Object>(size);
+
+			for(int i = 0; i < size; i++){
+				list.add(readObject(in));
+			}
+			return list;
+
+		case MAP:
+			byte mapClass = in.readByte();
+			size = readVarInt(in);
+
+			Map<Object, Object> map;
+
+			if(mapClass == CONCURRENT_HASH_MAP){
+				map = new ConcurrentHashMap<Object, Object>();
+			} else if(mapClass == LINKED_HASH_MAP){
+				map = new LinkedHashMap<Object, Object>();
+			} else {
+				map = new HashMap<Object, Object>();
+			}
+
+			for(int i = 0; i < size; i++){
+				map.put(readObject(in), readObject(in));
+			}
+			return map;
+
+		case ZONE:
+			return readZone(in);
+
+		case ZONE_PROPERTIES:
+			return readZoneProperties(in);
+
+		case ZONE_PAIR:
+			Zone zone = readZone(in);
+			return new ZonePair(zone, readZoneProperties(in));
+
+		case SONG:
+			return readSong(in);
+
+		case PEER:
+			return readPeer(in);
+
+		case STREAM_INFO:
+			return readStreamInfo(in);
+
+		case SONG_LIST_DELTA:
+			return readSongListDelta(in);
+
+		case ZONE_MAP_UPDATE:
+			return readZoneMapUpdate(in);
+
+		case QUEUE_OP:
+			return readQueueOp(in);
+
+		case INTERFACE_DELTA:
+			return readInterfaceDelta(in);
+
+		case SERIALIZED:
+			byte[] bytes = new byte[readVarInt(in)];
+
+			in.readFully(bytes);
+
+			try {
+				return new ObjectInputStream(new ByteArrayInputStream(bytes)).readObject();
+			} catch (ClassNotFoundException e) {
+				throw new IOException("Unknown class in packet: " + e.getMessage());
+			}
+
+		default:
+			throw new IOException("Unknown payload type " + type);
+		}
+	}
+
+	private static void writeZone(DataOutput out, Zone zone) throws IOException {
+		UUID uid = zone.getUid();
+
+		out.writeBoolean(uid != null);
+
+		if(uid != null){
+			out.writeLong(uid.getMostSignificantBits());
+			out.writeLong(uid.getLeastSignificantBits());
+		}
+
+		// The zone's name is not sent, as with serialization. The zone map holds it.
+		writeString(out, zone.getPassword());
+	}
+
+	private static Zone readZone(DataInput in) throws IOException {
+		Zone zone = new Zone();
+
+		zone.setUid(in.readBoolean() ? new UUID(in.readLong(), in.readLong()) : null);
+		zone.setPassword(readString(in));
+
+		return zone;
+	}
+
+	private static void writeZoneProperties(DataOutput out, ZoneProperties prop) throws IOException {
+		writeString(out, prop.getZoneName());
+		writeString(out, prop.getPassword());
+		writeSongs(out, prop.getPlayList());
+	}
+
+	private static ZoneProperties readZoneProperties(DataInput in) throws IOException {
+		ZoneProperties prop = new ZoneProperties(readString(in));
+
+		prop.setPassword(readString(in));
+
+		// setPlayList reverses the list it is given, so the songs are added in the order they were sent
+		for(Song song : readSongs(in)){
+			prop.addLast(song);
+		}
+
+		return prop;
+	}
+
+	private static void writeSong(DataOutput out, Song song) throws IOException {
+		writeVarLong(out, song.getId());
+		writeVarLong(out, song.getDuration());
+		writeString(out, song.getTitle());
+		writeString(out, song.getFilePath());
+		writeString(out, song.getArtist());
+		writeString(out, song.getGenre());
+		writeString(out, song.getAlbumArtist());
+		writeString(out, song.getAlbum());
+		writeString(out, song.getBpm());
+		writeString(out, song.getComment());
+		writeString(out, song.getComposer());
+		writeString(out, song.getDiscNo());
+		writeString(out, song.getGrouping());
+		writeString(out, song.getTrack());
+		writeString(out, song.getYear());
+	}
+
+	private static Song readSong(DataInput in) throws IOException {
+		int id = (int) readVarLong(in);
+		long duration = readVarLong(in);
+
+		Song song = new Song(readString(in), readString(in), readString(in), readString(in), duration, id);
+
+		song.setAlbumArtist(readString(in));
+		song.setAlbum(readString(in));
+		song.setBpm(readString(in));
+		song.setComment(readString(in));
+		song.setComposer(readString(in));
+		song.setDiscNo(readString(in));
+		song.setGrouping(readString(in));
+		song.setTrack(readString(in));
+		song.setYear(readString(in));
+
+		return song;
+	}
+
+	private static void writeSongs(DataOutput out, List<Song> songs) throws IOException {
+		if(songs == null){
+			writeVarInt(out, 0);
+			return;
+		}
+
+		writeVarInt(out, songs.size() + 1);
+
+		for(Song song : songs){
+			writeSong(out, song);
+		}
+	}
+
+	private static List<Song> readSongs(DataInput in) throws IOException {
+		int size = readVarInt(in) - 1;
+
+		if(size < 0){
+			return null;
+		}
+
+		List<Song> songs = new ArrayList<Song>(size);
+
+		for(int i = 0; i < size; i++){
+			songs.add(readSong(in));
+		}
+
+		return songs;
+	}
+
+	private static void writePeer(DataOutput out, Peer peer) throws IOException {
+		writeString(out, peer.getUid());
+		writeString(out, peer.getName());
+		writeString(out, peer.getIp());
+
+		int flags = (peer.getStatus() ? 1 : 0) | (peer.isExternal() ? 2 : 0) | (peer.getZone() != null ? 4 : 0);
+
+		out.writeByte(flags);
+
+		if(peer.getZone() != null){
+			writeZone(out, peer.getZone());
+		}
+
+		// The address is not sent, the receiver determines it
+		writeSongs(out, peer.getSongList());
+	}
+
+	private static Peer readPeer(DataInput in) throws IOException {
+		Peer peer = new Peer(readString(in), readString(in));
+
+		peer.setIp(readString(in));
+
+		int flags = in.readUnsignedByte();
+
+		peer.setStatus((flags & 1) != 0);
+		peer.setExternal((flags & 2) != 0);
+		peer.setZone((flags & 4) != 0 ? readZone(in) : null);
+		peer.setSongList(readSongs(in));
+
+		return peer;
+	}
+
+	private static void writeStreamInfo(DataOutput out, StreamInfo info) throws IOException {
+		writeString(out, info.getIpAddress());
+		writeVarLong(out, info.getSongID());
+		writeString(out, info.getPeerUID());
+		writeVarInt(out, info.getStreamType() == null ? 0 : info.getStreamType().ordinal() + 1);
+		writeVarLong(out, info.getSongDuration());
+		writeString(out, info.getLocalFilePath());
+
+		out.writeBoolean(info.getZone() != null);
+
+		if(info.getZone() != null){
+			writeZone(out, info.getZone());
+		}
+
+		try {
+			Util.writeAddress(info.getAddr(), out);
+		} catch (IOException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new IOException("Could not write address: " + e.getMessage());
+		}
+
+		writeVarLong(out, info.getSeekPosition());
+		writeVarLong(out, info.getStreamPosition());
+		writeVarLong(out, info.getPlayoutTime());
+
+		writeString(out, info.getCodecName());
+		writeVarLong(out, info.getSampleRate());
+		writeVarLong(out, info.getChannels());
+		writeVarLong(out, info.getBitRate());
+	}
+
+	private static StreamInfo readStreamInfo(DataInput in) throws IOException {
+		String ipAddress = readString(in);
+		int songID = (int) readVarLong(in);
+		String peerUID = readString(in);
+		int streamType = readVarInt(in);
+		long duration = readVarLong(in);
+
+		StreamInfo info = new StreamInfo(ipAddress, songID, peerUID, duration, streamType == 0 ? null : StreamType.values()[streamType - 1]);
+
+		info.setLocalFilePath(readString(in));
+
+		if(in.readBoolean()){
+			info.setZone(readZone(in));
+		}
+
+		try {
+			info.setAddr(Util.readAddress(in));
+		} catch (IOException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new IOException("Could not read address: " + e.getMessage());
+		}
+
+		info.setSeekPosition(readVarLong(in));
+		info.setStreamPosition(readVarLong(in));
+		info.setPlayoutTime(readVarLong(in));
+
+		String codecName = readString(in);
+		int sampleRate = (int) readVarLong(in);
+		int channels = (int) readVarLong(in);
+		int bitRate = (int) readVarLong(in);
+
+		if(codecName != null){
+			info.setCodecParameters(codecName, sampleRate, channels, bitRate);
+		}
+
+		return info;
+	}
+
+	private static void writeSongListDelta(DataOutput out, SongListDelta delta) throws IOException {
+		writeVarLong(out, delta.getVersion());
+		out.writeLong(delta.getBaseHash());
+		out.writeLong(delta.getHash());
+		out.writeBoolean(delta.isSnapshot());
+		writeSongs(out, delta.getChanged());
+		writeVarInt(out, delta.getRemoved().size());
+
+		for(Integer id : delta.getRemoved()){
+			writeVarLong(out, id);
+		}
+	}
+
+	private static SongListDelta readSongListDelta(DataInput in) throws IOException {
+		long version = readVarLong(in);
+		long baseHash = in.readLong();
+		long hash = in.readLong();
+		boolean snapshot = in.readBoolean();
+		List<Song> changed = readSongs(in);
+
+		int size = readVarInt(in);
+
+		List<Integer> removed = new ArrayList<Integer>(size);
+
+		for(int i = 0; i < size; i++){
+			removed.add((int) readVarLong(in));
+		}
+
+		return new SongListDelta(version, baseHash, hash, snapshot, changed, removed);
+	}
+
+	private static void writeZoneMapUpdate(DataOutput out, ZoneMapUpdate update) throws IOException {
+		writeVarLong(out, update.getTransferId());
+		writeVarInt(out, update.getIndex());
+		writeVarInt(out, update.getCount());
+		writeObject(out, update.getZones());
+	}
+
+	@SuppressWarnings("unchecked")
+	private static ZoneMapUpdate readZoneMapUpdate(DataInput in) throws IOException {
+		long transferId = readVarLong(in);
+		int index = readVarInt(in);
+		int count = readVarInt(in);
+		Map<Zone, ZoneProperties> zones = (Map<Zone, ZoneProperties>) readObject(in);
+
+		return new ZoneMapUpdate(transferId, index, count, zones);
+	}
+
+	private static void writeQueueOp(DataOutput out, QueueOp op) throws IOException {
+		writeZone(out, op.getZone());
+		writeQueueId(out, op.getId());
+		writeQueueId(out, op.getRef());
+		out.writeBoolean(op.getSong() != null);
+
+		if(op.getSong() != null){
+			writeSong(out, op.getSong());
+		}
+	}
+
+	private static QueueOp readQueueOp(DataInput in) throws IOException {
+		Zone zone = readZone(in);
+		QueueOp.Id id = readQueueId(in);
+		QueueOp.Id ref = readQueueId(in);
+		Song song = in.readBoolean() ? readSong(in) : null;
+
+		return new QueueOp(zone, id, ref, song);
+	}
+
+	private static void writeInterfaceDelta(DataOutput out, InterfaceDelta delta) throws IOException {
+		writeVarLong(out, delta.getVersion());
+		out.writeBoolean(delta.isSnapshot());
+		writeObject(out, delta.getPeers());
+		writeVarInt(out, delta.getRemovedPeers().size());
+
+		for(String uid : delta.getRemovedPeers()){
+			writeString(out, uid);
+		}
+
+		writeSongs(out, delta.getAddedSongs());
+		writeSongs(out, delta.getRemovedSongs());
+		writeObject(out, delta.getZones());
+	}
+
+	@SuppressWarnings("unchecked")
+	private static InterfaceDelta readInterfaceDelta(DataInput in) throws IOException {
+		long version = readVarLong(in);
+		boolean snapshot = in.readBoolean();
+		List<Peer> peers = (List<Peer>) readObject(in);
+
+		int size = readVarInt(in);
+
+		List<String> removedPeers = new ArrayList<String>(size);
+
+		for(int i = 0; i < size; i++){
+			removedPeers.add(readString(in));
+		}
+
+		List<Song> addedSongs = readSongs(in);
+		List<Song> removedSongs = readSongs(in);
+		Map<Zone, ZoneProperties> zones = (Map<Zone, ZoneProperties>) readObject(in);
+
+		return new InterfaceDelta(version, snapshot, peers, removedPeers, addedSongs, removedSongs, zones);
+	}
+
+	/**
+	 * Writes a queue element ID as its peer (null for no ID) and its time stamp.
+	 */
+	private static void writeQueueId(DataOutput out, QueueOp.Id id) throws IOException {
+		writeString(out, id == null ? null : id.getSite());
+
+		if(id != null){
+			writeVarLong(out, id.getCounter());
+		}
+	}
+
+	private static QueueOp.Id readQueueId(DataInput in) throws IOException {
+		String site = readString(in);
+
+		return site == null ? null : new QueueOp.Id(readVarLong(in), site);
+	}
+
+	/**
+	 * Writes a string as its UTF-8 length plus one (0 for null) and its UTF-8 bytes.
+	 */
+	private static void writeString(DataOutput out, String value) throws IOException {
+		if(value == null){
+			writeVarInt(out, 0);
+			return;
+		}
+
+		byte[] bytes = value.getBytes(UTF8);
+
+		writeVarInt(out, bytes.length + 1);
+		out.write(bytes);
+	}
+
+	private static String readString(DataInput in) throws IOException {
+		int length = readVarInt(in);
+
+		if(length == 0){
+			return null;
+		}
+
+		byte[] bytes = new byte[length - 1];
+
+		in.readFully(bytes);
+
+		return new String(bytes, UTF8);
+	}
+
+	/**
+	 * Writes a non-negative int seven bits at a time, low bits first.
+	 */
+	private static void writeVarInt(DataOutput out, int value) throws IOException {
+		while((value & ~0x7F) != 0){
+			out.writeByte((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+
+		out.writeByte(value);
+	}
+
+	private static int readVarInt(DataInput in) throws IOException {
+		return (int) readUnsignedVarLong(in);
+	}
+
+	/**
+	 * Writes a long zig-zag encoded, so small negative numbers are short too, seven bits at a time.
+	 */
+	private static void writeVarLong(DataOutput out, long value) throws IOException {
+		long zigZag = (value << 1) ^ (value >> 63);
+
+		while((zigZag & ~0x7FL) != 0){
+			out.writeByte((int) ((zigZag & 0x7F) | 0x80));
+			zigZag >>>= 7;
+		}
+
+		out.writeByte((int) zigZag);
+	}
+
+	private static long readVarLong(DataInput in) throws IOException {
+		long zigZag = readUnsignedVarLong(in);
+
+		return (zigZag >>> 1) ^ -(zigZag & 1);
+	}
+
+	private static long readUnsignedVarLong(DataInput in) throws IOException {
+		long result = 0;
+
+		for(int shift = 0; shift < 64; shift += 7){
+			byte b = in.readByte();
+
+			result |= (long) (b & 0x7F) << shift;
+
+			if((b & 0x80) == 0){
+				return result;
+			}
+		}
+
+		throw new IOException("Malformed variable length number");
+	}
+}
@@ -0,0 +1,63 @@
+package soundcheck.shared;
+
+import java.io.Serializable;
+import java.util.Map;
+
+/**
+ * One part of the zone map, sent to a joining peer by the peer that answers its
+ * REQUEST_ZONE_MAP. The map is sent in parts so the joining peer can apply each one as it
+ * arrives, and only holds the zones that differ from the digest in the request.
+ *
+ */
+public class ZoneMapUpdate implements Serializable {
+	private static final long serialVersionUID = -6180432556718823069L;
+
+	private final long transferId;  //Increases with each answer the sending peer gives
+
+	private final int index;
+
+	private final int count;
+
+	private final Map<Zone, ZoneProperties> zones;
+
+	/**
+	 * @param transferId - Identifies the answer this part belongs to. Later answers have larger IDs.
+	 * @param index - Position of this part in the answer
+	 * @param count - Number of parts in the answer
+	 * @param zones - The zones in this part
+	 */
+	public ZoneMapUpdate(long transferId, int index, int count, Map<Zone, ZoneProperties> zones) {
+		this.transferId = transferId;
+		this.index = index;
+		this.count = count;
+		this.zones = zones;
+	}
+
+	/**
+	 * @return - Identifies the answer this part belongs to
+	 */
+	public long getTransferId() {
+		return transferId;
+	}
+
+	/**
+	 * @return - Position of this part in the answer
+	 */
+	public int getIndex() {
+		return index;
+	}
+
+	/**
+	 * @return - Number of parts in the answer
+	 */
+	public int getCount() {
+		return count;
+	}
+
+	/**
+	 * @return - The zones in this part
+	 */
+	public Map<Zone, ZoneProperties> getZones() {
+		return zones;
+	}
+}
@@ -15,6 +15,17 @@ public class ZoneProperties implements Serializable {
 		this.zoneName = zoneName;
 	}
 
+	/**
+	 * Copies a zone's properties, with its own copy of the playlist, so the copy does not
+	 * change when the zone's queue does.
+	 * @param other - The properties to copy
+	 */
+	public ZoneProperties(ZoneProperties other) {
+		this.zoneName = other.zoneName;
+		this.password = other.password;
+		this.playList.addAll(other.playList);
+	}
+
 	/**
 	 * Appends the specified element to the end of the queue
 	 * @param song Song to add to back of queue
@@ -27,6 +27,15 @@ public interface ServiceCallback {
 	 */
 	void notifyGUISongProgress(long timeStamp);
 	
+	/**
+	 * Notify the GUI of the state of the receive buffer
+	 * @param fillMillis Audio in the buffer, in milliseconds
+	 * @param targetMillis Audio the buffer is trying to hold, in milliseconds
+	 * @param underruns Number of times the buffer has run dry
+	 * @param latePackets Number of packets dropped for arriving too late
+	 */
+	void notifyGUIBufferStatus(long fillMillis, long targetMillis, long underruns, long latePackets);
+	
 	/**
 	 * True if the stream is currently playing, false otherwise.
 	 * @param isPlaying
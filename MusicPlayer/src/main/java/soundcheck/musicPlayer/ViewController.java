@@ -3,6 +3,7 @@ package soundcheck.musicPlayer;
 import java.awt.EventQueue;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
@@ -15,6 +16,7 @@ import soundcheck.musicPlayer.streaming.StreamController;
 import soundcheck.musicPlayer.view.PlayerGUI;
 import soundcheck.shared.Const.Command;
 import soundcheck.shared.DataPacket;
+import soundcheck.shared.InterfaceDelta;
 import soundcheck.shared.PacketCreator;
 import soundcheck.shared.Peer;
 import soundcheck.shared.Song;
@@ -36,6 +38,11 @@ public class ViewController implements ServiceCallback {
 	
 	private Peer localPeer;
 
+	private long interfaceVersion = 0;  //Version of the last InterfaceDelta applied
+	private boolean snapshotRequested = true;  //Whether a snapshot has been asked for and not yet received
+	private final Map<String, Peer> peers = new LinkedHashMap<String, Peer>();  //Peers by UID, as of interfaceVersion
+	private final Map<Zone, ZoneProperties> zones = new ConcurrentHashMap<Zone, ZoneProperties>();  //Zones, as of interfaceVersion
+
 	public static void startView() throws InterruptedException {
 		
 		ViewController ic = new ViewController();
@@ -132,6 +139,10 @@ public class ViewController implements ServiceCallback {
 					}
 					break;
 					
+				case INTERFACE_DELTA:
+					applyDelta((InterfaceDelta) recData.getData());
+					break;
+
 				case CONFIG:
 					gui.setInitConfig((HashMap<String,String>) recData.getData());
 					break;
@@ -142,6 +153,63 @@ public class ViewController implements ServiceCallback {
 		}
 	}
 
+	/**
+	 * Applies changes to the peers, library and zones sent by the service. A delta that does
+	 * not follow the last one applied is dropped, and a snapshot is asked for.
+	 * @param delta
+	 */
+	private void applyDelta(InterfaceDelta delta) {
+		if( delta.isSnapshot() ) {
+			logger.trace("Received {} from service", delta);
+
+			peers.clear();
+			zones.clear();
+			snapshotRequested = false;
+		} else if( delta.getVersion() != interfaceVersion + 1 ) {
+			logger.debug("Missed changes before {}, last applied {}", delta, interfaceVersion);
+
+			if( !snapshotRequested ) {
+				snapshotRequested = true;
+				notify(Command.REQUEST_UPDATE, null, null);
+			}
+			return;
+		}
+
+		interfaceVersion = delta.getVersion();
+
+		zones.putAll(delta.getZones());
+
+		for( String uid : delta.getRemovedPeers() ) {
+			peers.remove(uid);
+		}
+		for( Peer peer : delta.getPeers() ) {
+			peers.put(peer.getUid(), peer);
+		}
+
+		boolean zonesChanged = delta.isSnapshot() || !delta.getZones().isEmpty();
+		boolean peersChanged = zonesChanged || !delta.getPeers().isEmpty() || !delta.getRemovedPeers().isEmpty();
+
+		try {
+			if( zonesChanged ) {
+				gui.updateZoneMap(new ConcurrentHashMap<Zone, ZoneProperties>(zones));
+			}
+
+			// Peers are shown with the names of their zones
+			if( peersChanged ) {
+				gui.updatePeerList(new ArrayList<Peer>(peers.values()));
+			}
+
+			if( delta.isSnapshot() ) {
+				gui.updateSongList(delta.getAddedSongs());
+			} else if( !delta.getAddedSongs().isEmpty() || !delta.getRemovedSongs().isEmpty() ) {
+				gui.applySongChanges(delta.getAddedSongs(), delta.getRemovedSongs());
+			}
+		} catch (NullPointerException e) {
+			// May be thrown if interface has not yet finished initializing.
+			logger.warn("Interface is not ready to receive changes",e);
+		}
+	}
+
 	/**
 	 * Create the graphic user interface
 	 */
@@ -189,6 +257,15 @@ public class ViewController implements ServiceCallback {
 		gui.updateProgressBar(timeStamp);
 	}
 	
+	/**
+	 * Called by the streaming code to notify the GUI of the
+	 * state of the receive buffer
+	 */
+	@Override
+	public void notifyGUIBufferStatus(long fillMillis, long targetMillis, long underruns, long latePackets) {
+		gui.updateBufferStatus(fillMillis, targetMillis, underruns, latePackets);
+	}
+	
 	@Override
 	public void isStreaming(boolean isPlaying) {
 		gui.isStreaming(isPlaying);
@@ -216,6 +293,15 @@ public class ViewController implements ServiceCallback {
 		case NEXT:
 			isStreamingCmd = true;
 			break;
+		case PRELOAD:
+			isStreamingCmd = true;
+			break;
+		case SEEK:
+			isStreamingCmd = true;
+			break;
+		case SYNC:
+			isStreamingCmd = true;
+			break;
 		case TEARDOWN:
 			isStreamingCmd = true;
 			break;
@@ -1,9 +1,11 @@
 package soundcheck.musicPlayer.interprocess;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.EOFException;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.net.Socket;
 import java.net.SocketException;
 import java.net.UnknownHostException;
@@ -14,13 +16,14 @@ import org.slf4j.LoggerFactory;
 import soundcheck.shared.Const;
 import soundcheck.shared.Const.Service;
 import soundcheck.shared.DataPacket;
+import soundcheck.shared.WireCodec;
 
 public class ServiceConnection {
 	final static Logger logger = LoggerFactory.getLogger(ServiceConnection.class);
 
 	private Socket socket = null;
-	private ObjectOutputStream out = null;
-	private ObjectInputStream in = null;
+	private DataOutputStream out = null;
+	private DataInputStream in = null;
 
 	public ServiceConnection() {
 		if( establishConnection() == false ) {
@@ -39,8 +42,7 @@ public class ServiceConnection {
 			logger.trace("Connecting to service.");
 
 			socket = new Socket("localhost", Const.INTERFACE_PORT);
-			out = new ObjectOutputStream( socket.getOutputStream() );
-			in = new ObjectInputStream( socket.getInputStream() );
+			openStreams();
 
 		} catch (UnknownHostException e) {
 			logger.error("Could not find host.", e);
@@ -52,13 +54,22 @@ public class ServiceConnection {
 		return true;
 	}
 
+	/**
+	 * Wrap the socket's streams. Packets are sent as WireCodec frames.
+	 * @throws IOException
+	 */
+	private void openStreams() throws IOException {
+		out = new DataOutputStream( new BufferedOutputStream(socket.getOutputStream()) );
+		in = new DataInputStream( new BufferedInputStream(socket.getInputStream()) );
+	}
+
 	/**
 	 * Send a data packet to the service
 	 * @param transportObject
 	 */
 	public void sendData(DataPacket transportObject) {
 		try{
-			out.writeObject(transportObject);
+			WireCodec.writeFrame(out, transportObject);
 			out.flush();
 		} catch(Exception e) {
 			logger.error("", e);
@@ -76,7 +87,7 @@ public class ServiceConnection {
 		try {
 			// Listen for packets until valid packet is received
 			do {
-				recData = (DataPacket) in.readObject();
+				recData = WireCodec.readFrame(in);
 			} while( recData.getService() != Service.INTERPROCESS);
 
 			logger.trace("Data received from service.");
@@ -97,8 +108,7 @@ public class ServiceConnection {
 				try {
 					socket.close();
 					socket = new Socket("localhost", Const.INTERFACE_PORT);
-					out = new ObjectOutputStream( socket.getOutputStream() );
-					in = new ObjectInputStream( socket.getInputStream() );
+					openStreams();
 				} catch( IOException ioerror) {
 					logger.error("",ioerror);
 				}
@@ -109,8 +119,6 @@ public class ServiceConnection {
 			} catch (IOException e1) {
 				logger.error("", e);
 			}
-		} catch (ClassNotFoundException e) {
-			logger.error("", e);
 		}
 
 		return recData;
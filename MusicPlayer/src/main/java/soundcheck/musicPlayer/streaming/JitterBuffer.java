@@ -0,0 +1,291 @@
+package soundcheck.musicPlayer.streaming;
+
+import java.util.LinkedList;
+import java.util.ListIterator;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.xuggle.xuggler.IPacket;
+
+/**
+ * Holds received packets between the network read and the decoder so that variation in
+ * packet arrival times does not reach the audio line.
+ *
+ * Inter-arrival jitter is estimated the same way RTP receivers do (RFC 3550 section 6.4.1):
+ * the difference between the arrival spacing and the time stamp spacing of consecutive
+ * packets, smoothed with a gain of 1/16. The target depth follows that estimate. Playback
+ * waits until the buffer holds the target depth, and if the buffer runs dry it waits for it
+ * to refill instead of playing each packet the moment it arrives.
+ *
+ * Packets are kept in time stamp order, so one that arrives out of order is played in its
+ * place. Audio above the target is played out rather than discarded. Packets are only
+ * dropped if the buffer passes MAX_BUFFER_MILLIS, which is far more than any target.
+ *
+ * EXAMPLE
+ * 		reader thread:   buffer.put(IPacket.make(packet, true));
+ * 		decoder thread:  IPacket packet = buffer.take();
+ *
+ */
+public class JitterBuffer {
+
+	final static Logger logger = LoggerFactory.getLogger(JitterBuffer.class);
+
+	public final static long MIN_TARGET_MILLIS = 100;  //Smallest amount of audio held before playing
+
+	public final static long MAX_TARGET_MILLIS = 2000;  //Largest amount of audio held before playing
+
+	public final static long MAX_BUFFER_MILLIS = 10000;  //Most audio held, the oldest is dropped beyond this
+
+	private final static double JITTER_MULTIPLIER = 4.0;  //Target depth as a multiple of the jitter estimate
+
+	private final static double INITIAL_JITTER_MILLIS = 50.0;  //Jitter assumed before any packets have been measured
+
+	private final static long REPORT_INTERVAL_NANOS = 10000000000L;  //How often the buffer status is logged (10 seconds)
+
+	private final LinkedList<IPacket> packets = new LinkedList<IPacket>();
+
+	private long bufferedMillis = 0;  //Duration of the audio in the buffer
+
+	private double jitterMillis = INITIAL_JITTER_MILLIS;
+
+	private long lastArrivalNanos = -1;
+
+	private long lastArrivalTimeStampMillis;
+
+	private long lastTakenTimeStampMillis = Long.MIN_VALUE;
+
+	private boolean buffering = true;  //Whether playback is waiting for the buffer to fill
+
+	private boolean finished = false;  //No more packets will be put
+
+	private boolean closed = false;
+
+	private long lastReportNanos = System.nanoTime();
+
+	private volatile long underruns = 0;
+
+	private volatile long latePackets = 0;
+
+	private volatile long overflowPackets = 0;
+
+	/**
+	 * Adds a received packet. Never blocks.
+	 *
+	 * @param packet - The packet. The buffer takes ownership of it.
+	 */
+	public synchronized void put(IPacket packet) {
+
+		if(closed){
+			packet.delete();
+			return;
+		}
+
+		long now = System.nanoTime();
+
+		long timeStampMillis = getTimeStampMillis(packet);
+
+		// Its place in the audio has already been played, or it was received twice
+		if(timeStampMillis <= lastTakenTimeStampMillis || !insert(packet, timeStampMillis)){
+			latePackets++;
+			packet.delete();
+			return;
+		}
+
+		if(lastArrivalNanos >= 0){
+			double arrivalSpacing = (now - lastArrivalNanos) / 1000000.0;
+			double timeStampSpacing = timeStampMillis - lastArrivalTimeStampMillis;
+
+			double deviation = Math.min(Math.abs(arrivalSpacing - timeStampSpacing), MAX_TARGET_MILLIS);
+
+			jitterMillis += (deviation - jitterMillis) / 16.0;
+		}
+
+		lastArrivalNanos = now;
+		lastArrivalTimeStampMillis = timeStampMillis;
+
+		bufferedMillis += getDurationMillis(packet);
+
+		// Only reached if playback has stopped taking packets
+		while(bufferedMillis > MAX_BUFFER_MILLIS && packets.size() > 1){
+			removeFirst().delete();
+			overflowPackets++;
+
+			if(overflowPackets % 100 == 1){
+				logger.warn("Jitter buffer passed {} ms, {} packets dropped so far.", MAX_BUFFER_MILLIS, overflowPackets);
+			}
+		}
+
+		notifyAll();
+	}
+
+	/**
+	 * Takes the next packet to decode, waiting while the buffer fills.
+	 *
+	 * @return - The next packet, which the caller must delete, or null once the stream has ended or the buffer is closed
+	 * @throws InterruptedException
+	 */
+	public synchronized IPacket take() throws InterruptedException {
+
+		while(!closed){
+
+			if(buffering){
+				if(bufferedMillis >= getTargetMillis() || (finished && !packets.isEmpty())){
+					buffering = false;
+				}
+				else if(finished){
+					return null;
+				}
+				else{
+					wait();
+					continue;
+				}
+			}
+
+			if(packets.isEmpty()){
+				if(finished){
+					return null;
+				}
+
+				underruns++;
+				buffering = true;
+
+				logger.debug("Jitter buffer ran dry, refilling to {} ms ({} underruns).", getTargetMillis(), underruns);
+				continue;
+			}
+
+			IPacket packet = removeFirst();
+
+			lastTakenTimeStampMillis = getTimeStampMillis(packet);
+
+			report();
+
+			return packet;
+		}
+
+		return null;
+	}
+
+	/**
+	 * Tells the buffer no more packets will be put. Packets already in it can still be taken.
+	 */
+	public synchronized void finish() {
+		finished = true;
+		notifyAll();
+	}
+
+	/**
+	 * Discards all packets and wakes a waiting take().
+	 */
+	public synchronized void close() {
+		closed = true;
+
+		while(!packets.isEmpty()){
+			removeFirst().delete();
+		}
+
+		notifyAll();
+	}
+
+	/**
+	 * Forgets the last arrival time, so the gap in arrivals caused by a pause is not counted as jitter.
+	 */
+	public synchronized void resetArrivalTiming() {
+		lastArrivalNanos = -1;
+	}
+
+	/**
+	 * Puts a packet in its place by time stamp. Packets usually arrive in order, so the
+	 * search starts from the newest.
+	 *
+	 * @param packet - The packet
+	 * @param timeStampMillis - Its time stamp
+	 * @return - False if a packet with the same time stamp is already buffered
+	 */
+	private boolean insert(IPacket packet, long timeStampMillis) {
+		ListIterator<IPacket> position = packets.listIterator(packets.size());
+
+		while(position.hasPrevious()){
+			long previous = getTimeStampMillis(position.previous());
+
+			if(previous == timeStampMillis){
+				return false;
+			}
+
+			if(previous < timeStampMillis){
+				position.next();
+				break;
+			}
+		}
+
+		position.add(packet);
+
+		return true;
+	}
+
+	private IPacket removeFirst() {
+		IPacket packet = packets.removeFirst();
+		bufferedMillis -= getDurationMillis(packet);
+		return packet;
+	}
+
+	private void report() {
+		long now = System.nanoTime();
+
+		if(now - lastReportNanos >= REPORT_INTERVAL_NANOS){
+			logger.debug("Jitter buffer {}/{} ms, jitter {} ms ({} underruns, {} late, {} overflowed).",
+					new Object[]{bufferedMillis, getTargetMillis(), (long) jitterMillis, underruns, latePackets, overflowPackets});
+			lastReportNanos = now;
+		}
+	}
+
+	private static long getTimeStampMillis(IPacket packet) {
+		return (long) (packet.getTimeStamp() * packet.getTimeBase().getValue() * 1000);
+	}
+
+	private static long getDurationMillis(IPacket packet) {
+		return (long) (packet.getDuration() * packet.getTimeBase().getValue() * 1000);
+	}
+
+	/**
+	 * @return - How much audio the buffer tries to hold, in milliseconds
+	 */
+	public synchronized long getTargetMillis() {
+		return Math.max(MIN_TARGET_MILLIS, Math.min(MAX_TARGET_MILLIS, (long) (jitterMillis * JITTER_MULTIPLIER)));
+	}
+
+	/**
+	 * @return - How much audio is in the buffer, in milliseconds
+	 */
+	public synchronized long getFillMillis() {
+		return bufferedMillis;
+	}
+
+	/**
+	 * @return - The current inter-arrival jitter estimate, in milliseconds
+	 */
+	public synchronized long getJitterMillis() {
+		return (long) jitterMillis;
+	}
+
+	/**
+	 * @return - Number of times playback caught up with the network and had to wait for the buffer to refill
+	 */
+	public long getUnderruns() {
+		return underruns;
+	}
+
+	/**
+	 * @return - Number of packets dropped because they arrived after their place in the audio was played, or twice
+	 */
+	public long getLatePackets() {
+		return latePackets;
+	}
+
+	/**
+	 * @return - Number of packets dropped because the buffer passed MAX_BUFFER_MILLIS
+	 */
+	public long getOverflowPackets() {
+		return overflowPackets;
+	}
+}
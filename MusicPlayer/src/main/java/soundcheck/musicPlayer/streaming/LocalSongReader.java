@@ -0,0 +1,126 @@
+package soundcheck.musicPlayer.streaming;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.xuggle.xuggler.IContainer;
+import com.xuggle.xuggler.IContainer.Type;
+import com.xuggle.xuggler.IPacket;
+import com.xuggle.xuggler.IRational;
+import com.xuggle.xuggler.IStream;
+import com.xuggle.xuggler.IStreamCoder;
+
+/**
+ * Reads a song straight from its file, for a receiver on the same computer as the
+ * publisher. The audio does not go through RTP, the network or the jitter buffer.
+ *
+ * Packets are read as the decoder asks for them, so reading is held back by the PCM
+ * ring in the same way decoding is.
+ *
+ */
+public class LocalSongReader {
+
+	final static Logger logger = LoggerFactory.getLogger(LocalSongReader.class);
+
+	private final String filePath;
+
+	private IContainer container;
+
+	private IStreamCoder coder;
+
+	private IPacket packet;
+
+	/**
+	 * @param filePath - Path of the song file
+	 */
+	public LocalSongReader(String filePath) {
+		this.filePath = filePath;
+	}
+
+	/**
+	 * Opens the song file and finds its audio coder. The coder is not opened.
+	 *
+	 * @return - Whether the file could be opened
+	 */
+	public boolean open() {
+
+		container = IContainer.make();
+
+		if(container.open(filePath, Type.READ, null) < 0){
+			logger.warn("Could not open {} for local playback", filePath);
+			container = null;
+			return false;
+		}
+
+		IStream stream = container.getStream(0);
+
+		coder = stream.getStreamCoder();
+
+		coder.setTimeBase(stream.getTimeBase());
+
+		packet = IPacket.make();
+
+		return true;
+	}
+
+	/**
+	 * Reads the next audio packet.
+	 *
+	 * @return - A packet the caller must delete, or null at the end of the song
+	 */
+	public IPacket readPacket() {
+
+		while(container.readNextPacket(packet) >= 0){
+			if(packet.isComplete() && packet.getStreamIndex() == 0){
+				return IPacket.make(packet, true);
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Moves to the key frame at or before a position in the song.
+	 *
+	 * @param positionMillis - Position in the song, in milliseconds
+	 * @return - Whether the seek succeeded
+	 */
+	public boolean seek(long positionMillis) {
+
+		IRational timeBase = container.getStream(0).getTimeBase();
+
+		long target = (long) (positionMillis / 1000.0 * timeBase.getDenominator() / timeBase.getNumerator());
+
+		if(container.seekKeyFrame(0, target, IContainer.SEEK_FLAG_BACKWARDS) < 0){
+			logger.warn("Seeking to {} ms failed for {}", positionMillis, filePath);
+			return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Closes the coder and file.
+	 */
+	public void close() {
+		if(coder != null){
+			coder.close();
+			coder = null;
+		}
+		if(packet != null){
+			packet.delete();
+			packet = null;
+		}
+		if(container != null){
+			container.close();
+			container = null;
+		}
+	}
+
+	/**
+	 * @return - The coder for the song's audio
+	 */
+	public IStreamCoder getCoder() {
+		return coder;
+	}
+}
@@ -0,0 +1,249 @@
+package soundcheck.musicPlayer.streaming;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fixed size ring of decoded PCM bytes between one decode thread and one output thread.
+ *
+ * The positions are running byte counts. Only the decode thread moves the write position
+ * and only the output thread moves the read position, so no locks are needed and nothing
+ * is allocated once the ring is made. Neither side blocks, each returns how much it could
+ * copy and the caller decides how to wait.
+ *
+ * Reads are always a whole number of audio frames, so they can be written straight to a
+ * SourceDataLine.
+ *
+ * The decode thread can mark where on the stream's timeline the next bytes it writes
+ * belong, so the output thread can tell what part of the stream it is about to play. The
+ * mark is kept in place rather than replaced, as it is made for every decoded packet.
+ *
+ */
+public class PcmRingBuffer {
+
+	private final byte[] ring;
+
+	private final int frameSize;
+
+	private final int frameRate;
+
+	private final AtomicLong writePosition = new AtomicLong();
+
+	private final AtomicLong readPosition = new AtomicLong();
+
+	private volatile long flushPosition = 0;  //Bytes before this position are to be discarded unplayed
+
+	private long appliedFlushPosition = 0;  //Last flush the output thread carried out
+
+	private volatile boolean finished = false;
+
+	// Latest position on the stream's timeline marked by the decode thread. The version is odd
+	// while the decode thread changes the mark, and 0 until the first mark
+	private volatile int markVersion = 0;
+
+	private volatile long markPosition = 0;
+
+	private volatile long markMillis = 0;
+
+	/**
+	 * @param capacity - Size of the ring in bytes. Rounded down to a whole number of frames.
+	 * @param frameSize - Bytes per audio frame (all channels of one sample)
+	 * @param frameRate - Audio frames per second
+	 */
+	public PcmRingBuffer(int capacity, int frameSize, int frameRate) {
+		this.frameSize = frameSize;
+		this.frameRate = frameRate;
+		this.ring = new byte[Math.max(frameSize, capacity - capacity % frameSize)];
+	}
+
+	/**
+	 * Copies as much of the data into the ring as fits. Decode thread only.
+	 *
+	 * @param data - PCM bytes
+	 * @param offset - Start of the bytes in data
+	 * @param length - Number of bytes
+	 * @return - Number of bytes copied, 0 if the ring is full
+	 */
+	public int write(byte[] data, int offset, int length) {
+
+		long write = writePosition.get();
+		long read = readPosition.get();
+
+		int count = (int) Math.min(length, ring.length - (write - read));
+
+		if(count <= 0){
+			return 0;
+		}
+
+		int start = (int) (write % ring.length);
+		int firstPart = Math.min(count, ring.length - start);
+
+		System.arraycopy(data, offset, ring, start, firstPart);
+		System.arraycopy(data, offset + firstPart, ring, 0, count - firstPart);
+
+		// Publish the bytes only after they have been copied
+		writePosition.lazySet(write + count);
+
+		return count;
+	}
+
+	/**
+	 * Copies whole frames out of the ring. Output thread only.
+	 *
+	 * @param dest - Array to copy into
+	 * @param offset - Where to start in dest
+	 * @param length - Most bytes to copy
+	 * @return - Number of bytes copied, 0 if there is not a whole frame available, or -1 once finished and empty
+	 */
+	public int read(byte[] dest, int offset, int length) {
+
+		// Checked first, so every byte written before finish() is counted below
+		boolean done = finished;
+
+		long read = readPosition.get();
+		long write = writePosition.get();
+
+		long available = write - read;
+
+		if(available < frameSize){
+			return done ? -1 : 0;
+		}
+
+		int count = (int) Math.min(length, available);
+		count -= count % frameSize;
+
+		int start = (int) (read % ring.length);
+		int firstPart = Math.min(count, ring.length - start);
+
+		System.arraycopy(ring, start, dest, offset, firstPart);
+		System.arraycopy(ring, 0, dest, offset + firstPart, count - firstPart);
+
+		readPosition.lazySet(read + count);
+
+		return count;
+	}
+
+	/**
+	 * Discards bytes without playing them, to catch up with where playback should be. Output thread only.
+	 *
+	 * @param length - Most bytes to discard. Rounded down to a whole number of frames.
+	 * @return - Number of bytes discarded
+	 */
+	public int skip(int length) {
+
+		long read = readPosition.get();
+
+		int count = (int) Math.min(length, writePosition.get() - read);
+		count -= count % frameSize;
+
+		if(count > 0){
+			readPosition.lazySet(read + count);
+		}
+
+		return Math.max(count, 0);
+	}
+
+	/**
+	 * Records where on the stream's timeline the next byte written belongs. Decode thread only.
+	 *
+	 * @param streamMillis - Position on the stream's timeline, in milliseconds
+	 */
+	public void markTime(long streamMillis) {
+		int version = markVersion;
+
+		markVersion = version + 1;
+		markPosition = writePosition.get();
+		markMillis = streamMillis;
+		markVersion = version + 2;
+	}
+
+	/**
+	 * Works out where on the stream's timeline the next byte to be read belongs, counting
+	 * back from the latest mark. Output thread only.
+	 *
+	 * @return - Position on the stream's timeline, in milliseconds, or -1 if nothing has been marked
+	 */
+	public long getReadTimeMillis() {
+		int version;
+		long position;
+		long streamMillis;
+
+		// Read again if the decode thread changed the mark part way through
+		do {
+			version = markVersion;
+			position = markPosition;
+			streamMillis = markMillis;
+		} while((version & 1) != 0 || version != markVersion);
+
+		if(version == 0){
+			return -1;
+		}
+
+		long bytesBefore = position - readPosition.get();
+
+		return streamMillis - bytesBefore * 1000 / ((long) frameSize * frameRate);
+	}
+
+	/**
+	 * Asks the output thread to discard everything written so far. Decode thread only.
+	 * Bytes written after this call are kept.
+	 */
+	public void requestFlush() {
+		flushPosition = writePosition.get();
+	}
+
+	/**
+	 * Discards the bytes a flush was requested for. Output thread only.
+	 *
+	 * @return - Whether a flush was requested since the last call, in which case the audio line should be flushed too
+	 */
+	public boolean applyFlush() {
+		long flushTo = flushPosition;
+
+		if(flushTo == appliedFlushPosition){
+			return false;
+		}
+
+		appliedFlushPosition = flushTo;
+
+		if(flushTo > readPosition.get()){
+			readPosition.lazySet(flushTo);
+		}
+
+		return true;
+	}
+
+	/**
+	 * Marks that no more bytes will be written. Reads return -1 once the ring is empty.
+	 */
+	public void finish() {
+		finished = true;
+	}
+
+	/**
+	 * @return - Number of bytes waiting to be played
+	 */
+	public int getAvailable() {
+		return (int) (writePosition.get() - readPosition.get());
+	}
+
+	/**
+	 * @return - Size of the ring in bytes
+	 */
+	public int getCapacity() {
+		return ring.length;
+	}
+
+	/**
+	 * @return - Bytes per audio frame
+	 */
+	public int getFrameSize() {
+		return frameSize;
+	}
+
+	/**
+	 * @return - Audio frames per second
+	 */
+	public int getFrameRate() {
+		return frameRate;
+	}
+}
@@ -0,0 +1,164 @@
+package soundcheck.musicPlayer.streaming;
+
+/**
+ * The schedule the receivers in a zone play a stream to, so every speaker in the zone is
+ * heard at the same moment.
+ *
+ * The publisher sends an anchor: a position on the stream's timeline and the time it is to
+ * be heard, already converted to this computer's clock by the service. The rest of the
+ * schedule follows from it, one millisecond of audio per millisecond of clock.
+ *
+ * The output thread compares each chunk it is about to write with the schedule. Small
+ * errors, such as the audio device's clock running slightly fast or slow, are corrected by
+ * resampling each chunk to a few frames more or fewer, which is not audible. Large errors,
+ * such as at the start of a stream, are corrected by waiting or skipping ahead.
+ *
+ * EXAMPLE
+ * 		long error = clock.getErrorMillis(ring.getReadTimeMillis(), now + queuedMillis);
+ * 		int extraFrames = clock.getCorrectionFrames(error, frames, frameRate);
+ *
+ */
+public class PlayoutClock {
+
+	public final static long NO_ANCHOR = Long.MIN_VALUE;
+
+	public final static long JUMP_MILLIS = 50;  //Errors larger than this are corrected by waiting or skipping instead of resampling
+
+	private final static long DEAD_BAND_MILLIS = 5;  //Errors smaller than this are left alone
+
+	private final static double MAX_CORRECTION = 0.005;  //Largest change in playback rate used to correct drift
+
+	private final static double ERROR_GAIN = 1.0 / 8;  //Smoothing of the measured error, which is only as fine as the audio line reports
+
+	private volatile Anchor anchor;
+
+	private double smoothedErrorMillis = 0;  //Output thread only
+
+	/**
+	 * Sets the schedule.
+	 *
+	 * @param streamMillis - Position on the stream's timeline
+	 * @param localMillis - Time on this computer's clock at which that position is to be heard
+	 */
+	public void setAnchor(long streamMillis, long localMillis) {
+		anchor = new Anchor(streamMillis, localMillis);
+	}
+
+	/**
+	 * Forgets the schedule, for instance when the stream is paused. Playback runs unscheduled
+	 * until the next anchor arrives.
+	 */
+	public void clear() {
+		anchor = null;
+	}
+
+	/**
+	 * @return - Whether there is a schedule to play to
+	 */
+	public boolean hasAnchor() {
+		return anchor != null;
+	}
+
+	/**
+	 * @param streamMillis - Position on the stream's timeline of the audio about to be written
+	 * @param heardAtMillis - When that audio will be heard if written now, on this computer's clock
+	 * @return - How late (positive) or early (negative) the audio would be heard, in milliseconds, or NO_ANCHOR if there is no schedule
+	 */
+	public long getErrorMillis(long streamMillis, long heardAtMillis) {
+		Anchor current = anchor;
+
+		if(current == null || streamMillis < 0){
+			return NO_ANCHOR;
+		}
+
+		return heardAtMillis - (current.localMillis + streamMillis - current.streamMillis);
+	}
+
+	/**
+	 * Works out how many frames to add to a chunk so playback drifts back onto the schedule.
+	 * Output thread only.
+	 *
+	 * @param errorMillis - Error from getErrorMillis
+	 * @param frames - Frames in the chunk
+	 * @param frameRate - Frames per second
+	 * @return - Frames to add to the chunk, negative to remove frames
+	 */
+	public int getCorrectionFrames(long errorMillis, int frames, int frameRate) {
+
+		smoothedErrorMillis += (errorMillis - smoothedErrorMillis) * ERROR_GAIN;
+
+		if(Math.abs(smoothedErrorMillis) < DEAD_BAND_MILLIS){
+			return 0;
+		}
+
+		int maxFrames = Math.max(1, (int) (frames * MAX_CORRECTION));
+
+		int errorFrames = (int) (smoothedErrorMillis * frameRate / 1000);
+
+		// Late audio is played with fewer frames, early audio with more
+		return -Math.max(-maxFrames, Math.min(maxFrames, errorFrames));
+	}
+
+	/**
+	 * Forgets the smoothed error after a wait or skip has moved playback. Output thread only.
+	 */
+	public void resetError() {
+		smoothedErrorMillis = 0;
+	}
+
+	/**
+	 * Stretches or squeezes 16 bit little endian PCM to a different number of frames by linear interpolation.
+	 *
+	 * @param in - The audio
+	 * @param inFrames - Frames in the audio
+	 * @param out - Array for the result. Must hold outFrames frames.
+	 * @param outFrames - Frames to produce
+	 * @param channels - Samples per frame
+	 */
+	public static void resample(byte[] in, int inFrames, byte[] out, int outFrames, int channels) {
+
+		double step = outFrames > 1 ? (inFrames - 1) / (double) (outFrames - 1) : 0;
+
+		for(int frame = 0; frame < outFrames; frame++){
+
+			double source = frame * step;
+
+			int before = (int) source;
+			int after = Math.min(before + 1, inFrames - 1);
+
+			double fraction = source - before;
+
+			for(int channel = 0; channel < channels; channel++){
+
+				int first = getSample(in, before * channels + channel);
+				int second = getSample(in, after * channels + channel);
+
+				int value = (int) Math.round(first + (second - first) * fraction);
+
+				int index = (frame * channels + channel) * 2;
+
+				out[index] = (byte) value;
+				out[index + 1] = (byte) (value >> 8);
+			}
+		}
+	}
+
+	private static int getSample(byte[] pcm, int sample) {
+		return (pcm[sample * 2] & 0xFF) | (pcm[sample * 2 + 1] << 8);
+	}
+
+	/**
+	 * A position on the stream's timeline and when it is to be heard.
+	 */
+	private static final class Anchor {
+
+		private final long streamMillis;
+
+		private final long localMillis;
+
+		private Anchor(long streamMillis, long localMillis) {
+			this.streamMillis = streamMillis;
+			this.localMillis = localMillis;
+		}
+	}
+}
@@ -34,6 +34,18 @@ public abstract class Stream {
 			pause();
 			break;
 
+		case SEEK:
+			seek(streamInfo);
+			break;
+
+		case PRELOAD:
+			preload(streamInfo);
+			break;
+
+		case SYNC:
+			sync(streamInfo);
+			break;
+
 		case TEARDOWN:
 			teardown();
 			break;
@@ -65,6 +77,30 @@ public abstract class Stream {
 	 */
 	protected abstract boolean pause();
 	
+	/**
+	 * Move the stream to a position in the song.   Extending classes must implement this method.
+	 * 
+	 * @param seekInfo - Info with the position to move to
+	 * @return - Whether the seek was accepted
+	 */
+	protected abstract boolean seek(Object seekInfo);
+	
+	/**
+	 * Note the song that will follow the current one on the same stream.   Extending classes must implement this method.
+	 * 
+	 * @param preloadInfo - Info for the song that will follow
+	 * @return - Whether the song was accepted
+	 */
+	protected abstract boolean preload(Object preloadInfo);
+	
+	/**
+	 * Set when positions on the stream are to be heard.   Extending classes must implement this method.
+	 * 
+	 * @param syncInfo - Info with a stream position and the time it is to be heard
+	 * @return - Whether the schedule was accepted
+	 */
+	protected abstract boolean sync(Object syncInfo);
+	
 	/**
 	 * Teardown/close the stream.   Extending classes must implement this method.
 	 * 
@@ -32,12 +32,22 @@ public class StreamController {
 		
 		StreamInfo streamInfo = (StreamInfo) packet.getData();
 		
+		// The publisher lost its multicast address and moved the stream, start receiving from the new one
+		if(packet.getCommand() == Command.PLAY && strReceiver.isMovedBy(streamInfo)){
+			strReceiver.processCommand(Command.TEARDOWN, null);
+			
+			strReceiver = new StreamReceiver(callback);
+		}
+		
 		strReceiver.processCommand(packet.getCommand(), streamInfo);
 		
 		if(packet.getCommand() == Command.TEARDOWN){
 			strReceiver = null;
 		}
 		
-		callback.notify( packet.getCommand(), streamInfo  );  //Send response to the source
+		//Preload, seek and sync are announced by the publisher and need no response
+		if(packet.getCommand() != Command.PRELOAD && packet.getCommand() != Command.SEEK && packet.getCommand() != Command.SYNC){
+			callback.notify( packet.getCommand(), streamInfo  );  //Send response to the source
+		}
 	}
 }
@@ -1,7 +1,9 @@
 package soundcheck.musicPlayer.streaming;
 
-import java.util.HashMap;
+import java.io.File;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.LockSupport;
 
 import javax.sound.sampled.AudioFormat;
 import javax.sound.sampled.AudioSystem;
@@ -17,7 +19,9 @@ import soundcheck.shared.Const.Command;
 import soundcheck.shared.Const.PlayBack_State;
 import soundcheck.shared.StreamInfo;
 
+import com.xuggle.ferry.IBuffer;
 import com.xuggle.xuggler.IAudioSamples;
+import com.xuggle.xuggler.ICodec;
 import com.xuggle.xuggler.IContainer;
 import com.xuggle.xuggler.IContainer.Type;
 import com.xuggle.xuggler.IContainerFormat;
@@ -31,7 +35,7 @@ public class StreamReceiver extends Stream implements Runnable{
 	
 	private volatile PlayBack_State state = PlayBack_State.INIT;  //The current state of the stream
 	
-	private StreamInfo streamInfo;
+	private volatile StreamInfo streamInfo;
 	
 	private volatile boolean alive = true;  //Whether to keep the thread the stream is running on alive
 	
@@ -43,6 +47,24 @@ public class StreamReceiver extends Stream implements Runnable{
 	
 	private ServiceCallback callback;
 	
+	private volatile StreamInfo nextStreamInfo;  //The song the publisher will continue the stream with, if any
+	
+	private volatile StreamInfo lastPreloaded;  //The song most recently announced by the publisher
+	
+	private volatile StreamInfo pendingSeek;  //A seek the publisher has made that playback has not caught up with
+	
+	private volatile JitterBuffer jitterBuffer;
+	
+	private final PlayoutClock playoutClock = new PlayoutClock();  //When the publisher wants each part of the stream heard
+	
+	private final static long READER_JOIN_MILLIS = 1000;  //How long to wait for the reader to let go of the container
+	
+	private final static int PCM_BUFFER_MILLIS = 250;  //How far decoding may run ahead of the audio line
+	
+	private final static int OUTPUT_CHUNK_BYTES = 4096;  //Most bytes written to the audio line at once
+	
+	private final static long RING_WAIT_NANOS = 1000000L;  //How long to wait when the PCM ring is full or empty
+	
 	public StreamReceiver (ServiceCallback callback) {
 		this.callback = callback;
 	}
@@ -53,8 +75,18 @@ public class StreamReceiver extends Stream implements Runnable{
 		// format the url for the stream source location (Need to modify for unicast vs multicast)
 		// may move to passing streaminfo to music player and forming url there
 		String streamURL = "rtp://" + streamInfo.getIpAddress() + ":5005?multicast";
+		
+		String localPath = streamInfo.getLocalFilePath();
 
-		playSong(streamURL);
+		// The publisher is on this computer, so read the song from its file instead of the network
+		if (localPath != null && new File(localPath).canRead()) {
+			logger.debug("Playing {} from its local file", localPath);
+			
+			playSong(localPath);
+		}
+		else {
+			playSong(streamURL);
+		}
 		
 		try {
 			Thread.sleep(375);  
@@ -129,6 +161,12 @@ public class StreamReceiver extends Stream implements Runnable{
 			
 			state = PlayBack_State.PLAYING;
 			
+			JitterBuffer buffer = jitterBuffer;
+			
+			if(buffer != null){
+				buffer.resetArrivalTiming();
+			}
+			
 			synchronized(LOCK_OBJECT){
 				LOCK_OBJECT.notify();
 			}
@@ -148,6 +186,9 @@ public class StreamReceiver extends Stream implements Runnable{
 
 			state = PlayBack_State.PAUSED;
 			callback.isStreaming(false);
+			
+			// The publisher sends a new schedule when it resumes
+			playoutClock.clear();
 		}
 		
 		return streamPaused;
@@ -170,6 +211,12 @@ public class StreamReceiver extends Stream implements Runnable{
 			LOCK_OBJECT.notifyAll();
 		}
 		
+		JitterBuffer buffer = jitterBuffer;
+		
+		if(buffer != null){
+			buffer.close();
+		}
+		
 		if(streamThread != null && streamThread.isAlive()){
 			streamThread.interrupt();
 		}
@@ -177,6 +224,79 @@ public class StreamReceiver extends Stream implements Runnable{
 		return streamClosed;
 	}
 
+	@Override
+	protected boolean seek(Object seekInfo) {
+		
+		if(state == PlayBack_State.INIT || state == PlayBack_State.TEARDOWN){
+			return false;
+		}
+		
+		pendingSeek = (StreamInfo) seekInfo;
+		
+		return true;
+	}
+
+	@Override
+	protected boolean preload(Object preloadInfo) {
+		
+		StreamInfo info = (StreamInfo) preloadInfo;
+		
+		if(info.getSongID() == StreamInfo.NO_SONG){
+			nextStreamInfo = null;
+			
+			// Already moved on to the song the publisher has decided not to play
+			if(streamInfo == lastPreloaded){
+				alive = false;
+			}
+			
+			return false;
+		}
+		
+		lastPreloaded = info;
+		nextStreamInfo = info;
+		
+		return true;
+	}
+
+	@Override
+	protected boolean sync(Object syncInfo) {
+		
+		StreamInfo info = (StreamInfo) syncInfo;
+		
+		if(state == PlayBack_State.INIT || state == PlayBack_State.TEARDOWN || info.getPlayoutTime() <= 0){
+			return false;
+		}
+		
+		playoutClock.setAnchor(info.getStreamPosition(), info.getPlayoutTime());
+		
+		return true;
+	}
+
+	/**
+	 * @param info - Info from a PLAY command
+	 * @return - Whether the command moves the stream being received to another multicast address
+	 */
+	boolean isMovedBy(StreamInfo info) {
+		
+		StreamInfo current = streamInfo;
+		
+		if(current == null || state == PlayBack_State.INIT || state == PlayBack_State.TEARDOWN){
+			return false;
+		}
+		
+		// Read from the song's file, so where the stream is sent does not matter
+		if(current.getLocalFilePath() != null){
+			return false;
+		}
+		
+		// A PLAY without an address resumes the stream rather than moving it
+		if(info.getIpAddress() == null || info.getIpAddress().length() == 0){
+			return false;
+		}
+		
+		return info.getPeerUID().equals(current.getPeerUID()) && !info.getIpAddress().equals(current.getIpAddress());
+	}
+
 	@Override
 	protected int getStreamSongID() {
 		return streamInfo.getSongID();
@@ -190,107 +310,153 @@ public class StreamReceiver extends Stream implements Runnable{
 	 */
 	public void playSong(String songURL) {
 
-		IContainer container = IContainer.make();
-
-		IContainerFormat format = IContainerFormat.make();
-
-		// Stream format must currently be mp3
-		format.setInputFormat("mp3");
+		LocalSongReader localReader = null;  //Set when the song is read straight from its file
 		
-//		int s = container.setInputBufferLength(6270);
-//		
-//		if(s < 0){
-//			logger.warn("Input buffer was not set to desired length");
-//		}
+		IStreamCoder preparedCoder = null;
 		
-		//Probe size value must be >50 for some reason. Native libraries throw an exception if it's <50. Measured in bytes.
-		if(container.setProperty("probesize", 50) < 0){
-			logger.warn("Probe size not set for input container.");
-		}
+		IContainer container = null;
 		
-		if(container.setProperty("analyzeduration", 1) < 0){
-			logger.warn("Analyze duration not changed for input container.");
+		if (!songURL.startsWith("rtp://")) {
+			localReader = new LocalSongReader(songURL);
+			
+			if (!localReader.open()) {
+				throw new IllegalArgumentException("song file not found");
+			}
+		}
+		else {
+			// Get the decoder and audio line ready while the stream is being joined, rather than
+			// probing the stream for its parameters once packets arrive
+			preparedCoder = prepareDecoder(streamInfo);
+			
+			container = openStreamContainer(songURL);
 		}
 
+		IPacket packet = null;
+		IStreamCoder audioCoder = null;
 		
-		container.setFlag(IContainer.Flags.FLAG_NONBLOCK, true);
+		IAudioSamples samples = null;  //Reused for every packet
+		IBuffer sampleData = null;
+		byte[] pcmBytes = null;
 		
-		if (container.open(songURL, Type.READ, format, true, false) < 0) {
-			throw new IllegalArgumentException("stream not found");
-		}
+		PcmRingBuffer pcmRing = null;
+		Thread outputThread = null;
 
-		int numStreams = container.getNumStreams();
+		Map<Integer, IStreamCoder> knownStreams = new ConcurrentHashMap<Integer, IStreamCoder>();
 		
-		//long streamRec = System.currentTimeMillis();
+		JitterBuffer buffer = null;
 		
+		Thread readerThread = null;
 		
-
-		logger.info("Number of Audio streams detected {}", numStreams);
-
-		IPacket packet = IPacket.make();
-		IStream stream = null;
-		IStreamCoder audioCoder = null;
-
-		Map<Integer, IStreamCoder> knownStreams = new HashMap<Integer, IStreamCoder>();
+		if (localReader == null) {
+			buffer = new JitterBuffer();
+			
+			jitterBuffer = buffer;
+			
+			readerThread = startReader(container, buffer, knownStreams, preparedCoder);
+		}
 		
 		long previousValue = 0;
 		
-		while (container.readNextPacket(packet) >= 0 && alive) {
+		long songOffsetMillis = 0;  //Stream time at which the current song started
+		
+		long discardBeforeMillis = 0;  //Packets before this stream time were sent before a seek
+		
+		long streamEndMillis = 0;  //Stream time just past the last packet
+		
+		while (alive) {
 			
-			if (packet.isComplete()) {
-
-				if (knownStreams.get(packet.getStreamIndex()) == null) {
-					container.queryStreamMetaData();  //This method tends to take awhile when reading a stream
-					stream = container.getStream(packet.getStreamIndex());
-					knownStreams.put(packet.getStreamIndex(),stream.getStreamCoder());
+			if (localReader != null) {
+				packet = localReader.readPacket();
+				
+				if (packet == null) {
+					// The publisher carries on with the next song on the same stream, so read that file next
+					LocalSongReader nextReader = openNextLocalSong();
+					
+					if (nextReader == null) {
+						break;
+					}
+					
+					localReader.close();
+					localReader = nextReader;
 					
-					audioCoder = knownStreams.get(packet.getStreamIndex());
+					songOffsetMillis = streamEndMillis;
+					discardBeforeMillis = 0;
 					
-					audioCoder.setTimeBase(stream.getTimeBase());
-				}				
+					logger.debug("Local playback continued with song {}", streamInfo.getSongID());
+					continue;
+				}
+			}
+			else if ((packet = takePacket(buffer)) == null) {
+				break;
+			}
+			
+			try {
+
+				audioCoder = localReader != null ? localReader.getCoder() : knownStreams.get(packet.getStreamIndex());
 
 				if (!audioCoder.isOpen()) {
 					if (audioCoder.open(null, null) < 0) {
 						throw new RuntimeException("could not open audio decoder for container");
 					}
-
-					openSound(audioCoder);
+				}
+				
+				if (pcmRing == null) {
+					if (mLine == null) {
+						openSound(audioCoder);
+					}
 					
 					//System.out.println("Opening sound  " + (System.currentTimeMillis() - streamRec));
+					
+					samples = IAudioSamples.make(1024, audioCoder.getChannels());
+					sampleData = samples.getData();
+					pcmBytes = new byte[sampleData.getBufferSize()];
+					
+					int frameSize = audioCoder.getChannels() * (int) IAudioSamples.findSampleBitDepth(audioCoder.getSampleFormat()) / 8;
+					
+					pcmRing = new PcmRingBuffer(audioCoder.getSampleRate() * frameSize * PCM_BUFFER_MILLIS / 1000, frameSize, audioCoder.getSampleRate());
+					
+					outputThread = startOutput(pcmRing, audioCoder.getChannels());
+				}
+				
+				StreamInfo seekInfo = pendingSeek;
+				
+				if(seekInfo != null){
+					pendingSeek = null;
+					
+					// Drop audio from before the seek that is still waiting to be played
+					pcmRing.requestFlush();
+					
+					songOffsetMillis = seekInfo.getStreamPosition() - seekInfo.getSeekPosition();
+					discardBeforeMillis = seekInfo.getStreamPosition();
+					
+					// A file is moved to the position itself, rather than the publisher sending from there
+					if(localReader != null){
+						localReader.seek(seekInfo.getSeekPosition());
+						continue;
+					}
+				}
+				
+				long packetMillis = (long)(packet.getTimeStamp() * packet.getTimeBase().getValue() * 1000);
+				
+				// Time stamps read from a file are song times, move them onto the stream's timeline
+				if(localReader != null){
+					packetMillis += songOffsetMillis;
 				}
 				
+				streamEndMillis = Math.max(streamEndMillis, packetMillis + (long)(packet.getDuration() * packet.getTimeBase().getValue() * 1000));
+				
+				if(packetMillis < discardBeforeMillis){
+					continue;
+				}
+				
+				pcmRing.markTime(packetMillis);
+				
 				//System.err.println(audioCoder.getNumDroppedFrames());
 
 				int offset = 0;
 
-				IAudioSamples samples = IAudioSamples.make(1024, audioCoder.getChannels());
-
 				while (offset < packet.getSize() && alive) {
 					
-					//Wait until the state is playing
-					while(state != PlayBack_State.PLAYING){
-
-						if(state == PlayBack_State.TEARDOWN){
-							break;
-						}
-						else{
-							try{
-								synchronized(LOCK_OBJECT){
-									//mLine.drain();
-									mLine.flush();
-									mLine.stop();
-									
-									LOCK_OBJECT.wait();
-									
-									mLine.start();
-								}
-							}
-							catch(InterruptedException e){
-								logger.error("",e);
-							}
-						}
-					}
-					
 					int bytesDecoded = audioCoder.decodeAudio(samples, packet,offset);
 
 					if (bytesDecoded < 0) {
@@ -302,7 +468,9 @@ public class StreamReceiver extends Stream implements Runnable{
 					offset += bytesDecoded;
 
 					if (samples.isComplete() && alive) {
-						playJavaSound(samples);
+						// Blocks while the ring is full, which is what holds decoding back while paused
+						sampleData.get(0, pcmBytes, 0, samples.getSize());
+						writePcm(pcmRing, pcmBytes, samples.getSize());
 					}
 					
 					// Send the time stamp to the GUI for updating the progress bar
@@ -310,30 +478,269 @@ public class StreamReceiver extends Stream implements Runnable{
 					
 					// Update GUI every second that the stream is playing
 					if(newValue > previousValue){
-						callback.notifyGUISongProgress(newValue);
-						callback.isStreaming(true);
-						previousValue = newValue;
+						long songPosition = (packetMillis - songOffsetMillis) / 1000;
+						
+						// A file's end is found when reading it
+						if(localReader == null && songPosition >= streamInfo.getSongDuration()){
+							StreamInfo next = nextStreamInfo;
+							
+							if(next == null){
+								alive = false;
+							}
+							else{
+								// The publisher carries on with the next song on the same stream
+								next.setZone(streamInfo.getZone());
+								streamInfo = next;
+								nextStreamInfo = null;
+								
+								songOffsetMillis = packetMillis;
+								songPosition = 0;
+								
+								logger.debug("Stream continued with song {}", streamInfo.getSongID());
+							}
+						}
 						
-						if(newValue == streamInfo.getSongDuration()){
-							alive = false;
+						callback.notifyGUISongProgress(songPosition);
+						if(buffer != null){
+							callback.notifyGUIBufferStatus(buffer.getFillMillis(), buffer.getTargetMillis(), buffer.getUnderruns(), buffer.getLatePackets());
 						}
+						callback.isStreaming(true);
+						previousValue = newValue;
 					}
 				}
 
 			}
+			finally {
+				packet.delete();
+			}
+		}
+
+		if (buffer != null) {
+			buffer.close();
+		}
+
+		// Let the output thread play what has been decoded and close the line
+		if (pcmRing != null) {
+			pcmRing.finish();
+			
+			try {
+				outputThread.join();
+			} catch (InterruptedException e) {
+				logger.debug("Interrupted waiting for audio output to finish");
+			}
+		}
+		
+		else {
+			closeJavaSound();
+		}
+		
+		if (samples != null) {
+			samples.delete();
+		}
+		
+		if (localReader != null) {
+			localReader.close();
+			return;
 		}
+		
+		logger.debug("Stream ended with {} jitter buffer underruns and {} late packets.", buffer.getUnderruns(), buffer.getLatePackets());
 
-		closeJavaSound();
+		// The reader owns the container and closes it once its current read returns
+		try {
+			readerThread.join(READER_JOIN_MILLIS);
+		} catch (InterruptedException e) {
+			logger.debug("Interrupted waiting for the stream reader to stop");
+		}
 
 		if (audioCoder != null) {
 			audioCoder.close();
 			audioCoder = null;
 		}
-		if (container != null) {
-			container.close();
-			container = null;
+		else if (preparedCoder != null) {
+			preparedCoder.close();
+		}
+
+	}
+	
+	/**
+	 * Opens the file of the song the publisher has said will follow, and makes it the
+	 * current song.
+	 * 
+	 * @return - The reader for the next song, or null if there is none or its file can not be read
+	 */
+	private LocalSongReader openNextLocalSong() {
+		
+		StreamInfo next = nextStreamInfo;
+		
+		if (next == null || next.getLocalFilePath() == null) {
+			return null;
+		}
+		
+		LocalSongReader nextReader = new LocalSongReader(next.getLocalFilePath());
+		
+		if (!nextReader.open()) {
+			return null;
+		}
+		
+		next.setZone(streamInfo.getZone());
+		streamInfo = next;
+		nextStreamInfo = null;
+		
+		return nextReader;
+	}
+	
+	/**
+	 * Opens the container that reads the publisher's RTP stream.
+	 * 
+	 * @param songURL - URL of the stream
+	 * @return - The open container
+	 */
+	private static IContainer openStreamContainer(String songURL) {
+		
+		IContainer container = IContainer.make();
+
+		IContainerFormat format = IContainerFormat.make();
+
+		// Stream format must currently be mp3
+		format.setInputFormat("mp3");
+		
+//		int s = container.setInputBufferLength(6270);
+//		
+//		if(s < 0){
+//			logger.warn("Input buffer was not set to desired length");
+//		}
+		
+		//Probe size value must be >50 for some reason. Native libraries throw an exception if it's <50. Measured in bytes.
+		if(container.setProperty("probesize", 50) < 0){
+			logger.warn("Probe size not set for input container.");
+		}
+		
+		if(container.setProperty("analyzeduration", 1) < 0){
+			logger.warn("Analyze duration not changed for input container.");
+		}
+
+		
+		container.setFlag(IContainer.Flags.FLAG_NONBLOCK, true);
+		
+		if (container.open(songURL, Type.READ, format, true, false) < 0) {
+			throw new IllegalArgumentException("stream not found");
 		}
 
+		logger.info("Number of Audio streams detected {}", container.getNumStreams());
+		
+		return container;
+	}
+	
+	/**
+	 * Opens a decoder and the audio line from the codec parameters the publisher sent.
+	 * 
+	 * @param info - Info for the stream
+	 * @return - The opened decoder, or null if the parameters were not sent or could not be used
+	 */
+	private static IStreamCoder prepareDecoder(StreamInfo info) {
+		
+		if (!info.hasCodecParameters()) {
+			return null;
+		}
+		
+		ICodec.ID codecID;
+		
+		try {
+			codecID = ICodec.ID.valueOf(info.getCodecName());
+		} catch (IllegalArgumentException e) {
+			logger.warn("Unknown codec {}, probing the stream instead.", info.getCodecName());
+			return null;
+		}
+		
+		IStreamCoder coder = IStreamCoder.make(IStreamCoder.Direction.DECODING, codecID);
+		
+		coder.setSampleRate(info.getSampleRate());
+		coder.setChannels(info.getChannels());
+		coder.setBitRate(info.getBitRate());
+		
+		if (coder.open(null, null) < 0) {
+			logger.warn("Could not open {} decoder from stream parameters, probing the stream instead.", info.getCodecName());
+			return null;
+		}
+		
+		openSound(coder);
+		
+		return coder;
+	}
+	
+	/**
+	 * Starts a thread that reads packets from the container into the jitter buffer.
+	 * The thread is the only one that touches the container, and closes it when done.
+	 * 
+	 * @param container - The opened stream container
+	 * @param buffer - Buffer to put complete packets into
+	 * @param knownStreams - Coder for each stream index, filled in before the stream's first packet is buffered
+	 * @param preparedCoder - Decoder opened from the publisher's parameters, or null to probe the stream
+	 * @return - The reader thread
+	 */
+	private Thread startReader(final IContainer container, final JitterBuffer buffer, final Map<Integer, IStreamCoder> knownStreams, final IStreamCoder preparedCoder) {
+		
+		Thread readerThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				
+				IPacket packet = IPacket.make();
+				
+				try {
+					while (alive && container.readNextPacket(packet) >= 0) {
+						
+						if (packet.isComplete()) {
+							
+							if (!knownStreams.containsKey(packet.getStreamIndex())) {
+								IStreamCoder coder;
+								
+								if (preparedCoder != null) {
+									coder = preparedCoder;
+									
+									coder.setTimeBase(packet.getTimeBase());
+								}
+								else {
+									container.queryStreamMetaData();  //This method tends to take awhile when reading a stream
+									IStream stream = container.getStream(packet.getStreamIndex());
+									
+									coder = stream.getStreamCoder();
+									
+									coder.setTimeBase(stream.getTimeBase());
+								}
+								
+								knownStreams.put(packet.getStreamIndex(), coder);
+							}
+							
+							buffer.put(IPacket.make(packet, true));
+						}
+					}
+				}
+				finally {
+					buffer.finish();
+					
+					packet.delete();
+					container.close();
+				}
+			}
+		}, "StreamReader " + streamInfo.getIpAddress());
+		
+		readerThread.setDaemon(true);
+		readerThread.start();
+		
+		return readerThread;
+	}
+	
+	/**
+	 * @param buffer - The jitter buffer to take from
+	 * @return - The next packet to decode, or null if the stream has ended or the receiver was torn down
+	 */
+	private static IPacket takePacket(JitterBuffer buffer) {
+		try {
+			return buffer.take();
+		} catch (InterruptedException e) {
+			logger.debug("StreamReceiver interrupted waiting for packets");
+			return null;
+		}
 	}
 
 	private static void openSound(IStreamCoder aAudioCoder) {
@@ -363,13 +770,145 @@ public class StreamReceiver extends Stream implements Runnable{
 
 	}
 
-	private static void playJavaSound(IAudioSamples aSamples) {
-		/**
-		 * We're just going to dump all the samples into the line.
-		 */
-		byte[] rawBytes = aSamples.getData()
-				.getByteArray(0, aSamples.getSize());
-		mLine.write(rawBytes, 0, aSamples.getSize());
+	/**
+	 * Copies decoded PCM into the ring, waiting for space while the output thread catches up.
+	 * 
+	 * @param pcmRing - Ring the output thread plays from
+	 * @param pcm - The decoded bytes
+	 * @param length - Number of bytes in pcm
+	 */
+	private void writePcm(PcmRingBuffer pcmRing, byte[] pcm, int length) {
+		int written = 0;
+		
+		while (written < length && alive) {
+			int count = pcmRing.write(pcm, written, length - written);
+			
+			if (count == 0) {
+				LockSupport.parkNanos(RING_WAIT_NANOS);
+			}
+			
+			written += count;
+		}
+	}
+	
+	/**
+	 * Starts the thread that plays decoded audio from the ring on the audio line.
+	 * It handles pausing, keeps playback on the publisher's schedule, and drains and
+	 * closes the line once the ring is finished.
+	 * 
+	 * @param pcmRing - Ring filled by the decode thread
+	 * @param channels - Samples per audio frame
+	 * @return - The output thread
+	 */
+	private Thread startOutput(final PcmRingBuffer pcmRing, final int channels) {
+		
+		Thread output = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				
+				int frameSize = pcmRing.getFrameSize();
+				int frameRate = pcmRing.getFrameRate();
+				
+				byte[] chunk = new byte[OUTPUT_CHUNK_BYTES - OUTPUT_CHUNK_BYTES % frameSize];
+				
+				byte[] silence = new byte[chunk.length];
+				
+				// Room for the most frames a drift correction adds to a chunk
+				byte[] corrected = new byte[chunk.length + (chunk.length / frameSize / 100 + 1) * frameSize];
+				
+				boolean canResample = frameSize == channels * 2;  //Only 16 bit audio is resampled
+				
+				while (state != PlayBack_State.TEARDOWN) {
+					
+					//Wait until the state is playing
+					if (state != PlayBack_State.PLAYING) {
+						try {
+							synchronized(LOCK_OBJECT){
+								if (state != PlayBack_State.PLAYING && state != PlayBack_State.TEARDOWN) {
+									mLine.flush();
+									mLine.stop();
+									
+									LOCK_OBJECT.wait();
+									
+									mLine.start();
+								}
+							}
+						} catch (InterruptedException e) {
+							logger.debug("Audio output interrupted while paused");
+						}
+						continue;
+					}
+					
+					if (pcmRing.applyFlush()) {
+						mLine.flush();
+					}
+					
+					long errorMillis = PlayoutClock.NO_ANCHOR;
+					
+					if (playoutClock.hasAnchor()) {
+						// Audio written now is heard once what is already in the line has played
+						long queuedMillis = (mLine.getBufferSize() - mLine.available()) * 1000L / ((long) frameSize * frameRate);
+						
+						errorMillis = playoutClock.getErrorMillis(pcmRing.getReadTimeMillis(), System.currentTimeMillis() + queuedMillis);
+					}
+					
+					if (errorMillis != PlayoutClock.NO_ANCHOR && errorMillis < -PlayoutClock.JUMP_MILLIS) {
+						// Too early, play silence until the scheduled time
+						int silenceBytes = (int) Math.min(silence.length, -errorMillis * frameRate / 1000 * frameSize);
+						
+						mLine.write(silence, 0, silenceBytes);
+						playoutClock.resetError();
+						continue;
+					}
+					
+					if (errorMillis != PlayoutClock.NO_ANCHOR && errorMillis > PlayoutClock.JUMP_MILLIS) {
+						// Too late, drop the audio that should already have been heard
+						if (pcmRing.skip((int) (errorMillis * frameRate / 1000) * frameSize) == 0) {
+							LockSupport.parkNanos(RING_WAIT_NANOS);
+						}
+						
+						playoutClock.resetError();
+						continue;
+					}
+					
+					int count = pcmRing.read(chunk, 0, chunk.length);
+					
+					if (count < 0) {
+						break;
+					}
+					
+					if (count == 0) {
+						LockSupport.parkNanos(RING_WAIT_NANOS);
+						continue;
+					}
+					
+					int extraFrames = 0;
+					
+					if (errorMillis != PlayoutClock.NO_ANCHOR && canResample) {
+						extraFrames = playoutClock.getCorrectionFrames(errorMillis, count / frameSize, frameRate);
+					}
+					
+					if (extraFrames != 0) {
+						// Play the chunk slightly faster or slower to follow the schedule
+						int outFrames = count / frameSize + extraFrames;
+						
+						PlayoutClock.resample(chunk, count / frameSize, corrected, outFrames, channels);
+						
+						mLine.write(corrected, 0, outFrames * frameSize);
+					}
+					else {
+						mLine.write(chunk, 0, count);
+					}
+				}
+				
+				closeJavaSound();
+			}
+		}, "StreamOutput " + streamInfo.getIpAddress());
+		
+		output.setDaemon(true);
+		output.start();
+		
+		return output;
 	}
 
 	private static void closeJavaSound() {
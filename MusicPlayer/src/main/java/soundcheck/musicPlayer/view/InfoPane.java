@@ -1,6 +1,8 @@
 package soundcheck.musicPlayer.view;
 
 import java.awt.Dimension;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
 
 import javax.swing.Box;
 import javax.swing.BoxLayout;
@@ -10,22 +12,30 @@ import javax.swing.JProgressBar;
 import javax.swing.JSlider;
 import javax.swing.SwingUtilities;
 
+import soundcheck.musicPlayer.ServiceCallback;
 import soundcheck.shared.Util;
+import soundcheck.shared.Const.Command;
 
 class InfoPane {
 
 	PlayerGUI gui;
+	ServiceCallback callback;
 	JProgressBar songProgress;
 	JLabel currentTime;
 	JLabel endTime;
+	JLabel bufferStatus;
 	
 	private Runnable setProgressPositionRunnable;
 	private Runnable setProgressMaximum;
+	private Runnable setBufferStatusRunnable;
+	private static volatile String bufferText = "";
+	private static volatile String bufferToolTip = "";
 	private static long timeStamp;
 	private static long songDuration;
 
-	InfoPane(PlayerGUI gui) {
+	InfoPane(PlayerGUI gui, ServiceCallback callback) {
 		this.gui = gui;
+		this.callback = callback;
 		
 		// Here so these methods can be run on the event dispatch thread
 		setProgressPositionRunnable = new Runnable() {
@@ -42,6 +52,13 @@ class InfoPane {
 				setProgressPosition(0); // New song, set progress to 0
 			}
 		};
+		
+		setBufferStatusRunnable = new Runnable() {
+			public void run() {
+				bufferStatus.setText(bufferText);
+				bufferStatus.setToolTipText(bufferToolTip);
+			}
+		};
 	}
 
 	/**
@@ -62,6 +79,16 @@ class InfoPane {
 		SwingUtilities.invokeLater(setProgressPositionRunnable);
 	}
 
+	/**
+	 * Show how full the receive buffer is, with its dropout counts
+	 * in the tool tip.
+	 */
+	void setBufferStatus(long fillMillis, long targetMillis, long underruns, long latePackets) {
+		bufferText = fillMillis + "/" + targetMillis + " ms";
+		bufferToolTip = "Buffered audio / target. " + underruns + " underruns, " + latePackets + " late packets";
+		SwingUtilities.invokeLater(setBufferStatusRunnable);
+	}
+
 	/**
 	 * Create the bottom panel that displays playing song info.
 	 * @return
@@ -72,9 +99,21 @@ class InfoPane {
 		bottomPanel.setPreferredSize(new Dimension(0,50));
 		currentTime = new JLabel("0:00");
 		endTime = new JLabel("0:00");
+		bufferStatus = new JLabel("");
 
 		songProgress = new JProgressBar(JSlider.HORIZONTAL, 0, 1);
 		songProgress.setEnabled(true);
+		
+		// Clicking the progress bar seeks the zone's stream to that point in the song
+		songProgress.addMouseListener(new MouseAdapter() {
+			@Override
+			public void mouseClicked(MouseEvent e) {
+				if(songDuration > 0 && songProgress.getWidth() > 0) {
+					long position = songDuration * 1000 * e.getX() / songProgress.getWidth();
+					callback.notify(Command.SEEK, position, gui.getCurrentZone());
+				}
+			}
+		});
 
 		bottomPanel.setLayout(new BoxLayout(bottomPanel, BoxLayout.X_AXIS));
 
@@ -84,6 +123,8 @@ class InfoPane {
 		bottomPanel.add(songProgress);
 		bottomPanel.add(Box.createRigidArea(new Dimension(5,0)));
 		bottomPanel.add(endTime);
+		bottomPanel.add(Box.createRigidArea(new Dimension(10,0)));
+		bottomPanel.add(bufferStatus);
 		bottomPanel.add(Box.createRigidArea(new Dimension(5,0)));
 
 		return bottomPanel;
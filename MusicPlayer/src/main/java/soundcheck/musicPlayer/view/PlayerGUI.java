@@ -72,7 +72,7 @@ public final class PlayerGUI {
 		songPane = new SongPane(this, callback);
 		playPane = new PlaylistPane(this, callback);
 		controlPane = new ControlPane(this);
-		infoPane = new InfoPane(this);
+		infoPane = new InfoPane(this, callback);
 
 		initialize();
 	}
@@ -104,6 +104,17 @@ public final class PlayerGUI {
 		infoPane.setProgressPosition(timeStamp);
 	}
 	
+	/**
+	 * Show the state of the receive buffer
+	 * @param fillMillis
+	 * @param targetMillis
+	 * @param underruns
+	 * @param latePackets
+	 */
+	public void updateBufferStatus(long fillMillis, long targetMillis, long underruns, long latePackets) {
+		infoPane.setBufferStatus(fillMillis, targetMillis, underruns, latePackets);
+	}
+	
 	public void isStreaming(boolean isPlaying) {
 		playPane.setIconPlay(isPlaying);
 	}
@@ -181,6 +192,16 @@ public final class PlayerGUI {
 		songPane.loadSongList( songList );
 	}
 
+	/**
+	 * Apply songs added to and removed from the library to song pane.
+	 * @param added
+	 * @param removed
+	 */
+	public void applySongChanges(List<Song> added, List<Song> removed) {
+		logger.trace("Applying songlist changes");
+		songPane.applySongChanges( added, removed );
+	}
+
 	/**
 	 * Apply new zone filter to peer management pane
 	 * @param zoneMap
@@ -75,6 +75,22 @@ class SongPane {
 		
 	}
 
+	/**
+	 * Add and remove songs in the table, leaving the other rows as they are
+	 * @param added
+	 * @param removed
+	 */
+	void applySongChanges(final List<Song> added, final List<Song> removed) {
+		logger.trace("Applying {} added and {} removed songs to table", added.size(), removed.size());
+
+		SwingUtilities.invokeLater(new Runnable() {
+			public void run() {
+				dataModel.removeSongs(removed);
+				dataModel.appendSongs(added);
+			}
+		});
+	}
+
 	/** 
 	 * Update the row filter regular expression from the expression in
 	 * the text box.
@@ -1,7 +1,9 @@
 package soundcheck.musicPlayer.view;
 
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import javax.swing.table.AbstractTableModel;
 
@@ -103,6 +105,54 @@ public class SoundCheckTableModel extends AbstractTableModel {
 		data = new ArrayList<Song>();
 	}
 
+	/**
+	 * Add songs to the end of this table, and notify listeners of the new rows.
+	 * Must be called on the event dispatch thread.
+	 * 
+	 * @param songList
+	 */
+	public void appendSongs( List<Song> songList ) {
+		if( songList.isEmpty() ) {
+			return;
+		}
+
+		int first = data.size();
+
+		data.addAll( songList );
+
+		fireTableRowsInserted( first, data.size() - 1 );
+	}
+
+	/**
+	 * Remove songs from this table, matched by library key, and notify listeners.
+	 * Must be called on the event dispatch thread.
+	 * 
+	 * @param songList
+	 */
+	public void removeSongs( List<Song> songList ) {
+		if( songList.isEmpty() ) {
+			return;
+		}
+
+		Set<String> keys = new HashSet<String>();
+		for( Song song : songList ) {
+			keys.add( song.getLibraryKey() );
+		}
+
+		// Keep the rest in one pass, rather than shifting the list for each removed row
+		List<Song> kept = new ArrayList<Song>( data.size() );
+		for( Song song : data ) {
+			if( !keys.contains( song.getLibraryKey() ) ) {
+				kept.add( song );
+			}
+		}
+
+		if( kept.size() != data.size() ) {
+			data = kept;
+			fireTableDataChanged();
+		}
+	}
+
 	/**
 	 * Translates the song objects backing up this table into the individual
 	 * data cells.
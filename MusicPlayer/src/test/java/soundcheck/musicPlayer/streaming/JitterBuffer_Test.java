@@ -0,0 +1,77 @@
+package soundcheck.musicPlayer.streaming;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.xuggle.xuggler.IPacket;
+import com.xuggle.xuggler.IRational;
+
+public class JitterBuffer_Test {
+
+	private final static long PACKET_MILLIS = 20;
+
+	private IPacket packet(long timeStampMillis) {
+		IPacket packet = IPacket.make();
+		packet.setTimeBase(IRational.make(1, 1000));
+		packet.setTimeStamp(timeStampMillis);
+		packet.setDuration(PACKET_MILLIS);
+		return packet;
+	}
+
+	private long takeTimeStamp(JitterBuffer buffer) throws InterruptedException {
+		IPacket packet = buffer.take();
+		long timeStamp = packet.getTimeStamp();
+		packet.delete();
+		return timeStamp;
+	}
+
+	@Test
+	public void testOutOfOrderPacketIsPlayedInPlace() throws InterruptedException {
+		JitterBuffer buffer = new JitterBuffer();
+
+		buffer.put(packet(0));
+		buffer.put(packet(40));
+		buffer.put(packet(20));
+
+		// Received twice
+		buffer.put(packet(20));
+
+		assertEquals(1, buffer.getLatePackets());
+		assertEquals(3 * PACKET_MILLIS, buffer.getFillMillis());
+
+		buffer.finish();
+
+		assertEquals(0, takeTimeStamp(buffer));
+		assertEquals(20, takeTimeStamp(buffer));
+
+		// Its place in the audio has already been played
+		buffer.put(packet(10));
+		assertEquals(2, buffer.getLatePackets());
+
+		assertEquals(40, takeTimeStamp(buffer));
+		assertNull(buffer.take());
+	}
+
+	@Test
+	public void testOldestIsDroppedPastCap() throws InterruptedException {
+		JitterBuffer buffer = new JitterBuffer();
+
+		int held = (int) (JitterBuffer.MAX_BUFFER_MILLIS / PACKET_MILLIS);
+		int extra = 10;
+
+		for(int i = 0; i < held + extra; i++){
+			buffer.put(packet(i * PACKET_MILLIS));
+		}
+
+		assertEquals(extra, buffer.getOverflowPackets());
+		assertEquals(0, buffer.getLatePackets());
+		assertTrue(buffer.getFillMillis() <= JitterBuffer.MAX_BUFFER_MILLIS);
+
+		buffer.finish();
+
+		assertEquals(extra * PACKET_MILLIS, takeTimeStamp(buffer));
+	}
+}
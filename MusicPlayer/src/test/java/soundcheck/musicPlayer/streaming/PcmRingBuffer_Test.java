@@ -0,0 +1,88 @@
+package soundcheck.musicPlayer.streaming;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class PcmRingBuffer_Test {
+
+	private final static int FRAME_SIZE = 4;
+
+	private final static int FRAME_RATE = 1000;
+
+	private byte[] bytes(int first, int count) {
+		byte[] data = new byte[count];
+
+		for(int i = 0; i < count; i++){
+			data[i] = (byte) (first + i);
+		}
+
+		return data;
+	}
+
+	@Test
+	public void testFullAndEmpty() {
+		PcmRingBuffer ring = new PcmRingBuffer(16, FRAME_SIZE, FRAME_RATE);
+
+		byte[] out = new byte[16];
+
+		assertEquals("Read from an empty ring", 0, ring.read(out, 0, out.length));
+
+		assertEquals(16, ring.write(bytes(0, 20), 0, 20));
+		assertEquals("Wrote to a full ring", 0, ring.write(bytes(0, 4), 0, 4));
+
+		assertEquals(16, ring.read(out, 0, out.length));
+		assertArrayEquals(bytes(0, 16), out);
+
+		assertEquals(0, ring.getAvailable());
+
+		// Only part of a frame written
+		assertEquals(3, ring.write(bytes(0, 3), 0, 3));
+		assertEquals("Read part of a frame", 0, ring.read(out, 0, out.length));
+
+		ring.finish();
+
+		assertEquals("Read part of a frame after finish", -1, ring.read(out, 0, out.length));
+	}
+
+	@Test
+	public void testWrapAround() {
+		PcmRingBuffer ring = new PcmRingBuffer(16, FRAME_SIZE, FRAME_RATE);
+
+		byte[] out = new byte[16];
+
+		ring.write(bytes(0, 12), 0, 12);
+		assertEquals(8, ring.read(out, 0, 8));
+
+		// Written across the end of the array
+		assertEquals(12, ring.write(bytes(12, 12), 0, 12));
+		assertEquals(16, ring.getAvailable());
+
+		assertEquals(16, ring.read(out, 0, out.length));
+		assertArrayEquals(bytes(8, 16), out);
+
+		ring.finish();
+
+		assertEquals(-1, ring.read(out, 0, out.length));
+	}
+
+	@Test
+	public void testReadTimeCountsBackFromMark() {
+		PcmRingBuffer ring = new PcmRingBuffer(400, FRAME_SIZE, FRAME_RATE);
+
+		assertEquals("Time known before any mark", -1, ring.getReadTimeMillis());
+
+		// 10 ms of audio at 1000 frames per second
+		ring.markTime(5000);
+		ring.write(new byte[40], 0, 40);
+		ring.markTime(5010);
+		ring.write(new byte[40], 0, 40);
+
+		assertEquals(5000, ring.getReadTimeMillis());
+
+		ring.skip(60);
+
+		assertEquals(5015, ring.getReadTimeMillis());
+	}
+}
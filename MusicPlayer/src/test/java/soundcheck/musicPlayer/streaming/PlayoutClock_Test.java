@@ -0,0 +1,87 @@
+package soundcheck.musicPlayer.streaming;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class PlayoutClock_Test {
+
+	private final static int FRAME_RATE = 44100;
+
+	private final static int FRAMES = 4410;  //100 ms chunks
+
+	private byte[] pcm(int... samples) {
+		byte[] data = new byte[samples.length * 2];
+
+		for(int i = 0; i < samples.length; i++){
+			data[i * 2] = (byte) samples[i];
+			data[i * 2 + 1] = (byte) (samples[i] >> 8);
+		}
+
+		return data;
+	}
+
+	@Test
+	public void testErrorFromAnchor() {
+		PlayoutClock clock = new PlayoutClock();
+
+		assertEquals(PlayoutClock.NO_ANCHOR, clock.getErrorMillis(0, 1000));
+
+		clock.setAnchor(1000, 50000);
+
+		assertEquals("Late", 10, clock.getErrorMillis(2000, 51010));
+		assertEquals("Early", -10, clock.getErrorMillis(2000, 50990));
+		assertEquals("Nothing marked yet", PlayoutClock.NO_ANCHOR, clock.getErrorMillis(-1, 51000));
+
+		clock.clear();
+
+		assertEquals(PlayoutClock.NO_ANCHOR, clock.getErrorMillis(2000, 51000));
+	}
+
+	@Test
+	public void testDriftIsCorrectedByAtMostTheMaximumRate() {
+		PlayoutClock clock = new PlayoutClock();
+
+		int maxFrames = (int) (FRAMES * 0.005);
+
+		// Smoothed, so a single small error is left alone
+		assertEquals(0, clock.getCorrectionFrames(20, FRAMES, FRAME_RATE));
+
+		int frames = 0;
+
+		for(int i = 0; i < 50; i++){
+			frames = clock.getCorrectionFrames(40, FRAMES, FRAME_RATE);
+		}
+
+		assertEquals("Late audio not played with fewer frames", -maxFrames, frames);
+
+		clock.resetError();
+
+		for(int i = 0; i < 50; i++){
+			frames = clock.getCorrectionFrames(-40, FRAMES, FRAME_RATE);
+		}
+
+		assertEquals("Early audio not played with more frames", maxFrames, frames);
+
+		clock.resetError();
+
+		assertEquals(0, clock.getCorrectionFrames(1, FRAMES, FRAME_RATE));
+	}
+
+	@Test
+	public void testResample() {
+		byte[] out = new byte[3 * 2];
+
+		PlayoutClock.resample(pcm(0, 100), 2, out, 3, 1);
+
+		assertArrayEquals(pcm(0, 50, 100), out);
+
+		byte[] stereo = pcm(-100, 100, 100, -100);
+		byte[] same = new byte[stereo.length];
+
+		PlayoutClock.resample(stereo, 2, same, 2, 2);
+
+		assertArrayEquals(stereo, same);
+	}
+}
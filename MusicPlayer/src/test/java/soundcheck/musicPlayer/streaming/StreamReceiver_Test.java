@@ -0,0 +1,53 @@
+package soundcheck.musicPlayer.streaming;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import soundcheck.shared.Const.Command;
+import soundcheck.shared.Const.StreamType;
+import soundcheck.shared.StreamInfo;
+
+public class StreamReceiver_Test {
+
+	private StreamInfo info(String address) {
+		return new StreamInfo(address, 7, "Publisher", 215000, StreamType.RECEIVE);
+	}
+
+	private StreamReceiver receiving(StreamInfo info) {
+		StreamReceiver receiver = new StreamReceiver(null);
+
+		receiver.processCommand(Command.SETUP, info);
+
+		return receiver;
+	}
+
+	@Test
+	public void testResumeAfterPauseIsNotAMove() {
+		StreamReceiver receiver = receiving(info("226.0.0.0"));
+
+		receiver.processCommand(Command.PAUSE, null);
+
+		assertFalse("Resume without an address read as a move", receiver.isMovedBy(info("")));
+		assertFalse("Resume without an address read as a move", receiver.isMovedBy(info(null)));
+		assertFalse("Resume on the same address read as a move", receiver.isMovedBy(info("226.0.0.0")));
+	}
+
+	@Test
+	public void testNewAddressIsAMove() {
+		StreamReceiver receiver = receiving(info("226.0.0.0"));
+
+		assertTrue("Stream moved to a new address was not followed", receiver.isMovedBy(info("226.0.0.1")));
+	}
+
+	@Test
+	public void testLocalFileIsNotMoved() {
+		StreamInfo local = info("226.0.0.0");
+		local.setLocalFilePath("/music/song.mp3");
+
+		StreamReceiver receiver = receiving(local);
+
+		assertFalse("Receiver reading the file was moved", receiver.isMovedBy(info("226.0.0.1")));
+	}
+}
@@ -2,25 +2,25 @@ package soundcheck.service;
 
 import java.io.File;
 import java.net.SocketException;
-import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Properties;
 import javax.swing.JOptionPane;
 import javax.swing.SwingUtilities;
 
-import org.jgroups.Address;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import soundcheck.musicPlayer.ViewController;
 import soundcheck.service.data.ConfigurationManager;
 import soundcheck.service.data.PeerCollection;
+import soundcheck.service.data.SongLibrary;
 import soundcheck.service.data.SongListManager;
+import soundcheck.service.data.ZoneQueues;
+import soundcheck.service.interprocess.InterfaceUpdates;
 import soundcheck.service.interprocess.MusicPlayerConnection;
 import soundcheck.service.network.ExternalChannel;
 import soundcheck.service.network.NetworkChannel;
-import soundcheck.service.network.PeerManager;
 import soundcheck.service.streaming.StreamController;
 import soundcheck.shared.Const;
 import soundcheck.shared.Const.Command;
@@ -29,6 +29,7 @@ import soundcheck.shared.DataPacket;
 import soundcheck.shared.PacketCreator;
 import soundcheck.shared.Peer;
 import soundcheck.shared.Song;
+import soundcheck.shared.SongListDelta;
 import soundcheck.shared.StreamInfo;
 import soundcheck.shared.Util;
 import soundcheck.shared.Zone;
@@ -42,6 +43,7 @@ public final class MasterController implements Runnable {
 
 	private Peer localPeer;
 	private NetworkChannel nc;
+	private final SongLibrary localLibrary = new SongLibrary();
 	HashMap<String,String> configs;
 
 	/**
@@ -83,6 +85,7 @@ public final class MasterController implements Runnable {
 		ConfigurationManager.loadSettings();
 		String localName = ConfigurationManager.getConfigSetting("LocalName");
 		String libName = ConfigurationManager.getConfigSetting("Library");
+		StreamController.loadStreamPoolSize();
 
 		// Put configuration data into hash map for sending to view
 		configs = new HashMap<String,String>();
@@ -126,19 +129,20 @@ public final class MasterController implements Runnable {
 
 			if (isStreamingCmd(packet.getCommand())) {
 				if(packet.getZone() != null){
-					StreamController.createStreamInfo(packet.getZone(), packet.getCommand());
+					if(packet.getCommand() == Command.SEEK){
+						StreamController.createStreamInfo(packet.getZone(), Command.SEEK, (Long) packet.getData());
+					}
+					else{
+						StreamController.createStreamInfo(packet.getZone(), packet.getCommand());
+					}
 				}
 			} else {
 
-				List<Address> mobileList = PeerManager.getMobileAddresses();
-
 				switch (packet.getCommand()) {
 
 				case REQUEST_UPDATE:
-					// MusicPlayer has requested the current peerlist
-					sendZoneMapToMusicPlayer();
-					sendPeerListToMusicPlayer();
-					sendSongListToMusicPlayer();
+					// MusicPlayer has connected, or missed a delta, and needs everything it shows
+					InterfaceUpdates.sendSnapshot();
 
 					if(initialized == false) {
 						initialized = true;
@@ -156,10 +160,6 @@ public final class MasterController implements Runnable {
 					// Peers have changed zones
 					NetworkChannel.send(null, PacketCreator.createPeerZonePacket(packet.getData()));
 
-					for(Address mobAddress : mobileList){
-						NetworkChannel.send(mobAddress, PacketCreator.createPeerZonePacket(packet.getData()));
-					}
-
 					break;
 				case PEER_STATUS_CHANGE:
 					// local peer changed privacy status
@@ -175,10 +175,6 @@ public final class MasterController implements Runnable {
 					// A new zone mapping has been sent
 					NetworkChannel.send(null, PacketCreator.createNewZonePacket((ZonePair) packet.getData()));
 
-					for(Address mobAddress : mobileList){
-						NetworkChannel.send(mobAddress, PacketCreator.createNewZonePacket((ZonePair) packet.getData()));
-					}
-
 					break;
 				case SET_SONGLIST:
 
@@ -190,7 +186,7 @@ public final class MasterController implements Runnable {
 				case LIBRARY_UPDATE:
 
 					// MusicPlayer has requested updated library in response to peer list change
-					sendSongListToMusicPlayer();
+					InterfaceUpdates.sendSnapshot();
 
 					break;
 				case QUEUE_FRONT:
@@ -198,7 +194,7 @@ public final class MasterController implements Runnable {
 				case QUEUE_REMOVE:
 				case NEW_QUEUE:
 
-					NetworkChannel.send(null, PacketCreator.createNewQueuePacket(packet.getCommand(), packet.getData(), packet.getZone()));
+					ZoneQueues.edit(packet.getCommand(), packet.getData(), packet.getZone());
 					break;
 				case CONFIG:
 					HashMap<String,String> configs = (HashMap<String,String>)packet.getData();
@@ -206,6 +202,11 @@ public final class MasterController implements Runnable {
 					ConfigurationManager.setConfigSetting("LocalName",configs.get("LocalName"));
 					ConfigurationManager.setConfigSetting("Library", configs.get("Library"));
 
+					if(configs.containsKey("MaxOutgoingConnections")){
+						ConfigurationManager.setConfigSetting("MaxOutgoingConnections", configs.get("MaxOutgoingConnections"));
+						StreamController.loadStreamPoolSize();
+					}
+
 					localPeer.setName(configs.get("LocalName"));
 					NetworkChannel.send(null, PacketCreator.createPeerChangePacket(localPeer));
 
@@ -216,10 +217,6 @@ public final class MasterController implements Runnable {
 					ZonePair zp = new ZonePair(packet.getZone(), (ZoneProperties)packet.getData());
 					NetworkChannel.send(null, PacketCreator.createNewZonePacket(zp));
 
-					for(Address mobAddress : mobileList){
-						NetworkChannel.send(mobAddress, PacketCreator.createNewZonePacket(zp));
-					}
-
 					break;
 				case PASSWORD_SET:
 
@@ -268,6 +265,9 @@ private boolean isStreamingCmd(Command command) {
 	case TEARDOWN:
 		isStreamingCmd = true;
 		break;
+	case SEEK:
+		isStreamingCmd = true;
+		break;
 	default:
 		isStreamingCmd = false;
 	}
@@ -278,48 +278,6 @@ private boolean isStreamingCmd(Command command) {
 
 
 
-/**
- * Sends the most recent zone map to the music player.
- */
-public void sendPeerListToMusicPlayer() {
-	if( MusicPlayerConnection.isConnected() ) {
-		// Send peer list
-		MusicPlayerConnection.sendData(
-				PacketCreator.createInterprocessPacket(Command.SET_PEERLIST, PeerCollection.getPeers()) );
-	} else {
-		logger.warn("Could not find running instance of music player.");
-	}
-}
-
-/**
- * Sends the most recent zone map to the music player.
- */
-public void sendZoneMapToMusicPlayer() {
-	if( MusicPlayerConnection.isConnected() ) {
-		// Send Zone map
-		MusicPlayerConnection.sendData(
-				PacketCreator.createInterprocessPacket(Command.ZONE_MAP, PeerCollection.getZonemap()) );
-	} else {
-		logger.warn("Could not find running instance of music player.");
-	}
-}
-
-/**
- * Sends the most recent song list to the music player.
- */
-public synchronized void sendSongListToMusicPlayer() {
-	if( MusicPlayerConnection.isConnected() ) {
-
-		List<Song> songList = generateLibrary();
-
-		// Send Song List
-		MusicPlayerConnection.sendData(
-				PacketCreator.createInterprocessPacket( Command.SET_SONGLIST, songList ));
-	} else {
-		logger.warn("Could not find running instance of music player.");
-	}
-}
-
 public synchronized void sendInitDataToMusicPlayer() {
 	if( MusicPlayerConnection.isConnected() ) {
 		MusicPlayerConnection.sendData(
@@ -338,49 +296,6 @@ public synchronized void sendLocalPeerToMusicPlayer() {
 	}
 }
 
-/**
- * Generate the virtual library by combining the song list of all peers in the collection
- * 
- * @return virtual library
- */
-public List<Song> generateLibrary() {
-
-	List<Peer> peerList = PeerCollection.getPeers();
-	List<Song> songList = new ArrayList<Song>();	// list to be returned
-
-	for( Peer peer : peerList ) {
-		// remove new songs to be added matching previously stored songs, preventing duplicates
-		List<Song> newList = removeDuplicates( songList, peer.getSongList() );
-
-		// combine lists
-		songList.addAll( newList );
-	}
-
-	return songList;
-}
-
-/**
- * Remove songs that will result in the creation of duplicate entries
- * 
- * @param library current music library
- * @param local list of songs to be added to library
- * @return local list minus songs already in music library
- */
-public List<Song> removeDuplicates( List<Song> library, List<Song> local ) {
-
-	List<Song> listToMod = new ArrayList<Song>();
-	listToMod.addAll(local);
-
-	for( Song song : library ) { // iterate through library
-
-		if( listToMod.contains( song )) { // check for matching song in new list
-			listToMod.remove( song ); // remove from new list to prevent duplicate
-		}	
-	}
-
-	return listToMod;
-}
-
 /**
  * Get the local peer
  * @return
@@ -394,10 +309,23 @@ public Peer getLocalPeer() {
  * @param songList
  */
 public void setSongList(List<Song> songList) {
+	// Keep IDs of songs found before, and find what changed
+	SongListDelta delta = localLibrary.update(songList);
+
 	// Local song data has been sent
 	localPeer.setSongList(songList);
 
-	// Update other peers with new songlist
-	nc.sendNewSongList();
+	// Update other peers with the changes to the songlist
+	if(delta != null) {
+		nc.sendNewSongList(delta);
+	}
+}
+
+/**
+ * Get the versioned copy of the local peer's songlist
+ * @return
+ */
+public SongLibrary getLocalLibrary() {
+	return localLibrary;
 }
 }
@@ -1,16 +1,23 @@
 package soundcheck.service.data;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
+import org.jgroups.Address;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import soundcheck.service.MasterController;
+import soundcheck.service.interprocess.InterfaceUpdates;
 import soundcheck.shared.Peer;
+import soundcheck.shared.Song;
+import soundcheck.shared.SongListDelta;
 import soundcheck.shared.Zone;
+import soundcheck.shared.ZoneMapUpdate;
 import soundcheck.shared.ZoneProperties;
 
 /**
@@ -23,7 +30,11 @@ public final class PeerCollection {
 	private static MasterController mc;
 
 	private static final List<Peer> peerList = new ArrayList<Peer>();
+	private static final Map<String, Peer> peersByUid = new HashMap<String, Peer>();  //The same peers as peerList, by UID
 	private static Map<Zone, ZoneProperties> zoneMap = new ConcurrentHashMap<Zone, ZoneProperties>();
+	private static String zoneMapSource;  //Peer that last answered this peer's REQUEST_ZONE_MAP
+	private static long zoneMapTransfer;  //ID of that answer
+	private static final Map<String, SongLibrary> songLibraries = new HashMap<String, SongLibrary>();  //Versioned song lists by peer UID, made when the first delta arrives
 
 	/**
 	 * Make this class static with a private constructor
@@ -51,9 +62,13 @@ public final class PeerCollection {
 			peerList.set( peerList.indexOf(peer), peer );
 		}
 
-		try {
-			mc.sendPeerListToMusicPlayer();
-		} catch (NullPointerException e) {}
+		peersByUid.put(peer.getUid(), peer);
+
+		// The peer's song list arrived whole
+		songLibraries.remove(peer.getUid());
+
+		InterfaceUpdates.peerChanged(peer);
+		InterfaceUpdates.songsChanged(peer.getUid(), peer.getSongList());
 	}
 
 	/**
@@ -62,24 +77,42 @@ public final class PeerCollection {
 	 */
 	public synchronized static void removePeers(List<Peer> deleteList) {
 		for( Peer peer : deleteList ) {
-			peerList.remove(peerList.indexOf(peer));
+			peerList.remove(peer);
+			peersByUid.remove(peer.getUid());
+			songLibraries.remove(peer.getUid());
+
+			InterfaceUpdates.peerRemoved(peer.getUid());
+		}
+	}
+
+	/**
+	 * Remove the peer with the UID passed in, if it is in the peerlist
+	 * @param uid - The UID of the Peer to remove
+	 * @return - Whether the peer was in the peerlist
+	 */
+	public synchronized static boolean removePeer(String uid) {
+		Peer peer = peersByUid.remove(uid);
+
+		if( peer == null ) {
+			return false;
 		}
 
-		try {
-			mc.sendPeerListToMusicPlayer();
-		} catch (NullPointerException e) {}
+		peerList.remove(peer);
+		songLibraries.remove(uid);
+
+		InterfaceUpdates.peerRemoved(uid);
+
+		return true;
 	}
 	
 	public synchronized static void editPeerName(Peer changedPeer) {
 		for( Peer peer : peerList) {
 			if( peer.getUid().equals(changedPeer.getUid()) ) {
 				peer.setName(changedPeer.getName());
+
+				InterfaceUpdates.peerChanged(peer);
 			}
 		}
-		
-		try {
-			mc.sendPeerListToMusicPlayer();
-		} catch (NullPointerException e) {}
 	}
 	
 	public synchronized static void editPeerStatus(Peer changedPeer) {
@@ -87,23 +120,23 @@ public final class PeerCollection {
 			if( peer.getUid().equals(changedPeer.getUid())) {
 				peer.setStatus(changedPeer.getStatus());
 				peer.setZone(changedPeer.getZone());
+
+				InterfaceUpdates.peerChanged(peer);
 			}
 		}
-		
-		try {
-			mc.sendPeerListToMusicPlayer();
-		} catch (NullPointerException e) {}
 	}
 	
 	/**
 	 * Remove all peers from peerList
 	 */
 	public synchronized static void clearPeers() {
-		peerList.clear();
+		for( Peer peer : peerList ) {
+			InterfaceUpdates.peerRemoved(peer.getUid());
+		}
 
-		try {
-			mc.sendPeerListToMusicPlayer();
-		} catch (NullPointerException e) {}
+		peerList.clear();
+		peersByUid.clear();
+		songLibraries.clear();
 	}
 
 	/**
@@ -123,14 +156,7 @@ public final class PeerCollection {
 	 * @return - The Peer with the matching UID
 	 */
 	public synchronized static Peer getPeerByUID(String uid){
-
-		for( Peer peer : peerList) {
-			if( peer.getUid().equals(uid) ) {
-				return peer;
-			}
-		}
-
-		return null;
+		return peersByUid.get(uid);
 	}
 
 	/**
@@ -141,6 +167,33 @@ public final class PeerCollection {
 		return peerList;
 	}
 
+	/**
+	 * Indexes a copy of the peer list by address, taken while holding the collection's
+	 * lock, so it can be compared with a view without the list changing underneath.
+	 * External devices are reached through a desktop, so they share its address.
+	 * @return Peers with a known address, by address, in peer list order
+	 */
+	public synchronized static Map<Address, List<Peer>> getPeersByAddress() {
+		Map<Address, List<Peer>> index = new LinkedHashMap<Address, List<Peer>>(peerList.size() * 2);
+
+		for( Peer peer : peerList ) {
+			Address addr = peer.getAddress();
+
+			if( addr != null ) {
+				List<Peer> peers = index.get(addr);
+
+				if( peers == null ) {
+					peers = new ArrayList<Peer>(1);
+					index.put(addr, peers);
+				}
+
+				peers.add(peer);
+			}
+		}
+
+		return index;
+	}
+
 	/**
 	 * Given a list of peers with zones, modifies any duplicate peers
 	 * in the existing list with the new zones.
@@ -155,12 +208,10 @@ public final class PeerCollection {
 			if( peerList.contains(newPeer) ) {
 				peer = peerList.get( peerList.indexOf(newPeer) );
 				peer.setZone(newPeer.getZone());
+
+				InterfaceUpdates.peerChanged(peer);
 			}
 		}
-
-		try {
-			mc.sendPeerListToMusicPlayer();
-		} catch (NullPointerException e) {}
 	}
 	
 	/**
@@ -174,10 +225,44 @@ public final class PeerCollection {
 		Peer songPeer = peerList.get( peerList.indexOf( peer ));
 		
 		songPeer.setSongList( peer.getSongList() );
+		songLibraries.remove(songPeer.getUid());
 		
-		try {
-			mc.sendSongListToMusicPlayer();
-		} catch (NullPointerException e) {};
+		InterfaceUpdates.songsChanged(songPeer.getUid(), songPeer.getSongList());
+	}
+
+	/**
+	 * Applies changes to a peer's song list.
+	 * 
+	 * @param uid - UID of the peer the changes came from
+	 * @param delta - The changes
+	 * @return - False if the changes do not fit the song list held for the peer, and the peer should be asked for a snapshot
+	 */
+	public synchronized static boolean applySongListDelta( String uid, SongListDelta delta ) {
+		
+		Peer songPeer = getPeerByUID(uid);
+		
+		if( songPeer == null ) {
+			// Discovery will bring the whole list
+			return true;
+		}
+		
+		SongLibrary library = songLibraries.get(uid);
+		
+		if( library == null ) {
+			library = new SongLibrary( songPeer.getSongList() );
+			songLibraries.put(uid, library);
+		}
+		
+		if( !library.apply(delta) ) {
+			songLibraries.remove(uid);
+			return false;
+		}
+		
+		songPeer.setSongList( library.getSongs() );
+		
+		InterfaceUpdates.songsChanged(uid, songPeer.getSongList());
+		
+		return true;
 	}
 
 	/**
@@ -188,9 +273,7 @@ public final class PeerCollection {
 	public synchronized static void putZone(Zone zone, ZoneProperties prop) {
 		zoneMap.put(zone, prop);
 		
-		try {
-			mc.sendZoneMapToMusicPlayer();
-		} catch (NullPointerException e) {}
+		InterfaceUpdates.zoneChanged(zone, prop);
 	}
 
 	/**
@@ -200,15 +283,90 @@ public final class PeerCollection {
 		return zoneMap;
 	}
 
+	/**
+	 * Performs a map "putAll" operation on the zoneMap, for zones received from another peer
+	 * @param zones
+	 */
+	public synchronized static void putZones(Map<Zone, ZoneProperties> zones) {
+		zoneMap.putAll(zones);
+		
+		InterfaceUpdates.zonesChanged(zones);
+	}
+
+	/**
+	 * Applies part of a zone map sent in answer to this peer's REQUEST_ZONE_MAP. Parts of an
+	 * earlier answer from the same peer that arrive after a later one are ignored.
+	 * @param src UID of the peer that answered
+	 * @param update The part
+	 */
+	public synchronized static void applyZoneMapUpdate(String src, ZoneMapUpdate update) {
+		if( src.equals(zoneMapSource) && update.getTransferId() < zoneMapTransfer ) {
+			return;
+		}
+		
+		zoneMapSource = src;
+		zoneMapTransfer = update.getTransferId();
+		
+		logger.trace("Received {} zones, part {} of {}", new Object[]{update.getZones().size(), update.getIndex() + 1, update.getCount()});
+		
+		putZones(update.getZones());
+	}
+
+	/**
+	 * Describes the zone map held by this peer, so a peer answering a REQUEST_ZONE_MAP
+	 * only has to send the zones that differ.
+	 * @return Content hash of each zone, by zone UID
+	 */
+	public synchronized static Map<String, Long> getZoneDigest() {
+		Map<String, Long> digest = new HashMap<String, Long>();
+		
+		for( Map.Entry<Zone, ZoneProperties> entry : zoneMap.entrySet() ) {
+			digest.put(entry.getKey().getUid().toString(), hash(entry.getValue()));
+		}
+		
+		return digest;
+	}
+
+	/**
+	 * @param digest Zone digest of another peer, or null if it holds nothing
+	 * @return The zones this peer holds that the other peer does not, or holds differently
+	 */
+	public synchronized static Map<Zone, ZoneProperties> getZonesChangedSince(Map<String, Long> digest) {
+		Map<Zone, ZoneProperties> changed = new LinkedHashMap<Zone, ZoneProperties>();
+		
+		for( Map.Entry<Zone, ZoneProperties> entry : zoneMap.entrySet() ) {
+			Long held = digest == null ? null : digest.get(entry.getKey().getUid().toString());
+			
+			if( held == null || held.longValue() != hash(entry.getValue()) ) {
+				changed.put(entry.getKey(), entry.getValue());
+			}
+		}
+		
+		return changed;
+	}
+
+	/**
+	 * @param prop A zone's properties
+	 * @return Hash of the zone's name, password and queue
+	 */
+	private static long hash(ZoneProperties prop) {
+		long hash = SongLibrary.hash(prop.getZoneName()) * 31 + SongLibrary.hash(prop.getPassword());
+		
+		// The order of the queue matters
+		for( Song song : prop.getPlayList() ) {
+			hash = hash * 31 + SongLibrary.hash(song);
+		}
+		
+		return hash;
+	}
+
 	/**
 	 * @param zoneMap the zoneMap to set
 	 */
 	public synchronized static void setZoneMap(Map<Zone, ZoneProperties> zoneMap) {
 		PeerCollection.zoneMap = zoneMap;
 		
-		try {
-			mc.sendZoneMapToMusicPlayer();
-		} catch (NullPointerException e) {}
+		InterfaceUpdates.zonesChanged(zoneMap);
 	}
 	
 	/**
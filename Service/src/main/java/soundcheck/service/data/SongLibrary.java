@@ -0,0 +1,269 @@
+package soundcheck.service.data;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import soundcheck.shared.Song;
+import soundcheck.shared.SongListDelta;
+
+/**
+ * A versioned copy of one peer's song list, kept so that changes to the list can be sent
+ * as deltas instead of the whole list.
+ *
+ * The local peer's library makes a delta each time the music folder is scanned. A song
+ * keeps its ID between scans as long as its file path does not change, so only songs that
+ * were really added, removed or edited are in the delta. A remote peer's library applies
+ * the deltas it receives.
+ *
+ * Both sides keep a content hash of the list: the sum of a hash of each song's fields. It
+ * does not depend on the order of the list and is updated as songs are added and removed.
+ *
+ * EXAMPLE
+ * 		SongListDelta delta = localLibrary.update(scannedSongs);   (sending peer)
+ * 		if(!remoteLibrary.apply(delta)) { ask for a snapshot }     (receiving peer)
+ *
+ */
+public class SongLibrary {
+	final static Logger logger = LoggerFactory.getLogger(SongLibrary.class);
+
+	public final static long UNKNOWN_VERSION = -1;
+
+	private final Map<Integer, Song> songs = new LinkedHashMap<Integer, Song>();  //Songs by ID, in list order
+
+	private final Map<String, Integer> idsByPath = new HashMap<String, Integer>();  //Local library only
+
+	private long version = 0;
+
+	private long hash = 0;
+
+	private int nextId = 0;
+
+	/**
+	 * Creates an empty library at version 0.
+	 */
+	public SongLibrary() {
+	}
+
+	/**
+	 * Creates a library holding a song list that was received whole, whose version is not known.
+	 *
+	 * @param songList - The song list
+	 */
+	public SongLibrary(List<Song> songList) {
+		version = UNKNOWN_VERSION;
+
+		if(songList != null){
+			for(Song song : songList){
+				put(song);
+			}
+		}
+	}
+
+	/**
+	 * Replaces the local song list with a new scan and works out what changed. Songs found at
+	 * a file path the library already holds are given the ID they had before.
+	 *
+	 * @param songList - The scanned songs. Their IDs are changed.
+	 * @return - The changes, or null if nothing changed
+	 */
+	public synchronized SongListDelta update(List<Song> songList) {
+
+		long baseHash = hash;
+
+		Map<Integer, Song> remaining = new HashMap<Integer, Song>(songs);
+
+		List<Song> changed = new ArrayList<Song>();
+
+		songs.clear();
+
+		for(Song song : songList){
+
+			Integer id = idsByPath.get(song.getFilePath());
+
+			if(id == null){
+				id = nextId++;
+				idsByPath.put(song.getFilePath(), id);
+			}
+
+			song.setId(id);
+
+			Song old = remaining.remove(id);
+
+			if(old == null || hash(old) != hash(song)){
+				changed.add(song);
+			}
+
+			songs.put(id, song);
+		}
+
+		List<Integer> removed = new ArrayList<Integer>(remaining.keySet());
+
+		for(Song song : remaining.values()){
+			idsByPath.remove(song.getFilePath());
+		}
+
+		hash = 0;
+
+		for(Song song : songs.values()){
+			hash += hash(song);
+		}
+
+		if(changed.isEmpty() && removed.isEmpty()){
+			return null;
+		}
+
+		version++;
+
+		logger.debug("Song list version {}: {} added or changed, {} removed", version, changed.size(), removed.size());
+
+		return new SongListDelta(version, baseHash, hash, false, changed, removed);
+	}
+
+	/**
+	 * @return - A delta holding the whole list, for a peer whose copy does not match
+	 */
+	public synchronized SongListDelta snapshot() {
+		return new SongListDelta(version, 0, hash, true, new ArrayList<Song>(songs.values()), new ArrayList<Integer>());
+	}
+
+	/**
+	 * Applies a delta received from the peer that owns the list.
+	 *
+	 * @param delta - The delta
+	 * @return - False if the delta does not fit this copy of the list, and a snapshot is needed
+	 */
+	public synchronized boolean apply(SongListDelta delta) {
+
+		if(delta.isSnapshot()){
+			// A snapshot that crossed paths with a newer delta is out of date
+			if(version != UNKNOWN_VERSION && delta.getVersion() < version){
+				return true;
+			}
+
+			songs.clear();
+			hash = 0;
+		}
+		else if(delta.getHash() == hash){
+			// Already applied
+			version = delta.getVersion();
+			return true;
+		}
+		else if(delta.getBaseHash() != hash){
+			logger.debug("Song list delta {} does not fit the list held, which has a different hash", delta.getVersion());
+			return false;
+		}
+
+		for(Integer id : delta.getRemoved()){
+			Song old = songs.remove(id);
+
+			if(old != null){
+				hash -= hash(old);
+			}
+		}
+
+		for(Song song : delta.getChanged()){
+			put(song);
+		}
+
+		version = delta.getVersion();
+
+		if(hash != delta.getHash()){
+			logger.warn("Song list {} has the wrong hash after it was applied", delta);
+			return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Adds a song, or replaces the song with the same ID.
+	 */
+	private void put(Song song) {
+		Song old = songs.put(song.getId(), song);
+
+		if(old != null){
+			hash -= hash(old);
+		}
+
+		hash += hash(song);
+	}
+
+	/**
+	 * @return - The songs, in list order
+	 */
+	public synchronized List<Song> getSongs() {
+		return new ArrayList<Song>(songs.values());
+	}
+
+	/**
+	 * @return - The version of the list, or UNKNOWN_VERSION
+	 */
+	public synchronized long getVersion() {
+		return version;
+	}
+
+	/**
+	 * @return - The content hash of the list
+	 */
+	public synchronized long getHash() {
+		return hash;
+	}
+
+	/**
+	 * @param song - A song
+	 * @return - A 64 bit FNV-1a hash of all of the song's fields
+	 */
+	static long hash(Song song) {
+		long h = 0xcbf29ce484222325L;
+
+		h = mix(h, song.getId());
+		h = mix(h, song.getDuration());
+
+		String[] fields = {song.getTitle(), song.getFilePath(), song.getArtist(), song.getGenre(),
+				song.getAlbumArtist(), song.getAlbum(), song.getBpm(), song.getComment(), song.getComposer(),
+				song.getDiscNo(), song.getGrouping(), song.getTrack(), song.getYear()};
+
+		for(String field : fields){
+			h = mix(h, field);
+		}
+
+		return h;
+	}
+
+	/**
+	 * @param value - A string, or null
+	 * @return - A 64 bit FNV-1a hash of the string
+	 */
+	static long hash(String value) {
+		return mix(0xcbf29ce484222325L, value);
+	}
+
+	private static long mix(long h, String value) {
+		if(value == null){
+			return mix(h, -1);
+		}
+
+		h = mix(h, value.length());
+
+		for(int i = 0; i < value.length(); i++){
+			h = (h ^ value.charAt(i)) * 0x100000001b3L;
+		}
+
+		return h;
+	}
+
+	private static long mix(long h, long value) {
+		for(int i = 0; i < 8; i++){
+			h = (h ^ (value & 0xFF)) * 0x100000001b3L;
+			value >>>= 8;
+		}
+
+		return h;
+	}
+}
@@ -0,0 +1,138 @@
+package soundcheck.service.data;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import soundcheck.shared.Song;
+
+/**
+ * The library shown by the music player: every peer's songs, with songs that more than
+ * one peer holds shown once.
+ *
+ * Songs are matched by Song.getLibraryKey, and each is counted by the peers holding it.
+ * When a peer's song list changes, only the songs it added or removed are looked at, and
+ * the songs that entered or left the library are returned, so the whole library does not
+ * have to be made again and sent.
+ *
+ * EXAMPLE
+ * 		library.setSongs(peer.getUid(), peer.getSongList(), added, removed);
+ * 		send added and removed to the music player
+ *
+ */
+public class VirtualLibrary {
+
+	private final Map<String, Entry> songs = new LinkedHashMap<String, Entry>();  //Shown songs by key, in the order they were added
+
+	private final Map<String, Set<String>> keysByPeer = new HashMap<String, Set<String>>();  //Keys of each peer's songs, by peer UID
+
+	/**
+	 * A song in the library, and how many peers hold it.
+	 */
+	private static final class Entry {
+		private final Song song;
+		private int count = 0;
+
+		private Entry(Song song) {
+			this.song = song;
+		}
+	}
+
+	/**
+	 * Replaces a peer's songs.
+	 *
+	 * @param uid - UID of the peer
+	 * @param songList - The peer's songs
+	 * @param added - Songs that were not in the library are added to this
+	 * @param removed - Songs that are no longer in the library are added to this
+	 */
+	public void setSongs(String uid, List<Song> songList, List<Song> added, List<Song> removed) {
+		Map<String, Song> next = new LinkedHashMap<String, Song>();
+
+		for( Song song : songList ) {
+			String key = song.getLibraryKey();
+
+			if( !next.containsKey(key) ) {
+				next.put(key, song);
+			}
+		}
+
+		Set<String> previous = keysByPeer.get(uid);
+
+		if( previous != null ) {
+			for( String key : previous ) {
+				if( !next.containsKey(key) ) {
+					release(key, removed);
+				}
+			}
+		}
+
+		for( Map.Entry<String, Song> entry : next.entrySet() ) {
+			if( previous == null || !previous.contains(entry.getKey()) ) {
+				hold(entry.getKey(), entry.getValue(), added);
+			}
+		}
+
+		if( next.isEmpty() ) {
+			keysByPeer.remove(uid);
+		} else {
+			keysByPeer.put(uid, new HashSet<String>(next.keySet()));
+		}
+	}
+
+	/**
+	 * Removes a peer's songs.
+	 *
+	 * @param uid - UID of the peer
+	 * @param removed - Songs that are no longer in the library are added to this
+	 */
+	public void removePeer(String uid, List<Song> removed) {
+		setSongs(uid, Collections.<Song>emptyList(), new ArrayList<Song>(0), removed);
+	}
+
+	/**
+	 * @return - The songs in the library
+	 */
+	public List<Song> getSongs() {
+		List<Song> songList = new ArrayList<Song>(songs.size());
+
+		for( Entry entry : songs.values() ) {
+			songList.add(entry.song);
+		}
+
+		return songList;
+	}
+
+	/**
+	 * @return - The number of songs in the library
+	 */
+	public int size() {
+		return songs.size();
+	}
+
+	private void hold(String key, Song song, List<Song> added) {
+		Entry entry = songs.get(key);
+
+		if( entry == null ) {
+			entry = new Entry(song);
+			songs.put(key, entry);
+			added.add(song);
+		}
+
+		entry.count++;
+	}
+
+	private void release(String key, List<Song> removed) {
+		Entry entry = songs.get(key);
+
+		if( --entry.count == 0 ) {
+			songs.remove(key);
+			removed.add(entry.song);
+		}
+	}
+}
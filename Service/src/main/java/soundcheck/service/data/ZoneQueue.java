@@ -0,0 +1,344 @@
+package soundcheck.service.data;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import soundcheck.shared.QueueOp;
+import soundcheck.shared.Song;
+import soundcheck.shared.Zone;
+
+/**
+ * One zone's queue, replicated between peers as a sequence of uniquely identified elements
+ * (a replicated growable array). Peers that apply the same operations end up with the same
+ * queue whatever order the operations arrive in, so edits made at the same time on
+ * different peers are merged instead of one replacing the other.
+ *
+ * An inserted song is placed after the element it names. Elements inserted after the same
+ * element by different peers are ordered by ID, largest first. A removed element is kept,
+ * hidden, so later insertions can still be placed after it.
+ *
+ * The last LOG_CAPACITY operations applied are logged, so a peer that missed some can be
+ * sent just those. A peer that missed more than the log holds is sent a snapshot instead.
+ * Operations naming an element not yet known are held until it arrives.
+ *
+ * A queue that existed before any operations (for instance one received from a peer of
+ * an older version) is seeded with IDs made from each song's position, so peers holding the
+ * same songs seed the same elements.
+ *
+ */
+public class ZoneQueue {
+	final static Logger logger = LoggerFactory.getLogger(ZoneQueue.class);
+
+	public final static int LOG_CAPACITY = 1024;  //Operations kept for peers that missed some
+
+	private final static int PENDING_CAPACITY = 256;  //Operations kept waiting for the element they name
+
+	private final static String SEED_SITE = "";
+
+	private final Zone zone;
+
+	private final Node head = new Node(null, null);
+
+	private final Map<QueueOp.Id, Node> nodes = new HashMap<QueueOp.Id, Node>();
+
+	private final LinkedList<QueueOp> log = new LinkedList<QueueOp>();
+
+	private final Map<String, Long> seen = new HashMap<String, Long>();  //Largest time stamp applied, by peer
+
+	private final Map<String, Long> horizon = new HashMap<String, Long>();  //Largest time stamp dropped from the log, by peer
+
+	private final LinkedList<QueueOp> pending = new LinkedList<QueueOp>();
+
+	/**
+	 * @param zone - The zone
+	 * @param songs - Songs already in the zone's queue, in queue order
+	 */
+	public ZoneQueue(Zone zone, List<Song> songs) {
+		this.zone = zone;
+
+		Node last = head;
+
+		for(int i = 0; i < songs.size(); i++){
+			Node node = new Node(new QueueOp.Id(i + 1, SEED_SITE), songs.get(i));
+
+			last.next = node;
+			last = node;
+			nodes.put(node.id, node);
+		}
+	}
+
+	/**
+	 * Applies an operation, and any held operations it makes possible.
+	 *
+	 * @param op - The operation
+	 * @return - Whether the songs in the queue changed
+	 */
+	public synchronized boolean apply(QueueOp op) {
+		if(!integrate(op, true)){
+			return false;
+		}
+
+		// Held operations may name what was just inserted
+		applyPending();
+
+		return true;
+	}
+
+	/**
+	 * Applies held operations that name an element now in the queue, until none do.
+	 */
+	private void applyPending() {
+		boolean progress = true;
+
+		while(progress){
+			progress = false;
+
+			Iterator<QueueOp> iterator = pending.iterator();
+
+			while(iterator.hasNext()){
+				QueueOp held = iterator.next();
+
+				if(isKnown(held)){
+					iterator.remove();
+					integrate(held, true);
+					progress = true;
+				}
+			}
+		}
+	}
+
+	/**
+	 * @param op - The operation
+	 * @param logged - Whether to log the operation
+	 * @return - Whether the songs in the queue changed
+	 */
+	private boolean integrate(QueueOp op, boolean logged) {
+		if(!isKnown(op)){
+			if(pending.size() >= PENDING_CAPACITY){
+				logger.warn("Dropping queue operation {}, which names an element never received", pending.removeFirst());
+			}
+			pending.addLast(op);
+			return false;
+		}
+
+		if(op.isRemove()){
+			Node node = nodes.get(op.getRef());
+
+			if(node.removed){
+				// Also removed by another peer, or already applied
+				note(op.getId());
+				return false;
+			}
+
+			node.removed = true;
+		}
+		else{
+			if(nodes.containsKey(op.getId())){
+				return false;
+			}
+
+			Node prev = op.getRef() == null ? head : nodes.get(op.getRef());
+
+			// Skip elements inserted at the same place with larger IDs
+			while(prev.next != null && prev.next.id.compareTo(op.getId()) > 0){
+				prev = prev.next;
+			}
+
+			Node node = new Node(op.getId(), op.getSong());
+
+			node.next = prev.next;
+			prev.next = node;
+			nodes.put(node.id, node);
+		}
+
+		note(op.getId());
+
+		if(logged){
+			log.addLast(op);
+
+			if(log.size() > LOG_CAPACITY){
+				QueueOp dropped = log.removeFirst();
+				Long before = horizon.get(dropped.getId().getSite());
+
+				if(before == null || before < dropped.getId().getCounter()){
+					horizon.put(dropped.getId().getSite(), dropped.getId().getCounter());
+				}
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * @return - Whether the element an operation names has been received
+	 */
+	private boolean isKnown(QueueOp op) {
+		return op.getRef() == null ? !op.isRemove() : nodes.containsKey(op.getRef());
+	}
+
+	private void note(QueueOp.Id id) {
+		Long before = seen.get(id.getSite());
+
+		if(before == null || before < id.getCounter()){
+			seen.put(id.getSite(), id.getCounter());
+		}
+	}
+
+	/**
+	 * @param since - Largest time stamp another peer has applied, by peer
+	 * @return - The logged operations the other peer has not applied, or null if some are
+	 * no longer logged and a snapshot is needed
+	 */
+	public synchronized List<QueueOp> getOpsSince(Map<String, Long> since) {
+		for(Map.Entry<String, Long> dropped : horizon.entrySet()){
+			Long applied = since.get(dropped.getKey());
+
+			if(applied == null || applied < dropped.getValue()){
+				return null;
+			}
+		}
+
+		List<QueueOp> ops = new ArrayList<QueueOp>();
+
+		for(QueueOp op : log){
+			Long applied = since.get(op.getId().getSite());
+
+			if(applied == null || applied < op.getId().getCounter()){
+				ops.add(op);
+			}
+		}
+
+		return ops;
+	}
+
+	/**
+	 * @return - Operations that build this queue from empty: every element, removed ones
+	 * included, inserted in order, then the removals
+	 */
+	public synchronized List<QueueOp> snapshot() {
+		List<QueueOp> inserts = new ArrayList<QueueOp>();
+		List<QueueOp> removals = new ArrayList<QueueOp>();
+
+		QueueOp.Id prev = null;
+
+		for(Node node = head.next; node != null; node = node.next){
+			inserts.add(new QueueOp(zone, node.id, prev, node.song));
+
+			if(node.removed){
+				removals.add(new QueueOp(zone, node.id, node.id, null));
+			}
+
+			prev = node.id;
+		}
+
+		inserts.addAll(removals);
+
+		return inserts;
+	}
+
+	/**
+	 * Replaces this queue with a snapshot from another peer. Logged operations are applied
+	 * again on top of it, in case the snapshot was made before them, followed by held
+	 * operations that name elements of the snapshot.
+	 *
+	 * @param snapshot - The other peer's snapshot
+	 */
+	public synchronized void adopt(List<QueueOp> snapshot) {
+		head.next = null;
+		nodes.clear();
+
+		for(QueueOp op : snapshot){
+			integrate(op, false);
+		}
+
+		for(QueueOp op : log){
+			integrate(op, false);
+		}
+
+		// Held operations may name elements the snapshot brought
+		applyPending();
+	}
+
+	/**
+	 * @return - The zone
+	 */
+	public Zone getZone() {
+		return zone;
+	}
+
+	/**
+	 * @return - The songs in the queue, in order
+	 */
+	public synchronized List<Song> getSongs() {
+		List<Song> songs = new ArrayList<Song>();
+
+		for(Node node = head.next; node != null; node = node.next){
+			if(!node.removed){
+				songs.add(node.song);
+			}
+		}
+
+		return songs;
+	}
+
+	/**
+	 * @return - IDs of the songs in the queue, in order
+	 */
+	public synchronized List<QueueOp.Id> getIds() {
+		List<QueueOp.Id> ids = new ArrayList<QueueOp.Id>();
+
+		for(Node node = head.next; node != null; node = node.next){
+			if(!node.removed){
+				ids.add(node.id);
+			}
+		}
+
+		return ids;
+	}
+
+	/**
+	 * @return - Largest time stamp applied, by peer
+	 */
+	public synchronized Map<String, Long> getSeen() {
+		return new HashMap<String, Long>(seen);
+	}
+
+	/**
+	 * @return - Largest time stamp of any element, including seeded ones
+	 */
+	public synchronized long getMaxCounter() {
+		long max = 0;
+
+		for(QueueOp.Id id : nodes.keySet()){
+			max = Math.max(max, id.getCounter());
+		}
+
+		return max;
+	}
+
+	/**
+	 * An element of the queue.
+	 */
+	private static final class Node {
+
+		private final QueueOp.Id id;
+
+		private final Song song;
+
+		private boolean removed = false;
+
+		private Node next;
+
+		private Node(QueueOp.Id id, Song song) {
+			this.id = id;
+			this.song = song;
+		}
+	}
+}
@@ -0,0 +1,410 @@
+package soundcheck.service.data;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.jgroups.Address;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import soundcheck.service.network.NetworkChannel;
+import soundcheck.shared.Const.Command;
+import soundcheck.shared.PacketCreator;
+import soundcheck.shared.QueueOp;
+import soundcheck.shared.Song;
+import soundcheck.shared.Zone;
+import soundcheck.shared.ZoneMapUpdate;
+import soundcheck.shared.ZoneProperties;
+
+/**
+ * Holds the replicated queue of each zone (see ZoneQueue), turns edits made on this peer
+ * into queue operations and sends them to the other desktop peers. Mobile devices do not
+ * read queue operations, and are sent the zone's whole queue after each edit instead.
+ *
+ * After each change the zone's queue in the zone map is replaced with the replicated one.
+ * Zone maps received from other peers should be put through this class, so an older map
+ * does not replace the queue of a zone that already has a replicated one.
+ *
+ */
+public final class ZoneQueues {
+	final static Logger logger = LoggerFactory.getLogger(ZoneQueues.class);
+
+	// Names this peer in the IDs it makes. Time stamps start again at each run, so the name does too.
+	private static final String site = Long.toString(UUID.randomUUID().getMostSignificantBits() & Long.MAX_VALUE, 36);
+
+	private static long clock = 0;  //Largest time stamp made or seen
+
+	private static final Map<UUID, ZoneQueue> queues = new HashMap<UUID, ZoneQueue>();
+
+	/**
+	 * Make this class static with a private constructor
+	 */
+	private ZoneQueues() {
+		throw new AssertionError();
+	}
+
+	/**
+	 * Makes an edit sent as a QUEUE_FRONT, QUEUE_BACK, QUEUE_REMOVE or NEW_QUEUE command.
+	 * @param cmd - The command
+	 * @param data - The song, or for NEW_QUEUE the songs in reverse order
+	 * @param zone - The zone
+	 */
+	@SuppressWarnings("unchecked")
+	public synchronized static void edit(Command cmd, Object data, Zone zone) {
+		switch(cmd){
+		case QUEUE_FRONT:
+			addFront(zone, (Song) data);
+			break;
+		case QUEUE_BACK:
+			addBack(zone, (Song) data);
+			break;
+		case QUEUE_REMOVE:
+			remove(zone, (Song) data);
+			break;
+		case NEW_QUEUE:
+			// The queue is listed bottom to top, as setPlayList expects
+			List<Song> songs = new ArrayList<Song>((List<Song>) data);
+			Collections.reverse(songs);
+			replace(zone, songs);
+			break;
+		default:
+			logger.warn("{} is not a queue edit", cmd);
+		}
+	}
+
+	/**
+	 * Moves a song to the front of a zone's queue, adding it if it is not queued.
+	 * @param zone - The zone
+	 * @param song - The song
+	 */
+	public synchronized static void addFront(Zone zone, Song song) {
+		ZoneQueue queue = getQueue(zone);
+
+		List<QueueOp> ops = new ArrayList<QueueOp>();
+
+		int index = queue.getSongs().indexOf(song);
+
+		if(index >= 0){
+			ops.add(new QueueOp(zone, nextId(), queue.getIds().get(index), null));
+		}
+
+		ops.add(new QueueOp(zone, nextId(), null, song));
+
+		applyLocal(zone, queue, ops);
+	}
+
+	/**
+	 * Adds a song to the back of a zone's queue.
+	 * @param zone - The zone
+	 * @param song - The song
+	 */
+	public synchronized static void addBack(Zone zone, Song song) {
+		ZoneQueue queue = getQueue(zone);
+
+		List<QueueOp.Id> ids = queue.getIds();
+
+		QueueOp.Id last = ids.isEmpty() ? null : ids.get(ids.size() - 1);
+
+		List<QueueOp> ops = new ArrayList<QueueOp>();
+		ops.add(new QueueOp(zone, nextId(), last, song));
+
+		applyLocal(zone, queue, ops);
+	}
+
+	/**
+	 * Removes the first copy of a song from a zone's queue, if it is queued.
+	 * @param zone - The zone
+	 * @param song - The song
+	 */
+	public synchronized static void remove(Zone zone, Song song) {
+		ZoneQueue queue = getQueue(zone);
+
+		int index = queue.getSongs().indexOf(song);
+
+		if(index < 0){
+			return;
+		}
+
+		List<QueueOp> ops = new ArrayList<QueueOp>();
+		ops.add(new QueueOp(zone, nextId(), queue.getIds().get(index), null));
+
+		applyLocal(zone, queue, ops);
+	}
+
+	/**
+	 * Changes a zone's queue to the given songs, with as few operations as it can: the
+	 * longest run of songs already queued in the same order is kept, the others removed and
+	 * the rest of the given songs inserted around them.
+	 * @param zone - The zone
+	 * @param wanted - The songs, in queue order
+	 */
+	public synchronized static void replace(Zone zone, List<Song> wanted) {
+		ZoneQueue queue = getQueue(zone);
+
+		List<Song> songs = queue.getSongs();
+		List<QueueOp.Id> ids = queue.getIds();
+
+		// Match each wanted song to a queued copy not yet matched
+		int[] match = new int[wanted.size()];
+		boolean[] used = new boolean[songs.size()];
+
+		for(int i = 0; i < wanted.size(); i++){
+			match[i] = -1;
+
+			for(int j = 0; j < songs.size(); j++){
+				if(!used[j] && songs.get(j).equals(wanted.get(i))){
+					used[j] = true;
+					match[i] = j;
+					break;
+				}
+			}
+		}
+
+		boolean[] keep = longestIncreasing(match);
+		boolean[] kept = new boolean[songs.size()];
+
+		for(int i = 0; i < wanted.size(); i++){
+			if(keep[i]){
+				kept[match[i]] = true;
+			}
+		}
+
+		List<QueueOp> ops = new ArrayList<QueueOp>();
+
+		for(int j = 0; j < songs.size(); j++){
+			if(!kept[j]){
+				ops.add(new QueueOp(zone, nextId(), ids.get(j), null));
+			}
+		}
+
+		QueueOp.Id prev = null;
+
+		for(int i = 0; i < wanted.size(); i++){
+			if(keep[i]){
+				prev = ids.get(match[i]);
+			}
+			else{
+				QueueOp.Id id = nextId();
+				ops.add(new QueueOp(zone, id, prev, wanted.get(i)));
+				prev = id;
+			}
+		}
+
+		if(!ops.isEmpty()){
+			applyLocal(zone, queue, ops);
+		}
+	}
+
+	/**
+	 * @param match - Index of each wanted song in the queue, or -1
+	 * @return - Which wanted songs are in the longest run of matches in increasing order
+	 */
+	private static boolean[] longestIncreasing(int[] match) {
+		int[] tails = new int[match.length];  //Position in match of the smallest end of a run of each length
+		int[] before = new int[match.length];  //Position in match of the previous element of the run
+		int length = 0;
+
+		for(int i = 0; i < match.length; i++){
+			if(match[i] < 0){
+				continue;
+			}
+
+			int low = 0;
+			int high = length;
+
+			while(low < high){
+				int mid = (low + high) >>> 1;
+
+				if(match[tails[mid]] < match[i]){
+					low = mid + 1;
+				}
+				else{
+					high = mid;
+				}
+			}
+
+			before[i] = low > 0 ? tails[low - 1] : -1;
+			tails[low] = i;
+
+			if(low == length){
+				length++;
+			}
+		}
+
+		boolean[] keep = new boolean[match.length];
+
+		for(int i = length > 0 ? tails[length - 1] : -1; i >= 0; i = before[i]){
+			keep[i] = true;
+		}
+
+		return keep;
+	}
+
+	/**
+	 * Applies operations received from another peer.
+	 * @param zone - The zone
+	 * @param ops - The operations, all for one zone
+	 */
+	public synchronized static void receive(Zone zone, List<QueueOp> ops) {
+		ZoneQueue queue = getQueue(zone);
+
+		boolean changed = false;
+
+		for(QueueOp op : ops){
+			clock = Math.max(clock, op.getId().getCounter());
+			changed |= queue.apply(op);
+		}
+
+		if(changed){
+			updateZoneMap(zone, queue);
+		}
+	}
+
+	/**
+	 * Replaces a zone's queue with a snapshot received from another peer.
+	 * @param zone - The zone
+	 * @param snapshot - The snapshot
+	 */
+	public synchronized static void adopt(Zone zone, List<QueueOp> snapshot) {
+		ZoneQueue queue = getQueue(zone);
+
+		for(QueueOp op : snapshot){
+			clock = Math.max(clock, op.getId().getCounter());
+		}
+
+		queue.adopt(snapshot);
+
+		updateZoneMap(zone, queue);
+	}
+
+	/**
+	 * Applies part of a zone map sent in answer to this peer's REQUEST_ZONE_MAP (see
+	 * PeerCollection.applyZoneMapUpdate), keeping the replicated queue of each zone that has one.
+	 * @param src - UID of the peer that answered
+	 * @param update - The part
+	 */
+	public synchronized static void applyZoneMapUpdate(String src, ZoneMapUpdate update) {
+		keepQueues(update.getZones());
+
+		PeerCollection.applyZoneMapUpdate(src, update);
+	}
+
+	/**
+	 * Puts zones received from another peer in the zone map, keeping the replicated queue
+	 * of each zone that has one.
+	 * @param zones - The zones
+	 */
+	public synchronized static void putZones(Map<Zone, ZoneProperties> zones) {
+		keepQueues(zones);
+
+		PeerCollection.putZones(zones);
+	}
+
+	/**
+	 * @return - Largest time stamp applied, by peer, for each zone by zone UID
+	 */
+	public synchronized static Map<String, Map<String, Long>> getSeen() {
+		Map<String, Map<String, Long>> seen = new HashMap<String, Map<String, Long>>();
+
+		for(Map.Entry<UUID, ZoneQueue> entry : queues.entrySet()){
+			seen.put(entry.getKey().toString(), entry.getValue().getSeen());
+		}
+
+		return seen;
+	}
+
+	/**
+	 * Sends another peer the queue operations it has not applied. A zone the peer has no
+	 * queue for, or that is missing operations no longer logged, is sent as a snapshot.
+	 * @param dst - The other peer
+	 * @param seen - What the other peer has applied, as from getSeen
+	 */
+	public synchronized static void answerSync(Address dst, Map<String, Map<String, Long>> seen) {
+		for(ZoneQueue queue : queues.values()){
+			Zone zone = queue.getZone();
+			Map<String, Long> since = seen == null ? null : seen.get(zone.getUid().toString());
+
+			List<QueueOp> ops = since == null ? null : queue.getOpsSince(since);
+
+			if(ops == null){
+				NetworkChannel.send(dst, PacketCreator.createQueueSnapshotPacket(queue.snapshot(), zone));
+			}
+			else if(!ops.isEmpty()){
+				NetworkChannel.send(dst, PacketCreator.createQueueOpsPacket(ops, zone));
+			}
+		}
+	}
+
+	/**
+	 * @return - The zone's queue, made from the queue in the zone map if there is none yet
+	 */
+	private static ZoneQueue getQueue(Zone zone) {
+		ZoneQueue queue = queues.get(zone.getUid());
+
+		if(queue == null){
+			ZoneProperties prop = PeerCollection.getZoneProps(zone);
+
+			queue = new ZoneQueue(zone, prop == null ? new ArrayList<Song>() : new ArrayList<Song>(prop.getPlayList()));
+			queues.put(zone.getUid(), queue);
+
+			clock = Math.max(clock, queue.getMaxCounter());
+		}
+
+		return queue;
+	}
+
+	private static QueueOp.Id nextId() {
+		return new QueueOp.Id(++clock, site);
+	}
+
+	/**
+	 * Applies operations made on this peer and sends them to the other peers.
+	 */
+	private static void applyLocal(Zone zone, ZoneQueue queue, List<QueueOp> ops) {
+		for(QueueOp op : ops){
+			queue.apply(op);
+		}
+
+		updateZoneMap(zone, queue);
+
+		NetworkChannel.sendQueueOps(zone, ops, queue.getSongs());
+	}
+
+	/**
+	 * Replaces the queue of received zones with the replicated one, as a zone map can be
+	 * older than queue operations already applied.
+	 */
+	private static void keepQueues(Map<Zone, ZoneProperties> zones) {
+		for(Map.Entry<Zone, ZoneProperties> entry : zones.entrySet()){
+			ZoneQueue queue = queues.get(entry.getKey().getUid());
+
+			if(queue != null){
+				List<Song> playList = entry.getValue().getPlayList();
+				playList.clear();
+				playList.addAll(queue.getSongs());
+			}
+		}
+	}
+
+	/**
+	 * Copies a zone's replicated queue into the zone map.
+	 */
+	private static void updateZoneMap(Zone zone, ZoneQueue queue) {
+		ZoneProperties prop = PeerCollection.getZoneProps(zone);
+
+		if(prop == null){
+			return;
+		}
+
+		// The zone map's list is replaced in place, as setPlayList takes the list in reverse
+		List<Song> playList = prop.getPlayList();
+		playList.clear();
+		playList.addAll(queue.getSongs());
+
+		PeerCollection.putZone(zone, prop);
+	}
+}
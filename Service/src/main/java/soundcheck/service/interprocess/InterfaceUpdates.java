@@ -0,0 +1,272 @@
+package soundcheck.service.interprocess;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import soundcheck.service.data.VirtualLibrary;
+import soundcheck.shared.InterfaceDelta;
+import soundcheck.shared.PacketCreator;
+import soundcheck.shared.Peer;
+import soundcheck.shared.Song;
+import soundcheck.shared.Zone;
+import soundcheck.shared.ZoneProperties;
+
+/**
+ * What the music player shows, and the changes to it that have not been sent yet.
+ *
+ * PeerCollection reports each change to a peer, song list or zone here. The changes are
+ * gathered and sent to the music player every FLUSH_INTERVAL_MS as one InterfaceDelta, so a
+ * burst of changes is sent once, and a change that is undone before it is sent (a song
+ * added then removed) is not sent at all. A snapshot is sent when the music player
+ * connects, or when it asks for one because a delta's version did not follow the last.
+ *
+ * Nothing is sent until the first snapshot, which holds everything.
+ *
+ */
+public final class InterfaceUpdates {
+	final static Logger logger = LoggerFactory.getLogger(InterfaceUpdates.class);
+
+	public final static long FLUSH_INTERVAL_MS = 100;  //How often changes are sent to the music player
+
+	private static final VirtualLibrary library = new VirtualLibrary();
+
+	private static final Map<String, Peer> peers = new LinkedHashMap<String, Peer>();  //Shown peers by UID, without song lists
+
+	private static final Map<Zone, ZoneProperties> zones = new LinkedHashMap<Zone, ZoneProperties>();  //Copies of the shown zones, never changed once recorded
+
+	private static final Map<String, Peer> changedPeers = new LinkedHashMap<String, Peer>();
+
+	private static final Set<String> removedPeers = new LinkedHashSet<String>();
+
+	private static final Map<String, Song> addedSongs = new LinkedHashMap<String, Song>();  //By library key
+
+	private static final Map<String, Song> removedSongs = new LinkedHashMap<String, Song>();  //By library key
+
+	private static final Map<Zone, ZoneProperties> changedZones = new LinkedHashMap<Zone, ZoneProperties>();
+
+	private static long version = 0;
+
+	private static boolean started = false;  //Whether a snapshot has been sent
+
+	private static Timer flushTimer;
+
+	/**
+	 * Make this class static with a private constructor
+	 */
+	private InterfaceUpdates() {
+		throw new AssertionError();
+	}
+
+	/**
+	 * Records a peer that was added, or whose name, status or zone changed.
+	 * @param peer - The peer
+	 */
+	public static synchronized void peerChanged(Peer peer) {
+		Peer shown = describe(peer);
+
+		peers.put(peer.getUid(), shown);
+		removedPeers.remove(peer.getUid());
+		changedPeers.put(peer.getUid(), shown);
+
+		changed();
+	}
+
+	/**
+	 * Records a peer that left, and removes its songs from the library.
+	 * @param uid - UID of the peer
+	 */
+	public static synchronized void peerRemoved(String uid) {
+		List<Song> removed = new ArrayList<Song>();
+
+		library.removePeer(uid, removed);
+		recordSongs(new ArrayList<Song>(0), removed);
+
+		peers.remove(uid);
+		changedPeers.remove(uid);
+		removedPeers.add(uid);
+
+		changed();
+	}
+
+	/**
+	 * Records a peer's new song list.
+	 * @param uid - UID of the peer
+	 * @param songList - The peer's songs
+	 */
+	public static synchronized void songsChanged(String uid, List<Song> songList) {
+		List<Song> added = new ArrayList<Song>();
+		List<Song> removed = new ArrayList<Song>();
+
+		library.setSongs(uid, songList, added, removed);
+		recordSongs(added, removed);
+
+		changed();
+	}
+
+	/**
+	 * Records a zone that was added, renamed, or whose queue changed.
+	 * @param zone - The zone
+	 * @param prop - The zone's properties
+	 */
+	public static synchronized void zoneChanged(Zone zone, ZoneProperties prop) {
+		// Copied, as ZoneQueues changes the playlist in place after this returns
+		ZoneProperties shown = new ZoneProperties(prop);
+
+		zones.put(zone, shown);
+		changedZones.put(zone, shown);
+
+		changed();
+	}
+
+	/**
+	 * Records zones that were added or changed.
+	 * @param zoneMap - The zones
+	 */
+	public static synchronized void zonesChanged(Map<Zone, ZoneProperties> zoneMap) {
+		for( Map.Entry<Zone, ZoneProperties> entry : zoneMap.entrySet() ) {
+			ZoneProperties shown = new ZoneProperties(entry.getValue());
+
+			zones.put(entry.getKey(), shown);
+			changedZones.put(entry.getKey(), shown);
+		}
+
+		changed();
+	}
+
+	/**
+	 * Sends everything the music player shows, replacing any changes waiting to be sent.
+	 */
+	public static synchronized void sendSnapshot() {
+		clearChanges();
+
+		InterfaceDelta snapshot = new InterfaceDelta(++version, true,
+				new ArrayList<Peer>(peers.values()), new ArrayList<String>(0),
+				library.getSongs(), new ArrayList<Song>(0),
+				new LinkedHashMap<Zone, ZoneProperties>(zones));
+
+		logger.debug("Sending {} to music player", snapshot);
+
+		started = true;
+
+		MusicPlayerConnection.sendData(PacketCreator.createInterfaceDeltaPacket(snapshot));
+
+		startFlushTimer();
+	}
+
+	/**
+	 * Takes the changes waiting to be sent.
+	 * @return - The changes, or null if there are none or no snapshot has been sent
+	 */
+	static synchronized InterfaceDelta takeDelta() {
+		if( !started ) {
+			// The first snapshot will hold these
+			clearChanges();
+			return null;
+		}
+
+		if( changedPeers.isEmpty() && removedPeers.isEmpty() && addedSongs.isEmpty()
+				&& removedSongs.isEmpty() && changedZones.isEmpty() ) {
+			return null;
+		}
+
+		InterfaceDelta delta = new InterfaceDelta(++version, false,
+				new ArrayList<Peer>(changedPeers.values()), new ArrayList<String>(removedPeers),
+				new ArrayList<Song>(addedSongs.values()), new ArrayList<Song>(removedSongs.values()),
+				new LinkedHashMap<Zone, ZoneProperties>(changedZones));
+
+		clearChanges();
+
+		return delta;
+	}
+
+	/**
+	 * Sends the changes waiting to be sent, if there are any. Holds the lock while queueing
+	 * the delta, so deltas and snapshots are queued in the order of their versions.
+	 */
+	static synchronized void flush() {
+		InterfaceDelta delta = takeDelta();
+
+		if( delta != null ) {
+			logger.trace("Sending {} to music player", delta);
+			MusicPlayerConnection.sendData(PacketCreator.createInterfaceDeltaPacket(delta));
+		}
+	}
+
+	/**
+	 * Nets songs entering and leaving the library against the changes waiting to be sent.
+	 */
+	private static void recordSongs(List<Song> added, List<Song> removed) {
+		for( Song song : removed ) {
+			String key = song.getLibraryKey();
+
+			if( addedSongs.remove(key) == null ) {
+				removedSongs.put(key, song);
+			}
+		}
+
+		for( Song song : added ) {
+			String key = song.getLibraryKey();
+
+			if( removedSongs.remove(key) == null ) {
+				addedSongs.put(key, song);
+			}
+		}
+	}
+
+	private static void clearChanges() {
+		changedPeers.clear();
+		removedPeers.clear();
+		addedSongs.clear();
+		removedSongs.clear();
+		changedZones.clear();
+	}
+
+	private static void changed() {
+		if( started ) {
+			startFlushTimer();
+		}
+	}
+
+	/**
+	 * @param peer - A peer
+	 * @return - A copy of the peer without its song list, which the music player does not use
+	 */
+	private static Peer describe(Peer peer) {
+		Peer shown = new Peer(peer.getUid(), peer.getName());
+
+		shown.setIp(peer.getIp());
+		shown.setZone(peer.getZone());
+		shown.setStatus(peer.getStatus());
+		shown.setExternal(peer.isExternal());
+
+		return shown;
+	}
+
+	private static synchronized void startFlushTimer() {
+		if( flushTimer != null ) {
+			return;
+		}
+
+		flushTimer = new Timer("InterfaceUpdates", true);
+
+		flushTimer.schedule(new TimerTask() {
+			@Override
+			public void run() {
+				try {
+					flush();
+				} catch (Exception e) {
+					logger.error("", e);
+				}
+			}
+		}, FLUSH_INTERVAL_MS, FLUSH_INTERVAL_MS);
+	}
+}
@@ -1,25 +1,63 @@
 package soundcheck.service.interprocess;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import soundcheck.shared.Const;
+import soundcheck.shared.Const.Command;
 import soundcheck.shared.Const.Service;
 import soundcheck.shared.DataPacket;
-
+import soundcheck.shared.InterfaceDelta;
+import soundcheck.shared.WireCodec;
+
+/**
+ * The connection to the user interface.
+ *
+ * Packets are sent as WireCodec frames, each an int length followed by the encoded packet.
+ * Callers queue a packet and return at once. One writer thread encodes the waiting packets
+ * and flushes the socket once they have all been written, so a network thread is never
+ * held up by the user interface.
+ *
+ * Packets are written in the order they were queued. An INTERFACE_DELTA snapshot replaces
+ * every INTERFACE_DELTA still waiting. At most CAPACITY packets wait. When it is full, the oldest
+ * is dropped. A dropped INTERFACE_DELTA leaves a gap in the versions the user interface
+ * receives, and it asks for a snapshot.
+ *
+ */
 public final class MusicPlayerConnection {
 	final static Logger logger = LoggerFactory.getLogger(MusicPlayerConnection.class);
 
+	public final static int CAPACITY = 1024;  //Most packets waiting to be written
+
 	private static ServerSocket serverSocket = null;
 	private static Socket socket = null;
-	private static ObjectOutputStream out = null;
-	private static ObjectInputStream in = null;
+	private static DataOutputStream out = null;
+	private static DataInputStream in = null;
+
+	private static final Object lock = new Object();
+
+	private static final LinkedList<DataPacket> pending = new LinkedList<DataPacket>();  //Packets waiting to be written, oldest first
+
+	private static Thread writer = null;
+
+	/**
+	 * Make this class static with a private constructor
+	 */
+	private MusicPlayerConnection() {
+		throw new AssertionError();
+	}
 
 	/**
 	 * Start a server socket to listen for connections from the user interface
@@ -37,8 +75,11 @@ public final class MusicPlayerConnection {
 			logger.trace("Waiting for connection from user interface on port {}.", Const.INTERFACE_PORT);
 
 			socket = serverSocket.accept();
-			out = new ObjectOutputStream( socket.getOutputStream() );
-			in = new ObjectInputStream( socket.getInputStream() );
+			// Packets are sent as WireCodec frames
+			out = new DataOutputStream( new BufferedOutputStream(socket.getOutputStream()) );
+			in = new DataInputStream( new BufferedInputStream(socket.getInputStream()) );
+
+			startWriter();
 
 			logger.debug("Connection to user interface established.");
 		} catch (IOException e) {
@@ -71,17 +112,106 @@ public final class MusicPlayerConnection {
 	}
 
 	/**
-	 * Send an object to the user interface
-	 * @param msg
+	 * Queue a packet to be sent to the user interface. The packet is written after this
+	 * returns, so its data must be a copy of any state that may still change, including the
+	 * playlist of each ZoneProperties.
+	 * @param packet
+	 */
+	public static final void sendData(DataPacket packet) {
+		logger.trace("Queueing message to user interface.");
+
+		Command command = packet.getCommand();
+
+		synchronized(lock) {
+			// Holds everything the waiting deltas would change
+			if( command == Command.INTERFACE_DELTA && ((InterfaceDelta) packet.getData()).isSnapshot() ) {
+				Iterator<DataPacket> iterator = pending.iterator();
+
+				while( iterator.hasNext() ) {
+					if( iterator.next().getCommand() == Command.INTERFACE_DELTA ) {
+						iterator.remove();
+					}
+				}
+			}
+
+			if( pending.size() >= CAPACITY ) {
+				DataPacket dropped = pending.removeFirst();
+
+				logger.warn("User interface is behind, dropped {} message.", dropped.getCommand());
+			}
+
+			pending.add(packet);
+
+			lock.notifyAll();
+		}
+	}
+
+	/**
+	 * Takes every waiting packet, waiting for one if there are none.
+	 * @return - The packets, oldest first
+	 * @throws InterruptedException
+	 */
+	static List<DataPacket> takeAll() throws InterruptedException {
+		synchronized(lock) {
+			while( pending.isEmpty() ) {
+				lock.wait();
+			}
+
+			List<DataPacket> packets = new ArrayList<DataPacket>(pending);
+
+			pending.clear();
+
+			return packets;
+		}
+	}
+
+	/**
+	 * @return - The number of packets waiting to be written
+	 */
+	public static int getQueuedCount() {
+		synchronized(lock) {
+			return pending.size();
+		}
+	}
+
+	private static synchronized void startWriter() {
+		if( writer != null ) {
+			return;
+		}
+
+		writer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				writePackets();
+			}
+		}, "InterfaceWriter");
+
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	/**
+	 * Writes queued packets to the user interface, flushing once each batch is written.
 	 */
-	public synchronized static final void sendData(DataPacket packet) {
-		try{
-			logger.trace("Sending message to user interface.");
-			out.writeObject(packet);
-			out.flush();
-			out.reset();
-		} catch(Exception e) {
-			logger.error("", e);
+	private static void writePackets() {
+		while( true ) {
+			List<DataPacket> packets;
+
+			try {
+				packets = takeAll();
+			} catch (InterruptedException e) {
+				return;
+			}
+
+			try {
+				for( DataPacket packet : packets ) {
+					WireCodec.writeFrame(out, packet);
+				}
+
+				out.flush();
+			} catch(Exception e) {
+				logger.error("", e);
+			}
 		}
 	}
 
@@ -96,7 +226,7 @@ public final class MusicPlayerConnection {
 		try {
 			// Listen for packets until valid packet is received
 			do {
-				recData = (DataPacket) in.readObject();
+				recData = WireCodec.readFrame(in);
 			} while( recData.getService() != Service.INTERPROCESS);
 			
 			logger.trace("Data received from music player.");
@@ -110,8 +240,6 @@ public final class MusicPlayerConnection {
 				logger.error("Could not close sockets to user interface.", e);
 			}
 			System.exit(0);
-		} catch (ClassNotFoundException e) {
-			logger.error("", e);
 		}
 
 		return recData;
@@ -0,0 +1,205 @@
+package soundcheck.service.network;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.jgroups.Address;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Splits large encoded packets (song lists, zone maps) into chunks that each fit in one
+ * datagram, and joins them back together on the receiving peer.
+ *
+ * A packet larger than CHUNK_SIZE is sent as chunks, and the outbound queue paces them. A
+ * stream control packet from the same peer then waits behind at most one chunk, not behind
+ * the whole transfer.
+ *
+ * Each chunk starts with a header:
+ *
+ * 		'S' 'K' version | transfer ID (8 bytes) | index (4 bytes) | count (4 bytes) | data
+ *
+ * A transfer whose chunks have not all arrived within TRANSFER_TIMEOUT_MS is forgotten, for
+ * instance when a newer copy of the same data replaced it before all of it was sent.
+ *
+ */
+public class ChunkAssembler {
+	final static Logger logger = LoggerFactory.getLogger(ChunkAssembler.class);
+
+	public final static int CHUNK_SIZE = 48 * 1024;  //Largest chunk data, below the 60K fragment size of the stack
+
+	public final static long TRANSFER_TIMEOUT_MS = 60000;  //How long to wait for the rest of a transfer
+
+	private final static int MAX_CHUNKS = 2048;  //Largest transfer accepted, about 96MB
+
+	private final static byte MAGIC_0 = 'S';
+
+	private final static byte MAGIC_1 = 'K';
+
+	private final static byte VERSION = 1;
+
+	private final static int HEADER_SIZE = 19;
+
+	private final Map<List<Object>, Transfer> transfers = new HashMap<List<Object>, Transfer>();
+
+	/**
+	 * @param packet - An encoded packet
+	 * @param transferId - ID of the transfer, unique for the sending peer
+	 * @return - The packet itself if it is no larger than CHUNK_SIZE, otherwise its chunks
+	 */
+	public static List<byte[]> split(byte[] packet, long transferId) {
+
+		List<byte[]> chunks = new ArrayList<byte[]>();
+
+		if(packet.length <= CHUNK_SIZE){
+			chunks.add(packet);
+			return chunks;
+		}
+
+		int count = (packet.length + CHUNK_SIZE - 1) / CHUNK_SIZE;
+
+		for(int index = 0; index < count; index++){
+			int offset = index * CHUNK_SIZE;
+			int length = Math.min(CHUNK_SIZE, packet.length - offset);
+
+			ByteBuffer chunk = ByteBuffer.allocate(HEADER_SIZE + length);
+
+			chunk.put(MAGIC_0).put(MAGIC_1).put(VERSION);
+			chunk.putLong(transferId);
+			chunk.putInt(index);
+			chunk.putInt(count);
+			chunk.put(packet, offset, length);
+
+			chunks.add(chunk.array());
+		}
+
+		return chunks;
+	}
+
+	/**
+	 * @param buffer - Array holding a message
+	 * @param offset - Where the message starts
+	 * @param length - Length of the message
+	 * @return - Whether the message is a chunk
+	 */
+	public static boolean isChunk(byte[] buffer, int offset, int length) {
+		return length >= HEADER_SIZE && buffer[offset] == MAGIC_0 && buffer[offset + 1] == MAGIC_1;
+	}
+
+	/**
+	 * Adds a received chunk to its transfer.
+	 *
+	 * @param src - Peer that sent the chunk
+	 * @param buffer - Array holding the chunk
+	 * @param offset - Where the chunk starts
+	 * @param length - Length of the chunk
+	 * @return - The whole packet if this was its last missing chunk, otherwise null
+	 */
+	public synchronized byte[] add(Address src, byte[] buffer, int offset, int length) {
+
+		ByteBuffer chunk = ByteBuffer.wrap(buffer, offset, length);
+
+		chunk.position(offset + 2);
+
+		if(chunk.get() != VERSION){
+			logger.warn("Dropping chunk of unknown version from {}", src);
+			return null;
+		}
+
+		long transferId = chunk.getLong();
+		int index = chunk.getInt();
+		int count = chunk.getInt();
+
+		if(count <= 0 || count > MAX_CHUNKS || index < 0 || index >= count){
+			logger.warn("Dropping malformed chunk {}/{} from {}", new Object[]{index, count, src});
+			return null;
+		}
+
+		long now = System.currentTimeMillis();
+
+		expire(now);
+
+		List<Object> key = Arrays.<Object>asList(src, transferId);
+
+		Transfer transfer = transfers.get(key);
+
+		if(transfer == null){
+			transfer = new Transfer(count, now);
+			transfers.put(key, transfer);
+		}
+
+		if(transfer.chunks.length != count || transfer.chunks[index] != null){
+			return null;
+		}
+
+		byte[] data = new byte[chunk.remaining()];
+		chunk.get(data);
+
+		transfer.chunks[index] = data;
+		transfer.size += data.length;
+		transfer.received++;
+
+		if(transfer.received < count){
+			return null;
+		}
+
+		transfers.remove(key);
+
+		byte[] packet = new byte[transfer.size];
+		int position = 0;
+
+		for(byte[] part : transfer.chunks){
+			System.arraycopy(part, 0, packet, position, part.length);
+			position += part.length;
+		}
+
+		return packet;
+	}
+
+	/**
+	 * Forgets transfers that have waited too long for their remaining chunks.
+	 */
+	private void expire(long now) {
+		Iterator<Transfer> iterator = transfers.values().iterator();
+
+		while(iterator.hasNext()){
+			Transfer transfer = iterator.next();
+
+			if(now - transfer.startMillis > TRANSFER_TIMEOUT_MS){
+				logger.debug("Dropping transfer with {} of {} chunks", transfer.received, transfer.chunks.length);
+				iterator.remove();
+			}
+		}
+	}
+
+	/**
+	 * @return - Number of transfers waiting for chunks
+	 */
+	public synchronized int getPendingCount() {
+		return transfers.size();
+	}
+
+	/**
+	 * The chunks of one packet received so far.
+	 */
+	private static final class Transfer {
+
+		private final byte[][] chunks;
+
+		private final long startMillis;
+
+		private int received = 0;
+
+		private int size = 0;
+
+		private Transfer(int count, long startMillis) {
+			this.chunks = new byte[count][];
+			this.startMillis = startMillis;
+		}
+	}
+}
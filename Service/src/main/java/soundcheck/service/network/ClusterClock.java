@@ -0,0 +1,216 @@
+package soundcheck.service.network;
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Timer;
+import java.util.TimerTask;
+
+import org.jgroups.Address;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import soundcheck.shared.Const.Command;
+import soundcheck.shared.DataPacket;
+import soundcheck.shared.PacketCreator;
+
+/**
+ * Estimates the offset between this peer's clock and a clock shared by the cluster, so
+ * that every peer in a zone can agree on when a piece of audio should be heard.
+ *
+ * The cluster clock is the clock of the reference peer, the first desktop peer in the
+ * JGroups view (normally the coordinator). Every other peer periodically exchanges time
+ * stamps with it the way NTP does:
+ *
+ * 		t0 request sent (local)   t1 request received (reference)
+ * 		t3 reply received (local) t2 reply sent (reference)
+ *
+ * 		offset = ((t1 - t0) + (t2 - t3)) / 2    round trip = (t3 - t0) - (t2 - t1)
+ *
+ * Of the last few exchanges, the one with the shortest round trip is used, since it had
+ * the least queuing delay to make the estimate uneven.
+ *
+ * EXAMPLE
+ * 		long playAt = ClusterClock.now() + delay;      (publisher)
+ * 		long local = ClusterClock.toLocalTime(playAt); (receiver)
+ *
+ */
+public final class ClusterClock {
+
+	final static Logger logger = LoggerFactory.getLogger(ClusterClock.class);
+
+	public final static long SYNC_INTERVAL_MS = 2000;  //How often the offset is measured
+
+	private final static int SAMPLE_WINDOW = 8;  //Number of recent exchanges the best one is picked from
+
+	private final static LinkedList<long[]> samples = new LinkedList<long[]>();  //{offset, round trip} of recent exchanges
+
+	private static volatile Address reference;  //Peer whose clock is the cluster clock
+
+	private static volatile boolean isReference = true;
+
+	private static volatile long offsetMillis = 0;  //Added to the local clock to get the cluster clock
+
+	private static volatile long roundTripMillis = -1;  //Round trip of the exchange the offset came from
+
+	private static Timer syncTimer;
+
+	/**
+	 * Make this class static with a private constructor
+	 */
+	private ClusterClock() {
+		throw new AssertionError();
+	}
+
+	/**
+	 * Picks the reference peer from a new view. Called whenever the view changes.
+	 *
+	 * @param members - The members of the new view, in view order
+	 * @param localAddress - This peer's address
+	 */
+	public synchronized static void setMembers(List<Address> members, Address localAddress) {
+
+		Address newReference = null;
+
+		for(Address member : members){
+			//Mobile devices do not answer clock requests
+			if(!member.toString().contains("localhost")){
+				newReference = member;
+				break;
+			}
+		}
+
+		if(newReference == null || newReference.equals(reference)){
+			return;
+		}
+
+		reference = newReference;
+		isReference = newReference.equals(localAddress);
+
+		samples.clear();
+		offsetMillis = 0;
+		roundTripMillis = -1;
+
+		logger.debug("Cluster clock reference is now {}{}", newReference, isReference ? " (this peer)" : "");
+
+		startSyncTimer();
+	}
+
+	/**
+	 * Handles a CLOCK_SYNC packet.
+	 *
+	 * @param src - The peer that sent the packet
+	 * @param packet - The CLOCK_SYNC packet
+	 * @param arrivalMillis - Local time the packet arrived, taken as early as possible
+	 */
+	public static void receive(Address src, DataPacket packet, long arrivalMillis) {
+
+		long[] timeStamps = (long[]) packet.getData();
+
+		switch(packet.getCommand()){
+
+		case CLOCK_REQUEST:
+			NetworkChannel.send(src, PacketCreator.createClockSyncPacket(Command.CLOCK_REPLY,
+					new long[]{timeStamps[0], arrivalMillis, System.currentTimeMillis()}));
+			break;
+
+		case CLOCK_REPLY:
+			if(src.equals(reference)){
+				addSample(timeStamps[0], timeStamps[1], timeStamps[2], arrivalMillis);
+			}
+			break;
+
+		default:
+			logger.warn("Unknown CLOCK_SYNC command {}", packet.getCommand());
+		}
+	}
+
+	/**
+	 * Records one exchange and updates the offset from the best recent one.
+	 *
+	 * @param t0 - Local time the request was sent
+	 * @param t1 - Reference time the request was received
+	 * @param t2 - Reference time the reply was sent
+	 * @param t3 - Local time the reply was received
+	 */
+	synchronized static void addSample(long t0, long t1, long t2, long t3) {
+
+		long roundTrip = (t3 - t0) - (t2 - t1);
+
+		if(roundTrip < 0){
+			return;
+		}
+
+		samples.addLast(new long[]{((t1 - t0) + (t2 - t3)) / 2, roundTrip});
+
+		if(samples.size() > SAMPLE_WINDOW){
+			samples.removeFirst();
+		}
+
+		long[] best = samples.getFirst();
+
+		for(long[] sample : samples){
+			if(sample[1] < best[1]){
+				best = sample;
+			}
+		}
+
+		if(Math.abs(best[0] - offsetMillis) > 1){
+			logger.trace("Cluster clock offset {} ms (round trip {} ms)", best[0], best[1]);
+		}
+
+		offsetMillis = best[0];
+		roundTripMillis = best[1];
+	}
+
+	/**
+	 * Starts the timer that sends clock requests to the reference peer, if it is not already running.
+	 */
+	private static void startSyncTimer() {
+		if(syncTimer != null){
+			return;
+		}
+
+		syncTimer = new Timer("ClusterClockSync", true);
+
+		syncTimer.schedule(new TimerTask() {
+			@Override
+			public void run() {
+				Address target = reference;
+
+				if(target != null && !isReference){
+					NetworkChannel.send(target, PacketCreator.createClockSyncPacket(Command.CLOCK_REQUEST,
+							new long[]{System.currentTimeMillis()}));
+				}
+			}
+		}, 0, SYNC_INTERVAL_MS);
+	}
+
+	/**
+	 * @return - The current time on the cluster clock, in milliseconds
+	 */
+	public static long now() {
+		return System.currentTimeMillis() + getOffsetMillis();
+	}
+
+	/**
+	 * @param clusterMillis - A time on the cluster clock
+	 * @return - The same moment on this peer's clock
+	 */
+	public static long toLocalTime(long clusterMillis) {
+		return clusterMillis - getOffsetMillis();
+	}
+
+	/**
+	 * @return - Milliseconds added to this peer's clock to get the cluster clock
+	 */
+	public static long getOffsetMillis() {
+		return isReference ? 0 : offsetMillis;
+	}
+
+	/**
+	 * @return - Round trip to the reference peer of the exchange the offset came from, or -1 if there has been none
+	 */
+	public static long getRoundTripMillis() {
+		return isReference ? 0 : roundTripMillis;
+	}
+}
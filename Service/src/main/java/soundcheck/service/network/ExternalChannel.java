@@ -1,14 +1,22 @@
 package soundcheck.service.network;
 
-import java.io.ByteArrayOutputStream;
-import java.io.DataOutputStream;
 import java.io.IOException;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
 import java.net.InetAddress;
-import java.net.SocketException;
-import java.util.LinkedList;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.charset.Charset;
 import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -17,166 +25,286 @@ import soundcheck.service.data.PeerCollection;
 import soundcheck.service.streaming.StreamController;
 import soundcheck.shared.Const;
 import soundcheck.shared.Const.Command;
-import soundcheck.shared.DataPacket;
 import soundcheck.shared.PacketCreator;
 import soundcheck.shared.Peer;
 import soundcheck.shared.Zone;
 
+/**
+ * Handles datagrams from external devices on Const.EXTERNAL_PORT.
+ *
+ * One thread waits on a selector for datagrams, reads each into the same direct buffer
+ * and looks at its four byte command without copying it. DISC is answered on that thread.
+ * Other commands are handed to a single worker thread, so a slow command does not hold up
+ * the socket, and commands from a device are still run in the order they arrived.
+ *
+ * Replies are written into direct buffers kept in a small pool.
+ *
+ */
 public class ExternalChannel implements Runnable {
 	final static Logger logger = LoggerFactory.getLogger(ExternalChannel.class);
 
-	private static DatagramSocket socket;
-	private static List<Peer> externalPeers = new LinkedList<Peer>();
+	public final static int BUFFER_SIZE = 65535;  //Largest datagram
+
+	public final static int COMMAND_QUEUE_CAPACITY = 64;  //Commands that may wait for the worker before new ones are dropped
+
+	private final static int BUFFER_POOL_SIZE = 4;  //Reply buffers kept for reuse
+
+	private final static Charset ASCII = Charset.forName("US-ASCII");
+
+	private final static byte[] DISC = "DISC".getBytes(ASCII);
+	private final static byte[] PLAY = "PLAY".getBytes(ASCII);
+	private final static byte[] STOP = "STOP".getBytes(ASCII);
+	private final static byte[] NEXT = "NEXT".getBytes(ASCII);
+	private final static byte[] ACKN = "ACKN".getBytes(ASCII);
+
+	private static DatagramChannel channel;
+
+	private static final ConcurrentLinkedQueue<ByteBuffer> bufferPool = new ConcurrentLinkedQueue<ByteBuffer>();
+
+	private static byte[] localAddress = new byte[4];  //Looked up once, sent in every reply
+
+	private final static ThreadPoolExecutor commandExecutor = new ThreadPoolExecutor(
+			1, 1,
+			60L, TimeUnit.SECONDS,
+			new LinkedBlockingQueue<Runnable>(COMMAND_QUEUE_CAPACITY),
+			new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "ExternalCommand");
+					thread.setDaemon(true);
+					return thread;
+				}
+			},
+			new RejectedExecutionHandler() {
+				@Override
+				public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+					logger.warn("Dropped command from external device, commands are behind.");
+				}
+			});
+
+	private Selector selector;
 
 	public ExternalChannel() {
 		try {
-			socket = new DatagramSocket(Const.EXTERNAL_PORT);
-		} catch (SocketException e) {
+			localAddress = InetAddress.getLocalHost().getAddress();
+		} catch (UnknownHostException e) {
+			logger.warn("Could not determine local address for external device replies.", e);
+		}
+
+		try {
+			channel = DatagramChannel.open();
+			channel.socket().bind(new InetSocketAddress(Const.EXTERNAL_PORT));
+			channel.configureBlocking(false);
+
+			selector = Selector.open();
+			channel.register(selector, SelectionKey.OP_READ);
+		} catch (IOException e) {
 			logger.warn("Could not open port to external device.",e);
 		}
 	}
 
 	@Override
 	public void run() {
-		while(true) {
-			receiveCommand();
+		if(selector == null) {
+			return;
+		}
+
+		ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+		try {
+			while(channel.isOpen()) {
+				logger.trace("Waiting to receive from external device.");
+
+				if(selector.select() == 0) {
+					continue;
+				}
+
+				selector.selectedKeys().clear();
+
+				// Read every datagram waiting
+				SocketAddress source;
+
+				while((source = receive(buffer)) != null) {
+					receiveCommand(buffer, ((InetSocketAddress) source).getAddress());
+				}
+			}
+		} catch (IOException e) {
+			logger.error("Connection to external device lost.");
+		} finally {
+			try {
+				channel.close();
+				selector.close();
+			} catch (IOException e) {
+				logger.error("", e);
+			}
 		}
+	}
+
+	private static SocketAddress receive(ByteBuffer buffer) throws IOException {
+		buffer.clear();
 
+		SocketAddress source = channel.receive(buffer);
+
+		buffer.flip();
+
+		return source;
 	}
 
 	/**
-	 * Send data to the external device
-	 * @param msg
+	 * Handles one datagram from an external device.
+	 * @param buffer - The datagram, from position to limit
+	 * @param address - The device
 	 */
-	public static final void sendList(List<Peer> peerList, InetAddress address) {
-		try{
-			logger.trace("Sending list to external device.");
-
-			// List to csv
-			StringBuilder listCSV = new StringBuilder("LIST" + peerList.size());
-			for( Peer peer : peerList) {
-				listCSV.append(peer.getIp() + ",");
-			}
-			// Remove last comma
-			listCSV.deleteCharAt(listCSV.length()-1);
+	static void receiveCommand(ByteBuffer buffer, final InetAddress address) {
+		logger.trace("External packet received");
 
-			socket.send(createDatagramPacket("LIST", (short)peerList.size(), listCSV.toString(), address));
+		if(buffer.remaining() < 4) {
+			return;
+		}
 
-		} catch(Exception e) {
-			logger.error("", e);
+		// Ignore name since we don't care at this point
+		if( isCommand(buffer, DISC) ) {
+			discoverReply(address);
+			return;
 		}
+
+		final byte[] command = new byte[4];
+		buffer.get(command);
+
+		// Get name and IP address to differentiate it from other peers on network.
+		final String externalName = ASCII.decode(buffer).toString().trim();
+
+		commandExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				executeCommand(ByteBuffer.wrap(command), externalName, address);
+			}
+		});
 	}
 
 	/**
-	 * After receiving a discovery request from device, send a reply
-	 * to indicate this peer exists.
+	 * Runs a command from an external device, on the worker thread.
+	 * @param command - The four byte command
+	 * @param externalName - Name the device sent
+	 * @param address - The device
 	 */
-	public static final void discoverReply(InetAddress address) {
-		try {
-			logger.trace("Responding to external discovery with SYNC");
-			socket.send(createDatagramPacket("SYNC", address));
-		} catch (IOException e) {
-			logger.error("",e);
+	private static void executeCommand(ByteBuffer command, String externalName, InetAddress address) {
+		long now = System.currentTimeMillis();
+
+		if( isCommand(command, ACKN) ) {
+			// New peer was discovered. Update the peer with current state of peers
+			sendList(PeerCollection.getPeers(), address);
+
+			ExternalSessionTable.Session session = ExternalSessionTable.register(externalName, address, now);
+
+			/* Create Peer Data packet to register the external device
+			as a peer on all computers on the network. Don't add to list if it is already on the network */
+			if( PeerCollection.getPeerByUID(session.getUid()) == null ) {
+				Peer externalPeer = new Peer(session.getUid(), externalName);
+				externalPeer.setExternal(true);
+
+				NetworkChannel.send( null, PacketCreator.createPeerDataPacket(externalPeer) );
+			}
+
+			return;
+		}
+
+		// Keep the device's session open, if this peer is serving it
+		ExternalSessionTable.touch(externalName, address, now);
+
+		// Get zone if device already exists on network
+		Peer externalPeer = PeerCollection.getPeerByUID(ExternalSessionTable.getUid(externalName, address));
+		Zone externalZone = externalPeer != null ? externalPeer.getZone() : null;
+
+		/* If a streaming command was issued, create data packet and send out as if
+		from a normal Peer. */
+		if( externalZone != null ) {
+			if( isCommand(command, PLAY) ) {
+				StreamController.createStreamInfo(externalZone, Command.PLAY);
+			} else if( isCommand(command, STOP) ) {
+				StreamController.createStreamInfo(externalZone, Command.PAUSE);
+			} else if( isCommand(command, NEXT) ) {
+				StreamController.createStreamInfo(externalZone, Command.NEXT);
+			}
 		}
 	}
 
 	/**
-	 * Listen for data from an external device. Blocks
-	 * @return
-	 *TODO need to get receiving info from Erik
+	 * Compares the first four bytes of a datagram with a command, ignoring case,
+	 * without moving the buffer's position.
+	 * @param buffer - The datagram
+	 * @param command - The command
+	 * @return - Whether the datagram starts with the command
 	 */
-	public static final DataPacket receiveCommand() {
-		DataPacket retPacket = null;
-		String recData = null;
-		logger.trace("Waiting to receive from external device.");
-
-		try {
-			byte buffer[] = new byte[65535];
-			DatagramPacket packet = new DatagramPacket (buffer, buffer.length);
-
-			socket.receive(packet);
-			logger.trace("External packet received");
-			// Convert the byte array read from network into a string
-			recData = new String(packet.getData(), 0, 4);
-
-			InetAddress currentAddr = packet.getAddress();
-
-			// Ignore name since we don't care at this point
-			if( recData.equalsIgnoreCase("DISC") ) {
-				discoverReply(currentAddr);
-			} else {
-				// Get name and IP address to differentiate it from other peers on network.
-				String externalName = new String(packet.getData(), 4, packet.getLength()).trim();
-				String externalID = externalName + currentAddr;
-
-				Zone externalZone = null;
-
-				// Get zone if device already exists on network
-				Peer externalPeer = PeerCollection.getPeerByUID(externalID);
-				if( externalPeer != null ) {
-					externalZone = externalPeer.getZone();
-				}
+	static boolean isCommand(ByteBuffer buffer, byte[] command) {
+		int start = buffer.position();
 
-				/* If a streaming command was issued, create data packet and send out as if
-				from a normal Peer. */
-				if( externalZone != null ) {
-					if( recData.equalsIgnoreCase("PLAY") ) {
-						StreamController.createStreamInfo(externalZone, Command.PLAY);
-					} else if( recData.equalsIgnoreCase("STOP")) {
-						StreamController.createStreamInfo(externalZone, Command.PAUSE);
-					} else if( recData.equalsIgnoreCase("NEXT")) {
-						StreamController.createStreamInfo(externalZone, Command.NEXT);
-					}
-				}
-				if( recData.equalsIgnoreCase("ACKN")) {
-					// New peer was discovered. Update the peer with current state of peers
-					sendList(PeerCollection.getPeers(), currentAddr);
-
-					/* Create Peer Data packet to register the external device 
-					as a peer on all computers on the network */
-					if( externalPeer == null ) {
-						externalPeer = new Peer(externalID, externalName);
-						externalPeer.setExternal(true);
-					}
-
-					externalPeers.add(externalPeer);
-
-					// Don't add to list if it is already on the network
-					if( PeerCollection.getPeerByUID(externalPeer.getUid()) == null ) {
-						NetworkChannel.send( null, PacketCreator.createPeerDataPacket(externalPeer) );
-					}
-				}
+		for(int i = 0; i < command.length; i++) {
+			// Clearing bit 5 makes ASCII letters upper case
+			if( (buffer.get(start + i) & 0xDF) != command[i] ) {
+				return false;
 			}
+		}
 
-		} catch (IOException e) {
-			logger.error("Connection to external device lost.");
-			socket.close();
+		return true;
+	}
+
+	/**
+	 * Send data to the external device
+	 * @param msg
+	 */
+	public static final void sendList(List<Peer> peerList, InetAddress address) {
+		logger.trace("Sending list to external device.");
+
+		// List to csv
+		StringBuilder listCSV = new StringBuilder("LIST" + peerList.size());
+		for( Peer peer : peerList) {
+			listCSV.append(peer.getIp() + ",");
 		}
+		// Remove last comma
+		listCSV.deleteCharAt(listCSV.length()-1);
 
-		return retPacket;
+		send("LIST", (short)peerList.size(), listCSV.toString(), address);
 	}
 
-	public static DatagramPacket createDatagramPacket(String message, InetAddress destination) {
-		return createDatagramPacket(message, (short)0, "", destination);
+	/**
+	 * After receiving a discovery request from device, send a reply
+	 * to indicate this peer exists.
+	 */
+	public static final void discoverReply(InetAddress address) {
+		logger.trace("Responding to external discovery with SYNC");
+		send("SYNC", (short)0, "", address);
 	}
 
-	public static DatagramPacket createDatagramPacket(String message, short size, String message2, InetAddress destination) {
-		// Create a byte array from a string
-		ByteArrayOutputStream byteOut = new ByteArrayOutputStream ();
-		DataOutputStream dataOut = new DataOutputStream (byteOut);
+	/**
+	 * Writes a reply into a pooled buffer and sends it to the device.
+	 */
+	private static void send(String message, short size, String message2, InetAddress destination) {
+		ByteBuffer buffer = bufferPool.poll();
+
+		if(buffer == null) {
+			buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+		}
+
 		try {
-			dataOut.write(170);
-			dataOut.write(170);
-			dataOut.writeBytes(message);
-			dataOut.write(InetAddress.getLocalHost().getAddress());
-			dataOut.writeShort(size);
-			dataOut.writeBytes(message2);
-		} catch (IOException e) {
+			buffer.clear();
+			buffer.put((byte) 170);
+			buffer.put((byte) 170);
+			buffer.put(message.getBytes(ASCII));
+			buffer.put(localAddress);
+			buffer.putShort(size);
+			buffer.put(message2.getBytes(ASCII));
+			buffer.flip();
+
+			if(channel.send(buffer, new InetSocketAddress(destination, Const.EXTERNAL_PORT)) == 0) {
+				logger.warn("Reply to external device {} was not sent, the socket buffer is full.", destination);
+			}
+		} catch (Exception e) {
 			logger.error("",e);
+		} finally {
+			if(bufferPool.size() < BUFFER_POOL_SIZE) {
+				bufferPool.offer(buffer);
+			}
 		}
-		byte[] data = byteOut.toByteArray();
-
-		//Return the new packet with the byte array payload
-		return new DatagramPacket (data, data.length, destination, Const.EXTERNAL_PORT);
 	}
 }
@@ -0,0 +1,192 @@
+package soundcheck.service.network;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import soundcheck.service.data.PeerCollection;
+import soundcheck.shared.PacketCreator;
+
+/**
+ * The external devices this peer is serving, by device name and address.
+ *
+ * A session is opened when a device sends ACKN, and is seen again with every command
+ * the device sends. A session not seen for IDLE_TIMEOUT_MS is closed, and the device's
+ * peer is removed from this peer and the rest of the cluster. A device that comes back
+ * is registered again by its next ACKN.
+ *
+ */
+public final class ExternalSessionTable {
+	final static Logger logger = LoggerFactory.getLogger(ExternalSessionTable.class);
+
+	public final static long IDLE_TIMEOUT_MS = 300000;  //How long a device may be silent before its session is closed
+
+	public final static long SWEEP_INTERVAL_MS = 10000;  //How often idle sessions are looked for
+
+	private static final Map<String, Session> sessions = new ConcurrentHashMap<String, Session>();
+
+	private static Timer sweepTimer;
+
+	/**
+	 * A device being served by this peer.
+	 */
+	public static final class Session {
+		private final String uid;
+		private final String name;
+		private volatile long lastSeen;
+
+		private Session(String uid, String name, long lastSeen) {
+			this.uid = uid;
+			this.name = name;
+			this.lastSeen = lastSeen;
+		}
+
+		/**
+		 * @return - UID of the device's peer
+		 */
+		public String getUid() {
+			return uid;
+		}
+
+		/**
+		 * @return - Name the device sent
+		 */
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * @return - When the device was last heard from
+		 */
+		public long getLastSeen() {
+			return lastSeen;
+		}
+	}
+
+	/**
+	 * Make this class static with a private constructor
+	 */
+	private ExternalSessionTable() {
+		throw new AssertionError();
+	}
+
+	/**
+	 * @param name - Name the device sent
+	 * @param address - The device
+	 * @return - UID of the device's peer, unique to the name and address
+	 */
+	public static String getUid(String name, InetAddress address) {
+		return name + address;
+	}
+
+	/**
+	 * Opens a session for a device, or marks an open one as seen.
+	 * @param name - Name the device sent
+	 * @param address - The device
+	 * @param now - The current time
+	 * @return - The device's session
+	 */
+	public static synchronized Session register(String name, InetAddress address, long now) {
+		String uid = getUid(name, address);
+
+		Session session = sessions.get(uid);
+
+		if( session == null ) {
+			logger.debug("External device {} connected", uid);
+
+			session = new Session(uid, name, now);
+			sessions.put(uid, session);
+
+			startSweepTimer();
+		} else {
+			session.lastSeen = now;
+		}
+
+		return session;
+	}
+
+	/**
+	 * Marks a device's session as seen.
+	 * @param name - Name the device sent
+	 * @param address - The device
+	 * @param now - The current time
+	 * @return - The device's session, or null if it has none
+	 */
+	public static Session touch(String name, InetAddress address, long now) {
+		Session session = sessions.get(getUid(name, address));
+
+		if( session != null ) {
+			session.lastSeen = now;
+		}
+
+		return session;
+	}
+
+	/**
+	 * Closes the sessions not seen within IDLE_TIMEOUT_MS.
+	 * @param now - The current time
+	 * @return - The closed sessions
+	 */
+	static synchronized List<Session> expire(long now) {
+		List<Session> expired = new ArrayList<Session>();
+
+		Iterator<Session> iterator = sessions.values().iterator();
+
+		while( iterator.hasNext() ) {
+			Session session = iterator.next();
+
+			if( now - session.lastSeen > IDLE_TIMEOUT_MS ) {
+				logger.debug("External device {} has gone idle", session.getUid());
+
+				iterator.remove();
+				expired.add(session);
+			}
+		}
+
+		return expired;
+	}
+
+	/**
+	 * @return - The number of open sessions
+	 */
+	public static int size() {
+		return sessions.size();
+	}
+
+	/**
+	 * Closes idle sessions and removes their devices from the cluster.
+	 */
+	static void sweep() {
+		for( Session session : expire(System.currentTimeMillis()) ) {
+			PeerCollection.removePeer(session.getUid());
+			NetworkChannel.send( null, PacketCreator.createPeerRemovePacket(session.getUid()) );
+		}
+	}
+
+	private static synchronized void startSweepTimer() {
+		if( sweepTimer != null ) {
+			return;
+		}
+
+		sweepTimer = new Timer("ExternalSessionSweep", true);
+
+		sweepTimer.schedule(new TimerTask() {
+			@Override
+			public void run() {
+				try {
+					sweep();
+				} catch (Exception e) {
+					logger.error("", e);
+				}
+			}
+		}, SWEEP_INTERVAL_MS, SWEEP_INTERVAL_MS);
+	}
+}
@@ -0,0 +1,252 @@
+package soundcheck.service.network;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jgroups.Message;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import soundcheck.shared.DataPacket;
+
+/**
+ * Runs the handling of received messages and view changes on a fixed set of worker threads.
+ *
+ * Each worker (lane) takes its tasks from its own queue, in order. A message is put on a
+ * lane picked from its zone, or from its sender if it is not for a zone, so messages for
+ * one zone or from one peer are handled in the order they arrived while different zones
+ * are handled in parallel. View changes all go to the same lane.
+ *
+ * When a lane holds LANE_CAPACITY tasks, low priority messages (whole song lists and update
+ * requests, which are superseded by the next one) are dropped. Everything else waits for
+ * room, which holds back the JGroups receive thread instead of starting more threads. A
+ * lane's own worker never waits for room on its lane, as it would never drain; its tasks
+ * are queued behind the others even when the lane is full.
+ *
+ */
+public final class MessageDispatcher {
+
+	final static Logger logger = LoggerFactory.getLogger(MessageDispatcher.class);
+
+	public final static int LANE_COUNT = 4;  //Number of worker threads
+
+	public final static int LANE_CAPACITY = 128;  //Most tasks waiting on one lane
+
+	private final static Object VIEW_KEY = new Object();  //Keeps view changes in order with each other
+
+	private final static Lane[] lanes = new Lane[LANE_COUNT];
+
+	private final static AtomicLong droppedMessages = new AtomicLong();
+
+	static {
+		for(int i = 0; i < LANE_COUNT; i++){
+			lanes[i] = new Lane();
+
+			lanes[i].worker = new Thread(lanes[i], "MessageDispatch-" + i);
+			lanes[i].worker.setDaemon(true);
+			lanes[i].worker.start();
+		}
+	}
+
+	/**
+	 * Make this class static with a private constructor
+	 */
+	private MessageDispatcher() {
+		throw new AssertionError();
+	}
+
+	/**
+	 * Queues a received message to be handled.
+	 *
+	 * @param channel - The channel the message arrived on
+	 * @param msg - The message
+	 * @param packet - The packet the message carries
+	 */
+	public static void dispatch(NetworkChannel channel, Message msg, DataPacket packet) {
+
+		Object key = packet.getZone() != null ? packet.getZone().getUid() : msg.getSrc();
+
+		if(!submit(key, new MessageHandler(channel, msg, packet), isLowPriority(packet))){
+			logger.warn("Dropped {} packet from {}, message handling is behind.", packet.getService(), msg.getSrc());
+		}
+	}
+
+	/**
+	 * Queues the handling of a view change.
+	 *
+	 * @param peerManager - Applies the view change
+	 */
+	public static void dispatchViewChange(PeerManager peerManager) {
+		submit(VIEW_KEY, peerManager, false);
+	}
+
+	/**
+	 * Queues a task on the lane for its key.
+	 *
+	 * @param key - Tasks with equal keys are run in the order they are submitted
+	 * @param task - The task
+	 * @param lowPriority - Whether the task may be dropped if its lane is full
+	 * @return - False if the task was dropped
+	 */
+	static boolean submit(Object key, Runnable task, boolean lowPriority) {
+
+		Lane lane = lanes[laneFor(key)];
+
+		if(lowPriority){
+			if(!lane.offer(task)){
+				droppedMessages.incrementAndGet();
+				return false;
+			}
+			return true;
+		}
+
+		// Queued past the capacity, behind the tasks already on the lane, so the zone's order is kept
+		if(lane.worker == Thread.currentThread()){
+			lane.queue.add(task);
+			return true;
+		}
+
+		// Lanes waiting on each other would never drain, so a handler that causes a message on another full lane runs it now
+		if(isLaneWorker(Thread.currentThread())){
+			if(!lane.offer(task)){
+				task.run();
+			}
+			return true;
+		}
+
+		try {
+			lane.put(task);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			droppedMessages.incrementAndGet();
+			return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * @param thread - A thread
+	 * @return - Whether the thread is one of the lanes' workers
+	 */
+	private static boolean isLaneWorker(Thread thread) {
+		for(Lane lane : lanes){
+			if(lane.worker == thread){
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * @param key - Ordering key of a task
+	 * @return - Index of the lane the task runs on
+	 */
+	static int laneFor(Object key) {
+		int hash = key == null ? 0 : key.hashCode();
+
+		// Spread the bits so keys that differ only in their high bits use different lanes
+		hash ^= (hash >>> 16);
+
+		return (hash & Integer.MAX_VALUE) % LANE_COUNT;
+	}
+
+	/**
+	 * @param packet - A received packet
+	 * @return - Whether it may be dropped when message handling falls behind
+	 */
+	private static boolean isLowPriority(DataPacket packet) {
+		switch(packet.getService()){
+		case SONGLIST:
+			// A lost song list delta would make the next one fail and cost a whole list
+			return packet.getCommand() == null;
+		case UPDATE:
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * @return - Number of tasks waiting on all lanes
+	 */
+	public static int getQueuedCount() {
+		int queued = 0;
+
+		for(Lane lane : lanes){
+			queued += lane.queue.size();
+		}
+
+		return queued;
+	}
+
+	/**
+	 * @return - Number of messages dropped because their lane was full
+	 */
+	public static long getDroppedCount() {
+		return droppedMessages.get();
+	}
+
+	/**
+	 * A worker thread and its queue of tasks.
+	 */
+	private static final class Lane implements Runnable {
+
+		private final BlockingQueue<Runnable> queue = new LinkedBlockingQueue<Runnable>();  //Unbounded, other threads are held to LANE_CAPACITY by put and offer
+
+		private Thread worker;
+
+		/**
+		 * Queues a task, waiting while the lane is full.
+		 * @param task - The task
+		 * @throws InterruptedException - If interrupted while waiting
+		 */
+		private synchronized void put(Runnable task) throws InterruptedException {
+			while(queue.size() >= LANE_CAPACITY){
+				wait();
+			}
+
+			queue.add(task);
+		}
+
+		/**
+		 * Queues a task if the lane is not full.
+		 * @param task - The task
+		 * @return - Whether the task was queued
+		 */
+		private synchronized boolean offer(Runnable task) {
+			if(queue.size() >= LANE_CAPACITY){
+				return false;
+			}
+
+			return queue.add(task);
+		}
+
+		@Override
+		public void run() {
+			while(true){
+				Runnable task;
+
+				try {
+					task = queue.take();
+				} catch (InterruptedException e) {
+					return;
+				}
+
+				// Room for a task waiting in put
+				synchronized(this){
+					notify();
+				}
+
+				// One bad message must not stop the lane
+				try {
+					task.run();
+				} catch (RuntimeException e) {
+					logger.error("", e);
+				}
+			}
+		}
+	}
+}
@@ -8,14 +8,19 @@ import org.jgroups.Message;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import soundcheck.service.MasterController;
 import soundcheck.service.data.PeerCollection;
+import soundcheck.service.data.ZoneQueues;
+import soundcheck.service.interprocess.InterfaceUpdates;
+import soundcheck.service.streaming.MulticastLeaseRegistry;
 import soundcheck.service.streaming.StreamController;
+import soundcheck.shared.Const.Command;
 import soundcheck.shared.DataPacket;
 import soundcheck.shared.PacketCreator;
 import soundcheck.shared.Peer;
-import soundcheck.shared.Song;
+import soundcheck.shared.QueueOp;
+import soundcheck.shared.SongListDelta;
 import soundcheck.shared.Zone;
+import soundcheck.shared.ZoneMapUpdate;
 import soundcheck.shared.ZonePair;
 import soundcheck.shared.ZoneProperties;
 
@@ -29,10 +34,12 @@ public class MessageHandler implements Runnable {
 
 	private final NetworkChannel channel;
 	private final Message msg;
+	private final DataPacket packet;
 
-	public MessageHandler( NetworkChannel channel, Message msg ) {
+	public MessageHandler( NetworkChannel channel, Message msg, DataPacket packet ) {
 		this.channel = channel;
 		this.msg = msg;
+		this.packet = packet;
 	}
 
 	@Override
@@ -43,18 +50,27 @@ public class MessageHandler implements Runnable {
 	@SuppressWarnings("unchecked")
 	private void handleMessage() {
 
-		DataPacket packet = (DataPacket)msg.getObject();
-
 		logger.trace("Received {} packet from {}.", packet.getService().toString(), msg.getSrc().toString());
 		switch( packet.getService() ) {
 		
 		case REQUEST_ZONE_MAP:
-			NetworkChannel.send(msg.getSrc(), PacketCreator.createRespondZoneMapPacket(PeerCollection.getZonemap()));
+			if(msg.getSrc().toString().contains("localhost")) {
+				// The mobile application reads the whole map
+				NetworkChannel.send(msg.getSrc(), PacketCreator.createRespondZoneMapPacket(PeerCollection.getZonemap()));
+			}
+			else if(msg.getDest() != null || NetworkChannel.isZoneMapResponder()) {
+				// Of the peers a request to everyone reaches, only the responder answers it
+				NetworkChannel.sendZoneMap(msg.getSrc(), (Map<String, Long>)packet.getData());
+			}
 			break;
 			
 		case GET_ZONE_MAP:
 			logger.trace("Receiving initial Zone Map from peer");
-			PeerCollection.getZonemap().putAll((Map<Zone,ZoneProperties>)packet.getData());
+			if(packet.getData() instanceof ZoneMapUpdate) {
+				ZoneQueues.applyZoneMapUpdate(msg.getSrc().toString(), (ZoneMapUpdate)packet.getData());
+			} else {
+				ZoneQueues.putZones((Map<Zone,ZoneProperties>)packet.getData());
+			}
 			break;
 			
 		case DISCOVERY:
@@ -62,9 +78,7 @@ public class MessageHandler implements Runnable {
 			
 			//All Android devices have this in the name.  Add the address to the list
 			if(msg.getSrc().toString().contains("localhost")){
-				if(!PeerManager.getMobileAddresses().contains(msg.getSrc())){
-					PeerManager.addMobileAddress(msg.getSrc());
-				}
+				MobileRegistry.register(msg.getSrc(), NetworkChannel.isMember(msg.getSrc()));
 			}
 
 			Peer thisPeer = channel.getThisPeer();
@@ -109,6 +123,11 @@ public class MessageHandler implements Runnable {
 			PeerCollection.updatePeerZones(peerList);
 			break;
 
+		case PEER_REMOVE:
+			// An external device relayed by another peer has gone idle
+			PeerCollection.removePeer((String)packet.getData());
+			break;
+
 		case ZONE_MAPPING:
 			// A new zone has been created or a zone has been renamed.
 
@@ -119,61 +138,77 @@ public class MessageHandler implements Runnable {
 			break;
 			
 		case QUEUE_CHANGE:
-			// Get current zone data
 			Zone zone = packet.getZone();
-			ZoneProperties zoneProp = PeerCollection.getZoneProps(zone);
 			
-			// Change queue in proper way
 			switch (packet.getCommand()) {
-			case QUEUE_FRONT:
-				zoneProp.addFirst((Song) packet.getData());
+			case QUEUE_OPS:
+				ZoneQueues.receive(zone, (List<QueueOp>) packet.getData());
 				break;
-			case QUEUE_BACK:
-				zoneProp.addLast((Song) packet.getData());
+			case QUEUE_SNAPSHOT:
+				ZoneQueues.adopt(zone, (List<QueueOp>) packet.getData());
 				break;
-			case QUEUE_REMOVE:
-				zoneProp.removeSong((Song) packet.getData());
+			case QUEUE_SYNC:
+				ZoneQueues.answerSync(msg.getSrc(), (Map<String, Map<String, Long>>) packet.getData());
 				break;
+			case QUEUE_FRONT:
+			case QUEUE_BACK:
+			case QUEUE_REMOVE:
 			case NEW_QUEUE:
-				zoneProp.setPlayList( (List<Song>)packet.getData() );
+				// Mobile devices and older peers send whole edits to everyone. The zone map
+				// responder alone makes them into queue operations, so they are applied once.
+				if(NetworkChannel.isZoneMapResponder()) {
+					ZoneQueues.edit(packet.getCommand(), packet.getData(), zone);
+				}
 				break;
 			default:
 				logger.warn("Unknown QUEUE_CHANGE command {}", packet.getCommand().toString());
 			}
-			
-			// Write new queue to peer collection
-			PeerCollection.putZone(zone, zoneProp);
 			break;
 
 		case STREAMING:
 			// Receiving a stream control packet
-			StreamController.receive(msg);
+			StreamController.receive(msg.getSrc(), packet);
 			break;
 			
 		case STREAMING_ACK:
 			// Receiving a stream acknowledgment packet
-			StreamController.ackStream( msg );
+			StreamController.ackStream( msg.getSrc(), packet );
+			break;
+
+		case MCAST_LEASE:
+			// A publisher has claimed, renewed or released a multicast address
+			MulticastLeaseRegistry.receive(packet);
 			break;
 
 		case SONGLIST:
 			
-			// receiving data packet, update songlist for sending peer
-			
-			// peer object passed in data packet
-			Peer songPeer = (Peer) packet.getData();
-			
-			// get peer with same uid from local collection and update songlist to newly passed peer
-			PeerCollection.updateSongList(songPeer);
+			if( packet.getCommand() == Command.LIBRARY_DELTA ) {
+				// Changes to the sending peer's songlist. Ask for the whole list if they do not fit the copy held.
+				if( !PeerCollection.applySongListDelta(msg.getSrc().toString(), (SongListDelta) packet.getData()) ) {
+					NetworkChannel.send( msg.getSrc(), PacketCreator.createSongListResyncPacket() );
+				}
+			}
+			else if( packet.getCommand() == Command.LIBRARY_RESYNC ) {
+				NetworkChannel.send( msg.getSrc(),
+						PacketCreator.createSongListDeltaPacket(PeerCollection.getMC().getLocalLibrary().snapshot()) );
+			}
+			else {
+				// receiving data packet, update songlist for sending peer
+				
+				// peer object passed in data packet
+				Peer songPeer = (Peer) packet.getData();
+				
+				// get peer with same uid from local collection and update songlist to newly passed peer
+				PeerCollection.updateSongList(songPeer);
+			}
 			
 			break;
 			
 		case UPDATE:
 			
-			MasterController mc = PeerCollection.getMC();
-			
-			mc.sendPeerListToMusicPlayer();
-			mc.sendSongListToMusicPlayer();
-			mc.sendZoneMapToMusicPlayer();
+			// A zone's properties were changed in place
+			InterfaceUpdates.zonesChanged(PeerCollection.getZonemap());
+			break;
 			
 		default:
 			logger.warn("Unrecognized packet type \"{}\" received from {}.", packet.getService().toString(), msg.getSrc().toString() );
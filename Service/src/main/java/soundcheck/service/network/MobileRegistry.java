@@ -0,0 +1,174 @@
+package soundcheck.service.network;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.jgroups.Address;
+import org.jgroups.util.Util;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import soundcheck.shared.DataPacket;
+
+/**
+ * The mobile devices in the cluster, and the packets for all of them.
+ *
+ * A device is registered when it sends DISCOVERY, and is confirmed by a view that holds
+ * it. It is dropped when a view no longer holds it. A device registered while it was not
+ * in the view (a DISCOVERY handled after the view that removed the device) is dropped if
+ * no view confirms it within UNCONFIRMED_TTL_MS.
+ *
+ * Packets broadcast to the mobile devices are sent every FLUSH_INTERVAL_MS. Each packet
+ * is serialized once for all of the devices, and each device is sent it once.
+ *
+ */
+public final class MobileRegistry {
+	final static Logger logger = LoggerFactory.getLogger(MobileRegistry.class);
+
+	public final static long UNCONFIRMED_TTL_MS = 30000;  //How long a device not in the view is kept
+
+	public final static long FLUSH_INTERVAL_MS = 50;  //How often broadcasts are sent to the devices
+
+	private final static long CONFIRMED = Long.MAX_VALUE;
+
+	private static final Map<Address, Long> devices = new ConcurrentHashMap<Address, Long>();  //When each unconfirmed device registered, or CONFIRMED
+
+	private static final ConcurrentLinkedQueue<DataPacket> broadcasts = new ConcurrentLinkedQueue<DataPacket>();
+
+	private static Timer flushTimer;
+
+	/**
+	 * Make this class static with a private constructor
+	 */
+	private MobileRegistry() {
+		throw new AssertionError();
+	}
+
+	/**
+	 * Registers a mobile device.
+	 * @param addr - The device
+	 * @param inView - Whether the current view holds the device
+	 */
+	public static synchronized void register(Address addr, boolean inView) {
+		if(inView){
+			devices.put(addr, CONFIRMED);
+		}
+		else if(!devices.containsKey(addr)){
+			devices.put(addr, System.currentTimeMillis());
+		}
+	}
+
+	/**
+	 * Drops the devices a new view does not hold, and confirms the ones it does.
+	 * @param members - The members of the view
+	 */
+	public static synchronized void viewChanged(Collection<Address> members) {
+		Iterator<Address> iterator = devices.keySet().iterator();
+
+		while(iterator.hasNext()){
+			Address addr = iterator.next();
+
+			if(members.contains(addr)){
+				devices.put(addr, CONFIRMED);
+			}
+			else{
+				logger.debug("Mobile device {} has left", addr);
+				iterator.remove();
+			}
+		}
+	}
+
+	/**
+	 * Drops devices that no view has confirmed within UNCONFIRMED_TTL_MS.
+	 * @param now - The current time
+	 */
+	static synchronized void expire(long now) {
+		Iterator<Map.Entry<Address, Long>> iterator = devices.entrySet().iterator();
+
+		while(iterator.hasNext()){
+			Map.Entry<Address, Long> entry = iterator.next();
+
+			long registered = entry.getValue();
+
+			if(registered != CONFIRMED && now - registered > UNCONFIRMED_TTL_MS){
+				logger.debug("Mobile device {} was never confirmed by a view", entry.getKey());
+				iterator.remove();
+			}
+		}
+	}
+
+	/**
+	 * @param addr - An address, or null
+	 * @return - Whether the address is a registered mobile device
+	 */
+	public static boolean isMobile(Address addr) {
+		return addr != null && devices.containsKey(addr);
+	}
+
+	/**
+	 * @return - The registered devices
+	 */
+	public static List<Address> getAddresses() {
+		return Collections.unmodifiableList(new ArrayList<Address>(devices.keySet()));
+	}
+
+	/**
+	 * Queues a packet for every mobile device, to go out with the next flush.
+	 * @param packet - The packet
+	 */
+	public static void broadcast(DataPacket packet) {
+		broadcasts.add(packet);
+		startFlushTimer();
+	}
+
+	/**
+	 * Sends the queued broadcasts to the registered devices.
+	 */
+	static void flush() {
+		expire(System.currentTimeMillis());
+
+		List<Address> targets = getAddresses();
+
+		DataPacket packet;
+
+		while((packet = broadcasts.poll()) != null){
+			if(targets.isEmpty()){
+				continue;
+			}
+
+			try {
+				// The same bytes go to every device
+				byte[] serialized = Util.objectToByteBuffer(packet);
+
+				for(Address addr : targets){
+					NetworkChannel.offerSerialized(addr, packet, serialized);
+				}
+			} catch (Exception e) {
+				logger.error("", e);
+			}
+		}
+	}
+
+	private static synchronized void startFlushTimer() {
+		if(flushTimer != null){
+			return;
+		}
+
+		flushTimer = new Timer("MobileBroadcast", true);
+
+		flushTimer.schedule(new TimerTask() {
+			@Override
+			public void run() {
+				flush();
+			}
+		}, FLUSH_INTERVAL_MS, FLUSH_INTERVAL_MS);
+	}
+}
@@ -2,11 +2,16 @@ package soundcheck.service.network;
 
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.jgroups.Address;
 import org.jgroups.Event;
@@ -22,11 +27,18 @@ import org.slf4j.LoggerFactory;
 
 import soundcheck.service.MasterController;
 import soundcheck.service.data.PeerCollection;
+import soundcheck.service.data.ZoneQueues;
 import soundcheck.shared.Const;
+import soundcheck.shared.Const.Command;
 import soundcheck.shared.DataPacket;
 import soundcheck.shared.PacketCreator;
 import soundcheck.shared.Peer;
+import soundcheck.shared.QueueOp;
+import soundcheck.shared.Song;
+import soundcheck.shared.SongListDelta;
+import soundcheck.shared.WireCodec;
 import soundcheck.shared.Zone;
+import soundcheck.shared.ZoneMapUpdate;
 import soundcheck.shared.ZonePair;
 import soundcheck.shared.ZoneProperties;
 
@@ -41,7 +53,37 @@ public final class NetworkChannel extends ReceiverAdapter {
 
 	private MasterController mc;
 	private Peer thisPeer;
-	private static JChannel channel;
+	private static volatile JChannel channel;
+
+	// Packets are sent from one thread, which waits out disconnections
+	private static final OutboundQueue outbound = new OutboundQueue(new OutboundQueue.Transport() {
+		@Override
+		public boolean isConnected() {
+			return channel != null && channel.isConnected();
+		}
+
+		@Override
+		public void write(Address dst, DataPacket packet) throws Exception {
+			NetworkChannel.write(dst, packet);
+		}
+
+		@Override
+		public void write(Address dst, byte[] bytes) throws Exception {
+			for(Address member : getRecipients(dst)) {
+				channel.send(member, bytes);
+			}
+		}
+	}, "NetworkSender");
+
+	private static final AtomicLong transferIds = new AtomicLong();
+
+	public static final int ZONE_MAP_PART_SONGS = 2000;  //Queued songs in one part of a zone map answer, a few hundred KB
+
+	private static final AtomicLong zoneMapAnswers = new AtomicLong();
+
+	private static volatile Address zoneMapResponder;  //Peer that answers requests for the zone map
+
+	private final ChunkAssembler chunks = new ChunkAssembler();
 
 	/**
 	 * Creates new JGroups channel to the cluster defined in Const.
@@ -60,6 +102,13 @@ public final class NetworkChannel extends ReceiverAdapter {
 		initChannel(this, cluster);
 	}
 
+	/**
+	 * Creates a receiver that is not connected to a cluster, for handing messages to
+	 * receive directly.
+	 */
+	NetworkChannel() {
+	}
+
 	/**
 	 * Initialize the JChannel and it's attributes
 	 * @param nc
@@ -70,9 +119,8 @@ public final class NetworkChannel extends ReceiverAdapter {
 			NetworkChannel.channel = new JChannel("udp_bping.xml");
 			channel.setReceiver(nc);
 			channel.setDiscardOwnMessages(false);
-			// Wait set time for state transfer
-			channel.connect(cluster, null, 5000);
-			channel.send(null, PacketCreator.createRequestZoneMapPacket());
+			// The zone map is requested from one peer once the view is known, see viewAccepted
+			channel.connect(cluster);
 		} catch( Exception e) {
 			logger.error("", e);
 		}
@@ -87,8 +135,87 @@ public final class NetworkChannel extends ReceiverAdapter {
 	public synchronized void viewAccepted(View view) {
 		logger.trace("Detected change in peers.");
 
-		PeerManager peerManager = new PeerManager( PeerCollection.getPeers(), view.getMembers() );
-		new Thread(peerManager).start();
+		ClusterClock.setMembers(view.getMembers(), channel.getAddress());
+
+		requestZoneMap(view.getMembers());
+
+		PeerManager.viewChanged(view.getMembers());
+	}
+
+	/**
+	 * Picks the peer that answers requests for the zone map: the first desktop peer in the
+	 * view. When that changes to another peer, it is asked for the zones this peer does not
+	 * already hold, so a peer that rejoins is only sent what changed while it was away.
+	 * @param members The members of the new view, in view order
+	 */
+	private static void requestZoneMap(List<Address> members) {
+		Address responder = null;
+
+		for(Address member : members) {
+			// Mobile devices do not hold the zone map
+			if(!member.toString().contains("localhost")) {
+				responder = member;
+				break;
+			}
+		}
+
+		if(responder == null || responder.equals(zoneMapResponder)) {
+			return;
+		}
+
+		zoneMapResponder = responder;
+
+		if(!responder.equals(channel.getAddress())) {
+			logger.debug("Requesting zone map from {}", responder);
+			send(responder, PacketCreator.createRequestZoneMapPacket(PeerCollection.getZoneDigest()));
+			send(responder, PacketCreator.createQueueSyncPacket(ZoneQueues.getSeen()));
+		}
+	}
+
+	/**
+	 * @return Whether this peer answers requests for the zone map sent to all peers
+	 */
+	public static boolean isZoneMapResponder() {
+		return channel != null && channel.getAddress() != null && channel.getAddress().equals(zoneMapResponder);
+	}
+
+	/**
+	 * Answers a request for the zone map with the zones the requesting peer does not hold,
+	 * in parts of about ZONE_MAP_PART_SONGS queued songs each. The requesting peer applies
+	 * each part as it arrives. An answer always has at least one part, even if it is empty.
+	 * @param dst The requesting peer
+	 * @param digest Digest of the zones the requesting peer holds, or null if it sent none
+	 */
+	public static void sendZoneMap(Address dst, Map<String, Long> digest) {
+		Map<Zone, ZoneProperties> changed = PeerCollection.getZonesChangedSince(digest);
+
+		List<Map<Zone, ZoneProperties>> parts = new ArrayList<Map<Zone, ZoneProperties>>();
+		Map<Zone, ZoneProperties> part = new HashMap<Zone, ZoneProperties>();
+		int songs = 0;
+
+		for(Map.Entry<Zone, ZoneProperties> entry : changed.entrySet()) {
+			int queued = entry.getValue().getPlayList().size();
+
+			// A zone is never split, so a part holds at least one
+			if(!part.isEmpty() && songs + queued > ZONE_MAP_PART_SONGS) {
+				parts.add(part);
+				part = new HashMap<Zone, ZoneProperties>();
+				songs = 0;
+			}
+
+			part.put(entry.getKey(), entry.getValue());
+			songs += queued;
+		}
+
+		parts.add(part);
+
+		long answer = zoneMapAnswers.incrementAndGet();
+
+		logger.debug("Sending {} changed zones to {} in {} parts", new Object[]{changed.size(), dst, parts.size()});
+
+		for(int i = 0; i < parts.size(); i++) {
+			send(dst, PacketCreator.createZoneMapUpdatePacket(new ZoneMapUpdate(answer, i, parts.size(), parts.get(i))));
+		}
 	}
 
 	/**
@@ -98,13 +225,60 @@ public final class NetworkChannel extends ReceiverAdapter {
 	 */
 	@Override
 	public void receive(Message msg) {
-		MessageHandler messageHandler = new MessageHandler(this, msg);
-		new Thread(messageHandler).start();
+		long arrivalMillis = System.currentTimeMillis();
+
+		DataPacket packet;
+
+		try {
+			byte[] buffer = msg.getRawBuffer();
+
+			if(buffer != null && ChunkAssembler.isChunk(buffer, msg.getOffset(), msg.getLength())){
+				byte[] whole = chunks.add(msg.getSrc(), buffer, msg.getOffset(), msg.getLength());
+
+				if(whole == null){
+					// More chunks to come
+					return;
+				}
+
+				packet = WireCodec.decode(whole, 0, whole.length);
+			} else {
+				packet = readPacket(msg);
+			}
+		} catch (Exception e) {
+			logger.warn("Could not read packet from {}: {}", msg.getSrc(), e.getMessage());
+			return;
+		}
+
+		// Clock exchanges are answered here, so waiting behind other messages is not counted in the round trip
+		if(packet.getService() == Const.Service.CLOCK_SYNC){
+			ClusterClock.receive(msg.getSrc(), packet, arrivalMillis);
+			return;
+		}
+
+		MessageDispatcher.dispatch(this, msg, packet);
+	}
+
+	/**
+	 * Reads the packet in a message. Peers running an older version, and the mobile
+	 * application, send serialized DataPackets instead of WireCodec packets.
+	 * @param msg - A received message
+	 * @return - The packet it carries
+	 * @throws Exception - If the message holds neither kind of packet
+	 */
+	private static DataPacket readPacket(Message msg) throws Exception {
+		byte[] buffer = msg.getRawBuffer();
+
+		if(buffer != null && WireCodec.isEncoded(buffer, msg.getOffset(), msg.getLength())){
+			return WireCodec.decode(buffer, msg.getOffset(), msg.getLength());
+		}
+
+		return (DataPacket)msg.getObject();
 	}
 
 	/**
 	 * Given an output stream, place the state object within it so it
-	 * can be sent to other peers.
+	 * can be sent to other peers. Peers of this version request the zone
+	 * map instead, but older peers still ask for state on joining.
 	 */
 	@Override
 	public void getState(OutputStream output) throws Exception {
@@ -134,40 +308,134 @@ public final class NetworkChannel extends ReceiverAdapter {
 	 * @param packet The DataPacket object to send
 	 */
 	public static void send(Address dst, DataPacket packet) {
-		try {
-			logger.trace("Sending {} packet to {}", packet.getService()
-					.toString(), dst == null ? "Everyone" : dst.toString());
-			
-			List<Address> mobileAddresses = PeerManager.getMobileAddresses();
-			
-
-			if (channel.isConnected()) {
-				channel.send(dst, packet);
-
-				if(dst == null){
-					for (Address addr : mobileAddresses) {
-						send(addr, packet);
-					}
-				}
-				
+		send(dst, packet, true);
+	}
+
+	/**
+	 * Send a packet to the SoundCheck network
+	 * @param dst Specific peer to send packet to. Null if all peers
+	 * @param packet The DataPacket object to send
+	 * @param toMobiles Whether a packet for all peers also goes to the mobile devices
+	 */
+	private static void send(Address dst, DataPacket packet, boolean toMobiles) {
+		logger.trace("Sending {} packet to {}", packet.getService()
+				.toString(), dst == null ? "Everyone" : dst.toString());
+
+		if(OutboundQueue.priorityOf(packet) == OutboundQueue.Priority.BULK && !MobileRegistry.isMobile(dst)) {
+			// Encoded now so large transfers can be chunked and paced
+			try {
+				outbound.offer(dst, packet, ChunkAssembler.split(WireCodec.encode(packet), transferIds.incrementAndGet()));
+			} catch (IOException e) {
+				logger.error("", e);
 			}
-			else {
-				logger.warn("Channel is not connected - Retrying");
-				while (!channel.isConnected()) {
-				} // Keep trying until the channel is connected.
-				logger.trace("Resending {} packet to {}", packet.getService()
-						.toString(), dst == null ? "Everyone" : dst.toString());
-				channel.send(dst, packet);
-
-				if(dst == null){
-					for (Address addr : mobileAddresses) {
-						send(addr, packet);
-					}
-				}
+		} else {
+			outbound.offer(dst, packet);
+		}
+
+		if(dst == null && toMobiles){
+			MobileRegistry.broadcast(packet);
+		}
+	}
+
+	/**
+	 * Queues a packet for a mobile device that has already been serialized.
+	 * @param dst - The mobile device
+	 * @param packet - The packet
+	 * @param serialized - The serialized packet
+	 */
+	static void offerSerialized(Address dst, DataPacket packet, byte[] serialized) {
+		outbound.offer(dst, packet, Collections.singletonList(serialized));
+	}
+
+	/**
+	 * @return The queue of packets waiting to be sent, for its metrics
+	 */
+	public static OutboundQueue getOutboundQueue() {
+		return outbound;
+	}
+
+	/**
+	 * @param addr An address
+	 * @return Whether the current view holds the address
+	 */
+	public static boolean isMember(Address addr) {
+		JChannel current = channel;
+		return current != null && current.getView() != null && current.getView().getMembers().contains(addr);
+	}
+
+	/**
+	 * Puts a packet on the channel. Mobile devices are sent the serialized packet, which is
+	 * what the mobile application reads. Everyone else is sent the WireCodec packet.
+	 * A packet for all peers is sent to each desktop peer in the view, as the mobile devices
+	 * are view members too but can not read WireCodec (they are sent their own copy, see
+	 * MobileRegistry).
+	 * Acknowledgments and clock exchanges do not depend on the order they arrive in, so they
+	 * are sent out of band, past any bulk transfer from this peer still being delivered.
+	 * Other stream control keeps its order but is not held back for bundling.
+	 * @param dst - Peer to send to, or null for all peers
+	 * @param packet - The packet
+	 * @throws Exception
+	 */
+	private static void write(Address dst, DataPacket packet) throws Exception {
+		if(MobileRegistry.isMobile(dst)) {
+			channel.send(dst, packet);
+			return;
+		}
+		byte[] bytes = WireCodec.encode(packet);
+
+		for(Address member : getRecipients(dst)) {
+			Message msg = new Message(member, null, bytes);
+
+			switch(packet.getService()) {
+			case STREAMING_ACK:
+			case CLOCK_SYNC:
+				msg.setFlag(Message.Flag.OOB, Message.Flag.DONT_BUNDLE);
+				break;
+			case STREAMING:
+			case MCAST_LEASE:
+				msg.setFlag(Message.Flag.DONT_BUNDLE);
+				break;
+			default:
+				break;
+			}
+
+			channel.send(msg);
+		}
+	}
+
+	/**
+	 * @param dst - Peer to send to, or null for all peers
+	 * @return The peer, or the desktop peers in the current view
+	 */
+	private static List<Address> getRecipients(Address dst) {
+		if(dst != null) {
+			return Collections.singletonList(dst);
+		}
+
+		JChannel current = channel;
+
+		if(current == null || current.getView() == null) {
+			return Collections.emptyList();
+		}
+
+		return getDesktopMembers(current.getView().getMembers());
+	}
+
+	/**
+	 * @param members - The members of a view
+	 * @return The members that are not mobile devices, this peer included
+	 */
+	static List<Address> getDesktopMembers(List<Address> members) {
+		List<Address> desktops = new ArrayList<Address>(members.size());
+
+		for(Address member : members) {
+			// Mobile devices are not registered until their DISCOVERY is handled
+			if(!MobileRegistry.isMobile(member) && !member.toString().contains("localhost")) {
+				desktops.add(member);
 			}
-		} catch (Exception e) {
-			logger.error("", e);
 		}
+
+		return desktops;
 	}
 
 	/**
@@ -208,12 +476,6 @@ public final class NetworkChannel extends ReceiverAdapter {
 		// Add local peer to zone map
 		send(null, PacketCreator.createNewZonePacket( new ZonePair(thisPeer.getZone(),
 				new ZoneProperties( thisPeer.getName() )) ));
-		
-		List<Address> mobileAddresses = PeerManager.getMobileAddresses();
-		
-		for(Address addr : mobileAddresses){
-			send(addr, PacketCreator.createNewZonePacket( new ZonePair(thisPeer.getZone(),	new ZoneProperties( thisPeer.getName() )) ));
-		}
 	}
 
 	/**
@@ -229,16 +491,31 @@ public final class NetworkChannel extends ReceiverAdapter {
 	}
 
 	/**
-	 * Update songlist for this peer amongst all other peers on network
+	 * Update songlist for this peer amongst all other peers on network. Other
+	 * desktop peers are sent the changes, mobile devices the whole list.
+	 * @param delta Changes to this peer's songlist
+	 */
+	public final void sendNewSongList(SongListDelta delta) {
+		send( null, PacketCreator.createSongListDeltaPacket(delta), false );
+		
+		MobileRegistry.broadcast(PacketCreator.createNewSongListPacket(mc.getLocalPeer()));
+	}
+
+	/**
+	 * Send operations on a zone's queue made by this peer. Other desktop peers are
+	 * sent the operations, mobile devices the whole queue.
+	 * @param zone The zone
+	 * @param ops The operations
+	 * @param songs The zone's queue after the operations
 	 */
-	public final void sendNewSongList() {
-		send( null, PacketCreator.createNewSongListPacket(mc.getLocalPeer()) );
+	public static void sendQueueOps(Zone zone, List<QueueOp> ops, List<Song> songs) {
+		send( null, PacketCreator.createQueueOpsPacket(ops, zone), false );
 		
-		List<Address> mobileAddresses = PeerManager.getMobileAddresses();
+		// NEW_QUEUE lists the songs in reverse, as setPlayList expects
+		List<Song> reversed = new ArrayList<Song>(songs);
+		Collections.reverse(reversed);
 		
-		for(Address addr : mobileAddresses){
-			send(addr, PacketCreator.createNewSongListPacket(mc.getLocalPeer()));
-		}
+		MobileRegistry.broadcast(PacketCreator.createNewQueuePacket(Command.NEW_QUEUE, reversed, zone));
 	}
 
 	/**
@@ -0,0 +1,454 @@
+package soundcheck.service.network;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jgroups.Address;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import soundcheck.shared.Const.Command;
+import soundcheck.shared.DataPacket;
+import soundcheck.shared.Peer;
+import soundcheck.shared.StreamInfo;
+import soundcheck.shared.Zone;
+import soundcheck.shared.ZoneMapUpdate;
+import soundcheck.shared.ZonePair;
+
+/**
+ * Packets waiting to be put on the channel, and the thread that sends them.
+ *
+ * Callers queue a packet and return at once, so a thread handling the user interface, a
+ * stream or a received message is never held up by the network. While the channel is
+ * disconnected, the sender waits for it, backing off from MIN_BACKOFF_MS to MAX_BACKOFF_MS.
+ *
+ * Packets are sent in order of priority, then in the order they were queued:
+ *
+ * 		CONTROL - stream control and acknowledgments, which playback waits on
+ * 		NORMAL  - zone and peer changes
+ * 		BULK    - song lists and zone maps
+ *
+ * A packet that only carries the latest state of something, such as a peer's status or a
+ * zone's whole queue, replaces a waiting packet with the same state for the same peer. Each
+ * priority holds at most CAPACITY packets. When it is full, its oldest packet is dropped.
+ *
+ * Large bulk packets are queued as chunks (see ChunkAssembler), which are paced to
+ * BULK_BYTES_PER_SECOND so a library transfer does not fill the network or the receivers'
+ * socket buffers ahead of stream control.
+ *
+ */
+public class OutboundQueue implements Runnable {
+	final static Logger logger = LoggerFactory.getLogger(OutboundQueue.class);
+
+	public enum Priority {CONTROL, NORMAL, BULK};
+
+	/**
+	 * Puts packets on the network.
+	 */
+	public interface Transport {
+
+		/**
+		 * @return - Whether packets can be sent
+		 */
+		boolean isConnected();
+
+		/**
+		 * @param dst - Peer to send to, or null for all peers
+		 * @param packet - The packet
+		 * @throws Exception - If the packet could not be sent
+		 */
+		void write(Address dst, DataPacket packet) throws Exception;
+
+		/**
+		 * @param dst - Peer to send to, or null for all peers
+		 * @param bytes - An encoded packet or chunk of one
+		 * @throws Exception - If the bytes could not be sent
+		 */
+		void write(Address dst, byte[] bytes) throws Exception;
+	}
+
+	public final static int CAPACITY = 512;  //Most packets waiting at each priority
+
+	public final static long MIN_BACKOFF_MS = 50;  //First wait for the channel to reconnect
+
+	public final static long MAX_BACKOFF_MS = 5000;  //Longest wait for the channel to reconnect
+
+	public final static int BULK_BYTES_PER_SECOND = 2 * 1024 * 1024;  //Pace of bulk chunks
+
+	public final static int BULK_BURST_BYTES = 256 * 1024;  //Bulk chunks that may be sent at once after a pause
+
+	private final Transport transport;
+
+	private final Map<Priority, LinkedList<Entry>> queues = new HashMap<Priority, LinkedList<Entry>>();
+
+	private final Map<Object, List<Entry>> latest = new HashMap<Object, List<Entry>>();  //Waiting packets that a newer one replaces, by coalescing key
+
+	private double bulkTokens = BULK_BURST_BYTES;  //Bytes of bulk chunks that may be sent now
+
+	private long lastRefillNanos = System.nanoTime();
+
+	private final AtomicLong sentCount = new AtomicLong();
+
+	private final AtomicLong droppedCount = new AtomicLong();
+
+	private final AtomicLong coalescedCount = new AtomicLong();
+
+	private int queuedCount = 0;
+
+	/**
+	 * Creates the queue and starts its sender thread.
+	 *
+	 * @param transport - Sends the packets
+	 * @param threadName - Name of the sender thread
+	 */
+	public OutboundQueue(Transport transport, String threadName) {
+		this.transport = transport;
+
+		for(Priority priority : Priority.values()){
+			queues.put(priority, new LinkedList<Entry>());
+		}
+
+		Thread sender = new Thread(this, threadName);
+		sender.setDaemon(true);
+		sender.start();
+	}
+
+	/**
+	 * Queues a packet to be sent.
+	 *
+	 * @param dst - Peer to send to, or null for all peers
+	 * @param packet - The packet
+	 */
+	public void offer(Address dst, DataPacket packet) {
+		offer(dst, packet, null);
+	}
+
+	/**
+	 * Queues a packet that has already been encoded, possibly as several chunks. Bulk
+	 * chunks are paced to BULK_BYTES_PER_SECOND.
+	 *
+	 * @param dst - Peer to send to, or null for all peers
+	 * @param packet - The packet
+	 * @param encoded - The packet's encoded chunks, or null to have the transport encode the packet
+	 */
+	public void offer(Address dst, DataPacket packet, List<byte[]> encoded) {
+
+		Priority priority = priorityOf(packet);
+		Object key = coalesceKey(dst, packet);
+
+		List<Entry> entries = new ArrayList<Entry>();
+
+		if(encoded == null){
+			entries.add(new Entry(dst, packet, null, priority, key));
+		} else {
+			for(byte[] bytes : encoded){
+				entries.add(new Entry(dst, packet, bytes, priority, key));
+			}
+		}
+
+		synchronized(this){
+			LinkedList<Entry> queue = queues.get(priority);
+
+			if(key != null){
+				List<Entry> superseded = latest.put(key, entries);
+
+				if(superseded != null){
+					for(Entry old : superseded){
+						if(queues.get(old.priority).remove(old)){
+							queuedCount--;
+						}
+					}
+					coalescedCount.incrementAndGet();
+				}
+			}
+
+			// The chunks of one packet are queued together, so older packets make room for all of them
+			while(!queue.isEmpty() && queue.size() + entries.size() > CAPACITY){
+				forget(queue.removeFirst());
+				queuedCount--;
+
+				if(droppedCount.incrementAndGet() % 100 == 1){
+					logger.warn("Outbound {} queue is full, dropping packets", priority);
+				}
+			}
+
+			queue.addAll(entries);
+			queuedCount += entries.size();
+
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Sends the waiting packets, highest priority first, for as long as the program runs.
+	 */
+	@Override
+	public void run() {
+
+		long backoff = MIN_BACKOFF_MS;
+
+		while(true){
+			Entry entry;
+
+			try {
+				entry = next();
+			} catch (InterruptedException e) {
+				return;
+			}
+
+			if(transport.isConnected()){
+				try {
+					if(entry.bytes == null){
+						transport.write(entry.dst, entry.packet);
+					} else {
+						transport.write(entry.dst, entry.bytes);
+						spend(entry);
+					}
+
+					remove(entry);
+					sentCount.incrementAndGet();
+					backoff = MIN_BACKOFF_MS;
+					continue;
+
+				} catch (Exception e) {
+					if(transport.isConnected()){
+						// Sending again would fail the same way
+						logger.error("Could not send " + entry.packet.getService() + " packet", e);
+						remove(entry);
+						droppedCount.incrementAndGet();
+						continue;
+					}
+				}
+			}
+
+			if(backoff == MIN_BACKOFF_MS){
+				logger.warn("Channel is not connected - {} packets waiting", getQueuedCount());
+			}
+
+			// The packet stays at the head of its queue, where newer and higher priority packets can still pass it
+			try {
+				Thread.sleep(backoff);
+			} catch (InterruptedException e) {
+				return;
+			}
+
+			backoff = Math.min(backoff * 2, MAX_BACKOFF_MS);
+		}
+	}
+
+	/**
+	 * Waits for a packet to send. Bulk chunks also wait for the pacing to allow them, while
+	 * packets of higher priority go ahead.
+	 *
+	 * @return - The first packet of the highest priority queue that has one. It stays queued.
+	 * @throws InterruptedException
+	 */
+	private synchronized Entry next() throws InterruptedException {
+		while(true){
+			long waitMillis = 0;
+
+			for(Priority priority : Priority.values()){
+				LinkedList<Entry> queue = queues.get(priority);
+
+				if(queue.isEmpty()){
+					continue;
+				}
+
+				Entry head = queue.getFirst();
+
+				if(priority != Priority.BULK || head.bytes == null){
+					return head;
+				}
+
+				refill();
+
+				if(bulkTokens >= head.bytes.length || bulkTokens >= BULK_BURST_BYTES){
+					return head;
+				}
+
+				waitMillis = Math.max(1, (long) ((head.bytes.length - bulkTokens) * 1000 / BULK_BYTES_PER_SECOND));
+			}
+
+			// Wakes early when a packet is queued
+			wait(waitMillis);
+		}
+	}
+
+	/**
+	 * Adds the bulk allowance earned since the last refill.
+	 */
+	private void refill() {
+		long now = System.nanoTime();
+
+		bulkTokens = Math.min(BULK_BURST_BYTES, bulkTokens + (now - lastRefillNanos) / 1e9 * BULK_BYTES_PER_SECOND);
+		lastRefillNanos = now;
+	}
+
+	/**
+	 * Takes a sent bulk chunk out of the allowance.
+	 */
+	private synchronized void spend(Entry entry) {
+		if(entry.priority == Priority.BULK){
+			bulkTokens -= entry.bytes.length;
+		}
+	}
+
+	/**
+	 * Takes a sent packet off its queue. It may already have been replaced or dropped.
+	 */
+	private synchronized void remove(Entry entry) {
+		if(queues.get(entry.priority).remove(entry)){
+			queuedCount--;
+		}
+
+		forget(entry);
+	}
+
+	private void forget(Entry entry) {
+		if(entry.key == null){
+			return;
+		}
+
+		List<Entry> entries = latest.get(entry.key);
+
+		if(entries != null && entries.remove(entry) && entries.isEmpty()){
+			latest.remove(entry.key);
+		}
+	}
+
+	/**
+	 * @param packet - A packet
+	 * @return - How soon the packet is sent
+	 */
+	static Priority priorityOf(DataPacket packet) {
+		switch(packet.getService()){
+		case STREAMING:
+		case STREAMING_ACK:
+		case MCAST_LEASE:
+		case CLOCK_SYNC:
+			return Priority.CONTROL;
+		case SONGLIST:
+		case GET_ZONE_MAP:
+		case PEER_DATA:
+			return Priority.BULK;
+		default:
+			return Priority.NORMAL;
+		}
+	}
+
+	/**
+	 * @param dst - Peer the packet is for
+	 * @param packet - A packet
+	 * @return - Key shared by the packets this one replaces, or null if it replaces none
+	 */
+	static Object coalesceKey(Address dst, DataPacket packet) {
+		Object zone = packet.getZone() == null ? null : packet.getZone().getUid();
+
+		switch(packet.getService()){
+		case PEER_DATA:
+		case PEER_EDIT:
+		case PEER_STATUS:
+			return Arrays.asList(dst, packet.getService(), ((Peer) packet.getData()).getUid());
+
+		case GET_ZONE_MAP:
+			if(packet.getData() instanceof ZoneMapUpdate){
+				// A part of a newer answer replaces the same part of an older one
+				return Arrays.asList(dst, packet.getService(), ((ZoneMapUpdate) packet.getData()).getIndex());
+			}
+			return Arrays.asList(dst, packet.getService());
+
+		case ZONE_MAPPING:
+			if(!(packet.getData() instanceof ZonePair)){
+				return null;
+			}
+			Object mapped = ((ZonePair) packet.getData()).getZone().getUid();
+			return Arrays.asList(dst, packet.getService(), mapped);
+
+		case QUEUE_CHANGE:
+			// A zone's whole queue replaces an earlier copy of it
+			if(packet.getCommand() == Command.NEW_QUEUE || packet.getCommand() == Command.QUEUE_SNAPSHOT){
+				return Arrays.asList(dst, packet.getService(), packet.getCommand(), zone);
+			}
+			return null;
+
+		case STREAMING:
+			if(packet.getCommand() != Command.SYNC){
+				return null;
+			}
+			Zone streamZone = ((StreamInfo) packet.getData()).getZone();
+			return Arrays.asList(dst, packet.getService(), streamZone == null ? null : streamZone.getUid());
+
+		case SONGLIST:
+			// Whole lists and snapshots replace each other. Deltas build on each other.
+			return packet.getCommand() != Command.LIBRARY_DELTA ? Arrays.asList(dst, packet.getService(), packet.getCommand()) : null;
+
+		default:
+			return null;
+		}
+	}
+
+	/**
+	 * @return - Number of packets waiting to be sent
+	 */
+	public synchronized int getQueuedCount() {
+		return queuedCount;
+	}
+
+	/**
+	 * @param priority - A priority
+	 * @return - Number of packets of that priority waiting to be sent
+	 */
+	public synchronized int getQueuedCount(Priority priority) {
+		return queues.get(priority).size();
+	}
+
+	/**
+	 * @return - Number of packets sent
+	 */
+	public long getSentCount() {
+		return sentCount.get();
+	}
+
+	/**
+	 * @return - Number of packets dropped because their queue was full or they could not be sent
+	 */
+	public long getDroppedCount() {
+		return droppedCount.get();
+	}
+
+	/**
+	 * @return - Number of packets replaced by a newer one before they were sent
+	 */
+	public long getCoalescedCount() {
+		return coalescedCount.get();
+	}
+
+	/**
+	 * A packet and where it is going.
+	 */
+	private static final class Entry {
+
+		private final Address dst;
+
+		private final DataPacket packet;
+
+		private final byte[] bytes;  //The encoded packet or one of its chunks, if encoded when queued
+
+		private final Priority priority;
+
+		private final Object key;
+
+		private Entry(Address dst, DataPacket packet, byte[] bytes, Priority priority, Object key) {
+			this.dst = dst;
+			this.packet = packet;
+			this.bytes = bytes;
+			this.priority = priority;
+			this.key = key;
+		}
+	}
+}
@@ -1,13 +1,21 @@
 package soundcheck.service.network;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.jgroups.Address;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import soundcheck.service.data.PeerCollection;
+import soundcheck.service.streaming.MulticastLeaseRegistry;
 import soundcheck.shared.DataPacket;
 import soundcheck.shared.PacketCreator;
 import soundcheck.shared.Peer;
@@ -15,38 +23,35 @@ import soundcheck.shared.Peer;
 /**
  * Manages determining of who to add or delete to the PeerList.
  *
+ * Each view is compared with a copy of the peer list indexed by address, so finding
+ * who left and who joined takes time linear in the size of both. Views that arrive while
+ * one is waiting to be handled replace it, and only the latest is compared. A member that
+ * was sent a DISCOVERY packet is not sent another until it answers, leaves, or
+ * DISCOVERY_RETRY_MS has passed.
+ *
  */
 public class PeerManager implements Runnable {
 	final static Logger logger = LoggerFactory.getLogger(PeerManager.class);
 
-	private List<Peer> peerList;
-	private List<Address> viewMembers;
-	
-	private List<Peer> deleteList;
-	private List<Address> addList;
-	private DataPacket packet;
-	
-	//List to store the addresses for all mobile devices that have been discovered.
-	private static List<Address> mobileAddresses;
+	public final static long DISCOVERY_RETRY_MS = 5000;  //How long to wait for an answer before discovering a member again
 
-	/**
-	 * @return the mobileAddresses
-	 */
-	public static List<Address> getMobileAddresses() {
-		if(mobileAddresses == null){
-			mobileAddresses = new ArrayList<Address>();
-		}
-		return mobileAddresses;
-	}
+	private static final AtomicReference<List<Address>> latestView = new AtomicReference<List<Address>>();
+
+	private static final AtomicBoolean scheduled = new AtomicBoolean(false);
+
+	private static final Map<Address, Long> pendingDiscovery = new HashMap<Address, Long>();  //When each unanswered DISCOVERY was sent
 
 	/**
-	 * Constructor takes parameters for the threads usage.
-	 * @param peerList
-	 * @param viewMembers
+	 * Records a new view, and queues its handling unless a view is already waiting to be
+	 * handled, in which case the new view takes its place.
+	 * @param viewMembers - The members of the view
 	 */
-	public PeerManager( List<Peer> peerList, List<Address> viewMembers ) {
-		this.peerList = peerList;
-		this.viewMembers = viewMembers;
+	public static void viewChanged(List<Address> viewMembers) {
+		latestView.set(viewMembers);
+
+		if( scheduled.compareAndSet(false, true) ) {
+			MessageDispatcher.dispatchViewChange(new PeerManager());
+		}
 	}
 
 	/**
@@ -55,93 +60,105 @@ public class PeerManager implements Runnable {
 	 */
 	@Override
 	public void run() {
-		
-		synchronized(this) {
-			deleteList = getDeletions();
-			addList = getAdditions();
-			
+		// A view arriving from here on is handled by another run
+		scheduled.set(false);
+
+		List<Address> viewMembers = latestView.get();
+
+		Map<Address, List<Peer>> peers = PeerCollection.getPeersByAddress();
+		Set<Address> members = new HashSet<Address>(viewMembers);
+
+		List<Peer> deleteList = getDeletions(peers, members);
+		List<Address> addList = getAdditions(peers, viewMembers);
+
+		if( !deleteList.isEmpty() ) {
 			PeerCollection.removePeers(deleteList);
-			packet = PacketCreator.createDiscoveryPacket();
-			
-			// Send discovery packets to all peers we have no information on yet.
-			for( Address addr : addList ) {
-				NetworkChannel.send(addr, packet);
-			}
 		}
 
+		// Free any multicast addresses the departed peers were publishing on
+		for( Peer peer : deleteList ) {
+			logger.trace("Removing peer {}.", peer.toString());
+			MulticastLeaseRegistry.releaseOwner(peer.getUid());
+		}
+
+		// Stop sending to mobile devices that have left the group
+		MobileRegistry.viewChanged(members);
+
+		DataPacket packet = PacketCreator.createDiscoveryPacket();
+
+		// Send discovery packets to all peers we have no information on yet.
+		for( Address addr : getUndiscovered(addList, System.currentTimeMillis()) ) {
+			logger.trace("Detected new peer at {}.", addr.toString());
+			NetworkChannel.send(addr, packet);
+		}
 	}
 
 	/**
-	 * If peers in peerlist do not exist in the given list, remove them
-	 * from the peerlist.
-	 * @return The list of peers that should be deleted.
+	 * @param peers - The peer list, by address
+	 * @param members - The members of the view
+	 * @return The peers that are no longer in the view, and should be deleted, including
+	 * the external devices reached through a member that left.
 	 */
-	private List<Peer> getDeletions() {
+	static List<Peer> getDeletions(Map<Address, List<Peer>> peers, Set<Address> members) {
 		List<Peer> deleteList = new ArrayList<Peer>();
-		boolean isPeerDead;
 
-		for( Peer peer : peerList ) {
-			isPeerDead = true;
-			
-			if( viewMembers.contains(peer.getAddress()) ) {
-				isPeerDead = false;
-			}
-
-			// Peer was not found in view
-			if( isPeerDead == true ) {
-				logger.trace("Removing peer {}.", peer.toString());
-				deleteList.add(peer);
-				
-				//This check removes mobile devices that have left the group from the list of mobile peers
-				if(mobileAddresses.contains(peer.getAddress())){
-					mobileAddresses.remove(peer.getAddress());
-					
-					//Don't need to be using the memory if there are no mobile devices being used
-					//Lazy loading strategy will ensure the list will be re-created when needed again.
-					if(mobileAddresses.size() == 0){
-						mobileAddresses = null;
-					}
-				}
+		for( Map.Entry<Address, List<Peer>> entry : peers.entrySet() ) {
+			if( !members.contains(entry.getKey()) ) {
+				deleteList.addAll(entry.getValue());
 			}
 		}
+
 		return deleteList;
 	}
 
 	/**
-	 * If a member of the given list are not existent in the peerlist,
-	 * add it to the list.
-	 * @return The list of addresses that should be added.
+	 * @param peers - The peer list, by address
+	 * @param viewMembers - The members of the view
+	 * @return The members that are not in the peer list, and should be added.
 	 */
-	private List<Address> getAdditions() {
+	static List<Address> getAdditions(Map<Address, List<Peer>> peers, List<Address> viewMembers) {
 		List<Address> addList = new ArrayList<Address>();
-		boolean isNewPeer;
-		
-		for( Address member : viewMembers ) {
-			isNewPeer = true;
-
-			for( Peer peer : peerList ) {
-				if( member.equals(peer.getAddress()) ) {
-					// Peer was found
-					isNewPeer = false;
-					break;
-				}
-			}
 
-			// Member was not found in peerlist
-			if( isNewPeer == true ) {
-				logger.trace("Detected new peer at {}.", member.toString());
+		for( Address member : viewMembers ) {
+			if( !peers.containsKey(member) ) {
 				addList.add(member);
 			}
 		}
+
 		return addList;
 	}
 
-	public static void addMobileAddress(Address src) {
-		if(mobileAddresses == null){
-			mobileAddresses = new ArrayList<Address>();
+	/**
+	 * Forgets members that answered or left, and picks which new members to send
+	 * DISCOVERY to: those not sent one within DISCOVERY_RETRY_MS.
+	 * @param addList - Members of the view not in the peer list
+	 * @param now - The current time
+	 * @return The members to discover
+	 */
+	static synchronized List<Address> getUndiscovered(List<Address> addList, long now) {
+		Set<Address> unanswered = new HashSet<Address>(addList);
+
+		Iterator<Address> iterator = pendingDiscovery.keySet().iterator();
+
+		while( iterator.hasNext() ) {
+			Address addr = iterator.next();
+
+			if( !unanswered.contains(addr) ) {
+				iterator.remove();
+			}
 		}
-		
-		mobileAddresses.add(src);
-		
+
+		List<Address> discover = new ArrayList<Address>();
+
+		for( Address addr : addList ) {
+			Long sent = pendingDiscovery.get(addr);
+
+			if( sent == null || now - sent >= DISCOVERY_RETRY_MS ) {
+				pendingDiscovery.put(addr, now);
+				discover.add(addr);
+			}
+		}
+
+		return discover;
 	}
 }
@@ -0,0 +1,86 @@
+package soundcheck.service.streaming;
+
+import java.io.Serializable;
+
+import soundcheck.shared.Zone;
+
+/**
+ * A claim on a multicast address by a publishing peer. Leases are replicated to
+ * every peer so any of them can pick a free address without probing the network.
+ *
+ */
+public class MulticastLease implements Serializable {
+	private static final long serialVersionUID = -6153468420170342851L;
+
+	private final String address;
+
+	private final String ownerUID;
+
+	private final Zone zone;
+
+	private final long ttlMillis;
+
+	// Expiry is kept in local time since clocks are not shared between peers
+	private transient long expiresAt;
+
+	/**
+	 * @param address - The multicast address being leased
+	 * @param ownerUID - UID of the peer publishing on the address
+	 * @param zone - The zone the address is being used for
+	 * @param ttlMillis - How long the lease lasts without being renewed
+	 */
+	public MulticastLease(String address, String ownerUID, Zone zone, long ttlMillis) {
+		this.address = address;
+		this.ownerUID = ownerUID;
+		this.zone = zone;
+		this.ttlMillis = ttlMillis;
+		renew();
+	}
+
+	/**
+	 * Extends the lease by its time to live, starting now.
+	 */
+	public void renew() {
+		expiresAt = System.currentTimeMillis() + ttlMillis;
+	}
+
+	/**
+	 * @return - Whether the lease has gone longer than its time to live without being renewed
+	 */
+	public boolean isExpired() {
+		return System.currentTimeMillis() > expiresAt;
+	}
+
+	/**
+	 * @return the address
+	 */
+	public String getAddress() {
+		return address;
+	}
+
+	/**
+	 * @return the ownerUID
+	 */
+	public String getOwnerUID() {
+		return ownerUID;
+	}
+
+	/**
+	 * @return the zone
+	 */
+	public Zone getZone() {
+		return zone;
+	}
+
+	/**
+	 * @return the ttlMillis
+	 */
+	public long getTtlMillis() {
+		return ttlMillis;
+	}
+
+	@Override
+	public String toString() {
+		return address + " (" + ownerUID + ")";
+	}
+}
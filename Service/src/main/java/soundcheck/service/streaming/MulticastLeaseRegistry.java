@@ -0,0 +1,305 @@
+package soundcheck.service.streaming;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import soundcheck.service.network.NetworkChannel;
+import soundcheck.shared.Const;
+import soundcheck.shared.Const.Command;
+import soundcheck.shared.DataPacket;
+import soundcheck.shared.PacketCreator;
+import soundcheck.shared.Zone;
+
+/**
+ * Table of multicast addresses in use by publishers, replicated over the network channel.
+ *
+ * A publisher takes the first address that is not leased in its local copy of the table
+ * and announces the claim to the cluster, so an address is allocated in a single send.
+ * Leases held by this peer are renewed periodically and expire if their owner stops
+ * renewing them. If two peers claim the same address at once, every peer keeps the claim
+ * from the peer with the lower UID, so all copies of the table agree. The holder of a
+ * local lease that loses is told, so it can move to another address.
+ *
+ */
+public final class MulticastLeaseRegistry {
+
+	final static Logger logger = LoggerFactory.getLogger(MulticastLeaseRegistry.class);
+
+	public final static long LEASE_TTL_MS = 30000;  //How long a lease lasts without being renewed
+
+	public final static long RENEW_INTERVAL_MS = 10000;  //How often leases held by this peer are renewed
+
+	private final static Map<String, MulticastLease> leases = new ConcurrentHashMap<String, MulticastLease>();
+
+	private final static Set<String> localLeases = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+	private final static Map<String, Holder> holders = new ConcurrentHashMap<String, Holder>();  //Told if the local lease on an address is lost
+
+	private static Timer renewalTimer;
+
+	/**
+	 * Make this class static with a private constructor
+	 */
+	private MulticastLeaseRegistry() {
+		throw new AssertionError();
+	}
+
+	/**
+	 * Uses a leased address and is told if the lease is lost.
+	 */
+	public interface Holder {
+
+		/**
+		 * Called after another peer has won the address. The registry is not locked, so
+		 * another address may be acquired.
+		 * @param address - The address that was lost
+		 */
+		void leaseLost(String address);
+	}
+
+	/**
+	 * Leases the first free multicast address and announces the lease to the cluster.
+	 *
+	 * @param ownerUID - UID of the local peer that will publish on the address
+	 * @param zone - The zone the stream is for
+	 * @return - The leased address, or null if every address in the pool is in use
+	 */
+	public static String acquire(String ownerUID, Zone zone) {
+		return acquire(ownerUID, zone, null);
+	}
+
+	/**
+	 * Leases the first free multicast address and announces the lease to the cluster.
+	 *
+	 * @param ownerUID - UID of the local peer that will publish on the address
+	 * @param zone - The zone the stream is for
+	 * @param holder - Told if the lease is lost to another peer, may be null
+	 * @return - The leased address, or null if every address in the pool is in use
+	 */
+	public synchronized static String acquire(String ownerUID, Zone zone, Holder holder) {
+
+		purgeExpired();
+
+		int start = toInt(Const.STARTING_MCAST_ADDRESS);
+
+		for(int i = 0; i < Const.MCAST_ADDRESS_POOL_SIZE; i++){
+
+			String candidate = fromInt(start + i);
+
+			if(!leases.containsKey(candidate)){
+
+				MulticastLease lease = new MulticastLease(candidate, ownerUID, zone, LEASE_TTL_MS);
+
+				leases.put(candidate, lease);
+				localLeases.add(candidate);
+
+				if(holder != null){
+					holders.put(candidate, holder);
+				}
+
+				startRenewalTimer();
+
+				NetworkChannel.send(null, PacketCreator.createMulticastLeasePacket(Command.LEASE_ACQUIRE, lease));
+
+				logger.trace("Leased multicast address {}", candidate);
+
+				return candidate;
+			}
+		}
+
+		logger.error("All {} multicast addresses are leased.", Const.MCAST_ADDRESS_POOL_SIZE);
+
+		return null;
+	}
+
+	/**
+	 * Releases a lease held by this peer and tells the cluster the address is free.
+	 * Releasing an address that is not held by this peer does nothing.
+	 *
+	 * @param address - The address to release
+	 */
+	public synchronized static void release(String address) {
+
+		if(address == null || !localLeases.remove(address)){
+			return;
+		}
+
+		holders.remove(address);
+
+		MulticastLease lease = leases.remove(address);
+
+		if(lease != null){
+			NetworkChannel.send(null, PacketCreator.createMulticastLeasePacket(Command.LEASE_RELEASE, lease));
+
+			logger.trace("Released multicast address {}", address);
+		}
+	}
+
+	/**
+	 * Releases every lease held by a peer. Used when the peer leaves the cluster.
+	 *
+	 * @param ownerUID - UID of the peer that has left
+	 */
+	public synchronized static void releaseOwner(String ownerUID) {
+
+		for(MulticastLease lease : new ArrayList<MulticastLease>(leases.values())){
+			if(lease.getOwnerUID().equals(ownerUID)){
+				leases.remove(lease.getAddress());
+				localLeases.remove(lease.getAddress());
+				holders.remove(lease.getAddress());
+
+				logger.trace("Reclaimed multicast address {} from departed peer", lease.getAddress());
+			}
+		}
+	}
+
+	/**
+	 * Applies a lease change received from the cluster.
+	 *
+	 * @param packet - The MCAST_LEASE packet
+	 */
+	public static void receive(DataPacket packet) {
+
+		MulticastLease lease = (MulticastLease) packet.getData();
+
+		Holder loser = null;
+
+		synchronized(MulticastLeaseRegistry.class){
+
+			switch(packet.getCommand()){
+
+			case LEASE_ACQUIRE:
+			case LEASE_RENEW:
+				MulticastLease current = leases.get(lease.getAddress());
+
+				if(current == null){
+					lease.renew();
+					leases.put(lease.getAddress(), lease);
+				}
+				else if(current.getOwnerUID().equals(lease.getOwnerUID())){
+					current.renew();
+				}
+				else if(lease.getOwnerUID().compareTo(current.getOwnerUID()) < 0){
+					// Conflicting claims, the lower UID keeps the address
+					if(localLeases.remove(lease.getAddress())){
+						logger.warn("Lost multicast address {} to {}", lease.getAddress(), lease.getOwnerUID());
+
+						loser = holders.remove(lease.getAddress());
+					}
+
+					lease.renew();
+					leases.put(lease.getAddress(), lease);
+				}
+				break;
+
+			case LEASE_RELEASE:
+				current = leases.get(lease.getAddress());
+
+				if(current != null && current.getOwnerUID().equals(lease.getOwnerUID())){
+					leases.remove(lease.getAddress());
+				}
+				break;
+
+			default:
+				logger.warn("Unknown MCAST_LEASE command {}", packet.getCommand());
+			}
+		}
+
+		// Outside the lock, the holder will acquire another address
+		if(loser != null){
+			loser.leaseLost(lease.getAddress());
+		}
+	}
+
+	/**
+	 * @param address - A multicast address
+	 * @return - The current lease on the address, or null if it is free
+	 */
+	public static MulticastLease getLease(String address) {
+		MulticastLease lease = leases.get(address);
+
+		if(lease != null && lease.isExpired()){
+			return null;
+		}
+
+		return lease;
+	}
+
+	/**
+	 * Removes leases whose owners have stopped renewing them.
+	 */
+	private static void purgeExpired() {
+		for(MulticastLease lease : new ArrayList<MulticastLease>(leases.values())){
+			if(lease.isExpired() && !localLeases.contains(lease.getAddress())){
+				leases.remove(lease.getAddress());
+			}
+		}
+	}
+
+	/**
+	 * Starts the timer that renews leases held by this peer, if it is not already running.
+	 */
+	private static void startRenewalTimer() {
+		if(renewalTimer != null){
+			return;
+		}
+
+		renewalTimer = new Timer("MulticastLeaseRenewal", true);
+
+		renewalTimer.schedule(new TimerTask() {
+			@Override
+			public void run() {
+				List<MulticastLease> toRenew = new ArrayList<MulticastLease>();
+
+				synchronized(MulticastLeaseRegistry.class){
+					for(String address : localLeases){
+						MulticastLease lease = leases.get(address);
+
+						if(lease != null){
+							lease.renew();
+							toRenew.add(lease);
+						}
+					}
+				}
+
+				for(MulticastLease lease : toRenew){
+					NetworkChannel.send(null, PacketCreator.createMulticastLeasePacket(Command.LEASE_RENEW, lease));
+				}
+			}
+		}, RENEW_INTERVAL_MS, RENEW_INTERVAL_MS);
+	}
+
+	/**
+	 * @param address - Dotted IPv4 address
+	 * @return - The address as a 32 bit integer
+	 */
+	static int toInt(String address) {
+		String[] octets = address.split("\\.");
+
+		int value = 0;
+
+		for(String octet : octets){
+			value = (value << 8) | Integer.parseInt(octet);
+		}
+
+		return value;
+	}
+
+	/**
+	 * @param value - IPv4 address as a 32 bit integer
+	 * @return - The dotted form of the address
+	 */
+	static String fromInt(int value) {
+		return ((value >>> 24) & 0xFF) + "." + ((value >>> 16) & 0xFF) + "."
+				+ ((value >>> 8) & 0xFF) + "." + (value & 0xFF);
+	}
+}
@@ -0,0 +1,174 @@
+package soundcheck.service.streaming;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Schedules outgoing packets against a monotonic clock.
+ *
+ * The first packet anchors the schedule to System.nanoTime(). Every following packet
+ * is released at anchor + its presentation time, so time spent writing packets and
+ * scheduler jitter is absorbed instead of accumulating into drift. If the publisher
+ * falls behind (a stall while writing), packets are released immediately until the
+ * schedule is caught up. If it falls too far behind to catch up, the schedule is
+ * re-anchored to the current time.
+ *
+ * EXAMPLE
+ * 		pacer.awaitPresentationTime(presentationNanos);
+ * 		container.writePacket(packet);
+ *
+ */
+public class PacketPacer {
+
+	final static Logger logger = LoggerFactory.getLogger(PacketPacer.class);
+
+	public final static long DEFAULT_MAX_LAG_NANOS = 2000000000L;  //How far behind the schedule may get before it is re-anchored (2 seconds)
+
+	private final static long REPORT_INTERVAL_NANOS = 10000000000L;  //How often the pacing status is logged (10 seconds)
+
+	private final long maxLagNanos;
+
+	private long anchorNanos;  //System.nanoTime() value that corresponds to presentation time 0
+
+	private boolean anchored = false;
+
+	private long pauseStartNanos = -1;
+
+	private long lastReportNanos;
+
+	private volatile long lagNanos = 0;  //Positive when behind schedule, negative when ahead
+
+	private volatile long maxObservedLagNanos = 0;
+
+	private volatile int reanchorCount = 0;
+
+	private volatile long packetsPaced = 0;
+
+	public PacketPacer() {
+		this(DEFAULT_MAX_LAG_NANOS);
+	}
+
+	/**
+	 * @param maxLagNanos - How far behind the schedule may get, in nanoseconds, before
+	 * the pacer gives up catching up and re-anchors to the current time.
+	 */
+	public PacketPacer(long maxLagNanos) {
+		this.maxLagNanos = maxLagNanos;
+	}
+
+	/**
+	 * Blocks until the given presentation time is reached.
+	 *
+	 * @param presentationNanos - Presentation time of the next packet, relative to the start of the stream.
+	 * @return - How far behind (positive) or ahead (negative) of schedule the packet was, in nanoseconds.
+	 * @throws InterruptedException
+	 */
+	public long awaitPresentationTime(long presentationNanos) throws InterruptedException {
+
+		long now = System.nanoTime();
+
+		if(!anchored){
+			anchorTo(now, presentationNanos);
+			lastReportNanos = now;
+		}
+
+		long delay = (anchorNanos + presentationNanos) - now;
+
+		lagNanos = -delay;
+
+		if(delay > 0){
+			Thread.sleep(delay / 1000000L, (int) (delay % 1000000L));
+		}
+		else if(-delay > maxLagNanos){
+			//Too far behind to catch up by bursting, start the schedule over from here
+			logger.warn("Stream fell {} ms behind schedule, re-anchoring pacing clock.", -delay / 1000000L);
+
+			anchorTo(now, presentationNanos);
+
+			reanchorCount++;
+		}
+
+		if(-delay > maxObservedLagNanos){
+			maxObservedLagNanos = -delay;
+		}
+
+		packetsPaced++;
+
+		if(now - lastReportNanos >= REPORT_INTERVAL_NANOS){
+			logger.debug("Pacing {} ms {} schedule (max lag {} ms, {} re-anchors).",
+					new Object[]{Math.abs(lagNanos) / 1000000L, lagNanos > 0 ? "behind" : "ahead of",
+					maxObservedLagNanos / 1000000L, reanchorCount});
+			lastReportNanos = now;
+		}
+
+		return lagNanos;
+	}
+
+	/**
+	 * Stops the schedule from advancing. Must be followed by resume().
+	 */
+	public void pause() {
+		if(anchored && pauseStartNanos < 0){
+			pauseStartNanos = System.nanoTime();
+		}
+	}
+
+	/**
+	 * Shifts the schedule by the time spent paused so packets are not burst out
+	 * to make up for the pause.
+	 */
+	public void resume() {
+		if(pauseStartNanos >= 0){
+			anchorNanos += System.nanoTime() - pauseStartNanos;
+			pauseStartNanos = -1;
+		}
+	}
+
+	/**
+	 * Forgets the current anchor. The next packet starts a new schedule.
+	 */
+	public void reset() {
+		anchored = false;
+		pauseStartNanos = -1;
+	}
+
+	private void anchorTo(long now, long presentationNanos) {
+		anchorNanos = now - presentationNanos;
+		anchored = true;
+	}
+
+	/**
+	 * @return - The System.nanoTime() value that corresponds to presentation time 0, or -1 if no packet has been paced yet.
+	 */
+	public long getAnchorNanos() {
+		return anchored ? anchorNanos : -1;
+	}
+
+	/**
+	 * @return - How far behind (positive) or ahead (negative) of schedule the last packet was, in milliseconds.
+	 */
+	public long getLagMillis() {
+		return lagNanos / 1000000L;
+	}
+
+	/**
+	 * @return - The furthest behind schedule the pacer has been, in milliseconds.
+	 */
+	public long getMaxLagMillis() {
+		return maxObservedLagNanos / 1000000L;
+	}
+
+	/**
+	 * @return - The number of times the schedule had to be re-anchored.
+	 */
+	public int getReanchorCount() {
+		return reanchorCount;
+	}
+
+	/**
+	 * @return - The number of packets that have been paced.
+	 */
+	public long getPacketsPaced() {
+		return packetsPaced;
+	}
+}
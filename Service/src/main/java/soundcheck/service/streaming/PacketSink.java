@@ -0,0 +1,260 @@
+package soundcheck.service.streaming;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.xuggle.xuggler.IContainer;
+import com.xuggle.xuggler.IContainer.Type;
+import com.xuggle.xuggler.IContainerFormat;
+import com.xuggle.xuggler.IPacket;
+import com.xuggle.xuggler.IStream;
+import com.xuggle.xuggler.IStreamCoder;
+
+/**
+ * A single destination for a published stream (the zone's multicast group or one
+ * external device).
+ *
+ * Each sink owns its write container and a writer thread that drains a bounded packet
+ * queue. The publisher reads each packet once and offers a copy to every sink, so a slow
+ * or blocked destination only backs up its own queue. When a queue is full the oldest
+ * packet is dropped so the destination stays as close to live as possible.
+ *
+ */
+public class PacketSink implements Runnable {
+
+	final static Logger logger = LoggerFactory.getLogger(PacketSink.class);
+
+	public final static int MULTICAST_QUEUE_CAPACITY = 64;  //Roughly 1.7 seconds of mp3 frames
+
+	public final static int EXTERNAL_QUEUE_CAPACITY = 32;
+
+	private final static long CLOSE_TIMEOUT_MS = 2000;  //How long close() waits for the writer to drain
+
+	private final String address;
+
+	private final BlockingQueue<IPacket> queue;
+
+	private IContainer container;
+
+	private IStreamCoder coder;
+
+	private Thread writerThread;
+
+	private volatile boolean running = false;
+
+	private volatile boolean exited = false;  //The writer has stopped taking packets from the queue
+
+	private volatile long packetsWritten = 0;
+
+	private volatile long packetsDropped = 0;
+
+	/**
+	 * @param address - The rtp:// address to write to
+	 * @param capacity - Number of packets that may be waiting to be written before packets are dropped
+	 */
+	public PacketSink(String address, int capacity) {
+		this.address = address;
+		this.queue = new ArrayBlockingQueue<IPacket>(capacity);
+	}
+
+	/**
+	 * Opens the write container and configures its coder to match the coder being read from.
+	 *
+	 * @param format - Output format of the container
+	 * @param rCoder - The coder of the stream being published
+	 * @return - Whether the container was opened successfully
+	 */
+	public boolean open(IContainerFormat format, IStreamCoder rCoder) {
+
+		container = IContainer.make();
+
+		if(container.open(address, Type.WRITE, format, true, false) < 0){
+			logger.warn("Opening write container failed for {}", address);
+			container = null;
+			return false;
+		}
+
+		IStream wStream = container.addNewStream( rCoder.getCodec() );
+
+		coder = wStream.getStreamCoder();
+
+		//The codec and sample rate are required to write audio
+		coder.setSampleRate(rCoder.getSampleRate());
+		coder.setAutomaticallyStampPacketsForStream(true);
+		coder.setBitRate(rCoder.getBitRate());
+		coder.setTimeBase(rCoder.getTimeBase());
+
+		coder.open(null, null);
+
+		// write the header to the address
+		container.writeHeader();
+
+		return true;
+	}
+
+	/**
+	 * Starts the writer thread.
+	 */
+	public void start() {
+		running = true;
+
+		writerThread = new Thread(this, "PacketSink " + address);
+		writerThread.setDaemon(true);
+		writerThread.start();
+	}
+
+	/**
+	 * Queues a copy of the packet to be written. Never blocks. The packet is dropped once the
+	 * sink has been told to stop.
+	 *
+	 * @param packet - The packet to write. It is copied, so the caller may reuse it.
+	 */
+	public void offer(IPacket packet) {
+
+		if(!running){
+			packetsDropped++;
+			return;
+		}
+
+		IPacket copy = IPacket.make(packet, true);
+
+		while(!queue.offer(copy)){
+			IPacket dropped = queue.poll();
+
+			if(dropped != null){
+				dropped.delete();
+				packetsDropped++;
+
+				if(packetsDropped % 100 == 1){
+					logger.warn("Sink {} is falling behind, {} packets dropped so far.", address, packetsDropped);
+				}
+			}
+		}
+
+		// The writer stopped while the copy was being queued, so nothing will take it
+		if(exited){
+			deleteQueued();
+		}
+	}
+
+	@Override
+	public void run() {
+
+		try {
+			while(running || !queue.isEmpty()){
+				IPacket packet = queue.poll(100, TimeUnit.MILLISECONDS);
+
+				if(packet != null){
+					try {
+						container.writePacket(packet);
+						packetsWritten++;
+					} finally {
+						packet.delete();
+					}
+				}
+			}
+		} catch (InterruptedException e) {
+			logger.debug("Sink {} interrupted, discarding {} queued packets.", address, queue.size());
+		} catch (RuntimeException e) {
+			logger.error("Sink {} failed, discarding {} queued packets.", address, queue.size());
+			logger.error("", e);
+		} finally {
+			running = false;
+			exited = true;
+
+			deleteQueued();
+
+			//Write a trailer to indicate the stream is complete
+			container.writeTrailer();
+
+			coder.close();
+			container.close();
+		}
+
+		logger.debug("Sink {} closed after writing {} packets ({} dropped).", new Object[]{address, packetsWritten, packetsDropped});
+	}
+
+	/**
+	 * Tells the writer to close the container once the queue has been drained. Does not wait.
+	 */
+	public void finish() {
+		running = false;
+	}
+
+	/**
+	 * Lets the writer drain the queue and then closes the container. Waits a bounded time for the
+	 * writer to finish so a blocked destination can not hold up the publisher.
+	 */
+	public void close() {
+		finish();
+
+		if(writerThread == null){
+			return;
+		}
+
+		try {
+			writerThread.join(CLOSE_TIMEOUT_MS);
+
+			if(writerThread.isAlive()){
+				logger.warn("Sink {} did not drain in time, abandoning it.", address);
+				writerThread.interrupt();
+			}
+		} catch (InterruptedException e) {
+			logger.warn("",e);
+		}
+	}
+
+	/**
+	 * Throws away the packets waiting to be written and closes the container. Does not wait.
+	 * Used when the address may no longer be written to.
+	 */
+	public void discard() {
+		running = false;
+
+		deleteQueued();
+	}
+
+	/**
+	 * Deletes the packets waiting to be written, counting them as dropped.
+	 */
+	private void deleteQueued() {
+		IPacket packet;
+
+		while((packet = queue.poll()) != null){
+			packet.delete();
+			packetsDropped++;
+		}
+	}
+
+	/**
+	 * @return - The address this sink writes to
+	 */
+	public String getAddress() {
+		return address;
+	}
+
+	/**
+	 * @return - Number of packets waiting to be written
+	 */
+	public int getQueueDepth() {
+		return queue.size();
+	}
+
+	/**
+	 * @return - Number of packets written to the destination
+	 */
+	public long getPacketsWritten() {
+		return packetsWritten;
+	}
+
+	/**
+	 * @return - Number of packets dropped because the destination fell behind
+	 */
+	public long getPacketsDropped() {
+		return packetsDropped;
+	}
+}
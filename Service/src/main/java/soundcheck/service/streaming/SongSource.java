@@ -0,0 +1,158 @@
+package soundcheck.service.streaming;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.xuggle.xuggler.IContainer;
+import com.xuggle.xuggler.IContainer.Type;
+import com.xuggle.xuggler.IPacket;
+import com.xuggle.xuggler.IRational;
+import com.xuggle.xuggler.IStream;
+import com.xuggle.xuggler.IStreamCoder;
+
+import soundcheck.shared.Song;
+import soundcheck.shared.StreamInfo;
+
+/**
+ * The read side of a published stream: an open container on a local song file and
+ * the coder describing its audio.
+ *
+ * Opening a source probes the file, so a publisher can open the next song in the
+ * background while the current one is still playing.
+ *
+ */
+public class SongSource {
+
+	final static Logger logger = LoggerFactory.getLogger(SongSource.class);
+
+	private final Song song;
+
+	private IContainer container;
+
+	private IStreamCoder coder;
+
+	/**
+	 * @param song - The local song to read. Its file path must be set.
+	 */
+	public SongSource(Song song) {
+		this.song = song;
+	}
+
+	/**
+	 * Opens the song file and its coder.
+	 *
+	 * @return - Whether the file could be opened
+	 */
+	public boolean open() {
+
+		container = IContainer.make();
+
+		if(container.open(song.getFilePath(), Type.READ, null) < 0){
+			logger.warn("Opening read container failed for {}", song.getFilePath());
+			container = null;
+			return false;
+		}
+
+		IStream stream = container.getStream(0);
+
+		coder = stream.getStreamCoder();
+
+		coder.setTimeBase(stream.getTimeBase());
+
+		if(coder.open(null, null) < 0){
+			logger.warn("Opening coder failed for {}", song.getFilePath());
+			close();
+			return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Reads the next packet of the song.
+	 *
+	 * @param packet - Packet to read into
+	 * @return - False once the end of the song has been reached
+	 */
+	public boolean readNextPacket(IPacket packet) {
+		return container.readNextPacket(packet) >= 0;
+	}
+
+	/**
+	 * Moves to the key frame at or before a position in the song.
+	 *
+	 * @param positionMillis - Position in the song, in milliseconds
+	 * @return - Whether the seek succeeded
+	 */
+	public boolean seek(long positionMillis) {
+
+		IRational timeBase = container.getStream(0).getTimeBase();
+
+		long target = (long) (positionMillis / 1000.0 * timeBase.getDenominator() / timeBase.getNumerator());
+
+		if(container.seekKeyFrame(0, target, IContainer.SEEK_FLAG_BACKWARDS) < 0){
+			logger.warn("Seeking to {} ms failed for {}", positionMillis, song.getFilePath());
+			return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Checks whether packets from the other source can be written to containers that were
+	 * set up for this one, which is what allows two songs to share a stream.
+	 *
+	 * @param other - The source that would follow this one
+	 * @return - Whether the two sources have the same codec, sample rate, channels and time base
+	 */
+	public boolean isCompatibleWith(SongSource other) {
+
+		IStreamCoder otherCoder = other.getCoder();
+
+		IRational timeBase = coder.getTimeBase();
+		IRational otherTimeBase = otherCoder.getTimeBase();
+
+		return coder.getCodecID() == otherCoder.getCodecID()
+				&& coder.getSampleRate() == otherCoder.getSampleRate()
+				&& coder.getChannels() == otherCoder.getChannels()
+				&& timeBase.getNumerator() == otherTimeBase.getNumerator()
+				&& timeBase.getDenominator() == otherTimeBase.getDenominator();
+	}
+
+	/**
+	 * Copies this song's codec parameters into the info sent to receivers.
+	 *
+	 * @param info - Info for the receivers
+	 */
+	public void describeTo(StreamInfo info) {
+		info.setCodecParameters(coder.getCodecID().name(), coder.getSampleRate(), coder.getChannels(), coder.getBitRate());
+	}
+
+	/**
+	 * Closes the coder and container.
+	 */
+	public void close() {
+		if(coder != null){
+			coder.close();
+			coder = null;
+		}
+		if(container != null){
+			container.close();
+			container = null;
+		}
+	}
+
+	/**
+	 * @return - The song being read
+	 */
+	public Song getSong() {
+		return song;
+	}
+
+	/**
+	 * @return - The coder describing the song's audio
+	 */
+	public IStreamCoder getCoder() {
+		return coder;
+	}
+}
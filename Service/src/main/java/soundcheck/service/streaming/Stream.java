@@ -31,6 +31,10 @@ public abstract class Stream {
 			pause();
 			break;
 
+		case SEEK:
+			seek(streamInfo);
+			break;
+
 		case TEARDOWN:
 			teardown();
 			break;
@@ -62,6 +66,14 @@ public abstract class Stream {
 	 */
 	protected abstract boolean pause();
 	
+	/**
+	 * Move the stream to a position in the song.   Extending classes must implement this method.
+	 * 
+	 * @param seekInfo - Info with the position to move to
+	 * @return - Whether the seek was accepted
+	 */
+	protected abstract boolean seek(Object seekInfo);
+	
 	/**
 	 * Teardown/close the stream.   Extending classes must implement this method.
 	 * 
@@ -75,6 +87,12 @@ public abstract class Stream {
 	 */
 	protected abstract int getStreamSongID();
 	
+	/**
+	 * 
+	 * @return - The key the stream is registered under
+	 */
+	protected abstract StreamKey getStreamKey();
+	
 	/**
 	 * This method is called when acks are received.
 	 */
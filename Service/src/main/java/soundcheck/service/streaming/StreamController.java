@@ -1,14 +1,25 @@
 package soundcheck.service.streaming;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
 import org.jgroups.Address;
-import org.jgroups.Message;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import soundcheck.service.data.ConfigurationManager;
 import soundcheck.service.data.PeerCollection;
+import soundcheck.service.data.ZoneQueues;
 import soundcheck.service.interprocess.MusicPlayerConnection;
+import soundcheck.service.network.ClusterClock;
 import soundcheck.service.network.NetworkChannel;
 import soundcheck.shared.DataPacket;
 import soundcheck.shared.PacketCreator;
@@ -32,25 +43,43 @@ public class StreamController {
 
 	public final static int DEFAULT_NUMBER_OF_ALLOWED_STREAMS = 6;  //Number of streams that can be active at once by default
 
-	private static List<Stream> streamPool = new ArrayList<Stream>(DEFAULT_NUMBER_OF_ALLOWED_STREAMS); //List of Streaming connections
+	private final static ConcurrentMap<StreamKey, Stream> streamPool = new ConcurrentHashMap<StreamKey, Stream>(); //Streaming connections by zone, publisher and song
 
 	private static int NUMBER_OF_ALLOWED_STREAMS = 6; //Number of concurrent streams the user has set
 
 	public final static int MAX_NUMBER_OF_STREAMS = 10;  //The maximum number of concurrent streams
 
+	public final static int STREAM_QUEUE_CAPACITY = 4;  //Number of ready streams that may wait for a free publisher thread
+
+	private final static String MAX_STREAMS_SETTING = "MaxOutgoingConnections";
+
+	private final static AtomicLong rejectedStreams = new AtomicLong();
+
+	private final static ThreadPoolExecutor streamExecutor = new ThreadPoolExecutor(
+			DEFAULT_NUMBER_OF_ALLOWED_STREAMS, DEFAULT_NUMBER_OF_ALLOWED_STREAMS,
+			60L, TimeUnit.SECONDS,
+			new LinkedBlockingQueue<Runnable>(STREAM_QUEUE_CAPACITY),
+			new StreamThreadFactory(),
+			new RejectedExecutionHandler() {
+				@Override
+				public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+					rejectedStreams.incrementAndGet();
+					throw new RejectedExecutionException("Publisher threads and wait queue are full");
+				}
+			});
+
 	/**
 	 * Get necessary data from packet and pass it on to be processed.
-	 * @param msg
+	 * @param src - Peer the packet came from
+	 * @param packet - The decoded packet
 	 */
-	public static void receive(Message msg) {
-		logger.debug("Received SoundCheck stream control request from host {}.", msg.getSrc().toString());
-
-		DataPacket packet = (DataPacket) msg.getObject();
+	public static void receive(Address src, DataPacket packet) {
+		logger.debug("Received SoundCheck stream control request from host {}.", src);
 
 		StreamInfo strInfo = (StreamInfo) packet.getData();
 
 		strInfo.setZone(packet.getZone());
-		strInfo.setAddr(msg.getSrc());
+		strInfo.setAddr(src);
 
 		if (strInfo.getStreamType() == StreamType.PUBLISH) {
 			
@@ -66,7 +95,8 @@ public class StreamController {
 			Stream stream = getStream(strInfo);
 
 			if(stream != null){
-				if(PeerCollection.isLocalZone(packet.getZone()) && packet.getCommand() != Command.PLAY){  //Play command will already have been sent by Publisher, do not need to send twice.
+				//Play and seek commands are sent to the receivers by the Publisher, do not need to send twice.
+				if(PeerCollection.isLocalZone(packet.getZone()) && packet.getCommand() != Command.PLAY && packet.getCommand() != Command.SEEK){
 					MusicPlayerConnection.sendData(PacketCreator.createInterprocessPacket(packet.getCommand(), strInfo, packet.getZone()));
 				}
 				stream.processCommand(packet.getCommand(), strInfo);
@@ -77,6 +107,11 @@ public class StreamController {
 
 		} 
 		else if (strInfo.getStreamType() == StreamType.RECEIVE) {
+			// The music player only knows this computer's clock
+			if(strInfo.getPlayoutTime() > 0){
+				strInfo.setPlayoutTime(ClusterClock.toLocalTime(strInfo.getPlayoutTime()));
+			}
+			
 			MusicPlayerConnection.sendData(PacketCreator.createInterprocessPacket(packet.getCommand(), strInfo, packet.getZone()));
 		}
 		else {
@@ -90,13 +125,7 @@ public class StreamController {
 		
 		Song currentSong = zoneProp.getCurrent();
 		
-		NetworkChannel.send(null, PacketCreator.createNewQueuePacket(Command.QUEUE_REMOVE, currentSong, zone));
-		
-		try {
-			Thread.sleep(10);  //Pausing to make sure the playlist is updated before we get the current song
-		} catch (InterruptedException e) {
-			logger.error("",e);
-		}
+		ZoneQueues.remove(zone, currentSong);
 		
 		currentSong = zoneProp.getCurrent();
 
@@ -127,27 +156,28 @@ public class StreamController {
 
 		boolean connectionAdded = false;
 
-		if (streamPool.size() < NUMBER_OF_ALLOWED_STREAMS) {
-
-			Stream stream = null;
-
-			stream = new StreamPublisher(strInfo);
+		if (streamPool.size() < NUMBER_OF_ALLOWED_STREAMS + STREAM_QUEUE_CAPACITY) {
 
-			if (StreamController.getStream(strInfo) == null) {
-				streamPool.add(stream);
+			Stream stream = new StreamPublisher(strInfo);
 
-				stream.processCommand(Command.SETUP, strInfo);
+			if (streamPool.putIfAbsent(stream.getStreamKey(), stream) == null) {
 
-				connectionAdded = true;
-				logger.trace("Stream was added to the pool");
+				// A stream that can not open its song or lease an address must not hold its place
+				if (stream.setup(strInfo)) {
+					connectionAdded = true;
+					logger.trace("Stream was added to the pool");
+				}
+				else{
+					streamPool.remove(stream.getStreamKey(), stream);
+					logger.warn("Stream {} could not be set up, not adding it.", stream.getStreamKey());
+				}
 			}
 			else{
 				logger.trace("Stream already exists, not adding a new one.");
 			}
 
-
-
 		} else {
+			rejectedStreams.incrementAndGet();
 			logger.warn("Stream was not added to the pool because max size has been reached.");
 		}
 
@@ -160,13 +190,26 @@ public class StreamController {
 	 * @param streamToBeRemoved - The Stream to be removed from the pool.
 	 * @return - boolean that indicates whether the Stream was removed.
 	 */
-	public synchronized static boolean removeStream(Stream streamToBeRemoved){
+	public static boolean removeStream(Stream streamToBeRemoved){
+		return streamPool.remove(streamToBeRemoved.getStreamKey(), streamToBeRemoved);
+	}
+
+	/**
+	 * Moves a stream to a new key when it carries on with a different song.
+	 * @param oldKey - The key the stream was registered under
+	 * @param stream - The stream, already returning its new key
+	 * @return - boolean that indicates whether the stream was moved.
+	 */
+	static boolean rekeyStream(StreamKey oldKey, Stream stream){
 
-		boolean connectionRemoved = false;
+		if(streamPool.putIfAbsent(stream.getStreamKey(), stream) != null){
+			logger.warn("Stream {} already exists, can not move {} to it.", stream.getStreamKey(), oldKey);
+			return false;
+		}
 
-		connectionRemoved = streamPool.remove(streamToBeRemoved);
+		streamPool.remove(oldKey, stream);
 
-		return connectionRemoved;
+		return true;
 	}
 
 	/**
@@ -182,31 +225,102 @@ public class StreamController {
 
 			NUMBER_OF_ALLOWED_STREAMS = streamPoolSize;
 
+			// The core size may never be above the maximum, so change them in the order that keeps that true
+			if(streamPoolSize > streamExecutor.getMaximumPoolSize()){
+				streamExecutor.setMaximumPoolSize(streamPoolSize);
+				streamExecutor.setCorePoolSize(streamPoolSize);
+			}
+			else{
+				streamExecutor.setCorePoolSize(streamPoolSize);
+				streamExecutor.setMaximumPoolSize(streamPoolSize);
+			}
+
 			newSizeSet = true;
 
+			logger.debug("Stream pool size set to {}", streamPoolSize);
+		}
+		else{
+			logger.warn("Stream pool size {} is outside of 1 to {}", streamPoolSize, MAX_NUMBER_OF_STREAMS);
 		}
 
 		return newSizeSet;
 	}
 
+	/**
+	 * Sizes the stream pool from the MaxOutgoingConnections configuration setting.
+	 * Should be called once the configuration has been loaded.
+	 */
+	public static void loadStreamPoolSize(){
+
+		String setting = ConfigurationManager.getConfigSetting(MAX_STREAMS_SETTING);
+
+		try {
+			setStreamPoolSize(Integer.parseInt(setting.trim()));
+		} catch (NumberFormatException e) {
+			logger.warn("Invalid {} setting \"{}\", using {}", new Object[]{MAX_STREAMS_SETTING, setting, NUMBER_OF_ALLOWED_STREAMS});
+		}
+	}
+
+	/**
+	 * Runs a publisher on the streaming executor. If every publisher thread is busy the stream
+	 * waits in the queue. If the queue is also full the stream is torn down.
+	 * 
+	 * @param publisher - The publisher whose receivers are all ready
+	 * @return - Whether the publisher was accepted
+	 */
+	static boolean startPublisher(StreamPublisher publisher){
+
+		try {
+			streamExecutor.execute(publisher);
+
+			if(streamExecutor.getActiveCount() >= streamExecutor.getMaximumPoolSize()){
+				logger.debug("All publisher threads busy, {} streams waiting.", streamExecutor.getQueue().size());
+			}
+
+			return true;
+		} catch (RejectedExecutionException e) {
+			logger.warn("Stream for song {} rejected, {} streams rejected so far.", publisher.getStreamSongID(), rejectedStreams.get());
+
+			publisher.processCommand(Command.TEARDOWN, null);
+
+			removeStream(publisher);
+
+			return false;
+		}
+	}
+
+	/**
+	 * @return - Number of streams waiting for a free publisher thread
+	 */
+	public static int getQueuedStreamCount(){
+		return streamExecutor.getQueue().size();
+	}
+
+	/**
+	 * @return - Number of publishers currently streaming
+	 */
+	public static int getActiveStreamCount(){
+		return streamExecutor.getActiveCount();
+	}
+
+	/**
+	 * @return - Number of streams turned away because the pool was full
+	 */
+	public static long getRejectedStreamCount(){
+		return rejectedStreams.get();
+	}
+
 
 	/**
 	 * Gets the specified Stream from the stream pool.
-	 * @param stream
+	 * @param stream - StreamInfo with the zone, publisher and song of the stream
 	 * @return - The Stream requested.
 	 */
-	public synchronized static Stream getStream(Object stream) {
+	public static Stream getStream(Object stream) {
 
 		StreamInfo strInfo = (StreamInfo) stream;
 
-		Stream retStream = null;
-
-		for(Stream s : streamPool){
-			if(s.getStreamSongID() == strInfo.getSongID()){
-				retStream = s;
-				break;
-			}
-		}
+		Stream retStream = streamPool.get(StreamKey.forInfo(strInfo));
 
 		if(retStream == null){
 			logger.warn("Stream not found in the list.");
@@ -225,6 +339,18 @@ public class StreamController {
 	 * @param cmd - The Command to be executed on that stream
 	 */
 	public static void createStreamInfo(Zone zone, Command cmd) {
+		createStreamInfo(zone, cmd, 0);
+	}
+
+	/**
+	 * Creates the StreamInfo object and sends it to the Peer who is to publish
+	 * the requested stream.
+	 * 
+	 * @param zone - The Zone the stream is to be played for
+	 * @param cmd - The Command to be executed on that stream
+	 * @param seekPosition - Position in the song to play or seek from, in milliseconds
+	 */
+	public static void createStreamInfo(Zone zone, Command cmd, long seekPosition) {
 
 		ZoneProperties zoneProp = PeerCollection.getZoneProps(zone);
 
@@ -258,7 +384,9 @@ public class StreamController {
 			// create stream info and send to peer with song
 			StreamInfo strInfo = new StreamInfo(null, songToPlay.getId(), peer.getUid(), songToPlay.getDuration(), StreamType.PUBLISH);
 
-			if ( cmd != Command.PLAY ) {
+			strInfo.setSeekPosition(seekPosition);
+
+			if ( cmd != Command.PLAY && cmd != Command.SEEK ) {
 
 				for( Peer zonePeer : PeerCollection.getPeers() ) {
 					if( zonePeer.getZone().getUid().equals(zone.getUid())) {
@@ -325,18 +453,35 @@ public class StreamController {
 
 	/**
 	 * 
-	 * @param msg
+	 * @param src - Receiver the acknowledgment came from
+	 * @param packet - The decoded packet
 	 */
-	public static void ackStream( Message msg ) {
-		logger.debug("Received SoundCheck stream acknowledgment from receiver {}.", msg.getSrc().toString());
-
-		DataPacket packet = (DataPacket) msg.getObject();
+	public static void ackStream( Address src, DataPacket packet ) {
+		logger.debug("Received SoundCheck stream acknowledgment from receiver {}.", src);
 
 		StreamInfo strInfo = (StreamInfo) packet.getData();
 
+		strInfo.setZone(packet.getZone());
+
 		Stream stream = getStream(strInfo);
 
-		stream.receiverReady();
+		if(stream != null){
+			stream.receiverReady();
+		}
 	}
-}
 
+	/**
+	 * Names publisher threads so they can be told apart in logs and thread dumps.
+	 */
+	private static class StreamThreadFactory implements ThreadFactory {
+
+		private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "StreamPublisher-" + threadNumber.getAndIncrement());
+			t.setDaemon(true);
+			return t;
+		}
+	}
+}
@@ -0,0 +1,72 @@
+package soundcheck.service.streaming;
+
+import java.util.UUID;
+
+import soundcheck.shared.StreamInfo;
+
+/**
+ * Identifies a stream by the zone it plays in, the peer publishing it and the song.
+ *
+ * Song IDs are only unique within a peer's own list, so all three are needed to tell
+ * two streams apart.
+ *
+ */
+public final class StreamKey {
+
+	private final UUID zoneUID;
+
+	private final String peerUID;
+
+	private final int songID;
+
+	/**
+	 * @param zoneUID - UID of the zone the stream plays in
+	 * @param peerUID - UID of the peer publishing the stream
+	 * @param songID - ID of the song in the publisher's list
+	 */
+	public StreamKey(UUID zoneUID, String peerUID, int songID) {
+		this.zoneUID = zoneUID;
+		this.peerUID = peerUID;
+		this.songID = songID;
+	}
+
+	/**
+	 * @param strInfo - Info for a stream. Its zone should be set.
+	 * @return - The key of the stream the info describes
+	 */
+	public static StreamKey forInfo(StreamInfo strInfo) {
+		UUID zoneUID = strInfo.getZone() == null ? null : strInfo.getZone().getUid();
+
+		return new StreamKey(zoneUID, strInfo.getPeerUID(), strInfo.getSongID());
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		if(this == other){
+			return true;
+		}
+
+		if(!(other instanceof StreamKey)){
+			return false;
+		}
+
+		StreamKey otherKey = (StreamKey) other;
+
+		return songID == otherKey.songID
+				&& (zoneUID == null ? otherKey.zoneUID == null : zoneUID.equals(otherKey.zoneUID))
+				&& (peerUID == null ? otherKey.peerUID == null : peerUID.equals(otherKey.peerUID));
+	}
+
+	@Override
+	public int hashCode() {
+		int result = songID;
+		result = 31 * result + (zoneUID == null ? 0 : zoneUID.hashCode());
+		result = 31 * result + (peerUID == null ? 0 : peerUID.hashCode());
+		return result;
+	}
+
+	@Override
+	public String toString() {
+		return zoneUID + "/" + peerUID + "/" + songID;
+	}
+}
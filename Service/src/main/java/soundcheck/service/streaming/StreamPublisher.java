@@ -1,28 +1,23 @@
 package soundcheck.service.streaming;
 
-import java.io.IOException;
-import java.net.DatagramPacket;
-import java.net.InetAddress;
-import java.net.MulticastSocket;
-import java.net.SocketException;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.xuggle.xuggler.IContainer;
 import com.xuggle.xuggler.IContainerFormat;
 import com.xuggle.xuggler.IPacket;
 import com.xuggle.xuggler.IRational;
-import com.xuggle.xuggler.IStream;
 import com.xuggle.xuggler.IStreamCoder;
-import com.xuggle.xuggler.IContainer.Type;
 
 import soundcheck.service.data.PeerCollection;
+import soundcheck.service.data.ZoneQueues;
+import soundcheck.service.network.ClusterClock;
 import soundcheck.service.network.NetworkChannel;
-import soundcheck.shared.Const;
 import soundcheck.shared.Const.Command;
 import soundcheck.shared.Const.PlayBack_State;
 import soundcheck.shared.Const.StreamType;
@@ -30,22 +25,44 @@ import soundcheck.shared.PacketCreator;
 import soundcheck.shared.Peer;
 import soundcheck.shared.Song;
 import soundcheck.shared.StreamInfo;
+import soundcheck.shared.ZoneProperties;
 
-public class StreamPublisher extends Stream implements Runnable{
+public class StreamPublisher extends Stream implements Runnable, MulticastLeaseRegistry.Holder{
 
 
 	final static Logger logger = LoggerFactory.getLogger(StreamPublisher.class);
 
-	private volatile PlayBack_State state = PlayBack_State.INIT; //The current state of the stream
+	private final AtomicReference<PlayBack_State> state = new AtomicReference<PlayBack_State>(PlayBack_State.INIT); //The current state of the stream
 
 	private volatile boolean alive = true;  //Whether to keep the thread the stream is running on alive
 
-	private StreamInfo streamInfo;
+	private volatile StreamInfo streamInfo;
 
 	private volatile Object LOCK_OBJECT = new Object();
 
-	private int numDesktopReceivers = 0;
-	private int acksReceived = 0;
+	private volatile int numDesktopReceivers = 0;
+	private volatile int numRemoteReceivers = 0;  //Desktop receivers other than this peer's own music player
+	private final AtomicInteger acksReceived = new AtomicInteger();
+
+	private final AtomicLong pendingSeekMillis = new AtomicLong(-1);  //Song position to move to, or -1
+
+	private final AtomicReference<String> movedAddress = new AtomicReference<String>();  //Multicast address to move to after the current one was lost, or null
+
+	private final PacketPacer pacer = new PacketPacer();  //Releases packets at their presentation time
+
+	private final static long PRELOAD_DELAY_MS = 5000;  //How far into a song the next one is preloaded
+
+	private final static long PLAYOUT_DELAY_MS = 1500;  //How long after a packet is sent every receiver in the zone plays it
+
+	private final static long SYNC_INTERVAL_NANOS = 5000000000L;  //How often the play-out schedule is repeated for receivers that missed it (5 seconds)
+
+	private final Object PRELOAD_LOCK = new Object();
+
+	private SongSource preloadedSource;  //The next song, opened and ready to follow the current one
+
+	private final AtomicReference<SongSource> setupSource = new AtomicReference<SongSource>();  //Opened by setup, taken by the stream thread
+
+	private Thread preloadThread;
 
 
 	public StreamPublisher(StreamInfo strInfo) {
@@ -56,6 +73,9 @@ public class StreamPublisher extends Stream implements Runnable{
 	public void run() {
 		startStream();
 		
+		MulticastLeaseRegistry.release(streamInfo.getIpAddress());
+		MulticastLeaseRegistry.release(movedAddress.getAndSet(null));
+
 		StreamController.removeStream(this);
 	}
 
@@ -71,7 +91,7 @@ public class StreamPublisher extends Stream implements Runnable{
 	protected boolean setup(Object setupInfo) {
 		boolean setupFinished = false;
 
-		if(state == PlayBack_State.INIT){
+		if(state.get() == PlayBack_State.INIT){
 
 			Peer localPeer = PeerCollection.getPeerByUID(streamInfo.getPeerUID());
 
@@ -79,30 +99,74 @@ public class StreamPublisher extends Stream implements Runnable{
 
 			if(songToStream.getFilePath() != null){  //If filePath is null, an incorrect song ID was passed
 
-				String ipAddr = findOpenIPAddress();
+				// Open the song now so its codec parameters can go out with the PLAY command
+				SongSource source = new SongSource(songToStream);
+
+				if(!source.open()){
+					return false;
+				}
+
+				String ipAddr = MulticastLeaseRegistry.acquire(streamInfo.getPeerUID(), streamInfo.getZone(), this);
+
+				if(ipAddr == null){
+					source.close();
+					return false;
+				}
+
+				setupSource.set(source);
 
 				streamInfo.setIpAddress(ipAddr);
 
 				streamInfo.setLocalFilePath(songToStream.getFilePath());
 
-				StreamInfo responseInfo = new StreamInfo(ipAddr, streamInfo.getSongID(), null, songToStream.getDuration(), StreamType.RECEIVE);
+				// Resuming part way through the song
+				if(streamInfo.getSeekPosition() > 0){
+					pendingSeekMillis.set(streamInfo.getSeekPosition());
+				}
+
+				// Receivers acknowledge with this info, so it must identify the publisher
+				StreamInfo responseInfo = new StreamInfo(ipAddr, streamInfo.getSongID(), streamInfo.getPeerUID(), songToStream.getDuration(), StreamType.RECEIVE);
 
-				List<Peer> peerList = PeerCollection.getPeers();
+				source.describeTo(responseInfo);
 
-				for(Peer p : peerList){
+				// The music player on this computer is given the file, so it does not have to receive the stream
+				StreamInfo localInfo = new StreamInfo(ipAddr, streamInfo.getSongID(), streamInfo.getPeerUID(), songToStream.getDuration(), StreamType.RECEIVE);
+
+				source.describeTo(localInfo);
+
+				localInfo.setLocalFilePath(songToStream.getFilePath());
+
+				List<Peer> zonePeers = new ArrayList<Peer>();
+
+				int desktopReceivers = 0;
+				int remoteReceivers = 0;
+
+				for(Peer p : PeerCollection.getPeers()){
 					if(p.getZone().getUid().equals(streamInfo.getZone().getUid())){
 
 						if( !p.isExternal() ) {
-							numDesktopReceivers++;
+							desktopReceivers++;
+
+							if( !isLocal(p) ) {
+								remoteReceivers++;
+							}
 						}
 						
-						NetworkChannel.send(p.getAddress(), PacketCreator.createStreamCommandPacket(Command.PLAY, responseInfo, streamInfo.getZone()));
+						zonePeers.add(p);
 					}
 				}
 
-				setupFinished = true;
+				// Count the receivers before any of them is asked to play, so an early ack is not missed
+				numDesktopReceivers = desktopReceivers;
+				numRemoteReceivers = remoteReceivers;
+
+				state.set(PlayBack_State.SETUP);
+
+				for(Peer p : zonePeers){
+					NetworkChannel.send(p.getAddress(), PacketCreator.createStreamCommandPacket(Command.PLAY, isLocal(p) ? localInfo : responseInfo, streamInfo.getZone()));
+				}
 
-				state = PlayBack_State.SETUP;
+				setupFinished = true;
 			}
 			else{
 				logger.warn("Requested song was not found in this peer's list");
@@ -122,11 +186,12 @@ public class StreamPublisher extends Stream implements Runnable{
 	protected boolean play(Object playInfo) {
 		boolean streamPlaying = false;
 		
-		if(state == PlayBack_State.PAUSED){
+		if(state.compareAndSet(PlayBack_State.PAUSED, PlayBack_State.PLAYING)){
 
 			streamPlaying = true;
 
-			StreamInfo responseInfo = new StreamInfo("", streamInfo.getSongID(), null, 0, StreamType.RECEIVE);
+			// Carries the stream's address, so a receiver does not take the resume for a move
+			StreamInfo responseInfo = new StreamInfo(streamInfo.getIpAddress(), streamInfo.getSongID(), streamInfo.getPeerUID(), 0, StreamType.RECEIVE);
 
 			List<Peer> peerList = PeerCollection.getPeers();
 
@@ -140,8 +205,9 @@ public class StreamPublisher extends Stream implements Runnable{
 				LOCK_OBJECT.notifyAll();
 			}
 		}
-		
-		state = PlayBack_State.PLAYING;
+		else{
+			state.compareAndSet(PlayBack_State.SETUP, PlayBack_State.PLAYING);
+		}
 
 		return streamPlaying;
 	}
@@ -153,17 +219,35 @@ public class StreamPublisher extends Stream implements Runnable{
 	protected boolean pause() {
 		boolean streamPaused = false;
 
-		if(state == PlayBack_State.PLAYING){
+		if(state.compareAndSet(PlayBack_State.PLAYING, PlayBack_State.PAUSED)){
 
 			streamPaused = true;
 
-			state = PlayBack_State.PAUSED;
-
 		}
 
 		return streamPaused;
 	}
 
+	/**
+	 * Moves the stream to a position in the song. The stream's timeline carries on from where
+	 * it is, and receivers are told which song position it now corresponds to.
+	 * 
+	 * @param seekInfo - StreamInfo with the position to seek to
+	 */
+	@Override
+	protected boolean seek(Object seekInfo) {
+
+		long position = ((StreamInfo) seekInfo).getSeekPosition();
+
+		if(position < 0 || state.get() == PlayBack_State.TEARDOWN){
+			return false;
+		}
+
+		pendingSeekMillis.set(position);
+
+		return true;
+	}
+
 	/**
 	 * Stops the stream and cleans up resources associated with the stream.
 	 * Sends a teardown command to all listeners indicating that the stream is ending.
@@ -172,13 +256,23 @@ public class StreamPublisher extends Stream implements Runnable{
 	protected boolean teardown() {
 		boolean streamToreDown = false;
 
-		state = PlayBack_State.TEARDOWN;
+		state.set(PlayBack_State.TEARDOWN);
 
 		alive = false;
 
 		synchronized(LOCK_OBJECT){
 			LOCK_OBJECT.notifyAll();
 		}
+
+		// Release here as well in case the stream never started running
+		MulticastLeaseRegistry.release(streamInfo.getIpAddress());
+		MulticastLeaseRegistry.release(movedAddress.getAndSet(null));
+
+		SongSource unstarted = setupSource.getAndSet(null);
+
+		if(unstarted != null){
+			unstarted.close();
+		}
 		
 		List<Peer> peerList = PeerCollection.getPeers();
 		
@@ -188,7 +282,8 @@ public class StreamPublisher extends Stream implements Runnable{
 
 		for(Peer p : peerList){
 			if(p.getZone().getUid().equals(streamInfo.getZone().getUid())){
-				NetworkChannel.send(p.getAddress(), PacketCreator.createNewQueuePacket(Command.QUEUE_REMOVE, songToStop, streamInfo.getZone()));
+				ZoneQueues.remove(streamInfo.getZone(), songToStop);
+				break;
 			}
 		}
 
@@ -204,285 +299,549 @@ public class StreamPublisher extends Stream implements Runnable{
 	}
 
 	/**
-	 * Finds an open multicast address.
-	 * Starts with Const.STARTING_MCAST_ADDRESS
-	 * 
-	 * @return - The first open multicast address
+	 * Returns the key this stream is registered under.
 	 */
-	private String findOpenIPAddress() {
-		String ipAddr = Const.STARTING_MCAST_ADDRESS;
+	@Override
+	protected StreamKey getStreamKey() {
+		return StreamKey.forInfo(streamInfo);
+	}
+
+	public void startStream() {
 
-		boolean openAddressFound = false;
+		SongSource source = setupSource.getAndSet(null);
+
+		if(source == null){
+			logger.debug("Stream was torn down before it started");
+			return;
+		}
 		
-		Timer socketTimer = new Timer();
+		IStreamCoder rCoder = source.getCoder();
 
-		try {
+		// list for holding multiple sinks to allow hardware integration. Each sink writes on its own thread.
+		List<PacketSink> sinks = new ArrayList<PacketSink>();
+		
+		// ttl needs to be added to allow packets to make more hops or they will not reach destination
+		// 12 was chosen based on online example, value may need to be adjusted in final product
+		// TODO: test what ttl value should be
+		String streamAddress = "rtp://" + streamInfo.getIpAddress() + ":5005?ttl=12";
+
+		IContainerFormat format = IContainerFormat.make();
+		
+		// only mp3 audio can currently be streamed
+		format.setOutputFormat("mp3", streamAddress, "audio/mpeg");
+
+		PacketSink multicastSink = null;
+
+		// Only needed when a desktop receiver is on another computer, this peer's own music player reads the file
+		if(numRemoteReceivers > 0){
+			// create sink for streaming mulitcast to desktop
+			multicastSink = openMulticastSink(format, rCoder);
 			
-			while (!openAddressFound) {
-				
-				socketTimer = new Timer();
+			// The song was opened by setup, close it here as the stream will not run
+			if(multicastSink == null){
+				logger.error("Opening write container failed for {}, not starting the stream.", streamInfo.getIpAddress());
+
+				source.close();
+
+				return;
+			}
+			
+			// add standard desktop multicast streamer
+			sinks.add( multicastSink );
+		}
+		else{
+			logger.debug("No remote desktop receivers, not sending {} to the network", streamInfo.getIpAddress());
+		}
+			
+		List<Peer> peerList = PeerCollection.getPeers();
+
+		for(Peer p : peerList){
+			if(p.getZone().getUid().equals(streamInfo.getZone().getUid())){
 				
-				MulticastSocket mCastSocket = new MulticastSocket(5005);
+				if( p.isExternal() ) {
+					PacketSink externalSink = new PacketSink("rtp://" + p.getIp() + ":5005", PacketSink.EXTERNAL_QUEUE_CAPACITY);
+					
+					// A device that can not be reached should not stop the rest of the zone from playing
+					if( externalSink.open(format, rCoder) ) {
+						sinks.add( externalSink );
+					}
+				}
+			}
+		}
+
+		for( PacketSink sink : sinks ) {
+			sink.start();
+		}
 
-				mCastSocket.joinGroup(InetAddress.getByName(ipAddr));
+		preloadNextSong(source);
 
-				DatagramPacket inPacket = new DatagramPacket(new byte[627], 627);
+		IPacket rPacket = IPacket.make();
 
-				//Wait for 1/2 second and then interrupt the socket
-				socketTimer.schedule(new SocketCheck(mCastSocket), 500);
+		long presentationNanos = 0;  //Used when the packets do not carry a time stamp
 
-				mCastSocket.receive(inPacket); //This call blocks, will be interrupted by the timer task if data is not received in 2 seconds.
+		long timeStampOffset = 0;  //Added to each packet so songs that follow on the same stream continue the timeline
+		
+		long endTimeStamp = 0;  //Time stamp just past the last packet written
 
-				socketTimer.cancel();  //Cancel the timer
+		boolean rebase = false;  //Whether the next packet is the first one after a seek
 
-				//If we get here, it means that the current address is being used by someone else
-				//mCastSocket.leaveGroup(InetAddress.getByName(ipAddr)); //Leave the group
-				
-				mCastSocket.close();
+		boolean resync = true;  //Whether the play-out schedule has moved since receivers were last told it
+
+		long lastSyncNanos = 0;
+
+		int syncedReanchors = pacer.getReanchorCount();
 
-				ipAddr = determineNewAddress(ipAddr);  //Find a new address to try
+		while(alive){
+
+			if(!source.readNextPacket(rPacket)){
+
+				// keep the sinks, pacer and address and carry on with the next song if it is ready
+				SongSource nextSource = takePreloadedSong(source);
+
+				if(nextSource == null){
+					break;
+				}
 
+				switchSong(source, nextSource);
+
+				source.close();
+				source = nextSource;
+
+				timeStampOffset = endTimeStamp;
+
+				preloadNextSong(source);
+
+				continue;
 			}
 
+			while(state.get() != PlayBack_State.PLAYING){
+				if(state.get() == PlayBack_State.TEARDOWN){
+					break;
+				}
+				else{
+					pacer.pause();
+					try {
+						synchronized(LOCK_OBJECT){
+							LOCK_OBJECT.wait();
+						}
+					} catch (InterruptedException e) {
+						logger.warn("",e);
+					}
+					pacer.resume();
+					
+					resync = true;
+				}
+			}
 
-		} 
-		catch(SocketException e){
-			logger.trace("SocketException caught.  New address for publishing found! {}", ipAddr);
+			String movedTo = movedAddress.getAndSet(null);
 
-			socketTimer.cancel();  //Cancel the timer task so the thread dies 
+			if(movedTo != null){
+				streamInfo.setIpAddress(movedTo);
 
-			return ipAddr;  //Return the current value of ipAddr which is a multicast address that is not being used.
+				// Nothing more may be written to the lost address, another peer is publishing on it
+				if(multicastSink != null){
+					sinks.remove(multicastSink);
+					multicastSink.discard();
 
-		}
-		catch (IOException e) {
-			logger.error("",e);
+					multicastSink = openMulticastSink(format, rCoder);
+
+					if(multicastSink != null){
+						multicastSink.start();
+						sinks.add(multicastSink);
+					}
+					else{
+						logger.error("Could not move the stream to {}, receivers on other computers will not hear it.", movedTo);
+					}
+				}
+
+				announceMove(source);
+
+				resync = true;
+			}
+
+			long seekMillis = pendingSeekMillis.getAndSet(-1);
+
+			if(seekMillis >= 0){
+				if(source.seek(seekMillis)){
+					rebase = true;
+				}
+				continue;  //Read from the new position
+			}
+
+			IRational timeBase = rPacket.getTimeBase();  //Get the time base to convert time stamps to real time
+
+			if(rebase && rPacket.getTimeStamp() >= 0){
+				rebase = false;
+
+				// Continue the stream's timeline from where it is, wherever the song has moved to
+				timeStampOffset = endTimeStamp - rPacket.getTimeStamp();
+
+				StreamInfo seekInfo = new StreamInfo(streamInfo.getIpAddress(), streamInfo.getSongID(), streamInfo.getPeerUID(), streamInfo.getSongDuration(), StreamType.RECEIVE);
+
+				seekInfo.setSeekPosition(toNanos(rPacket.getTimeStamp(), timeBase) / 1000000);
+				seekInfo.setStreamPosition(toNanos(endTimeStamp, timeBase) / 1000000);
+
+				sendToReceivers(Command.SEEK, seekInfo);
+
+				resync = true;
+			}
+
+			if(timeStampOffset != 0){
+				rPacket.setPts(rPacket.getPts() + timeStampOffset);
+				rPacket.setDts(rPacket.getDts() + timeStampOffset);
+			}
+
+			if(rPacket.getTimeStamp() >= 0){
+				presentationNanos = toNanos(rPacket.getTimeStamp(), timeBase);
+
+				endTimeStamp = Math.max(endTimeStamp, rPacket.getTimeStamp() + rPacket.getDuration());
+			}
+			else{
+				endTimeStamp += rPacket.getDuration();
+			}
+
+			try{
+				// wait until the packet's scheduled presentation time to allow playback on receiving end
+				pacer.awaitPresentationTime(presentationNanos);
+			}
+			catch(InterruptedException e){
+				logger.warn("",e);
+			}
+
+			if(resync || pacer.getReanchorCount() != syncedReanchors || System.nanoTime() - lastSyncNanos >= SYNC_INTERVAL_NANOS){
+				sendPlayoutTime(presentationNanos);
+
+				resync = false;
+				syncedReanchors = pacer.getReanchorCount();
+				lastSyncNanos = System.nanoTime();
+			}
+
+			// hand the packet to each sink. This never blocks on a slow destination.
+			for( PacketSink sink : sinks ) {
+				sink.offer(rPacket);
+			}
+
+			presentationNanos += toNanos(rPacket.getDuration(), timeBase);
 		}
 
+		logger.debug("Stream finished {} ms behind schedule at worst, {} re-anchors.", pacer.getMaxLagMillis(), pacer.getReanchorCount());
 
+		discardPreloadedSong();
 
+		//Let each sink drain, write its trailer and close
+		for( PacketSink sink : sinks ) {
+			sink.finish();
+		}
+		for( PacketSink sink : sinks ) {
+			sink.close();
+		}
+
+		source.close();
 
-		return ipAddr;
 	}
 
 	/**
+	 * Opens a sink writing to the stream's multicast address.
 	 * 
-	 * Finds the next sequential address to the one passed in.
-	 * 
-	 * @param ipAddr
-	 * @return
-	 * 
-	 * NOTE: This will only work for IPv4 address
+	 * @param format - Output format of the stream
+	 * @param rCoder - The coder of the song being read
+	 * @return - The sink, not yet started, or null if it could not be opened
+	 */
+	private PacketSink openMulticastSink(IContainerFormat format, IStreamCoder rCoder) {
+
+		// ttl needs to be added to allow packets to make more hops or they will not reach destination
+		PacketSink sink = new PacketSink("rtp://" + streamInfo.getIpAddress() + ":5005?ttl=12", PacketSink.MULTICAST_QUEUE_CAPACITY);
+
+		return sink.open(format, rCoder) ? sink : null;
+	}
+
+	/**
+	 * Takes another multicast address when a peer with a lower UID wins this stream's address.
+	 * The stream thread moves the multicast sink to it and tells the receivers. If no address
+	 * is free the stream is torn down.
 	 * 
+	 * @param address - The address that was lost
 	 */
-	private String determineNewAddress(String ipAddr) {
+	@Override
+	public void leaseLost(String address) {
 
-		// The last place in the address
-		int first = Integer.parseInt(ipAddr.substring(ipAddr.lastIndexOf('.') + 1));
+		if(!alive){
+			return;
+		}
 
-		StringBuilder strBld = new StringBuilder(ipAddr);
+		String newAddress = MulticastLeaseRegistry.acquire(streamInfo.getPeerUID(), streamInfo.getZone(), this);
 
-		//
-		// if(first == 255){
-		//
-		// This will have to implemented if we run into problems.
-		// Hopefully we never have to generate this many addresses.
-		//
-		// }
+		if(newAddress == null){
+			logger.error("Lost multicast address {} and no other is free, stopping the stream.", address);
 
-		first++; // Increment the value
+			processCommand(Command.TEARDOWN, null);
 
-		strBld.delete(strBld.lastIndexOf(".") + 1, strBld.length()); //Remove the current last place digits.
+			StreamController.removeStream(this);
 
-		strBld.append(first);  //Append on the new last place digits.
+			return;
+		}
 
-		return strBld.toString();
+		logger.warn("Lost multicast address {}, moving the stream to {}", address, newAddress);
+
+		// An address taken for an earlier loss that the stream thread has not moved to yet
+		MulticastLeaseRegistry.release(movedAddress.getAndSet(newAddress));
 	}
 
 	/**
-	 * Inner class that is used to cause a timeout on a multicast socket.
-	 * 
-	 * The TimerTask is the action that is to be executed by a Timer.  The Timer runs on its own
-	 * thread and calls the TimerTask's run() method after each time interval the TimerTask was
-	 * scheduled for.  The action is defined in the run() method.  
-	 * The run() method will fire every time period until it is canceled.
-	 * 
-	 * EXAMPLE
-	 * 		socketTimer.schedule(new SocketCheck(mCastSocket), 10000);
-	 * 
-	 * The run method of the SocketCheck object will run every 10000ms (10s) until the Timer is canceled.
+	 * Sends PLAY with the stream's new address to the desktop receivers on other computers, so
+	 * they follow the stream there. This peer's music player reads the file and is not told.
 	 * 
+	 * @param source - The source currently being streamed
 	 */
-	private class SocketCheck extends TimerTask{
+	private void announceMove(SongSource source) {
 
-		private MulticastSocket mSocket;  //The socket to be used.
+		StreamInfo moveInfo = new StreamInfo(streamInfo.getIpAddress(), streamInfo.getSongID(), streamInfo.getPeerUID(), streamInfo.getSongDuration(), StreamType.RECEIVE);
 
-		/**
-		 * Constructor for SocketCheck.  Initializes the socket to be checked.
-		 * @param mCastSocket
-		 */
-		public SocketCheck(MulticastSocket mCastSocket) {
-			this.mSocket = mCastSocket;
-		}
+		source.describeTo(moveInfo);
 
-		/**
-		 * The action to be performed when scheduled time is reached.
-		 */
-		@Override
-		public void run() {
-			mSocket.close();  //Close the socket.
+		for(Peer p : PeerCollection.getPeers()){
+			if(p.getZone().getUid().equals(streamInfo.getZone().getUid()) && !p.isExternal() && !isLocal(p)){
+				NetworkChannel.send(p.getAddress(), PacketCreator.createStreamCommandPacket(Command.PLAY, moveInfo, streamInfo.getZone()));
+			}
 		}
-
 	}
 
-	public void startStream() {
-		
-		// list for holding multiple containers to allow hardware integration
-		List<IContainer> wContainers = new ArrayList<IContainer>();
-		
-		// ttl needs to be added to allow packets to make more hops or they will not reach destination
-		// 12 was chosen based on online example, value may need to be adjusted in final product
-		// TODO: test what ttl value should be
-		String streamAddress = "rtp://" + streamInfo.getIpAddress() + ":5005?ttl=12";
+	/**
+	 * Opens the song after the current one in the zone's queue on a background thread, if this
+	 * peer has it and it can be written to the same stream. The zone's receivers are told the
+	 * song will follow so they do not stop when the current one ends.
+	 * 
+	 * @param current - The source currently being streamed
+	 */
+	private void preloadNextSong(final SongSource current) {
+
+		preloadThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					// Wait so receivers have moved on to the current song before the next one is announced
+					Thread.sleep(PRELOAD_DELAY_MS);
+				} catch (InterruptedException e) {
+					return;
+				}
 
-		IContainerFormat format = IContainerFormat.make();
-		
-		// only mp3 audio can currently be streamed
-		format.setOutputFormat("mp3", streamAddress, "audio/mpeg");
+				Song nextSong = findNextLocalSong(current.getSong());
 
-		// create container for streaming mulitcast to desktop
-		IContainer multicastContainer = IContainer.make();
-		
-		if(multicastContainer.open(streamAddress, Type.WRITE, format, true, false) < 0){
-			throw new RuntimeException("Opening write container failed");
-		}
-		
-		// add standard desktop multicast streamer
-		wContainers.add( multicastContainer );
-			
-		List<Peer> peerList = PeerCollection.getPeers();
+				if(nextSong == null){
+					return;
+				}
 
-		for(Peer p : peerList){
-			if(p.getZone().getUid().equals(streamInfo.getZone().getUid())){
-				
-				if( p.isExternal() ) {
-					IContainer externalContainer = IContainer.make();
-					
-					streamAddress = "rtp://" + p.getIp() + ":5005";
-					
-					if( externalContainer.open(streamAddress, Type.WRITE, format, true, false ) <0){
-						throw new RuntimeException("Opening write container failed");
+				SongSource nextSource = new SongSource(nextSong);
+
+				if(!nextSource.open()){
+					return;
+				}
+
+				if(!current.isCompatibleWith(nextSource)){
+					logger.debug("{} can not follow on the same stream, it will be set up separately.", nextSong.getTitle());
+					nextSource.close();
+					return;
+				}
+
+				synchronized(PRELOAD_LOCK){
+					if(!alive || Thread.currentThread().isInterrupted()){
+						nextSource.close();
+						return;
 					}
-					
-					wContainers.add( externalContainer );
+
+					preloadedSource = nextSource;
+
+					StreamInfo preloadInfo = new StreamInfo(streamInfo.getIpAddress(), nextSong.getId(), streamInfo.getPeerUID(), nextSong.getDuration(), StreamType.RECEIVE);
+
+					nextSource.describeTo(preloadInfo);
+
+					// Only used by a receiver that is reading the current song from its file
+					preloadInfo.setLocalFilePath(nextSong.getFilePath());
+
+					sendToReceivers(Command.PRELOAD, preloadInfo);
 				}
+
+				logger.debug("Preloaded {}", nextSong.getTitle());
 			}
-		}
-		
-		
-		
-		IContainer rContainer = IContainer.make();
+		}, "SongPreloader " + streamInfo.getIpAddress());
 
-		if(rContainer.open(streamInfo.getLocalFilePath(), Type.READ, null) < 0){
-			throw new RuntimeException("Opening read container failed");
-		}
-		
-		IStreamCoder rCoder = rContainer.getStream(0).getStreamCoder();
-		
-		rCoder.setTimeBase(rContainer.getStream(0).getTimeBase());
-		
-		
-		// hold the stream coder for each write container
-		List<IStreamCoder> wCoders = new ArrayList<IStreamCoder>();
-		
-		for( IContainer wContainer : wContainers ) {	// iterate through write containers creating/configuring stream coders
-			
-			IStream wStream = wContainer.addNewStream( rCoder.getCodec() );
+		preloadThread.setDaemon(true);
+		preloadThread.start();
+	}
 
-			IStreamCoder wCoder = wStream.getStreamCoder();
+	/**
+	 * Takes the preloaded song when the current one ends. If the queue has changed since it was
+	 * preloaded, it is discarded and the receivers are told not to expect it.
+	 * 
+	 * @param current - The source that has just ended
+	 * @return - The source to continue the stream with, or null if the stream should end
+	 */
+	private SongSource takePreloadedSong(SongSource current) {
 
-			//The codec and sample rate are required to write audio
-			//wCoder.setCodec(rCoder.getCodec());
-			wCoder.setSampleRate(rCoder.getSampleRate());
-			wCoder.setAutomaticallyStampPacketsForStream(true);
-			wCoder.setBitRate(rCoder.getBitRate());
-			wCoder.setTimeBase(rCoder.getTimeBase());
-			
-			wCoders.add(wCoder);
-		}
+		synchronized(PRELOAD_LOCK){
 
-		// open all coders
-		for( IStreamCoder wCoder : wCoders ) {
-			wCoder.open(null, null);
-		}
-		rCoder.open(null, null);
+			preloadThread.interrupt();
 
-		IPacket rPacket = IPacket.make();
+			SongSource nextSource = preloadedSource;
+
+			preloadedSource = null;
+
+			if(nextSource == null){
+				return null;
+			}
+
+			if(!nextSource.getSong().equals(findNextLocalSong(current.getSong()))){
+				logger.debug("Queue changed, not continuing with {}", nextSource.getSong().getTitle());
 
-		// write the header to each address
-		for( IContainer wContainer : wContainers ) {
-			wContainer.writeHeader();
+				nextSource.close();
+
+				sendToReceivers(Command.PRELOAD, new StreamInfo(streamInfo.getIpAddress(), StreamInfo.NO_SONG, streamInfo.getPeerUID(), 0, StreamType.RECEIVE));
+
+				return null;
+			}
+
+			return nextSource;
 		}
+	}
 
-		while(rContainer.readNextPacket(rPacket) >= 0 && alive){
+	/**
+	 * Closes the preloaded song, if any, when the stream ends.
+	 */
+	private void discardPreloadedSong() {
 
-			while(state != PlayBack_State.PLAYING){
-				if(state == PlayBack_State.TEARDOWN){
-					break;
-				}
-				else{
-					try {
-						synchronized(LOCK_OBJECT){
-							LOCK_OBJECT.wait();
-						}
-					} catch (InterruptedException e) {
-						logger.warn("",e);
-					}
-				}
+		synchronized(PRELOAD_LOCK){
+
+			if(preloadThread != null){
+				preloadThread.interrupt();
 			}
-			
-			// write the packet to each address
-			for( IContainer wContainer : wContainers ) {
-				wContainer.writePacket(rPacket);
+
+			if(preloadedSource != null){
+				preloadedSource.close();
+				preloadedSource = null;
 			}
+		}
+	}
 
-			long packetDuration = rPacket.getDuration();  //Packet duration in timeBase units
+	/**
+	 * Makes the preloaded song the one this stream is playing and removes the finished song from
+	 * the zone's queue.
+	 * 
+	 * @param finished - The source that has just ended
+	 * @param next - The source the stream continues with
+	 */
+	private void switchSong(SongSource finished, SongSource next) {
 
-			IRational timeBase = rPacket.getTimeBase();  //Get the time base to calculate to duration
+		Song nextSong = next.getSong();
 
-			double denomMS = timeBase.getDenominator() / 1000.0;  //Rational is 1/(packetLength in microSeconds)  Converting to milliseconds
+		StreamInfo nextInfo = new StreamInfo(streamInfo.getIpAddress(), nextSong.getId(), streamInfo.getPeerUID(), nextSong.getDuration(), StreamType.PUBLISH);
 
-			double time = packetDuration / denomMS;	// Packet duration in milliseconds
+		nextInfo.setZone(streamInfo.getZone());
+		nextInfo.setAddr(streamInfo.getAddr());
+		nextInfo.setLocalFilePath(nextSong.getFilePath());
 
-			long milli = (long) (time);	// number of full milliseconds
+		StreamKey oldKey = getStreamKey();
 
-			int nano = (int) (( time - milli ) * 1E6);	// number of additional nanoseconds
+		streamInfo = nextInfo;
 
-			try{
-				// sleep for duration of the packet to allow playback on receiving end
-				Thread.sleep( milli, nano );
-			}
-			catch(InterruptedException e){
-				e.printStackTrace();
-			}
+		StreamController.rekeyStream(oldKey, this);
 
+		ZoneQueues.remove(streamInfo.getZone(), finished.getSong());
+
+		logger.debug("Continuing stream {} with {}", streamInfo.getIpAddress(), nextSong.getTitle());
+	}
+
+	/**
+	 * Sends a command to the desktop peers in the zone.
+	 * 
+	 * @param cmd - The command for the receivers
+	 * @param receiverInfo - Info for the receivers
+	 */
+	private void sendToReceivers(Command cmd, StreamInfo receiverInfo) {
+
+		for(Peer p : PeerCollection.getPeers()){
+			if(p.getZone().getUid().equals(streamInfo.getZone().getUid()) && !p.isExternal()){
+				NetworkChannel.send(p.getAddress(), PacketCreator.createStreamCommandPacket(cmd, receiverInfo, streamInfo.getZone()));
+			}
 		}
+	}
+
+	/**
+	 * Tells the receivers when, on the cluster clock, a position on the stream's timeline is
+	 * to be heard. The pacer releases the following packets in real time, so the rest of the
+	 * schedule follows from this one point until the pacer is paused or re-anchored.
+	 * 
+	 * @param presentationNanos - Position on the stream's timeline of the packet about to be sent
+	 */
+	private void sendPlayoutTime(long presentationNanos) {
+
+		// Taken from the pacer's schedule rather than the send time, so it does not move with scheduling jitter
+		long scheduledInMillis = (pacer.getAnchorNanos() + presentationNanos - System.nanoTime()) / 1000000L;
+
+		StreamInfo syncInfo = new StreamInfo(streamInfo.getIpAddress(), streamInfo.getSongID(), streamInfo.getPeerUID(), streamInfo.getSongDuration(), StreamType.RECEIVE);
+
+		syncInfo.setStreamPosition(presentationNanos / 1000000L);
+		syncInfo.setPlayoutTime(ClusterClock.now() + scheduledInMillis + PLAYOUT_DELAY_MS);
+
+		sendToReceivers(Command.SYNC, syncInfo);
+	}
+
+	/**
+	 * @param p - A peer in the zone
+	 * @return - Whether the peer is this one, so its music player is on the same computer as the song file
+	 */
+	private boolean isLocal(Peer p) {
+		return p.getUid().equals(streamInfo.getPeerUID());
+	}
+
+	/**
+	 * Finds this peer's copy of the song after the given one in the zone's queue.
+	 * 
+	 * @param current - The song at the head of the queue
+	 * @return - The next song, or null if there is none, the queue has moved on or this peer does not have it
+	 */
+	private Song findNextLocalSong(Song current) {
 
-		//Write a trailer to indicate the stream is complete
-		for( IContainer wContainer : wContainers ) {
-			wContainer.writeTrailer();
+		ZoneProperties zoneProp = PeerCollection.getZoneProps(streamInfo.getZone());
+
+		if(zoneProp == null){
+			return null;
 		}
 
-		//Close containers and stream coders
-		for( IStreamCoder wCoder : wCoders ) {
-			wCoder.close();
+		List<Song> queue = new ArrayList<Song>(zoneProp.getPlayList());
+
+		if(queue.size() < 2 || !queue.get(0).equals(current)){
+			return null;
 		}
-		rCoder.close();
 
-		for( IContainer wContainer : wContainers ) {
-			wContainer.close();
+		Peer localPeer = PeerCollection.getPeerByUID(streamInfo.getPeerUID());
+
+		int index = localPeer.getSongList().indexOf(queue.get(1));
+
+		if(index < 0){
+			return null;
 		}
-		rContainer.close();
 
+		Song nextSong = localPeer.getSongList().get(index);
+
+		return nextSong.getFilePath() != null ? nextSong : null;
+	}
+
+	/**
+	 * Converts a duration in time base units to nanoseconds.
+	 * 
+	 * @param duration - Duration in timeBase units
+	 * @param timeBase - The time base the duration is measured in
+	 * @return - The duration in nanoseconds
+	 */
+	private static long toNanos(long duration, IRational timeBase) {
+		return (long) (duration * 1E9 * timeBase.getNumerator() / timeBase.getDenominator());
+	}
+
+	/**
+	 * @return - How far behind (positive) or ahead (negative) of schedule the stream is, in milliseconds.
+	 */
+	public long getPacingLagMillis() {
+		return pacer.getLagMillis();
 	}
 
 	/*
@@ -492,10 +851,8 @@ public class StreamPublisher extends Stream implements Runnable{
 	@Override
 	public void receiverReady() {
 
-		acksReceived++;
-
-		if( numDesktopReceivers == acksReceived ) {
-			new Thread(this).start();
+		if( acksReceived.incrementAndGet() == numDesktopReceivers ) {
+			StreamController.startPublisher(this);
 		}
 	}
 }
@@ -1,15 +1,22 @@
 package soundcheck.service.data;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
 import soundcheck.shared.Peer;
+import soundcheck.shared.Song;
+import soundcheck.shared.Zone;
+import soundcheck.shared.ZoneMapUpdate;
+import soundcheck.shared.ZoneProperties;
 
 public class PeerCollection_Test {
 
@@ -93,4 +100,58 @@ public class PeerCollection_Test {
 		assertEquals("Wrong index returned", 1, PeerCollection.getPeers().indexOf(peer2));
 		assertEquals("Wrong index returned", 0, PeerCollection.getPeers().indexOf(peer1));
 	}
+
+	private ZoneProperties zone(String name, int songs) {
+		ZoneProperties prop = new ZoneProperties(name);
+		for(int i = 0; i < songs; i++){
+			prop.addLast(new Song("Title " + i, "/music/" + i + ".mp3", "Artist", "Genre", 1000, i));
+		}
+		return prop;
+	}
+
+	@Test
+	public void testRejoiningPeerIsSentOnlyChangedZones() {
+		Zone kitchen = new Zone();
+		Zone office = new Zone();
+		Zone garage = new Zone();
+
+		PeerCollection.setZoneMap(new ConcurrentHashMap<Zone, ZoneProperties>());
+		PeerCollection.putZone(kitchen, zone("Kitchen", 3));
+		PeerCollection.putZone(office, zone("Office", 2));
+
+		// Digest of a peer holding the same map
+		Map<String, Long> digest = PeerCollection.getZoneDigest();
+
+		assertTrue("Unchanged zones were sent", PeerCollection.getZonesChangedSince(digest).isEmpty());
+
+		// While the peer was away, a song was queued in the office and a zone was added
+		PeerCollection.getZoneProps(office).addLast(new Song("New", "/music/new.mp3", "Artist", "Genre", 1000, 9));
+		PeerCollection.putZone(garage, zone("Garage", 0));
+
+		Map<Zone, ZoneProperties> changed = PeerCollection.getZonesChangedSince(digest);
+
+		assertEquals(2, changed.size());
+		assertTrue(changed.containsKey(office));
+		assertTrue(changed.containsKey(garage));
+
+		assertEquals("A new peer was not sent every zone", 3, PeerCollection.getZonesChangedSince(null).size());
+	}
+
+	@Test
+	public void testOlderAnswerDoesNotOverwriteNewer() {
+		Zone zone = new Zone();
+
+		PeerCollection.setZoneMap(new ConcurrentHashMap<Zone, ZoneProperties>());
+
+		Map<Zone, ZoneProperties> newer = new ConcurrentHashMap<Zone, ZoneProperties>();
+		newer.put(zone, zone("Newer", 1));
+
+		Map<Zone, ZoneProperties> older = new ConcurrentHashMap<Zone, ZoneProperties>();
+		older.put(zone, zone("Older", 1));
+
+		PeerCollection.applyZoneMapUpdate("responder", new ZoneMapUpdate(2, 0, 1, newer));
+		PeerCollection.applyZoneMapUpdate("responder", new ZoneMapUpdate(1, 0, 1, older));
+
+		assertEquals("Newer", PeerCollection.getZoneProps(zone).getZoneName());
+	}
 }
@@ -0,0 +1,70 @@
+package soundcheck.service.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import soundcheck.shared.Song;
+import soundcheck.shared.SongListDelta;
+
+public class SongLibrary_Test {
+
+	private List<Song> scan(int from, int to) {
+		List<Song> songs = new ArrayList<Song>();
+		for(int i = from; i < to; i++){
+			// The scanner numbers songs from 0 every time
+			songs.add(new Song("Title " + i, "/music/" + i + ".mp3", "Artist", "Genre", 1000 + i, i - from));
+		}
+		return songs;
+	}
+
+	@Test
+	public void testRescanSendsOnlyChanges() {
+		SongLibrary local = new SongLibrary();
+		SongLibrary remote = new SongLibrary(new ArrayList<Song>());
+
+		assertTrue(remote.apply(local.update(scan(0, 10))));
+
+		// Song 0 removed, song 10 added, song 5 retagged
+		List<Song> rescan = scan(1, 11);
+		rescan.get(4).setAlbum("New Album");
+
+		SongListDelta delta = local.update(rescan);
+
+		assertEquals("Wrong number of added or changed songs", 2, delta.getChanged().size());
+		assertEquals("Wrong number of removed songs", 1, delta.getRemoved().size());
+		assertEquals("Song kept its file but not its ID", 5, rescan.get(4).getId());
+
+		assertTrue("Delta did not apply", remote.apply(delta));
+		assertEquals(local.getHash(), remote.getHash());
+		assertEquals(local.getSongs().size(), remote.getSongs().size());
+
+		List<Song> again = scan(1, 11);
+		again.get(4).setAlbum("New Album");
+
+		assertNull("Unchanged rescan made a delta", local.update(again));
+	}
+
+	@Test
+	public void testMissedDeltaNeedsSnapshot() {
+		SongLibrary local = new SongLibrary();
+		SongLibrary remote = new SongLibrary(new ArrayList<Song>());
+
+		remote.apply(local.update(scan(0, 5)));
+		local.update(scan(0, 6));  // Lost on the way
+
+		assertFalse("Delta applied to the wrong version", remote.apply(local.update(scan(0, 7))));
+
+		SongLibrary fresh = new SongLibrary(remote.getSongs());
+
+		assertTrue(fresh.apply(local.snapshot()));
+		assertEquals(local.getHash(), fresh.getHash());
+		assertEquals(7, fresh.getSongs().size());
+	}
+}
@@ -0,0 +1,71 @@
+package soundcheck.service.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import soundcheck.shared.Song;
+
+public class VirtualLibrary_Test {
+
+	private Song createSong(String title, int id) {
+		return new Song(title, "/music/" + id + ".mp3", "Artist", "Genre", 180000, id);
+	}
+
+	@Test
+	public void testSharedSongLeavesWithLastPeer() {
+		VirtualLibrary library = new VirtualLibrary();
+		List<Song> added = new ArrayList<Song>();
+		List<Song> removed = new ArrayList<Song>();
+
+		library.setSongs("kitchen", Arrays.asList(createSong("Shared", 1), createSong("Kitchen Only", 2)), added, removed);
+
+		// Same song as far as equals is concerned
+		library.setSongs("office", Arrays.asList(createSong("SHARED", 7)), added, removed);
+
+		assertEquals(2, added.size());
+		assertEquals(2, library.size());
+
+		library.removePeer("kitchen", removed);
+
+		assertEquals(1, removed.size());
+		assertEquals("Kitchen Only", removed.get(0).getTitle());
+
+		library.removePeer("office", removed);
+
+		assertEquals(2, removed.size());
+		assertEquals(0, library.size());
+	}
+
+	@Test
+	public void testOnlyChangedSongsAreReported() {
+		VirtualLibrary library = new VirtualLibrary();
+
+		library.setSongs("kitchen", Arrays.asList(createSong("Kept", 1), createSong("Dropped", 2)),
+				new ArrayList<Song>(), new ArrayList<Song>());
+
+		List<Song> added = new ArrayList<Song>();
+		List<Song> removed = new ArrayList<Song>();
+
+		library.setSongs("kitchen", Arrays.asList(createSong("Kept", 1), createSong("New", 3)), added, removed);
+
+		assertEquals(Arrays.asList("New"), titles(added));
+		assertEquals(Arrays.asList("Dropped"), titles(removed));
+		assertTrue(titles(library.getSongs()).containsAll(Arrays.asList("Kept", "New")));
+	}
+
+	private List<String> titles(List<Song> songs) {
+		List<String> titles = new ArrayList<String>();
+
+		for(Song song : songs){
+			titles.add(song.getTitle());
+		}
+
+		return titles;
+	}
+}
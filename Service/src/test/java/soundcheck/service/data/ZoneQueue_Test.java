@@ -0,0 +1,139 @@
+package soundcheck.service.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Test;
+
+import soundcheck.shared.QueueOp;
+import soundcheck.shared.Song;
+import soundcheck.shared.Zone;
+import soundcheck.shared.ZoneMapUpdate;
+import soundcheck.shared.ZoneProperties;
+
+public class ZoneQueue_Test {
+
+	private final Zone zone = new Zone();
+
+	private Song song(String title) {
+		return new Song(title, "/music/" + title + ".mp3", "Artist", "Genre", 1000, 0);
+	}
+
+	private QueueOp insert(long counter, String site, QueueOp.Id after, String title) {
+		return new QueueOp(zone, new QueueOp.Id(counter, site), after, song(title));
+	}
+
+	private QueueOp remove(long counter, String site, QueueOp.Id element) {
+		return new QueueOp(zone, new QueueOp.Id(counter, site), element, null);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		PeerCollection.getZonemap().clear();
+	}
+
+	@Test
+	public void testConcurrentEditsConverge() {
+		List<Song> seed = Arrays.asList(song("a"), song("b"));
+
+		QueueOp.Id a = new ZoneQueue(zone, seed).getIds().get(0);
+
+		// Two peers insert after a while a third removes it, and a fourth inserts after what the first inserted
+		List<QueueOp> ops = new ArrayList<QueueOp>();
+		ops.add(insert(3, "x", a, "x1"));
+		ops.add(insert(3, "y", a, "y1"));
+		ops.add(remove(4, "z", a));
+		ops.add(insert(5, "w", new QueueOp.Id(3, "x"), "w1"));
+
+		ZoneQueue inOrder = new ZoneQueue(zone, seed);
+		for(QueueOp op : ops){
+			inOrder.apply(op);
+		}
+
+		ZoneQueue reversed = new ZoneQueue(zone, seed);
+		Collections.reverse(ops);
+		for(QueueOp op : ops){
+			reversed.apply(op);
+		}
+
+		assertEquals("Queues did not converge", inOrder.getSongs(), reversed.getSongs());
+		assertEquals(Arrays.asList(song("y1"), song("x1"), song("w1"), song("b")), inOrder.getSongs());
+	}
+
+	@Test
+	public void testPeerIsSentOnlyMissingOps() {
+		ZoneQueue queue = new ZoneQueue(zone, new ArrayList<Song>());
+
+		queue.apply(insert(1, "x", null, "a"));
+
+		Map<String, Long> seen = queue.getSeen();
+
+		queue.apply(insert(2, "y", new QueueOp.Id(1, "x"), "b"));
+
+		List<QueueOp> missing = queue.getOpsSince(seen);
+
+		assertEquals(1, missing.size());
+		assertEquals(new QueueOp.Id(2, "y"), missing.get(0).getId());
+
+		// Once the log has dropped operations the peer never saw, it is sent a snapshot
+		QueueOp.Id last = new QueueOp.Id(2, "y");
+		for(int i = 0; i < ZoneQueue.LOG_CAPACITY; i++){
+			QueueOp op = insert(3 + i, "x", last, "s" + i);
+			queue.apply(op);
+			last = op.getId();
+		}
+
+		assertNull(queue.getOpsSince(new HashMap<String, Long>()));
+
+		ZoneQueue copy = new ZoneQueue(zone, new ArrayList<Song>());
+		copy.adopt(queue.snapshot());
+
+		assertEquals(queue.getSongs(), copy.getSongs());
+	}
+
+	@Test
+	public void testHeldOpIsAppliedAfterSnapshot() {
+		ZoneQueue source = new ZoneQueue(zone, new ArrayList<Song>());
+		source.apply(insert(1, "x", null, "a"));
+
+		ZoneQueue queue = new ZoneQueue(zone, new ArrayList<Song>());
+
+		// Names an element this queue has not received, so it is held
+		assertFalse(queue.apply(insert(2, "y", new QueueOp.Id(1, "x"), "b")));
+
+		queue.adopt(source.snapshot());
+
+		assertEquals(Arrays.asList(song("a"), song("b")), queue.getSongs());
+	}
+
+	@Test
+	public void testOlderZoneMapKeepsReplicatedQueue() {
+		ZoneProperties prop = new ZoneProperties("Zone");
+		prop.getPlayList().add(song("a"));
+		PeerCollection.putZone(zone, prop);
+
+		QueueOp.Id a = new ZoneQueue(zone, prop.getPlayList()).getIds().get(0);
+
+		ZoneQueues.receive(zone, Arrays.asList(insert(5, "x", a, "b")));
+
+		// A zone map part sent before the insert arrives after it
+		ZoneProperties older = new ZoneProperties("Zone");
+		older.getPlayList().add(song("a"));
+
+		Map<Zone, ZoneProperties> zones = new HashMap<Zone, ZoneProperties>();
+		zones.put(zone, older);
+
+		ZoneQueues.applyZoneMapUpdate("responder", new ZoneMapUpdate(1, 0, 1, zones));
+
+		assertEquals(Arrays.asList(song("a"), song("b")), PeerCollection.getZoneProps(zone).getPlayList());
+	}
+}
@@ -0,0 +1,64 @@
+package soundcheck.service.interprocess;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import soundcheck.shared.Const.Command;
+import soundcheck.shared.DataPacket;
+import soundcheck.shared.InterfaceDelta;
+import soundcheck.shared.Song;
+import soundcheck.shared.Zone;
+import soundcheck.shared.ZoneProperties;
+
+public class InterfaceUpdates_Test {
+
+	private Song song(String title) {
+		return new Song(title, "/music/" + title + ".mp3", "Artist", "Genre", 1000, 0);
+	}
+
+	@Test
+	public void testRecordedZonesDoNotChangeWithQueue() throws Exception {
+		Zone kitchen = new Zone();
+		Zone office = new Zone();
+
+		ZoneProperties kitchenProp = new ZoneProperties("Kitchen");
+		kitchenProp.addLast(song("a"));
+
+		ZoneProperties officeProp = new ZoneProperties("Office");
+		officeProp.addLast(song("b"));
+
+		Map<Zone, ZoneProperties> zoneMap = new HashMap<Zone, ZoneProperties>();
+		zoneMap.put(office, officeProp);
+
+		InterfaceUpdates.zoneChanged(kitchen, kitchenProp);
+		InterfaceUpdates.zonesChanged(zoneMap);
+
+		// ZoneQueues replaces a playlist in place
+		kitchenProp.getPlayList().clear();
+		kitchenProp.addLast(song("c"));
+
+		officeProp.getPlayList().clear();
+		officeProp.setZoneName("Study");
+
+		InterfaceUpdates.sendSnapshot();
+
+		InterfaceDelta snapshot = null;
+
+		for( DataPacket packet : MusicPlayerConnection.takeAll() ) {
+			if( packet.getCommand() == Command.INTERFACE_DELTA ) {
+				snapshot = (InterfaceDelta) packet.getData();
+			}
+		}
+
+		assertNotNull("Snapshot was not queued", snapshot);
+		assertEquals(Arrays.asList(song("a")), snapshot.getZones().get(kitchen).getPlayList());
+		assertEquals("Office", snapshot.getZones().get(office).getZoneName());
+		assertEquals(Arrays.asList(song("b")), snapshot.getZones().get(office).getPlayList());
+	}
+}
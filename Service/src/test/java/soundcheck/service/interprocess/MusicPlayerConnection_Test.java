@@ -0,0 +1,39 @@
+package soundcheck.service.interprocess;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import soundcheck.shared.Const.Command;
+import soundcheck.shared.DataPacket;
+import soundcheck.shared.PacketCreator;
+
+public class MusicPlayerConnection_Test {
+
+	@Before
+	public void setUp() throws Exception {
+		// Other tests in the same run may have left packets waiting
+		if(MusicPlayerConnection.getQueuedCount() > 0){
+			MusicPlayerConnection.takeAll();
+		}
+	}
+
+	@Test
+	public void testPacketsKeepTheirOrder() throws Exception {
+		MusicPlayerConnection.sendData(PacketCreator.createInterprocessPacket(Command.SET_PEERLIST, "old peers"));
+		MusicPlayerConnection.sendData(PacketCreator.createInterprocessPacket(Command.PLAY, null));
+		MusicPlayerConnection.sendData(PacketCreator.createInterprocessPacket(Command.SET_PEERLIST, "new peers"));
+
+		List<DataPacket> packets = MusicPlayerConnection.takeAll();
+
+		assertEquals(3, packets.size());
+		assertEquals("old peers", packets.get(0).getData());
+		assertEquals(Command.PLAY, packets.get(1).getCommand());
+		assertEquals("new peers", packets.get(2).getData());
+
+		assertEquals(0, MusicPlayerConnection.getQueuedCount());
+	}
+}
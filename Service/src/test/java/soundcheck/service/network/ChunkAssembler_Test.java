@@ -0,0 +1,56 @@
+package soundcheck.service.network;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+public class ChunkAssembler_Test {
+
+	private byte[] createPacket(int length) {
+		byte[] packet = new byte[length];
+		for(int i = 0; i < length; i++){
+			packet[i] = (byte) (i * 31);
+		}
+		return packet;
+	}
+
+	@Test
+	public void testSmallPacketIsNotChunked() {
+		byte[] packet = createPacket(100);
+
+		List<byte[]> chunks = ChunkAssembler.split(packet, 1);
+
+		assertEquals(1, chunks.size());
+		assertTrue("Small packet was copied", chunks.get(0) == packet);
+	}
+
+	@Test
+	public void testChunksJoinInAnyOrder() {
+		byte[] packet = createPacket(3 * ChunkAssembler.CHUNK_SIZE + 10);
+
+		List<byte[]> chunks = ChunkAssembler.split(packet, 7);
+
+		assertEquals(4, chunks.size());
+
+		Collections.reverse(chunks);
+
+		ChunkAssembler assembler = new ChunkAssembler();
+
+		for(int i = 0; i < 3; i++){
+			byte[] chunk = chunks.get(i);
+			assertTrue(ChunkAssembler.isChunk(chunk, 0, chunk.length));
+			assertNull("Packet was joined before all chunks arrived", assembler.add(null, chunk, 0, chunk.length));
+		}
+
+		byte[] last = chunks.get(3);
+
+		assertArrayEquals(packet, assembler.add(null, last, 0, last.length));
+		assertEquals(0, assembler.getPendingCount());
+	}
+}
@@ -0,0 +1,64 @@
+package soundcheck.service.network;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+
+import org.jgroups.Address;
+import org.jgroups.util.UUID;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ClusterClock_Test {
+
+	private final Address local = UUID.randomUUID();
+
+	@Before
+	public void setUp() throws Exception {
+		// Another peer's clock is the cluster clock
+		ClusterClock.setMembers(Arrays.asList((Address) UUID.randomUUID(), local), local);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		ClusterClock.setMembers(Arrays.asList(local), local);
+	}
+
+	@Test
+	public void testOffsetFromExchange() {
+		// The reference clock is 1000 ms ahead, and each way takes 10 ms
+		ClusterClock.addSample(0, 1010, 1012, 22);
+
+		assertEquals(1000, ClusterClock.getOffsetMillis());
+		assertEquals(20, ClusterClock.getRoundTripMillis());
+		assertEquals(5000, ClusterClock.toLocalTime(6000));
+	}
+
+	@Test
+	public void testShortestRoundTripIsUsed() {
+		// The reply was queued for 190 ms, which skews the estimate
+		ClusterClock.addSample(100, 1110, 1112, 312);
+
+		assertEquals(905, ClusterClock.getOffsetMillis());
+
+		ClusterClock.addSample(2000, 3010, 3012, 2022);
+
+		assertEquals(1000, ClusterClock.getOffsetMillis());
+
+		// A later exchange with a longer round trip does not replace it
+		ClusterClock.addSample(4000, 5050, 5052, 4062);
+
+		assertEquals(1000, ClusterClock.getOffsetMillis());
+		assertEquals(20, ClusterClock.getRoundTripMillis());
+	}
+
+	@Test
+	public void testImpossibleExchangeIsIgnored() {
+		// The reference took longer to answer than the whole round trip
+		ClusterClock.addSample(0, 1000, 1100, 50);
+
+		assertEquals(0, ClusterClock.getOffsetMillis());
+		assertEquals(-1, ClusterClock.getRoundTripMillis());
+	}
+}
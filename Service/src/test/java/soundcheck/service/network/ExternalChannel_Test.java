@@ -0,0 +1,25 @@
+package soundcheck.service.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+public class ExternalChannel_Test {
+
+	@Test
+	public void testCommandIgnoresCase() {
+		ByteBuffer datagram = ByteBuffer.allocateDirect(64);
+		datagram.put("pLaYkitchen".getBytes());
+		datagram.flip();
+
+		assertTrue(ExternalChannel.isCommand(datagram, "PLAY".getBytes()));
+		assertFalse(ExternalChannel.isCommand(datagram, "STOP".getBytes()));
+
+		// The header is read in place
+		assertEquals(0, datagram.position());
+	}
+}
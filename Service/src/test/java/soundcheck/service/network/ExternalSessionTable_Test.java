@@ -0,0 +1,47 @@
+package soundcheck.service.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetAddress;
+import java.util.List;
+
+import org.junit.Test;
+
+public class ExternalSessionTable_Test {
+
+	@Test
+	public void testRepeatedAcknKeepsOneSession() throws Exception {
+		InetAddress address = InetAddress.getByAddress(new byte[] {10, 0, 0, 7});
+
+		int before = ExternalSessionTable.size();
+
+		ExternalSessionTable.Session first = ExternalSessionTable.register("remote", address, 0);
+		ExternalSessionTable.Session second = ExternalSessionTable.register("remote", address, 10);
+
+		assertSame(first, second);
+		assertEquals(before + 1, ExternalSessionTable.size());
+
+		ExternalSessionTable.expire(Long.MAX_VALUE);
+	}
+
+	@Test
+	public void testIdleSessionExpires() throws Exception {
+		InetAddress address = InetAddress.getByAddress(new byte[] {10, 0, 0, 8});
+
+		ExternalSessionTable.register("phone", address, 0);
+
+		// Seen again by a command
+		ExternalSessionTable.touch("phone", address, ExternalSessionTable.IDLE_TIMEOUT_MS);
+
+		assertTrue(ExternalSessionTable.expire(ExternalSessionTable.IDLE_TIMEOUT_MS + 1).isEmpty());
+
+		List<ExternalSessionTable.Session> expired = ExternalSessionTable.expire(2 * ExternalSessionTable.IDLE_TIMEOUT_MS + 1);
+
+		assertEquals(1, expired.size());
+		assertEquals(ExternalSessionTable.getUid("phone", address), expired.get(0).getUid());
+		assertNull(ExternalSessionTable.touch("phone", address, 0));
+	}
+}
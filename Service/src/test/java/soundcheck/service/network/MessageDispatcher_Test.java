@@ -0,0 +1,119 @@
+package soundcheck.service.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class MessageDispatcher_Test {
+
+	@Test
+	public void testSameKeyRunsInOrder() throws InterruptedException {
+		final List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+		final CountDownLatch done = new CountDownLatch(50);
+
+		for(int i = 0; i < 50; i++){
+			final int index = i;
+
+			MessageDispatcher.submit("Zone", new Runnable() {
+				@Override
+				public void run() {
+					order.add(index);
+					done.countDown();
+				}
+			}, false);
+		}
+
+		assertTrue("Tasks did not run", done.await(5, TimeUnit.SECONDS));
+
+		for(int i = 0; i < 50; i++){
+			assertEquals("Tasks ran out of order", Integer.valueOf(i), order.get(i));
+		}
+	}
+
+	@Test
+	public void testLowPriorityDroppedWhenLaneFull() throws InterruptedException {
+		final CountDownLatch release = new CountDownLatch(1);
+		final CountDownLatch started = new CountDownLatch(1);
+
+		Runnable blocker = new Runnable() {
+			@Override
+			public void run() {
+				started.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		};
+
+		Runnable nothing = new Runnable() {
+			@Override
+			public void run() {
+			}
+		};
+
+		MessageDispatcher.submit("Busy", blocker, false);
+		assertTrue("Lane did not start", started.await(5, TimeUnit.SECONDS));
+
+		for(int i = 0; i < MessageDispatcher.LANE_CAPACITY; i++){
+			assertTrue("Task dropped before lane was full", MessageDispatcher.submit("Busy", nothing, true));
+		}
+
+		long dropped = MessageDispatcher.getDroppedCount();
+
+		assertFalse("Low priority task not dropped", MessageDispatcher.submit("Busy", nothing, true));
+		assertEquals("Drop not counted", dropped + 1, MessageDispatcher.getDroppedCount());
+
+		release.countDown();
+	}
+
+	@Test
+	public void testWorkerQueuesBehindItselfWhenLaneFull() throws InterruptedException {
+		final int total = MessageDispatcher.LANE_CAPACITY + 10;
+		final List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+		final CountDownLatch done = new CountDownLatch(total);
+
+		MessageDispatcher.submit("Reentrant", new Runnable() {
+			@Override
+			public void run() {
+				for(int i = 0; i < total; i++){
+					final int index = i;
+
+					MessageDispatcher.submit("Reentrant", new Runnable() {
+						@Override
+						public void run() {
+							order.add(index);
+							done.countDown();
+						}
+					}, false);
+				}
+
+				// Marks the end of the task that queued the others
+				order.add(-1);
+			}
+		}, false);
+
+		assertTrue("Tasks did not run", done.await(5, TimeUnit.SECONDS));
+
+		assertEquals("A task ran inside the one that queued it", Integer.valueOf(-1), order.get(0));
+
+		for(int i = 0; i < total; i++){
+			assertEquals("Tasks ran out of order", Integer.valueOf(i), order.get(i + 1));
+		}
+	}
+
+	@Test
+	public void testLaneForIsStable() {
+		assertEquals(MessageDispatcher.laneFor("Zone"), MessageDispatcher.laneFor(new String("Zone")));
+		assertTrue(MessageDispatcher.laneFor(null) >= 0 && MessageDispatcher.laneFor(null) < MessageDispatcher.LANE_COUNT);
+	}
+}
@@ -0,0 +1,50 @@
+package soundcheck.service.network;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.jgroups.Address;
+import org.jgroups.util.UUID;
+import org.junit.Test;
+
+public class MobileRegistry_Test {
+
+	@Test
+	public void testViewConfirmsAndDropsDevices() {
+		Address phone = UUID.randomUUID();
+		Address tablet = UUID.randomUUID();
+
+		MobileRegistry.register(phone, false);
+		MobileRegistry.register(tablet, true);
+
+		MobileRegistry.viewChanged(Arrays.asList(phone));
+
+		assertFalse("Device left the view but was kept", MobileRegistry.isMobile(tablet));
+
+		// Confirmed by the view, so it does not expire
+		MobileRegistry.expire(System.currentTimeMillis() + 2 * MobileRegistry.UNCONFIRMED_TTL_MS);
+
+		assertTrue(MobileRegistry.isMobile(phone));
+
+		MobileRegistry.viewChanged(Collections.<Address>emptyList());
+	}
+
+	@Test
+	public void testUnconfirmedDeviceExpires() {
+		Address late = UUID.randomUUID();
+
+		// DISCOVERY handled after the view that removed the device
+		MobileRegistry.register(late, false);
+
+		MobileRegistry.expire(System.currentTimeMillis());
+
+		assertTrue(MobileRegistry.isMobile(late));
+
+		MobileRegistry.expire(System.currentTimeMillis() + MobileRegistry.UNCONFIRMED_TTL_MS + 1);
+
+		assertFalse(MobileRegistry.isMobile(late));
+	}
+}
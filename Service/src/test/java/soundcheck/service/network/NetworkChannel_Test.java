@@ -0,0 +1,60 @@
+package soundcheck.service.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.jgroups.Address;
+import org.jgroups.Message;
+import org.jgroups.util.UUID;
+import org.junit.Test;
+
+import soundcheck.service.interprocess.MusicPlayerConnection;
+import soundcheck.shared.Const.Command;
+import soundcheck.shared.Const.StreamType;
+import soundcheck.shared.PacketCreator;
+import soundcheck.shared.StreamInfo;
+import soundcheck.shared.WireCodec;
+import soundcheck.shared.Zone;
+
+public class NetworkChannel_Test {
+
+	@Test
+	public void testEncodedStreamCommandReachesMusicPlayer() throws Exception {
+		Address publisher = UUID.randomUUID();
+
+		StreamInfo info = new StreamInfo("239.1.2.3", 42, "publisher-uid", 215000, StreamType.RECEIVE);
+
+		// Sent between desktop peers as WireCodec bytes, not a serialized object
+		byte[] bytes = WireCodec.encode(PacketCreator.createStreamCommandPacket(Command.PAUSE, info, new Zone()));
+
+		int before = MusicPlayerConnection.getQueuedCount();
+
+		new NetworkChannel().receive(new Message(null, publisher, bytes));
+
+		// Handled on a dispatcher lane
+		long deadline = System.currentTimeMillis() + 5000;
+
+		while(MusicPlayerConnection.getQueuedCount() == before && System.currentTimeMillis() < deadline){
+			Thread.sleep(10);
+		}
+
+		assertTrue("PAUSE was not passed to the music player", MusicPlayerConnection.getQueuedCount() > before);
+	}
+
+	@Test
+	public void testPacketsForAllPeersSkipMobileDevices() {
+		Address desktop = UUID.randomUUID();
+		Address phone = UUID.randomUUID();
+		Address self = UUID.randomUUID();
+
+		MobileRegistry.register(phone, true);
+
+		// Mobile devices can not read WireCodec packets, they are sent their own copy
+		assertEquals(Arrays.asList(desktop, self), NetworkChannel.getDesktopMembers(Arrays.asList(desktop, phone, self)));
+
+		MobileRegistry.viewChanged(Collections.<Address>emptyList());
+	}
+}
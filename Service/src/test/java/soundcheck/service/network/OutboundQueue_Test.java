@@ -0,0 +1,133 @@
+package soundcheck.service.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.jgroups.Address;
+import org.junit.Test;
+
+import soundcheck.shared.Const.Command;
+import soundcheck.shared.Const.Service;
+import soundcheck.shared.DataPacket;
+import soundcheck.shared.PacketCreator;
+import soundcheck.shared.Peer;
+import soundcheck.shared.Zone;
+
+public class OutboundQueue_Test {
+
+	/**
+	 * Records what is written, and is disconnected until told otherwise.
+	 */
+	private static class FakeTransport implements OutboundQueue.Transport {
+
+		final List<DataPacket> written = Collections.synchronizedList(new ArrayList<DataPacket>());
+
+		volatile boolean connected = false;
+
+		CountDownLatch writes;
+
+		FakeTransport(int expectedWrites) {
+			writes = new CountDownLatch(expectedWrites);
+		}
+
+		@Override
+		public boolean isConnected() {
+			return connected;
+		}
+
+		@Override
+		public void write(Address dst, DataPacket packet) {
+			written.add(packet);
+			writes.countDown();
+		}
+
+		@Override
+		public void write(Address dst, byte[] bytes) {
+			written.add(null);
+			writes.countDown();
+		}
+	}
+
+	@Test
+	public void testControlGoesAheadOfBulk() throws InterruptedException {
+		FakeTransport transport = new FakeTransport(3);
+		OutboundQueue queue = new OutboundQueue(transport, "OutboundQueue_Test");
+
+		queue.offer(null, new DataPacket(Service.SONGLIST, null, new Peer("a", "A")));
+		queue.offer(null, new DataPacket(Service.PEER_ZONE, null, new ArrayList<Peer>()));
+		queue.offer(null, new DataPacket(Service.STREAMING_ACK, Command.STREAM_ACK, null));
+
+		assertEquals(3, queue.getQueuedCount());
+		assertEquals(1, queue.getQueuedCount(OutboundQueue.Priority.BULK));
+
+		transport.connected = true;
+
+		assertTrue("Packets were not sent after reconnecting", transport.writes.await(5, TimeUnit.SECONDS));
+
+		assertEquals(Service.STREAMING_ACK, transport.written.get(0).getService());
+		assertEquals(Service.PEER_ZONE, transport.written.get(1).getService());
+		assertEquals(Service.SONGLIST, transport.written.get(2).getService());
+	}
+
+	@Test
+	public void testLatestStateReplacesWaitingPacket() throws InterruptedException {
+		FakeTransport transport = new FakeTransport(2);
+		OutboundQueue queue = new OutboundQueue(transport, "OutboundQueue_Test");
+
+		Zone zone = new Zone();
+
+		queue.offer(null, PacketCreator.createNewQueuePacket(Command.NEW_QUEUE, "first", zone));
+		queue.offer(null, PacketCreator.createNewQueuePacket(Command.QUEUE_BACK, "song", zone));
+		queue.offer(null, PacketCreator.createNewQueuePacket(Command.NEW_QUEUE, "second", zone));
+
+		assertEquals("Whole queue was not replaced", 2, queue.getQueuedCount());
+		assertEquals(1, queue.getCoalescedCount());
+
+		transport.connected = true;
+
+		assertTrue("Packets were not sent after reconnecting", transport.writes.await(5, TimeUnit.SECONDS));
+
+		assertEquals("Replacement did not keep the order of changes", "song", transport.written.get(0).getData());
+		assertEquals("second", transport.written.get(1).getData());
+	}
+
+	@Test
+	public void testControlPassesPacedBulkChunks() throws InterruptedException {
+		FakeTransport transport = new FakeTransport(21);
+		OutboundQueue queue = new OutboundQueue(transport, "OutboundQueue_Test");
+
+		List<byte[]> chunks = ChunkAssembler.split(new byte[20 * ChunkAssembler.CHUNK_SIZE], 1);
+
+		assertEquals(20, chunks.size());
+
+		transport.connected = true;
+
+		queue.offer(null, new DataPacket(Service.GET_ZONE_MAP, null, null), chunks);
+
+		// The burst allowance is spent after a few chunks, then the rest are paced
+		Thread.sleep(50);
+
+		queue.offer(null, new DataPacket(Service.STREAMING, Command.PAUSE, null));
+
+		assertTrue("Packets were not all sent", transport.writes.await(5, TimeUnit.SECONDS));
+
+		int pauseIndex = indexOfPacket(transport.written);
+
+		assertTrue("Stream control waited for the whole transfer", pauseIndex >= 0 && pauseIndex < 20);
+	}
+
+	private int indexOfPacket(List<DataPacket> written) {
+		for(int i = 0; i < written.size(); i++){
+			if(written.get(i) != null){
+				return i;
+			}
+		}
+		return -1;
+	}
+}
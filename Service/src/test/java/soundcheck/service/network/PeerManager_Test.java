@@ -0,0 +1,76 @@
+package soundcheck.service.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jgroups.Address;
+import org.jgroups.util.UUID;
+import org.junit.Test;
+
+import soundcheck.shared.Peer;
+
+public class PeerManager_Test {
+
+	private Peer peer(String uid, Address addr) {
+		Peer peer = new Peer(uid, uid);
+		peer.setAddress(addr);
+		return peer;
+	}
+
+	@Test
+	public void testViewDiff() {
+		Address stays = UUID.randomUUID();
+		Address leaves = UUID.randomUUID();
+		Address joins = UUID.randomUUID();
+
+		Map<Address, List<Peer>> peers = new LinkedHashMap<Address, List<Peer>>();
+		peers.put(stays, Arrays.asList(peer("stays", stays)));
+		peers.put(leaves, Arrays.asList(peer("leaves", leaves)));
+
+		List<Address> view = Arrays.asList(stays, joins);
+
+		List<Peer> deletions = PeerManager.getDeletions(peers, new HashSet<Address>(view));
+
+		assertEquals(1, deletions.size());
+		assertEquals("leaves", deletions.get(0).getUid());
+
+		assertEquals(Arrays.asList(joins), PeerManager.getAdditions(peers, view));
+	}
+
+	@Test
+	public void testPeersSharingAnAddressLeaveTogether() {
+		Address stays = UUID.randomUUID();
+		Address relay = UUID.randomUUID();
+
+		Map<Address, List<Peer>> peers = new LinkedHashMap<Address, List<Peer>>();
+		peers.put(stays, Arrays.asList(peer("stays", stays)));
+		// A desktop and the external device it relays for
+		peers.put(relay, Arrays.asList(peer("desktop", relay), peer("external", relay)));
+
+		List<Peer> deletions = PeerManager.getDeletions(peers, new HashSet<Address>(Arrays.asList(stays)));
+
+		assertEquals(2, deletions.size());
+		assertEquals("desktop", deletions.get(0).getUid());
+		assertEquals("external", deletions.get(1).getUid());
+	}
+
+	@Test
+	public void testDiscoveryIsNotResentWhilePending() {
+		Address slow = UUID.randomUUID();
+		Address next = UUID.randomUUID();
+
+		assertEquals(Arrays.asList(slow), PeerManager.getUndiscovered(Arrays.asList(slow), 0));
+
+		// Another view arrives before the member answers
+		assertEquals(Arrays.asList(next), PeerManager.getUndiscovered(Arrays.asList(slow, next), 100));
+
+		// Still no answer after the retry interval
+		assertTrue(PeerManager.getUndiscovered(Arrays.asList(slow), PeerManager.DISCOVERY_RETRY_MS).contains(slow));
+	}
+}
@@ -0,0 +1,137 @@
+package soundcheck.service.streaming;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Test;
+
+import soundcheck.shared.Const.Command;
+import soundcheck.shared.PacketCreator;
+import soundcheck.shared.Zone;
+
+public class MulticastLeaseRegistry_Test {
+
+	private final Zone zone = new Zone();
+
+	@After
+	public void tearDown() throws Exception {
+		MulticastLeaseRegistry.releaseOwner("Local");
+		MulticastLeaseRegistry.releaseOwner("Remote");
+		MulticastLeaseRegistry.releaseOwner("A-Remote");
+	}
+
+	@Test
+	public void testAcquireDistinctAddresses() {
+		String first = MulticastLeaseRegistry.acquire("Local", zone);
+		String second = MulticastLeaseRegistry.acquire("Local", zone);
+
+		assertEquals("First address not used", "226.0.0.0", first);
+		assertEquals("Second address not used", "226.0.0.1", second);
+
+		MulticastLeaseRegistry.release(first);
+
+		assertEquals("Released address not reused", first, MulticastLeaseRegistry.acquire("Local", zone));
+	}
+
+	@Test
+	public void testAddressRollsPastLastOctet() {
+		assertEquals("226.0.1.0", MulticastLeaseRegistry.fromInt(MulticastLeaseRegistry.toInt("226.0.0.255") + 1));
+
+		for(int i = 0; i < 256; i++){
+			MulticastLeaseRegistry.acquire("Local", zone);
+		}
+
+		assertEquals("Address did not roll over", "226.0.1.0", MulticastLeaseRegistry.acquire("Local", zone));
+	}
+
+	@Test
+	public void testRemoteLeaseIsSkippedAndReclaimed() {
+		MulticastLease remote = new MulticastLease("226.0.0.0", "Remote", zone, MulticastLeaseRegistry.LEASE_TTL_MS);
+		MulticastLeaseRegistry.receive(PacketCreator.createMulticastLeasePacket(Command.LEASE_ACQUIRE, remote));
+
+		assertNotNull("Remote lease not recorded", MulticastLeaseRegistry.getLease("226.0.0.0"));
+		assertEquals("Remote address was reused", "226.0.0.1", MulticastLeaseRegistry.acquire("Local", zone));
+
+		MulticastLeaseRegistry.releaseOwner("Remote");
+
+		assertNull("Departed peer's lease not reclaimed", MulticastLeaseRegistry.getLease("226.0.0.0"));
+	}
+
+	@Test
+	public void testExpiredLeaseIsReused() throws InterruptedException {
+		MulticastLease remote = new MulticastLease("226.0.0.0", "Remote", zone, 10);
+		MulticastLeaseRegistry.receive(PacketCreator.createMulticastLeasePacket(Command.LEASE_ACQUIRE, remote));
+
+		Thread.sleep(50);
+
+		assertNull("Lease did not expire", MulticastLeaseRegistry.getLease("226.0.0.0"));
+		assertEquals("Expired address not reused", "226.0.0.0", MulticastLeaseRegistry.acquire("Local", zone));
+	}
+
+	@Test
+	public void testConflictKeepsLowerUid() {
+		String address = MulticastLeaseRegistry.acquire("Local", zone);
+
+		MulticastLease higher = new MulticastLease(address, "Remote", zone, MulticastLeaseRegistry.LEASE_TTL_MS);
+		MulticastLeaseRegistry.receive(PacketCreator.createMulticastLeasePacket(Command.LEASE_ACQUIRE, higher));
+
+		assertEquals("Higher UID took the address", "Local", MulticastLeaseRegistry.getLease(address).getOwnerUID());
+
+		MulticastLease lower = new MulticastLease(address, "A-Remote", zone, MulticastLeaseRegistry.LEASE_TTL_MS);
+		MulticastLeaseRegistry.receive(PacketCreator.createMulticastLeasePacket(Command.LEASE_ACQUIRE, lower));
+
+		assertEquals("Lower UID did not take the address", "A-Remote", MulticastLeaseRegistry.getLease(address).getOwnerUID());
+
+		// Releasing a lease that was lost must not free the winner's address
+		MulticastLeaseRegistry.release(address);
+
+		assertFalse("Winner's lease was released", MulticastLeaseRegistry.getLease(address) == null);
+	}
+
+	@Test
+	public void testLosingHolderIsToldAndMoves() {
+		final List<String> lost = new ArrayList<String>();
+		final List<String> moved = new ArrayList<String>();
+
+		MulticastLeaseRegistry.Holder holder = new MulticastLeaseRegistry.Holder() {
+			@Override
+			public void leaseLost(String address) {
+				lost.add(address);
+				moved.add(MulticastLeaseRegistry.acquire("Local", zone, this));
+			}
+		};
+
+		String address = MulticastLeaseRegistry.acquire("Local", zone, holder);
+
+		MulticastLease higher = new MulticastLease(address, "Remote", zone, MulticastLeaseRegistry.LEASE_TTL_MS);
+		MulticastLeaseRegistry.receive(PacketCreator.createMulticastLeasePacket(Command.LEASE_ACQUIRE, higher));
+
+		assertEquals("Winning holder was told it lost", 0, lost.size());
+
+		MulticastLease lower = new MulticastLease(address, "A-Remote", zone, MulticastLeaseRegistry.LEASE_TTL_MS);
+		MulticastLeaseRegistry.receive(PacketCreator.createMulticastLeasePacket(Command.LEASE_ACQUIRE, lower));
+
+		assertEquals("Losing holder was not told", 1, lost.size());
+		assertEquals(address, lost.get(0));
+
+		String newAddress = moved.get(0);
+
+		assertNotNull("Losing holder could not take another address", newAddress);
+		assertFalse("Losing holder took the lost address again", address.equals(newAddress));
+		assertEquals("New address not leased to the holder", "Local", MulticastLeaseRegistry.getLease(newAddress).getOwnerUID());
+
+		// An address the holder has released is not reported as lost
+		MulticastLeaseRegistry.release(newAddress);
+
+		MulticastLease after = new MulticastLease(newAddress, "A-Remote", zone, MulticastLeaseRegistry.LEASE_TTL_MS);
+		MulticastLeaseRegistry.receive(PacketCreator.createMulticastLeasePacket(Command.LEASE_ACQUIRE, after));
+
+		assertEquals("Released address was reported as lost", 1, lost.size());
+	}
+}
@@ -0,0 +1,81 @@
+package soundcheck.service.streaming;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class PacketPacer_Test {
+
+	private final static long PACKET_NANOS = 20000000L;  //20ms packets
+
+	@Test
+	public void testPacketsReleasedOnSchedule() throws InterruptedException {
+		PacketPacer pacer = new PacketPacer();
+
+		long start = System.nanoTime();
+
+		for(int i = 0; i < 5; i++){
+			pacer.awaitPresentationTime(i * PACKET_NANOS);
+		}
+
+		long elapsed = System.nanoTime() - start;
+
+		assertTrue("Packets were released early", elapsed >= 4 * PACKET_NANOS);
+		assertEquals("Wrong number of packets paced", 5, pacer.getPacketsPaced());
+	}
+
+	@Test
+	public void testCatchUpAfterStall() throws InterruptedException {
+		PacketPacer pacer = new PacketPacer();
+
+		pacer.awaitPresentationTime(0);
+
+		Thread.sleep(100);  //Simulate a stall writing to the sinks
+
+		long start = System.nanoTime();
+
+		// The first three packets are overdue and should be released without sleeping
+		for(int i = 1; i <= 3; i++){
+			long lag = pacer.awaitPresentationTime(i * PACKET_NANOS);
+			assertTrue("Pacer should report being behind", lag > 0);
+		}
+
+		assertTrue("Overdue packets were delayed", System.nanoTime() - start < 3 * PACKET_NANOS);
+		assertTrue("Max lag not recorded", pacer.getMaxLagMillis() >= 40);
+		assertEquals("Pacer should not have re-anchored", 0, pacer.getReanchorCount());
+	}
+
+	@Test
+	public void testReanchorWhenTooFarBehind() throws InterruptedException {
+		PacketPacer pacer = new PacketPacer(50000000L);  //Allow 50ms of lag
+
+		pacer.awaitPresentationTime(0);
+
+		Thread.sleep(120);
+
+		pacer.awaitPresentationTime(PACKET_NANOS);
+
+		assertEquals("Pacer should have re-anchored", 1, pacer.getReanchorCount());
+
+		// The schedule now starts from the late packet, so the next one is ahead of schedule
+		long lag = pacer.awaitPresentationTime(2 * PACKET_NANOS);
+
+		assertTrue("Pacer should be back on schedule", lag <= 0);
+	}
+
+	@Test
+	public void testPauseDoesNotCauseBurst() throws InterruptedException {
+		PacketPacer pacer = new PacketPacer();
+
+		pacer.awaitPresentationTime(0);
+
+		pacer.pause();
+		Thread.sleep(100);
+		pacer.resume();
+
+		long lag = pacer.awaitPresentationTime(PACKET_NANOS);
+
+		assertTrue("Time spent paused was counted as lag", lag <= 0);
+	}
+}
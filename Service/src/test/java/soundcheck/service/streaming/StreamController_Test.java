@@ -0,0 +1,52 @@
+package soundcheck.service.streaming;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Test;
+
+import soundcheck.service.data.PeerCollection;
+import soundcheck.shared.Const.StreamType;
+import soundcheck.shared.Peer;
+import soundcheck.shared.StreamInfo;
+import soundcheck.shared.Zone;
+
+public class StreamController_Test {
+
+	@After
+	public void tearDown() throws Exception {
+		StreamController.setStreamPoolSize(StreamController.DEFAULT_NUMBER_OF_ALLOWED_STREAMS);
+		PeerCollection.clearPeers();
+	}
+
+	@Test
+	public void testSetStreamPoolSizeBounds() {
+		assertFalse("Pool size of 0 accepted", StreamController.setStreamPoolSize(0));
+		assertFalse("Pool size above maximum accepted", StreamController.setStreamPoolSize(StreamController.MAX_NUMBER_OF_STREAMS + 1));
+
+		assertTrue("Maximum pool size rejected", StreamController.setStreamPoolSize(StreamController.MAX_NUMBER_OF_STREAMS));
+		assertTrue("Pool could not shrink", StreamController.setStreamPoolSize(1));
+		assertTrue("Pool could not grow", StreamController.setStreamPoolSize(4));
+	}
+
+	@Test
+	public void testIdlePoolCounts() {
+		assertEquals("Streams active with none started", 0, StreamController.getActiveStreamCount());
+		assertEquals("Streams queued with none started", 0, StreamController.getQueuedStreamCount());
+	}
+
+	@Test
+	public void testFailedSetupLeavesPool() {
+		PeerCollection.addPeer(new Peer("Publisher", "Publisher"));
+
+		// The publisher has no such song, so there is no file to open
+		StreamInfo strInfo = new StreamInfo(null, 42, "Publisher", 0, StreamType.PUBLISH);
+		strInfo.setZone(new Zone());
+
+		assertFalse("Stream that failed setup reported as added", StreamController.addStream(strInfo));
+		assertNull("Stream that failed setup left in the pool", StreamController.getStream(strInfo));
+	}
+}
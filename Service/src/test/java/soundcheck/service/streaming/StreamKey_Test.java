@@ -0,0 +1,37 @@
+package soundcheck.service.streaming;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import org.junit.Test;
+
+import soundcheck.shared.Const.StreamType;
+import soundcheck.shared.StreamInfo;
+import soundcheck.shared.Zone;
+
+public class StreamKey_Test {
+
+	private final Zone zone = new Zone();
+
+	private StreamInfo createInfo(Zone zone, String peerUID, int songID) {
+		StreamInfo info = new StreamInfo(null, songID, peerUID, 0, StreamType.PUBLISH);
+		info.setZone(zone);
+		return info;
+	}
+
+	@Test
+	public void testSameStreamMatches() {
+		StreamKey key = StreamKey.forInfo(createInfo(zone, "PeerA", 5));
+
+		assertEquals("Equal keys did not match", key, StreamKey.forInfo(createInfo(zone, "PeerA", 5)));
+		assertEquals("Equal keys hashed differently", key.hashCode(), StreamKey.forInfo(createInfo(zone, "PeerA", 5)).hashCode());
+	}
+
+	@Test
+	public void testSameSongIDFromDifferentPeersDiffers() {
+		StreamKey key = StreamKey.forInfo(createInfo(zone, "PeerA", 5));
+
+		assertFalse("Song IDs from different peers collided", key.equals(StreamKey.forInfo(createInfo(zone, "PeerB", 5))));
+		assertFalse("Song IDs in different zones collided", key.equals(StreamKey.forInfo(createInfo(new Zone(), "PeerA", 5))));
+	}
+}
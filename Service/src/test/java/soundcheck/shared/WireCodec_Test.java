@@ -0,0 +1,164 @@
+package soundcheck.shared;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.Test;
+
+import soundcheck.shared.Const.Command;
+import soundcheck.shared.Const.Service;
+import soundcheck.shared.Const.StreamType;
+
+public class WireCodec_Test {
+
+	private Song createSong(int id) {
+		Song song = new Song("Title " + id, "/music/" + id + ".mp3", "Artist", "Genre", 180000 + id, id);
+		song.setAlbum("Album");
+		song.setTrack(Integer.toString(id));
+		return song;
+	}
+
+	private Peer createPeer(int songs) {
+		Peer peer = new Peer("peer-uid", "Living Room");
+		peer.setIp("192.168.1.20");
+		peer.setStatus(false);
+
+		List<Song> songList = new ArrayList<Song>();
+		for(int i = 0; i < songs; i++){
+			songList.add(createSong(i));
+		}
+		peer.setSongList(songList);
+
+		return peer;
+	}
+
+	private DataPacket roundTrip(DataPacket packet) throws Exception {
+		byte[] bytes = WireCodec.encode(packet);
+
+		assertTrue("Encoded packet not recognised", WireCodec.isEncoded(bytes, 0, bytes.length));
+
+		return WireCodec.decode(bytes, 0, bytes.length);
+	}
+
+	private int serializedSize(Object object) throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+		out.writeObject(object);
+		out.close();
+		return bytes.size();
+	}
+
+	@Test
+	public void testPeerRoundTrip() throws Exception {
+		Peer peer = createPeer(3);
+		Zone zone = new Zone();
+
+		DataPacket copy = roundTrip(new DataPacket(Service.SONGLIST, Command.SYNC, peer, zone));
+
+		assertEquals(Service.SONGLIST, copy.getService());
+		assertEquals(Command.SYNC, copy.getCommand());
+		assertEquals(zone, copy.getZone());
+		assertEquals(Const.PROJECT_NAME, copy.getProject());
+
+		Peer peerCopy = (Peer) copy.getData();
+
+		assertEquals(peer.getUid(), peerCopy.getUid());
+		assertEquals(peer.getName(), peerCopy.getName());
+		assertEquals(peer.getIp(), peerCopy.getIp());
+		assertEquals(peer.getZone(), peerCopy.getZone());
+		assertFalse("Status was not kept", peerCopy.getStatus());
+		assertEquals(peer.getSongList(), peerCopy.getSongList());
+		assertEquals("Album", peerCopy.getSongList().get(2).getAlbum());
+		assertEquals(180002, peerCopy.getSongList().get(2).getDuration());
+	}
+
+	@Test
+	public void testStreamInfoRoundTrip() throws Exception {
+		StreamInfo info = new StreamInfo("239.1.2.3", 42, "peer-uid", 215000, StreamType.RECEIVE);
+		info.setZone(new Zone());
+		info.setSeekPosition(-1);
+		info.setPlayoutTime(1350000000000L);
+		info.setCodecParameters("CODEC_ID_MP3", 44100, 2, 320000);
+
+		StreamInfo copy = (StreamInfo) roundTrip(new DataPacket(Service.STREAMING, Command.PLAY, info)).getData();
+
+		assertEquals(info.getIpAddress(), copy.getIpAddress());
+		assertEquals(42, copy.getSongID());
+		assertEquals(StreamType.RECEIVE, copy.getStreamType());
+		assertEquals(215000, copy.getSongDuration());
+		assertEquals(info.getZone(), copy.getZone());
+		assertEquals(-1, copy.getSeekPosition());
+		assertEquals(1350000000000L, copy.getPlayoutTime());
+		assertEquals("CODEC_ID_MP3", copy.getCodecName());
+		assertEquals(44100, copy.getSampleRate());
+		assertEquals(2, copy.getChannels());
+	}
+
+	@Test
+	public void testZoneMapKeepsClassAndPlayListOrder() throws Exception {
+		Zone zone = new Zone();
+		zone.setPassword("secret");
+
+		ZoneProperties prop = new ZoneProperties("Kitchen");
+		prop.addLast(createSong(1));
+		prop.addLast(createSong(2));
+
+		Map<Zone, ZoneProperties> zoneMap = new ConcurrentHashMap<Zone, ZoneProperties>();
+		zoneMap.put(zone, prop);
+
+		Object data = roundTrip(new DataPacket(Service.INTERPROCESS, null, zoneMap)).getData();
+
+		assertTrue("Zone map class was not kept", data instanceof ConcurrentHashMap);
+
+		Map<?, ?> copy = (Map<?, ?>) data;
+		ZoneProperties propCopy = (ZoneProperties) copy.get(zone);
+
+		assertEquals("Kitchen", propCopy.getZoneName());
+		assertEquals(prop.getPlayList(), propCopy.getPlayList());
+		assertEquals("secret", ((Zone) copy.keySet().iterator().next()).getPassword());
+	}
+
+	@Test
+	public void testOtherPayloadsRoundTrip() throws Exception {
+		long[] timeStamps = new long[]{1350000000000L, -5, 0};
+
+		assertTrue("Time stamps changed", Arrays.equals(timeStamps, (long[]) roundTrip(new DataPacket(Service.CLOCK_SYNC, Command.CLOCK_REPLY, timeStamps)).getData()));
+		assertEquals(Integer.valueOf(-7), roundTrip(new DataPacket(Service.STREAMING, Command.SEEK, Integer.valueOf(-7))).getData());
+		assertEquals("été", roundTrip(new DataPacket(Service.INTERPROCESS, null, "été")).getData());
+		assertEquals(null, roundTrip(new DataPacket(Service.REQUEST_ZONE_MAP)).getData());
+
+		// Classes without a layout of their own are serialized
+		File file = new File("/music/song.mp3");
+		assertEquals(file, roundTrip(new DataPacket(Service.INTERPROCESS, null, file)).getData());
+	}
+
+	@Test
+	public void testSmallerThanSerialization() throws Exception {
+		DataPacket packet = new DataPacket(Service.SONGLIST, null, createPeer(100));
+
+		int encoded = WireCodec.encode(packet).length;
+		int serialized = serializedSize(packet);
+
+		assertTrue("Encoded " + encoded + " bytes, serialized " + serialized, encoded < serialized);
+	}
+
+	@Test
+	public void testSerializedPacketIsNotMistakenForEncoded() throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+		out.writeObject(new DataPacket(Service.UPDATE));
+		out.close();
+
+		assertFalse(WireCodec.isEncoded(bytes.toByteArray(), 0, bytes.size()));
+	}
+}